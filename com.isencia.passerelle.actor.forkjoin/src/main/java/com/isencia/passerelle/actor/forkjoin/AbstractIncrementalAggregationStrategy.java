@@ -0,0 +1,37 @@
+/* Copyright 2013 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.passerelle.actor.forkjoin;
+
+import com.isencia.passerelle.message.ManagedMessage;
+import com.isencia.passerelle.message.MessageException;
+
+/**
+ * Base class for <code>IncrementalAggregationStrategy</code> implementations,
+ * that implements the aggregation of a complete message set by folding the messages one by one.
+ * 
+ * @author erwin
+ */
+public abstract class AbstractIncrementalAggregationStrategy implements IncrementalAggregationStrategy {
+
+  public ManagedMessage aggregateMessages(ManagedMessage initialMsg, ManagedMessage... otherMessages) throws MessageException {
+    Object accumulator = startAggregation(initialMsg);
+    if (otherMessages != null) {
+      for (ManagedMessage processedMsg : otherMessages) {
+        accumulator = accumulate(accumulator, processedMsg);
+      }
+    }
+    return finishAggregation(initialMsg, accumulator);
+  }
+}
@@ -14,9 +14,11 @@
  */
 package com.isencia.passerelle.actor.forkjoin;
 
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -29,25 +31,48 @@ import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
 import com.isencia.passerelle.actor.InitializationException;
 import com.isencia.passerelle.actor.ProcessingException;
+import com.isencia.passerelle.actor.TerminationException;
 import com.isencia.passerelle.actor.v5.Actor;
 import com.isencia.passerelle.core.ErrorCode;
 import com.isencia.passerelle.core.PasserelleException;
+import com.isencia.passerelle.ext.TimerService.Timeout;
 import com.isencia.passerelle.message.ManagedMessage;
+import com.isencia.passerelle.message.MessageException;
 import com.isencia.passerelle.message.internal.MessageContainer;
 import com.isencia.passerelle.message.internal.sequence.SequenceTrace;
+import com.isencia.passerelle.statistics.StatisticsServiceFactory;
 
 /**
+ * Base class for stateful and stateless <code>MessageSequenceGenerator</code>s.
+ * <p>
+ * Stateful instances retain the scope message and the processed messages of each generated sequence, in the order in which the sequences were generated.
+ * So when the max retention count is reached, the oldest sequence can be evicted without searching for it. When a max retention time is set, the oldest
+ * sequence is evicted by a task on the flow's timer service once it expires, and the task is rescheduled for the next oldest one.
+ * Evicted sequences are passed to the <code>EvictedMessagesHandler</code>.
+ * </p>
+ * <p>
+ * With an <code>IncrementalAggregationStrategy</code>, processed messages are folded into the sequence's accumulator as they arrive and are not retained.
+ * With other strategies, all processed messages are retained until the sequence is complete.
+ * </p>
+ * 
  * @author erwin
  */
 public abstract class AbstractMessageSequenceGenerator extends Actor implements MessageSequenceGenerator {
   private static final long serialVersionUID = 1L;
   private static final Logger LOGGER = LoggerFactory.getLogger(AbstractMessageSequenceGenerator.class);
 
-  private Map<Long, SequenceTrace> msgSequences = new HashMap<Long, SequenceTrace>();
-  private Map<Long, MsgTimeEntry> sequenceScopeMessages = new HashMap<Long, MsgTimeEntry>();
-  private LinkedList<MsgTimeEntry> sequenceTimeEntries = new LinkedList<MsgTimeEntry>();
+  // rough estimate of the memory used by a message apart from its body content, in bytes
+  private static final long MESSAGE_OVERHEAD = 512;
+
+  // the retained sequences by their scope ID, in the order in which they were registered, i.e. the oldest first
+  private LinkedHashMap<Long, MsgTimeEntry> sequenceScopeMessages = new LinkedHashMap<Long, MsgTimeEntry>();
+  // the pending task to evict the oldest sequence when it expires, if any
+  private Timeout expiryTimeout;
+  // set in doWrapUp(), so an expiry task that was already running when it was cancelled does not reschedule itself; guarded by the lock
+  private boolean wrappedUp;
 
   private Lock seqTELock;
+  private SequenceRetentionStatistics statistics;
 
   private AggregationStrategy aggregationStrategy;
   private EvictedMessagesHandler evictedMessagesHandler;
@@ -89,17 +114,20 @@ public abstract class AbstractMessageSequenceGenerator extends Actor implements
       seqTELock = new ReentrantLock();
       if (seqTELock.tryLock()) {
         try {
-          msgSequences = new HashMap<Long, SequenceTrace>();
-          sequenceScopeMessages = new HashMap<Long, MsgTimeEntry>();
-          sequenceTimeEntries = new LinkedList<MsgTimeEntry>();
+          cancelExpiry();
+          wrappedUp = false;
+          sequenceScopeMessages = new LinkedHashMap<Long, MsgTimeEntry>();
           if(evictedMessagesHandler==null) {
             // has not been explicitly set, so take the default one
             evictedMessagesHandler = new ErrorThrowingEvictedMessageHandler(this);
           }
           
           maxRetentionCount = ((IntToken)maxRetentionCountParameter.getToken()).longValue();
-          maxRetentionTime = ((IntToken)maxRetentionTimeParameter.getToken()).longValue();
-          // TODO activate eviction-by-time mechanism(s)
+          long maxRetentionTimeInSeconds = ((IntToken)maxRetentionTimeParameter.getToken()).longValue();
+          maxRetentionTime = (maxRetentionTimeInSeconds > 0) ? TimeUnit.SECONDS.toMillis(maxRetentionTimeInSeconds) : -1;
+
+          statistics = new SequenceRetentionStatistics(this);
+          StatisticsServiceFactory.getService().registerStatistics(statistics);
         } catch (IllegalActionException e) {
           throw new InitializationException(ErrorCode.ACTOR_INITIALISATION_ERROR, "Error reading retention parameters", this, e);
         } finally {
@@ -111,10 +139,42 @@ public abstract class AbstractMessageSequenceGenerator extends Actor implements
     }
   }
 
+  @Override
+  protected void doWrapUp() throws TerminationException {
+    if (isStateful() && seqTELock != null) {
+      seqTELock.lock();
+      try {
+        wrappedUp = true;
+        cancelExpiry();
+      } finally {
+        seqTELock.unlock();
+      }
+    }
+    super.doWrapUp();
+  }
+
   public boolean isStateful() {
     return stateful;
   }
 
+  /**
+   * @return the statistics on the retained sequences, or null for a stateless instance or before initialization
+   */
+  public SequenceRetentionStatistics getRetentionStatistics() {
+    return statistics;
+  }
+
+  public long getMaxRetentionCount() {
+    return maxRetentionCount;
+  }
+
+  /**
+   * @return the max retention time in ms, or < 1 for unlimited
+   */
+  public long getMaxRetentionTime() {
+    return maxRetentionTime;
+  }
+
   public boolean wasGeneratedHere(ManagedMessage seqMsg) {
     if (isStateful()) {
       try {
@@ -136,24 +196,32 @@ public abstract class AbstractMessageSequenceGenerator extends Actor implements
 
   protected void registerSequenceScopeMessage(Long seqID, ManagedMessage message) throws ProcessingException {
     if (isStateful()) {
+      List<MsgTimeEntry> evictedEntries = new ArrayList<MsgTimeEntry>();
       try {
         if (!seqTELock.tryLock(10, TimeUnit.SECONDS)) {
           // if we did not get the lock, bad luck
           // we'll try to do our thing without it then
           getLogger().warn("{} - registerSequenceScopeMessage() - Unable to acquire lock, trying without it", getFullName());
         }
-        if ((maxRetentionCount > 0) && (sequenceTimeEntries.size() >= maxRetentionCount)) {
-          // evict the oldest entry
-          MsgTimeEntry msgTimeEntry = sequenceTimeEntries.removeLast();
-          evict(msgTimeEntry.seqID);
+        if (maxRetentionCount > 0) {
+          // evict the oldest entries
+          Iterator<MsgTimeEntry> entryItr = sequenceScopeMessages.values().iterator();
+          while (sequenceScopeMessages.size() >= maxRetentionCount && entryItr.hasNext()) {
+            evictedEntries.add(entryItr.next());
+            entryItr.remove();
+          }
         }
-        MsgTimeEntry entry = new MsgTimeEntry(seqID, message);
+        MsgTimeEntry entry = new MsgTimeEntry(seqID, message, estimateRetainedSize(message));
         sequenceScopeMessages.put(seqID, entry);
-        sequenceTimeEntries.add(entry);
+        statistics.acceptAdded(entry.retainedSize);
+        scheduleExpiry();
       } catch (Exception e) {
         throw new ProcessingException(ErrorCode.ACTOR_EXECUTION_ERROR, "Error registering sequence scope message", this, message, e);
       } finally {
         try {seqTELock.unlock();} catch (Exception e) {/* ignore */}
+        for (MsgTimeEntry evictedEntry : evictedEntries) {
+          handleEvicted(evictedEntry);
+        }
       }
     }
   }
@@ -168,26 +236,56 @@ public abstract class AbstractMessageSequenceGenerator extends Actor implements
         }
         Long scopeId = seqMsg.getSequenceID();
         ManagedMessage mergedMsg = null;
-        if (sequenceScopeMessages.get(scopeId) != null) {
-          SequenceTrace seqTrace = msgSequences.get(scopeId);
-          if (seqTrace == null) {
-            seqTrace = new SequenceTrace(scopeId);
-            msgSequences.put(scopeId, seqTrace);
+        MsgTimeEntry scopeEntry = sequenceScopeMessages.get(scopeId);
+        if (scopeEntry != null) {
+          if (!scopeEntry.acceptPosition(seqMsg)) {
+            getLogger().warn("{} - ignoring duplicate message {} for position {} of sequence {}", new Object[] { getFullName(), seqMsg.getID(),
+                seqMsg.getSequencePosition(), scopeId });
+            return null;
           }
-          seqTrace.addMessage(seqMsg);
-          if (seqTrace.isComplete()) {
+          IncrementalAggregationStrategy incrementalStrategy = (aggregationStrategy instanceof IncrementalAggregationStrategy) ? (IncrementalAggregationStrategy) aggregationStrategy
+              : null;
+          try {
+            if (incrementalStrategy != null) {
+              // fold the message in right away, so it does not need to be retained
+              if (!scopeEntry.aggregationStarted) {
+                scopeEntry.accumulator = incrementalStrategy.startAggregation(scopeEntry.message);
+                scopeEntry.aggregationStarted = true;
+              }
+              scopeEntry.accumulator = incrementalStrategy.accumulate(scopeEntry.accumulator, seqMsg);
+              long accumulatorSize = estimateAccumulatorSize(scopeEntry.accumulator);
+              long sizeDelta = accumulatorSize - scopeEntry.accumulatorSize;
+              scopeEntry.accumulatorSize = accumulatorSize;
+              scopeEntry.retainedSize += sizeDelta;
+              statistics.acceptRetained(sizeDelta);
+            } else {
+              if (scopeEntry.seqTrace == null) {
+                scopeEntry.seqTrace = new SequenceTrace(scopeId);
+              }
+              scopeEntry.seqTrace.addMessage(seqMsg);
+              long msgSize = estimateRetainedSize(seqMsg);
+              scopeEntry.retainedSize += msgSize;
+              statistics.acceptRetained(msgSize);
+            }
+          } catch (Exception e) {
+            // the sequence can not be completed anymore
+            removeEntry(scopeEntry);
+            throw new ProcessingException(ErrorCode.ACTOR_EXECUTION_ERROR, "Error aggregating message for scope " + scopeId, this, seqMsg, e);
+          }
+          if (scopeEntry.isComplete()) {
             try {
               getAuditLogger().debug("{} All sequence messages received for scope {}", getFullName(), scopeId);
-              ManagedMessage[] messages = seqTrace.getMessagesInSequence();
-              MessageContainer scopeMsg = (MessageContainer) sequenceScopeMessages.get(seqTrace.getSequenceID()).message;
-              mergedMsg = aggregationStrategy != null ? aggregationStrategy.aggregateMessages(scopeMsg, messages) : scopeMsg;
+              if (incrementalStrategy != null) {
+                mergedMsg = incrementalStrategy.finishAggregation(scopeEntry.message, scopeEntry.accumulator);
+              } else {
+                ManagedMessage[] messages = scopeEntry.seqTrace.getMessagesInSequence();
+                MessageContainer scopeMsg = (MessageContainer) scopeEntry.message;
+                mergedMsg = aggregationStrategy != null ? aggregationStrategy.aggregateMessages(scopeMsg, messages) : scopeMsg;
+              }
             } catch (Exception e) {
               throw new ProcessingException(ErrorCode.ACTOR_EXECUTION_ERROR, "Error aggregating messages for scope " + scopeId, this, e);
             } finally {
-              msgSequences.remove(seqTrace);
-              seqTrace.clear();
-              MsgTimeEntry removedEntry = sequenceScopeMessages.remove(scopeId);
-              sequenceTimeEntries.remove(removedEntry);
+              removeEntry(scopeEntry);
             }
           }
         }
@@ -204,30 +302,160 @@ public abstract class AbstractMessageSequenceGenerator extends Actor implements
     }
   }
 
+  /**
+   * Removes a sequence that is done. Must be called while holding the lock.
+   */
+  private void removeEntry(MsgTimeEntry scopeEntry) {
+    if (scopeEntry.seqTrace != null) {
+      scopeEntry.seqTrace.clear();
+    }
+    scopeEntry.accumulator = null;
+    if (sequenceScopeMessages.remove(scopeEntry.seqID) != null) {
+      statistics.acceptRemoved(scopeEntry.retainedSize, false);
+    }
+  }
+
   public void evict(Long seqID) {
-    MsgTimeEntry evictedScopeEntry = sequenceScopeMessages.remove(seqID);
+    MsgTimeEntry evictedScopeEntry = null;
+    seqTELock.lock();
+    try {
+      evictedScopeEntry = sequenceScopeMessages.remove(seqID);
+    } finally {
+      seqTELock.unlock();
+    }
     if (evictedScopeEntry != null) {
-      getLogger().warn("{} - evicting sequence {}", getFullName(), seqID);
-      SequenceTrace evictedSeqTrace = msgSequences.remove(seqID);
-      ManagedMessage evictedScopeMsg = evictedScopeEntry.message;
-      if (getEvictedMessagesHandler() != null) {
+      handleEvicted(evictedScopeEntry);
+    } else {
+      getLogger().warn("{} - failed eviction request for unknown sequence {}", getFullName(), seqID);
+    }
+  }
+
+  /**
+   * Passes the messages of an evicted sequence to the <code>EvictedMessagesHandler</code>.
+   * Should be called without holding the lock, as the handler may take some time.
+   */
+  private void handleEvicted(MsgTimeEntry evictedScopeEntry) {
+    getLogger().warn("{} - evicting sequence {}", getFullName(), evictedScopeEntry.seqID);
+    if (statistics != null) {
+      statistics.acceptRemoved(evictedScopeEntry.retainedSize, true);
+    }
+    SequenceTrace evictedSeqTrace = evictedScopeEntry.seqTrace;
+    ManagedMessage evictedScopeMsg = evictedScopeEntry.message;
+    if (getEvictedMessagesHandler() != null) {
+      try {
+        if (evictedSeqTrace != null) {
+          getEvictedMessagesHandler().handleEvictedMessages(evictedScopeMsg, evictedSeqTrace.getMessagesInSequence());
+        } else {
+          getEvictedMessagesHandler().handleEvictedMessages(evictedScopeMsg);
+        }
+      } catch (PasserelleException e) {
         try {
-          if (evictedSeqTrace != null) {
-            getEvictedMessagesHandler().handleEvictedMessages(evictedScopeMsg, evictedSeqTrace.getMessagesInSequence());
-          } else {
-            getEvictedMessagesHandler().handleEvictedMessages(evictedScopeMsg);
-          }
-        } catch (PasserelleException e) {
-          try {
-            sendErrorMessage(e);
-          } catch (IllegalActionException e1) {
-            getLogger().error("Error sending error msg", e1);
-            getLogger().error("Message eviction error", e);
-          }
+          sendErrorMessage(e);
+        } catch (IllegalActionException e1) {
+          getLogger().error("Error sending error msg", e1);
+          getLogger().error("Message eviction error", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Schedules the eviction of the oldest sequence on the flow's timer service, if a max retention time is set and no eviction is pending yet.
+   * Must be called while holding the lock.
+   */
+  private void scheduleExpiry() {
+    if (maxRetentionTime > 0 && expiryTimeout == null && !sequenceScopeMessages.isEmpty()) {
+      MsgTimeEntry oldestEntry = sequenceScopeMessages.values().iterator().next();
+      long delay = Math.max(0, oldestEntry.creationTime + maxRetentionTime - System.currentTimeMillis());
+      expiryTimeout = getDirectorAdapter().getTimerService().schedule(new Runnable() {
+        public void run() {
+          evictExpired();
+        }
+      }, delay, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Must be called while holding the lock.
+   */
+  private void cancelExpiry() {
+    if (expiryTimeout != null) {
+      expiryTimeout.cancel();
+      expiryTimeout = null;
+    }
+  }
+
+  /**
+   * Evicts all sequences that are older than the max retention time, and schedules the next eviction.
+   */
+  private void evictExpired() {
+    List<MsgTimeEntry> evictedEntries = new ArrayList<MsgTimeEntry>();
+    seqTELock.lock();
+    try {
+      expiryTimeout = null;
+      if (wrappedUp) {
+        // the task was already running when doWrapUp() cancelled it
+        return;
+      }
+      long limit = System.currentTimeMillis() - maxRetentionTime;
+      Iterator<MsgTimeEntry> entryItr = sequenceScopeMessages.values().iterator();
+      while (entryItr.hasNext()) {
+        MsgTimeEntry entry = entryItr.next();
+        if (entry.creationTime > limit) {
+          break;
         }
+        evictedEntries.add(entry);
+        entryItr.remove();
       }
+      scheduleExpiry();
+    } finally {
+      seqTELock.unlock();
+    }
+    for (MsgTimeEntry evictedEntry : evictedEntries) {
+      handleEvicted(evictedEntry);
+    }
+  }
+
+  /**
+   * Overridable method to estimate the memory used by a retained message, as reported in the retention statistics.
+   * The default implementation only takes String and byte[] body contents into account.
+   * 
+   * @param message
+   * @return the estimated size in bytes
+   */
+  protected long estimateRetainedSize(ManagedMessage message) {
+    long size = MESSAGE_OVERHEAD;
+    try {
+      Object content = message.getBodyContent();
+      if (content instanceof String) {
+        size += 2L * ((String) content).length();
+      } else if (content instanceof byte[]) {
+        size += ((byte[]) content).length;
+      }
+    } catch (MessageException e) {
+      // just use the overhead estimate then
+    }
+    return size;
+  }
+
+  /**
+   * Overridable method to estimate the memory used by the accumulator of an <code>IncrementalAggregationStrategy</code>, 
+   * as reported in the retention statistics. It is called after each processed message has been folded in.
+   * The default implementation only takes String, byte[] and <code>ManagedMessage</code> accumulators into account, 
+   * so strategies with other accumulator types should be combined with an override of this method.
+   * 
+   * @param accumulator
+   * @return the estimated size in bytes
+   */
+  protected long estimateAccumulatorSize(Object accumulator) {
+    if (accumulator instanceof String) {
+      return 2L * ((String) accumulator).length();
+    } else if (accumulator instanceof byte[]) {
+      return ((byte[]) accumulator).length;
+    } else if (accumulator instanceof ManagedMessage) {
+      return estimateRetainedSize((ManagedMessage) accumulator);
     } else {
-      getLogger().warn("{} - failed eviction request for unknown sequence {}", getFullName(), seqID);
+      return 0;
     }
   }
 
@@ -256,11 +484,55 @@ public abstract class AbstractMessageSequenceGenerator extends Actor implements
     Long seqID;
     long creationTime;
     ManagedMessage message;
+    // the processed messages of the sequence received so far, if any
+    SequenceTrace seqTrace;
+    // estimated size in bytes of the scope message and the retained processed messages or the accumulator
+    long retainedSize;
+    // for an IncrementalAggregationStrategy
+    Object accumulator;
+    // the estimated size in bytes of the accumulator, as included in the retainedSize
+    long accumulatorSize;
+    boolean aggregationStarted;
+    // the sequence positions of the processed messages received so far
+    BitSet receivedPositions = new BitSet();
+    int receivedCount;
+    // the position of the sequence end message, or -1 if it has not been received yet
+    long endPosition = -1;
 
-    public MsgTimeEntry(Long seqID, ManagedMessage message) {
+    public MsgTimeEntry(Long seqID, ManagedMessage message, long retainedSize) {
       this.seqID = seqID;
       this.message = message;
+      this.retainedSize = retainedSize;
       this.creationTime = System.currentTimeMillis();
     }
+
+    /**
+     * @param seqMsg
+     * @return false if a message for the same position was already received
+     * @throws IllegalArgumentException if the message has no valid sequence position
+     */
+    boolean acceptPosition(ManagedMessage seqMsg) {
+      Long seqPos = seqMsg.getSequencePosition();
+      if (seqPos == null || seqPos.longValue() < 0 || seqPos.longValue() > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Message " + seqMsg.getID() + " has invalid sequence position " + seqPos);
+      }
+      int position = seqPos.intValue();
+      if (receivedPositions.get(position)) {
+        return false;
+      }
+      receivedPositions.set(position);
+      receivedCount++;
+      if (seqMsg.isSequenceEnd()) {
+        endPosition = position;
+      }
+      return true;
+    }
+
+    /**
+     * @return true if the sequence end and all messages before it have been received
+     */
+    boolean isComplete() {
+      return endPosition >= 0 && receivedCount == endPosition + 1;
+    }
   }
 }
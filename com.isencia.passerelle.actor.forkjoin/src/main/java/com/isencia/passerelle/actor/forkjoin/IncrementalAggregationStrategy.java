@@ -0,0 +1,61 @@
+/* Copyright 2013 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.passerelle.actor.forkjoin;
+
+import com.isencia.passerelle.message.ManagedMessage;
+import com.isencia.passerelle.message.MessageException;
+
+/**
+ * An <code>AggregationStrategy</code> that folds each processed message of a sequence into an accumulator as soon as it arrives,
+ * instead of aggregating the complete set of messages at once.
+ * <p>
+ * When a <code>MessageSequenceGenerator</code> is configured with such a strategy, it does not retain the processed messages,
+ * so the memory needed for a sequence is determined by the accumulator, not by the nr of messages in the sequence.
+ * As a consequence, only the initial message is passed to the <code>EvictedMessagesHandler</code> when such a sequence is evicted.
+ * </p>
+ * <p>
+ * The processed messages are offered in the order in which they arrive, which is not necessarily their sequence order.
+ * </p>
+ * 
+ * @author erwin
+ */
+public interface IncrementalAggregationStrategy extends AggregationStrategy {
+
+  /**
+   * 
+   * @param initialMsg
+   * @return the accumulator for a new sequence, before any of its processed messages has arrived
+   * @throws MessageException
+   */
+  Object startAggregation(ManagedMessage initialMsg) throws MessageException;
+
+  /**
+   * 
+   * @param accumulator
+   * @param processedMsg
+   * @return the accumulator with the processed message folded in; can be the same instance as the given one
+   * @throws MessageException
+   */
+  Object accumulate(Object accumulator, ManagedMessage processedMsg) throws MessageException;
+
+  /**
+   * 
+   * @param initialMsg
+   * @param accumulator
+   * @return the result of aggregating initialMsg with all processed messages of its sequence
+   * @throws MessageException
+   */
+  ManagedMessage finishAggregation(ManagedMessage initialMsg, Object accumulator) throws MessageException;
+}
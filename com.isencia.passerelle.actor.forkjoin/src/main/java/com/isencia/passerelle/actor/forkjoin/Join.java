@@ -14,13 +14,16 @@
 */
 package com.isencia.passerelle.actor.forkjoin;
 
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.Entity;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
+import com.isencia.passerelle.actor.InitializationException;
 import com.isencia.passerelle.actor.ProcessingException;
 import com.isencia.passerelle.actor.v5.Actor;
 import com.isencia.passerelle.actor.v5.ActorContext;
@@ -57,6 +60,9 @@ public class Join extends Actor {
   public Port mergeInput; // NOSONAR
   public Port output; // NOSONAR
 
+  // the sequence generators found so far, by name
+  private Map<String, MessageSequenceGenerator> seqGenerators = new HashMap<String, MessageSequenceGenerator>();
+
   /**
    * @param container
    * @param name
@@ -74,6 +80,13 @@ public class Join extends Actor {
     return LOGGER;
   }
   
+  @Override
+  protected void doInitialize() throws InitializationException {
+    super.doInitialize();
+    // the model may have changed since a previous run
+    seqGenerators.clear();
+  }
+
   @Override
   public void process(ActorContext actorcontext, ProcessRequest procRequest, ProcessResponse procResponse) throws ProcessingException {
     Iterator<MessageInputContext> msgInputCtxtItr = procRequest.getAllInputContexts();
@@ -98,11 +111,23 @@ public class Join extends Actor {
     String[] seqGeneratorNames = ((MessageContainer) branchedMsg).getHeader(MessageSequenceGenerator.HEADER_SEQ_SRC);
     // should be length 1
     if (seqGeneratorNames.length == 1) {
-      Entity seqGenerator = ((CompositeEntity) getContainer()).getEntity(seqGeneratorNames[0]);
+      MessageSequenceGenerator seqGenerator = getSequenceGenerator(seqGeneratorNames[0]);
       if (seqGenerator != null) {
-        return ((MessageSequenceGenerator) seqGenerator).aggregateProcessedMessage(branchedMsg);
+        return seqGenerator.aggregateProcessedMessage(branchedMsg);
       }
     }
     return null;
   }
+
+  private MessageSequenceGenerator getSequenceGenerator(String name) {
+    MessageSequenceGenerator seqGenerator = seqGenerators.get(name);
+    if (seqGenerator == null) {
+      Entity entity = ((CompositeEntity) getContainer()).getEntity(name);
+      if (entity instanceof MessageSequenceGenerator) {
+        seqGenerator = (MessageSequenceGenerator) entity;
+        seqGenerators.put(name, seqGenerator);
+      }
+    }
+    return seqGenerator;
+  }
 }
@@ -0,0 +1,102 @@
+/* Copyright 2013 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.isencia.passerelle.actor.forkjoin;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import com.isencia.passerelle.statistics.NamedStatistics;
+
+/**
+ * Gauges on the sequence state retained by a stateful <code>AbstractMessageSequenceGenerator</code>.
+ * 
+ * @author erwin
+ */
+public class SequenceRetentionStatistics implements SequenceRetentionStatisticsMBean, NamedStatistics {
+
+  private AbstractMessageSequenceGenerator generator;
+
+  private AtomicInteger liveSequenceCount = new AtomicInteger();
+  private AtomicLong retainedBytes = new AtomicLong();
+  private AtomicLong nrRegisteredSequences = new AtomicLong();
+  private AtomicLong nrEvictedSequences = new AtomicLong();
+
+  public SequenceRetentionStatistics(AbstractMessageSequenceGenerator generator) {
+    this.generator = generator;
+  }
+
+  public String getName() {
+    return generator.getFullName() + "-retention";
+  }
+
+  /**
+   * @param size the estimated size of the new sequence's scope message
+   */
+  public void acceptAdded(long size) {
+    nrRegisteredSequences.incrementAndGet();
+    liveSequenceCount.incrementAndGet();
+    retainedBytes.addAndGet(size);
+  }
+
+  /**
+   * @param size the estimated size of an extra message retained for a sequence
+   */
+  public void acceptRetained(long size) {
+    retainedBytes.addAndGet(size);
+  }
+
+  /**
+   * @param size the estimated size of all messages that were retained for the removed sequence
+   * @param evicted true if the sequence was evicted, false if it was completely processed
+   */
+  public void acceptRemoved(long size, boolean evicted) {
+    liveSequenceCount.decrementAndGet();
+    retainedBytes.addAndGet(-size);
+    if (evicted) {
+      nrEvictedSequences.incrementAndGet();
+    }
+  }
+
+  public int getLiveSequenceCount() {
+    return liveSequenceCount.get();
+  }
+
+  public long getRetainedBytes() {
+    return retainedBytes.get();
+  }
+
+  public long getNrRegisteredSequences() {
+    return nrRegisteredSequences.get();
+  }
+
+  public long getNrEvictedSequences() {
+    return nrEvictedSequences.get();
+  }
+
+  public long getMaxRetentionCount() {
+    return generator.getMaxRetentionCount();
+  }
+
+  public long getMaxRetentionTime() {
+    return generator.getMaxRetentionTime();
+  }
+
+  /**
+   * Only resets the counters; the gauges on the retained sequences remain.
+   */
+  public void reset() {
+    nrRegisteredSequences.set(0);
+    nrEvictedSequences.set(0);
+  }
+}
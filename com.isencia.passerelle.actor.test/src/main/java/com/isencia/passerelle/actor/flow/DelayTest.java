@@ -0,0 +1,145 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.passerelle.actor.flow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.NameDuplicationException;
+import com.isencia.passerelle.actor.ProcessingException;
+import com.isencia.passerelle.actor.v5.Actor;
+import com.isencia.passerelle.actor.v5.ActorContext;
+import com.isencia.passerelle.actor.v5.ProcessRequest;
+import com.isencia.passerelle.actor.v5.ProcessResponse;
+import com.isencia.passerelle.core.ErrorCode;
+import com.isencia.passerelle.core.Port;
+import com.isencia.passerelle.core.PortFactory;
+import com.isencia.passerelle.domain.cap.Director;
+import com.isencia.passerelle.model.Flow;
+import com.isencia.passerelle.model.FlowManager;
+import com.isencia.passerelle.testsupport.actor.TextSource;
+
+/**
+ * Runs a flow with a <code>Delay</code> actor, that receives a burst of messages.
+ * The messages must be sent in FIFO order, with the delay accumulating for each message,
+ * and the flow must only finish once all delayed messages have been sent.
+ *
+ * @author erwin
+ */
+public class DelayTest extends TestCase {
+
+  // margin for the timer precision and the message passing
+  private final static long TOLERANCE_MS = 100;
+
+  private Flow flow;
+  private TextSource source;
+  private Delay delay;
+  private ArrivalRecorder recorder;
+
+  protected void setUp() throws Exception {
+    flow = new Flow(getName(), null);
+    new Director(flow, "director");
+    source = new TextSource(flow, "source");
+    source.textParameter.setExpression("first,second,third");
+    delay = new Delay(flow, "delay");
+    recorder = new ArrivalRecorder(flow, "recorder");
+    flow.connect(source.output, delay.input);
+    flow.connect(delay.output, recorder.input);
+  }
+
+  public void testFifoWithAccumulatedDelay() throws Exception {
+    delay.timeParameter.setExpression("1");
+    long start = System.nanoTime();
+    FlowManager.getDefault().executeBlockingLocally(flow, null);
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    assertEquals(Arrays.asList("first", "second", "third"), recorder.getContents());
+    List<Long> arrivals = recorder.getArrivalTimes();
+    for (int i = 0; i < arrivals.size(); ++i) {
+      long arrivalMillis = TimeUnit.NANOSECONDS.toMillis(arrivals.get(i) - start);
+      assertTrue("Message " + i + " sent too early, after " + arrivalMillis + " ms", arrivalMillis >= (i + 1) * 1000);
+      if (i > 0) {
+        long intervalMillis = TimeUnit.NANOSECONDS.toMillis(arrivals.get(i) - arrivals.get(i - 1));
+        assertTrue("Delay not accumulated, interval " + intervalMillis + " ms", intervalMillis >= 1000 - TOLERANCE_MS);
+      }
+    }
+    long spreadMillis = TimeUnit.NANOSECONDS.toMillis(arrivals.get(2) - arrivals.get(0));
+    assertTrue("Messages sent with intervals longer than the delay, spread " + spreadMillis + " ms", spreadMillis <= 2000 + TOLERANCE_MS);
+    assertTrue("Flow finished before all messages were sent", elapsedMillis >= 3000);
+  }
+
+  public void testNoDelay() throws Exception {
+    delay.timeParameter.setExpression("0");
+    long start = System.nanoTime();
+    FlowManager.getDefault().executeBlockingLocally(flow, null);
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    assertEquals(Arrays.asList("first", "second", "third"), recorder.getContents());
+    assertTrue("Flow took " + elapsedMillis + " ms", elapsedMillis < 1000);
+  }
+
+  /**
+   * Records the body of each received message, and the time at which it was received.
+   */
+  @SuppressWarnings("serial")
+  public static class ArrivalRecorder extends Actor {
+    private final static Logger LOGGER = LoggerFactory.getLogger(ArrivalRecorder.class);
+
+    public Port input;
+    private List<String> contents = new ArrayList<String>();
+    private List<Long> arrivalTimes = new ArrayList<Long>();
+
+    public ArrivalRecorder(CompositeEntity container, String name) throws IllegalActionException, NameDuplicationException {
+      super(container, name);
+      input = PortFactory.getInstance().createInputPort(this, null);
+    }
+
+    @Override
+    protected void process(ActorContext ctxt, ProcessRequest request, ProcessResponse response) throws ProcessingException {
+      long now = System.nanoTime();
+      try {
+        synchronized (contents) {
+          contents.add(request.getMessage(input).getBodyContentAsString());
+          arrivalTimes.add(now);
+        }
+      } catch (Exception e) {
+        throw new ProcessingException(ErrorCode.MSG_CONTENT_TYPE_ERROR, "Error reading message body", this, e);
+      }
+    }
+
+    List<String> getContents() {
+      synchronized (contents) {
+        return new ArrayList<String>(contents);
+      }
+    }
+
+    List<Long> getArrivalTimes() {
+      synchronized (contents) {
+        return new ArrayList<Long>(arrivalTimes);
+      }
+    }
+
+    @Override
+    public Logger getLogger() {
+      return LOGGER;
+    }
+  }
+}
@@ -1,7 +1,10 @@
 package com.isencia.passerelle.actor.advanced;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import ptolemy.data.IntToken;
 import ptolemy.data.expr.Parameter;
@@ -11,27 +14,32 @@ import ptolemy.kernel.util.NameDuplicationException;
 
 import com.isencia.passerelle.actor.InitializationException;
 import com.isencia.passerelle.actor.ProcessingException;
+import com.isencia.passerelle.actor.TerminationException;
 import com.isencia.passerelle.actor.v5.Actor;
 import com.isencia.passerelle.actor.v5.ActorContext;
 import com.isencia.passerelle.actor.v5.ProcessRequest;
 import com.isencia.passerelle.actor.v5.ProcessResponse;
 import com.isencia.passerelle.core.Port;
 import com.isencia.passerelle.core.PortFactory;
+import com.isencia.passerelle.ext.TimerService.Timeout;
 import com.isencia.passerelle.message.ManagedMessage;
 
 /**
  * An actor that buffers incoming messages for a configurable delay time, and then lets them continue on their way.
+ * <p>
+ * The delayed messages are scheduled on the flow's shared timer service, so the actor does not block and does not need its own timer thread.
+ * </p>
  * 
  * @author erwin
  * 
  */
 public class DelayActor extends Actor {
   private static final long serialVersionUID = 1L;
-  private Timer delayTimer;
   public Port input;
   public Port output;
   public Parameter delayParameter;
-  private int pendingTasks = 0;
+  // the scheduled tasks that have not finished yet
+  private Set<DelayTask> pendingTasks = Collections.newSetFromMap(new ConcurrentHashMap<DelayTask, Boolean>());
 
   public DelayActor(CompositeEntity container, String name) throws IllegalActionException, NameDuplicationException {
     super(container, name);
@@ -39,7 +47,6 @@ public class DelayActor extends Actor {
     output = PortFactory.getInstance().createOutputPort(this);
 
     delayParameter = new Parameter(this, "Delay [s]", new IntToken(3));
-    delayTimer = new Timer("Timer for " + name);
   }
   
   @Override
@@ -50,7 +57,7 @@ public class DelayActor extends Actor {
   @Override
   protected void doInitialize() throws InitializationException {
     super.doInitialize();
-    pendingTasks = 0;
+    pendingTasks.clear();
   }
 
   @Override
@@ -58,7 +65,8 @@ public class DelayActor extends Actor {
     ManagedMessage msg = request.getMessage(input);
     int delay = getDelay(msg, Integer.parseInt(delayParameter.getExpression()));
     if (delay > 0) {
-      delayTimer.schedule(new DelayTask(response), delay * 1000);
+      DelayTask task = new DelayTask(response);
+      task.timeout = getDirectorAdapter().getTimerService().schedule(task, delay, TimeUnit.SECONDS);
     } else {
       response.addOutputMessage(output, msg);
     }
@@ -81,11 +89,13 @@ public class DelayActor extends Actor {
   protected boolean doPostFire() throws ProcessingException {
     boolean result = super.doPostFire();
     if (!result) {
-      while (pendingTasks > 0) {
-        try {
-          Thread.sleep(1000);
-        } catch (InterruptedException e) {
-          break;
+      synchronized (pendingTasks) {
+        while (!pendingTasks.isEmpty()) {
+          try {
+            pendingTasks.wait();
+          } catch (InterruptedException e) {
+            break;
+          }
         }
       }
       return false;
@@ -93,6 +103,19 @@ public class DelayActor extends Actor {
     return true;
   }
 
+  @Override
+  protected void doWrapUp() throws TerminationException {
+    // when the execution was stopped before all delays were done, the remaining tasks are dropped
+    for (Iterator<DelayTask> taskItr = pendingTasks.iterator(); taskItr.hasNext();) {
+      DelayTask task = taskItr.next();
+      if (task.timeout != null && task.timeout.cancel()) {
+        getDirectorAdapter().notifyActorFinishedTask(this, task.response.getRequest());
+        taskItr.remove();
+      }
+    }
+    super.doWrapUp();
+  }
+
   /**
    * Overridable method to be able to change the delay, according to specific needs, in subclasses.
    * 
@@ -104,15 +127,15 @@ public class DelayActor extends Actor {
     return defaultDelay;
   }
   
-  public class DelayTask extends TimerTask {
+  public class DelayTask implements Runnable {
     private ProcessResponse response;
+    private volatile Timeout timeout;
 
     public DelayTask(ProcessResponse response) {
       this.response = response;
-      DelayActor.this.pendingTasks++;
+      DelayActor.this.pendingTasks.add(this);
     }
 
-    @Override
     public void run() {
       try {
         DelayActor.this._process(response.getContext(), response.getRequest(), response);
@@ -120,7 +143,10 @@ public class DelayActor extends Actor {
         response.setException(e);
       } finally {
         DelayActor.this.processFinished(response.getContext(), response.getRequest(), response);
-        DelayActor.this.pendingTasks--;
+        synchronized (pendingTasks) {
+          pendingTasks.remove(this);
+          pendingTasks.notifyAll();
+        }
       }
     }
   }
@@ -7,6 +7,11 @@
  */
 package com.isencia.passerelle.actor.advanced;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
@@ -14,21 +19,27 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ptolemy.data.IntToken;
 import ptolemy.data.expr.Parameter;
+import ptolemy.data.expr.StringParameter;
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
 import com.isencia.passerelle.actor.InitializationException;
 import com.isencia.passerelle.actor.ProcessingException;
 import com.isencia.passerelle.actor.v3.ActorContext;
+import com.isencia.passerelle.actor.v3.MessageInputContext;
 import com.isencia.passerelle.actor.v3.ProcessRequest;
 import com.isencia.passerelle.actor.v3.ProcessResponse;
 import com.isencia.passerelle.core.ErrorCode;
+import com.isencia.passerelle.message.ManagedMessage;
+import com.isencia.passerelle.statistics.StatisticsServiceFactory;
 
 /**
  * <p>
@@ -43,6 +54,13 @@ import com.isencia.passerelle.core.ErrorCode;
  * A consequence of this multi-threading support is the split of the doFire() method in 3 parts, so these can be invoked from separate handling scopes (in
  * different runnables).
  * </p>
+ * <p>
+ * The nr of requests that are being processed or whose responses are waiting to be sent, is limited by the max in-flight window. When the window is full, the
+ * main actor thread blocks, so it stops reading its inputs until a response has been sent. <br>
+ * By default responses are sent in the order in which their processing finishes. The output ordering can be set to preserve the order in which the requests
+ * were received, either globally or per correlation/sequence ID of the received messages. Responses that are done early are then buffered until all
+ * preceding ones have been sent.
+ * </p>
  * REMARK : this is beta-level implementation. Exact consequences for actor lifecycle mgmt are not thoroughly understood yet!
  * 
  * @author erwin.de.ley@isencia.be
@@ -52,27 +70,49 @@ public abstract class MultiThreadedActor extends AdvancedActor {
   private final static Logger LOGGER = LoggerFactory.getLogger(MultiThreadedActor.class);
   private final static Logger PERFORMANCELOGGER = LoggerFactory.getLogger("performance.sequence");
 
+  public final static String ORDERING_NONE = "None";
+  public final static String ORDERING_GLOBAL = "Global";
+  public final static String ORDERING_PER_CORRELATION = "Per correlation/sequence ID";
+
+  // the ordering key for all requests in global ordering mode
+  private final static Object GLOBAL_ORDERING_KEY = new Object();
+
   protected class RequestProcessor implements Callable<ProcessResponse> {
     private ProcessRequest request;
+    private ResponseSlot slot;
+    // System.nanoTime() when the request was submitted
+    private long submitTime;
 
     public RequestProcessor(ProcessRequest req) {
+      this(req, null);
+    }
+
+    RequestProcessor(ProcessRequest req, ResponseSlot slot) {
       this.request = req;
+      this.slot = slot;
+      this.submitTime = System.nanoTime();
     }
 
     public ProcessResponse call() {
+      long startTime = System.nanoTime();
       ActorContext ctxt = new ActorContext();
       ProcessResponse response = null;
       try {
         doFire_ValidationPart(request, ctxt);
         response = doFire_ProcessingPart(request, ctxt);
-        responseQueue.put(response);
       } catch (ProcessingException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
-      } catch (InterruptedException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
+        handleProcessingException(e);
+      } catch (RuntimeException e) {
+        handleProcessingException(new ProcessingException(ErrorCode.ACTOR_EXECUTION_ERROR, "Error processing request " + request, MultiThreadedActor.this, e));
       } finally {
+        if (statistics != null) {
+          statistics.acceptProcessed(startTime - submitTime, System.nanoTime() - startTime);
+        }
+        if (response == null) {
+          // an empty response, so ordered responses after this one are not blocked
+          response = new ProcessResponse(request);
+        }
+        responseReady(slot, response);
         if (PERFORMANCELOGGER.isDebugEnabled()) {
           PERFORMANCELOGGER.debug("at the end: " + getStatus());
         }
@@ -81,6 +121,18 @@ public abstract class MultiThreadedActor extends AdvancedActor {
     }
   }
 
+  /**
+   * Placeholder for the response of a request in an ordered mode, in the order in which the requests were received.
+   */
+  private static class ResponseSlot {
+    private Object orderingKey;
+    private ProcessResponse response;
+
+    ResponseSlot(Object orderingKey) {
+      this.orderingKey = orderingKey;
+    }
+  }
+
   protected String getStatus() {
     int corePoolSize = processingExecutor.getCorePoolSize();
     int maxPoolSize = processingExecutor.getMaximumPoolSize();
@@ -95,63 +147,37 @@ public abstract class MultiThreadedActor extends AdvancedActor {
     StringBuilder strB = new StringBuilder("[Actor " + getName() + " -- Usage Status : ");
     strB.append(" Resource usage Current/MaxUsed/Core/Max : " + currentPoolSize + "/" + largestPoolSize + "/" + corePoolSize + "/" + maxPoolSize);
     strB.append(" Task usage Active/Completed/Scheduled : " + activeCount + "/" + completedTaskCount + "/" + scheduledCount);
+    strB.append(" In-flight/Window : " + getInFlightCount() + "/" + maxInFlight);
     strB.append("]");
     return strB.toString();
   }
 
-  protected class RequestQueueDepleter implements Runnable {
-    // flag to manage a nice shutdown
-    private boolean keepOnRunning = true;
-
+  /**
+   * Waits till all submitted requests have been processed, and then lets the response queue depleter finish.
+   */
+  protected class ProcessingShutdownHandler implements Runnable {
     public void run() {
       try {
-        while (keepOnRunning) {
-          ProcessRequest req = requestQueue.take();
-          if (!FinishRequest.FINISH_REQUEST_MARKER.equals(req)) {
-            // might we use this future for some usefull things later on??
-            // Future<ProcessResponse> futureResponse =
-            boolean accepted = false;
-            while (!accepted) {
-              try {
-                if (PERFORMANCELOGGER.isDebugEnabled()) {
-                  PERFORMANCELOGGER.debug(getStatus());
-                }
-
-                processingExecutor.submit(new RequestProcessor(req));
-                accepted = true;
-                if (LOGGER.isDebugEnabled()) {
-                  LOGGER.debug("request accepted :" + req);
-                }
-              } catch (RejectedExecutionException e) {
-                if (LOGGER.isDebugEnabled()) {
-                  LOGGER.debug("request rejected :" + req);
-                }
-                Thread.sleep(1000);
-              }
-            }
-          } else {
-            // need to wait till all previous requests have been processed
-            // TODO maybe implement as a parameter the option to allow abrupt termination
-            // or the need to always be sure that all requests finish their normal processing...
-            processingExecutor.shutdown();
-            boolean processingDone = false;
-            while (!processingDone) {
-              processingDone = processingExecutor.awaitTermination(10, TimeUnit.SECONDS);
-              if (!processingDone && LOGGER.isWarnEnabled()) {
-                LOGGER.warn("Trying to wrapup, but request processing still busy. Waiting a bit more...");
-              }
-            }
-            if (LOGGER.isInfoEnabled()) {
-              LOGGER.info("Shutting down request queue");
-            }
-            keepOnRunning = false;
-            responseQueue.offer(FinishResponse.FINISH_RESPONSE_MARKER);
+        // need to wait till all previous requests have been processed
+        // TODO maybe implement as a parameter the option to allow abrupt termination
+        // or the need to always be sure that all requests finish their normal processing...
+        processingExecutor.shutdown();
+        boolean processingDone = false;
+        while (!processingDone) {
+          processingDone = processingExecutor.awaitTermination(10, TimeUnit.SECONDS);
+          if (!processingDone && LOGGER.isWarnEnabled()) {
+            LOGGER.warn("Trying to wrapup, but request processing still busy. Waiting a bit more...");
           }
         }
+        if (LOGGER.isInfoEnabled()) {
+          LOGGER.info("Shutting down request processing");
+        }
       } catch (InterruptedException e) {
-        e.printStackTrace();
+        LOGGER.warn("Interrupted while waiting for request processing to finish", e);
       } finally {
-        requestQueueDepletionExecutor.shutdown();
+        // all responses are in the response queue by now, as all slots have been filled
+        responseQueue.offer(FinishResponse.FINISH_RESPONSE_MARKER);
+        shutdownHandlingExecutor.shutdown();
       }
     }
   }
@@ -165,7 +191,14 @@ public abstract class MultiThreadedActor extends AdvancedActor {
         while (keepOnRunning) {
           ProcessResponse response = responseQueue.take();
           if (!FinishResponse.FINISH_RESPONSE_MARKER.equals(response)) {
-            doFire_SendOutputPart(response);
+            try {
+              doFire_SendOutputPart(response);
+            } catch (ProcessingException e) {
+              handleProcessingException(e);
+            } finally {
+              // there's room in the window for a next request
+              inFlightPermits.release();
+            }
           } else {
             if (LOGGER.isInfoEnabled()) {
               LOGGER.info("Shutting down response queue");
@@ -174,11 +207,7 @@ public abstract class MultiThreadedActor extends AdvancedActor {
           }
         }
       } catch (InterruptedException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
-      } catch (ProcessingException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
+        LOGGER.warn("Interrupted while sending responses", e);
       } finally {
         responseQueueDepletionExecutor.shutdown();
         shutdownDone = true;
@@ -209,16 +238,24 @@ public abstract class MultiThreadedActor extends AdvancedActor {
   private int minNrThreads;
   private int keepAliveTime;
   private int threadPoolQueueSize;
+  private int maxInFlight;
+  private String ordering;
 
   private Parameter maxNrThreadsParameter;
   private Parameter minNrThreadsParameter;
   private Parameter keepAliveTimeParameter;
   private Parameter threadPoolQueueSizeParameter;
-  private BlockingQueue<ProcessRequest> requestQueue;
+  private Parameter maxInFlightParameter;
+  private StringParameter orderingParameter;
   private BlockingQueue<ProcessResponse> responseQueue;
-  private ExecutorService requestQueueDepletionExecutor;
+  private ExecutorService shutdownHandlingExecutor;
   private ExecutorService responseQueueDepletionExecutor;
   private ThreadPoolExecutor processingExecutor;
+  // one permit per request that may be in flight, i.e. being processed or waiting to be sent
+  private Semaphore inFlightPermits;
+  // per ordering key, the slots for the responses in the order in which their requests were received; guarded by itself
+  private Map<Object, Deque<ResponseSlot>> pendingSlots = new HashMap<Object, Deque<ResponseSlot>>();
+  private MultiThreadedActorStatistics statistics;
 
   private boolean shutdownDone = false;
 
@@ -234,6 +271,13 @@ public abstract class MultiThreadedActor extends AdvancedActor {
     minNrThreadsParameter = new Parameter(this, "Min threads", new IntToken(defaultMinNrThreads));
     keepAliveTimeParameter = new Parameter(this, "Keep Alive[ms]", new IntToken(defaultKeepAliveTime));
     threadPoolQueueSizeParameter = new Parameter(this, "Queue size", new IntToken(defaultThreadPoolQueueSize));
+    // <= 0 means max threads + queue size
+    maxInFlightParameter = new Parameter(this, "Max in-flight requests", new IntToken(0));
+    orderingParameter = new StringParameter(this, "Output ordering");
+    orderingParameter.setExpression(ORDERING_NONE);
+    orderingParameter.addChoice(ORDERING_NONE);
+    orderingParameter.addChoice(ORDERING_GLOBAL);
+    orderingParameter.addChoice(ORDERING_PER_CORRELATION);
   }
 
   @Override
@@ -251,6 +295,9 @@ public abstract class MultiThreadedActor extends AdvancedActor {
           : defaultKeepAliveTime;
       threadPoolQueueSize = ((IntToken) threadPoolQueueSizeParameter.getToken()).intValue() > 0 ? ((IntToken) threadPoolQueueSizeParameter.getToken())
           .intValue() : defaultThreadPoolQueueSize;
+      maxInFlight = ((IntToken) maxInFlightParameter.getToken()).intValue() > 0 ? ((IntToken) maxInFlightParameter.getToken()).intValue()
+          : maxNrThreads + threadPoolQueueSize;
+      ordering = orderingParameter.stringValue();
     } catch (IllegalActionException e) {
       throw new InitializationException(ErrorCode.ACTOR_INITIALISATION_ERROR, "Error reading thread params", null, e);
     }
@@ -263,15 +310,13 @@ public abstract class MultiThreadedActor extends AdvancedActor {
     shutdownDone = false;
 
     if (maxNrThreads > 1) {
-      requestQueue = new LinkedBlockingQueue<ProcessRequest>();
       responseQueue = new LinkedBlockingQueue<ProcessResponse>();
-
-      requestQueueDepletionExecutor = Executors.newSingleThreadExecutor();
-      try {
-        requestQueueDepletionExecutor.execute(new RequestQueueDepleter());
-      } catch (RejectedExecutionException e) {
-        throw new InitializationException(ErrorCode.ACTOR_INITIALISATION_ERROR, "Failed to start request Q management for a multithreaded actor", this, e);
+      inFlightPermits = new Semaphore(maxInFlight);
+      synchronized (pendingSlots) {
+        pendingSlots.clear();
       }
+
+      shutdownHandlingExecutor = Executors.newSingleThreadExecutor();
       responseQueueDepletionExecutor = Executors.newSingleThreadExecutor();
       try {
         responseQueueDepletionExecutor.execute(new ResponseQueueDepleter());
@@ -279,8 +324,23 @@ public abstract class MultiThreadedActor extends AdvancedActor {
         throw new InitializationException(ErrorCode.ACTOR_INITIALISATION_ERROR, "Failed to start response Q management for a multithreaded actor", this, e);
       }
       processingExecutor = new ThreadPoolExecutor(minNrThreads, maxNrThreads, keepAliveTime, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
-          threadPoolQueueSize));
+          threadPoolQueueSize), new RejectedExecutionHandler() {
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+          // the in-flight window normally prevents this, but a thread may not yet be available right after it has finished its previous request
+          if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Request processing for " + getFullName() + " has been shut down");
+          }
+          try {
+            executor.getQueue().put(r);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException(e);
+          }
+        }
+      });
 
+      statistics = new MultiThreadedActorStatistics(this);
+      StatisticsServiceFactory.getService().registerStatistics(statistics);
     }
   }
 
@@ -288,13 +348,148 @@ public abstract class MultiThreadedActor extends AdvancedActor {
   protected void doFire_HandleRequest(ProcessRequest req) throws ProcessingException {
     if (maxNrThreads < 2) {
       super.doFire_HandleRequest(req);
-    } else if (!isFinishRequested() && !requestQueue.contains(FinishRequest.FINISH_REQUEST_MARKER)) {
+    } else if (!isFinishRequested() && !processingExecutor.isShutdown()) {
       // 1st test above is very fast and assures that "in regime" the request receipt is done as efficiently as possible
       // only during shutdown handling, the 2nd test is done to prevent race conditions with queue additions
-      requestQueue.add(req);
+      try {
+        // blocks the actor thread while the window is full, so it stops reading its inputs
+        long waitStart = System.nanoTime();
+        inFlightPermits.acquire();
+        statistics.acceptWindowWait(System.nanoTime() - waitStart);
+      } catch (InterruptedException e) {
+        // someone wants us to stop
+        return;
+      }
+      ResponseSlot slot = registerSlot(req);
+      try {
+        processingExecutor.submit(new RequestProcessor(req, slot));
+        if (LOGGER.isDebugEnabled()) {
+          LOGGER.debug("request accepted :" + req);
+        }
+      } catch (RejectedExecutionException e) {
+        LOGGER.warn("{} - request dropped as processing has been shut down : {}", getFullName(), req);
+        // drop the slot, so ordered responses after it are not blocked
+        dropSlot(slot);
+        inFlightPermits.release();
+      }
     }
   }
 
+  /**
+   * Overridable method to determine which requests must keep their order, in the "Per correlation/sequence ID" ordering mode.
+   * <br>
+   * By default, the correlation ID of the first received message that is correlated is used, or else its sequence ID.
+   * 
+   * @param req
+   * @return the key of the requests whose responses must be sent in the order in which the requests were received, or null if the request's response can be
+   *         sent as soon as it's ready
+   */
+  protected Object getOrderingKey(ProcessRequest req) {
+    for (Iterator<MessageInputContext> ctxtItr = req.getAllInputContexts(); ctxtItr.hasNext();) {
+      ManagedMessage msg = ctxtItr.next().getMsg();
+      if (msg != null) {
+        if (msg.isCorrelated()) {
+          return msg.getCorrelationID();
+        } else if (msg.isPartOfSequence()) {
+          return msg.getSequenceID();
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @param req
+   * @return the slot for the request's response, or null if it does not need to keep its order
+   */
+  private ResponseSlot registerSlot(ProcessRequest req) {
+    Object orderingKey = null;
+    if (ORDERING_GLOBAL.equals(ordering)) {
+      orderingKey = GLOBAL_ORDERING_KEY;
+    } else if (ORDERING_PER_CORRELATION.equals(ordering)) {
+      orderingKey = getOrderingKey(req);
+    }
+    if (orderingKey == null) {
+      return null;
+    }
+    ResponseSlot slot = new ResponseSlot(orderingKey);
+    synchronized (pendingSlots) {
+      Deque<ResponseSlot> slots = pendingSlots.get(orderingKey);
+      if (slots == null) {
+        slots = new ArrayDeque<ResponseSlot>();
+        pendingSlots.put(orderingKey, slots);
+      }
+      slots.add(slot);
+    }
+    return slot;
+  }
+
+  /**
+   * Passes the response to the response queue, after all preceding responses with the same ordering key.
+   */
+  private void responseReady(ResponseSlot slot, ProcessResponse response) {
+    if (slot == null) {
+      responseQueue.offer(response);
+      return;
+    }
+    synchronized (pendingSlots) {
+      slot.response = response;
+      flushSlots(slot.orderingKey);
+    }
+  }
+
+  private void dropSlot(ResponseSlot slot) {
+    if (slot != null) {
+      synchronized (pendingSlots) {
+        pendingSlots.get(slot.orderingKey).remove(slot);
+        flushSlots(slot.orderingKey);
+      }
+    }
+  }
+
+  /**
+   * Passes the ready responses at the head of the key's slots to the response queue. Must be called while holding the lock on pendingSlots.
+   */
+  private void flushSlots(Object orderingKey) {
+    Deque<ResponseSlot> slots = pendingSlots.get(orderingKey);
+    while (!slots.isEmpty() && slots.peekFirst().response != null) {
+      responseQueue.offer(slots.pollFirst().response);
+    }
+    if (slots.isEmpty()) {
+      pendingSlots.remove(orderingKey);
+    }
+  }
+
+  private void handleProcessingException(ProcessingException e) {
+    try {
+      getErrorControlStrategy().handleFireException(this, e);
+    } catch (IllegalActionException e1) {
+      getLogger().error("Error handling exception ", e);
+    }
+  }
+
+  /**
+   * @return the nr of requests that are being processed or whose responses are waiting to be sent
+   */
+  public int getInFlightCount() {
+    return (inFlightPermits != null) ? maxInFlight - inFlightPermits.availablePermits() : 0;
+  }
+
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  public int getMaxNrThreads() {
+    return maxNrThreads;
+  }
+
+  /**
+   * @return the nr of threads that are currently processing a request
+   */
+  public int getActiveThreadCount() {
+    return (processingExecutor != null) ? processingExecutor.getActiveCount() : 0;
+  }
+
   // need to find a way to ensure that the last outgoign msgs
   // generated by busy request processing while the requestFinish was done
   // can get sent out without TerminateProcessExceptions.
@@ -332,17 +527,13 @@ public abstract class MultiThreadedActor extends AdvancedActor {
       shutdownDone = true;
       return;
     } else {
-      // use a marker request object,
-      // to allow nice handling of pending requests in the queue
+      // let the pending requests finish their processing,
       // and then do a nice shutdown
-      requestQueue.add(FinishRequest.FINISH_REQUEST_MARKER);
-    }
-  }
-
-  private static class FinishRequest extends ProcessRequest {
-    public final static FinishRequest FINISH_REQUEST_MARKER = new FinishRequest();
-
-    private FinishRequest() {
+      try {
+        shutdownHandlingExecutor.execute(new ProcessingShutdownHandler());
+      } catch (RejectedExecutionException e) {
+        // shutdown was already started
+      }
     }
   }
 
@@ -350,7 +541,7 @@ public abstract class MultiThreadedActor extends AdvancedActor {
     public final static FinishResponse FINISH_RESPONSE_MARKER = new FinishResponse();
 
     private FinishResponse() {
-      super(FinishRequest.FINISH_REQUEST_MARKER);
+      super(new ProcessRequest());
     }
   }
 }
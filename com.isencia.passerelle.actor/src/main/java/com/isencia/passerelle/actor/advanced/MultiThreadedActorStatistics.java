@@ -0,0 +1,111 @@
+package com.isencia.passerelle.actor.advanced;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import com.isencia.passerelle.statistics.NamedStatistics;
+
+/**
+ * Gauges and counters on the request processing by a <code>MultiThreadedActor</code>.
+ * 
+ * @author erwin
+ */
+public class MultiThreadedActorStatistics implements MultiThreadedActorStatisticsMBean, NamedStatistics {
+
+  private MultiThreadedActor actor;
+
+  private AtomicLong nrProcessedRequests = new AtomicLong();
+  // in ns
+  private AtomicLong totalQueueWaitTime = new AtomicLong();
+  private AtomicLong maxQueueWaitTime = new AtomicLong();
+  private AtomicLong totalProcessingTime = new AtomicLong();
+  private AtomicLong nrWindowWaits = new AtomicLong();
+  private AtomicLong totalWindowWaitTime = new AtomicLong();
+
+  public MultiThreadedActorStatistics(MultiThreadedActor actor) {
+    this.actor = actor;
+  }
+
+  public String getName() {
+    return actor.getFullName() + "-processing";
+  }
+
+  /**
+   * @param queueWaitTime the time between the request's submission and the start of its processing, in ns
+   * @param processingTime in ns
+   */
+  public void acceptProcessed(long queueWaitTime, long processingTime) {
+    nrProcessedRequests.incrementAndGet();
+    totalQueueWaitTime.addAndGet(queueWaitTime);
+    totalProcessingTime.addAndGet(processingTime);
+    long max = maxQueueWaitTime.get();
+    while (queueWaitTime > max && !maxQueueWaitTime.compareAndSet(max, queueWaitTime)) {
+      max = maxQueueWaitTime.get();
+    }
+  }
+
+  /**
+   * @param waitTime the time the actor thread was blocked because the in-flight window was full, in ns
+   */
+  public void acceptWindowWait(long waitTime) {
+    // ignore the near-zero times of a free permit
+    if (waitTime > TimeUnit.MILLISECONDS.toNanos(1)) {
+      nrWindowWaits.incrementAndGet();
+      totalWindowWaitTime.addAndGet(waitTime);
+    }
+  }
+
+  public int getActiveThreadCount() {
+    return actor.getActiveThreadCount();
+  }
+
+  public int getPoolUtilisation() {
+    int maxNrThreads = actor.getMaxNrThreads();
+    return (maxNrThreads > 0) ? (100 * actor.getActiveThreadCount()) / maxNrThreads : 0;
+  }
+
+  public int getInFlightCount() {
+    return actor.getInFlightCount();
+  }
+
+  public int getMaxInFlight() {
+    return actor.getMaxInFlight();
+  }
+
+  public long getNrProcessedRequests() {
+    return nrProcessedRequests.get();
+  }
+
+  public long getAvgQueueWaitTime() {
+    long count = nrProcessedRequests.get();
+    return (count > 0) ? TimeUnit.NANOSECONDS.toMicros(totalQueueWaitTime.get() / count) : 0;
+  }
+
+  public long getMaxQueueWaitTime() {
+    return TimeUnit.NANOSECONDS.toMicros(maxQueueWaitTime.get());
+  }
+
+  public long getAvgProcessingTime() {
+    long count = nrProcessedRequests.get();
+    return (count > 0) ? TimeUnit.NANOSECONDS.toMicros(totalProcessingTime.get() / count) : 0;
+  }
+
+  public long getNrWindowWaits() {
+    return nrWindowWaits.get();
+  }
+
+  public long getTotalWindowWaitTime() {
+    return TimeUnit.NANOSECONDS.toMillis(totalWindowWaitTime.get());
+  }
+
+  /**
+   * Only resets the counters; the gauges on the current processing remain.
+   */
+  public void reset() {
+    nrProcessedRequests.set(0);
+    totalQueueWaitTime.set(0);
+    maxQueueWaitTime.set(0);
+    totalProcessingTime.set(0);
+    nrWindowWaits.set(0);
+    totalWindowWaitTime.set(0);
+  }
+}
@@ -0,0 +1,27 @@
+package com.isencia.passerelle.actor.advanced;
+
+/**
+ * @author erwin
+ */
+public interface MultiThreadedActorStatisticsMBean {
+
+  int getActiveThreadCount();
+  // active threads as percentage of the max nr of threads
+  int getPoolUtilisation();
+  // nr of requests that are being processed or whose responses are waiting to be sent
+  int getInFlightCount();
+  int getMaxInFlight();
+  long getNrProcessedRequests();
+  // in us
+  long getAvgQueueWaitTime();
+  // in us
+  long getMaxQueueWaitTime();
+  // in us
+  long getAvgProcessingTime();
+  // nr of times the actor stopped reading its inputs because the in-flight window was full
+  long getNrWindowWaits();
+  // in ms
+  long getTotalWindowWaitTime();
+
+  void reset();
+}
@@ -14,6 +14,9 @@
  */
 package com.isencia.passerelle.actor.flow;
 
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ptolemy.data.IntToken;
@@ -23,16 +26,20 @@ import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.Attribute;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
+import com.isencia.passerelle.actor.InitializationException;
 import com.isencia.passerelle.actor.ProcessingException;
+import com.isencia.passerelle.actor.TerminationException;
 import com.isencia.passerelle.actor.Transformer;
+import com.isencia.passerelle.ext.TimerService.Timeout;
 import com.isencia.passerelle.message.ManagedMessage;
 
 /**
  * Simple actor that reads input tokens and and forwards them to the output port after a configurable accumulating delay
  * (ms).
  * <p>
- * This actor picks a received message, then sleeps for the configured time, then sends out the received message. And
- * then does it again for the next received message.
+ * This actor picks a received message, and schedules it to be sent out the configured time after the previous one was
+ * sent, or after its reception if that is later. The sending is done via the flow's shared timer service, so the actor
+ * does not block while messages are waiting to be sent. Each waiting message is registered as a busy task of the actor with the director.
  * </p>
  * <p>
  * The net-result is a throttling on a received stream of messages. I.e. when incoming messages arrive with a higher
@@ -49,6 +56,13 @@ public class Delay extends Transformer {
   public Parameter timeParameter = null;
   private int time = 0;
 
+  // the delayed messages, in the order in which they must be sent
+  private Queue<DelayedMessage> pendingMessages = new ConcurrentLinkedQueue<DelayedMessage>();
+  // ensures the delayed messages are sent in order, even when their timer tasks run concurrently
+  private Object sendLock = new Object();
+  // System.nanoTime() at which the last pending message will be sent
+  private long nextSendTime;
+
   /**
    * Construct an actor with the given container and name.
    * 
@@ -73,15 +87,97 @@ public class Delay extends Transformer {
     return LOGGER;
   }
   
+  @Override
+  protected void doInitialize() throws InitializationException {
+    super.doInitialize();
+    pendingMessages.clear();
+    nextSendTime = System.nanoTime();
+  }
+
   public void doFire(ManagedMessage message) throws ProcessingException {
+    long now = System.nanoTime();
+    if (time <= 0 && pendingMessages.isEmpty()) {
+      nextSendTime = now;
+      sendOutputMsg(output, message);
+    } else {
+      // accumulate the delay when messages arrive faster than they may be sent
+      nextSendTime = Math.max(now, nextSendTime) + TimeUnit.SECONDS.toNanos(Math.max(0, time));
+      DelayedMessage delayedMessage = new DelayedMessage(message);
+      getDirectorAdapter().notifyActorStartedTask(this, delayedMessage);
+      pendingMessages.add(delayedMessage);
+      delayedMessage.timeout = getDirectorAdapter().getTimerService().schedule(new Runnable() {
+        public void run() {
+          sendNextMessage();
+        }
+      }, nextSendTime - now, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  @Override
+  protected boolean doPostFire() throws ProcessingException {
+    boolean result = super.doPostFire();
+    if (!result) {
+      // the delayed messages must still be sent before we're done
+      synchronized (pendingMessages) {
+        while (!pendingMessages.isEmpty()) {
+          try {
+            pendingMessages.wait();
+          } catch (InterruptedException e) {
+            break;
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  @Override
+  protected void doWrapUp() throws TerminationException {
+    // when the execution was stopped before all delays were done, the remaining messages are dropped
+    int droppedCount = 0;
+    synchronized (sendLock) {
+      for (DelayedMessage delayedMessage; (delayedMessage = pendingMessages.poll()) != null;) {
+        if (delayedMessage.timeout != null) {
+          delayedMessage.timeout.cancel();
+        }
+        getDirectorAdapter().notifyActorFinishedTask(this, delayedMessage);
+        droppedCount++;
+      }
+    }
+    if (droppedCount > 0) {
+      getLogger().warn("{} - Dropped {} delayed messages that were not yet sent", getFullName(), droppedCount);
+    }
+    synchronized (pendingMessages) {
+      pendingMessages.notifyAll();
+    }
+    super.doWrapUp();
+  }
+
+  private void sendNextMessage() {
     try {
-      if (time > 0) {
-        Thread.sleep(time * 1000);
+      synchronized (sendLock) {
+        DelayedMessage delayedMessage = pendingMessages.peek();
+        if (delayedMessage != null) {
+          try {
+            sendOutputMsg(output, delayedMessage.message);
+          } finally {
+            if (pendingMessages.remove(delayedMessage)) {
+              getDirectorAdapter().notifyActorFinishedTask(this, delayedMessage);
+            }
+          }
+        }
+      }
+    } catch (ProcessingException e) {
+      try {
+        getErrorControlStrategy().handleFireException(this, e);
+      } catch (IllegalActionException e1) {
+        getLogger().error(getFullName() + " - error handling exception for delayed message", e);
+      }
+    } finally {
+      synchronized (pendingMessages) {
+        pendingMessages.notifyAll();
       }
-    } catch (InterruptedException e) {
-      // do nothing, means someone wants us to stop
     }
-    sendOutputMsg(output, message);
   }
 
   public void attributeChanged(Attribute attribute) throws IllegalActionException {
@@ -93,4 +189,13 @@ public class Delay extends Transformer {
     }
     getLogger().trace("{} attributeChanged() - exit", getFullName());
   }
+
+  private static class DelayedMessage {
+    private ManagedMessage message;
+    private volatile Timeout timeout;
+
+    DelayedMessage(ManagedMessage message) {
+      this.message = message;
+    }
+  }
 }
\ No newline at end of file
@@ -19,9 +19,11 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ptolemy.data.BooleanToken;
 import ptolemy.data.expr.FileParameter;
 import ptolemy.data.expr.Parameter;
 import ptolemy.data.expr.StringParameter;
+import ptolemy.data.type.BaseType;
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.Attribute;
 import ptolemy.kernel.util.IllegalActionException;
@@ -45,6 +47,9 @@ import com.isencia.util.StringConvertor;
 
 /**
  * This actor reads tokens from a file and sends them out.
+ * <p>
+ * For large files, the file can be read memory-mapped. For text lines, this avoids decoding the file character per character.
+ * </p>
  */
 public class FileReader extends TriggeredChannelSource {
 	private static final long serialVersionUID = 1L;
@@ -100,6 +105,7 @@ public class FileReader extends TriggeredChannelSource {
   public final static String PATH_PARAM = "Path";
   public final static String INPUTTYPE_PARAM = "Input Type";
   public final static String ENCODING_PARAM = "Encoding";
+  public final static String MEMORY_MAPPED_PARAM = "Memory mapped";
 
   private String sourcePath = null;
   private String fileEncoding = null;
@@ -107,6 +113,8 @@ public class FileReader extends TriggeredChannelSource {
   public FileParameter sourcePathParam = null;
   public Parameter inputTypeParam = null;
   public Parameter fileEncodingParam = null;
+  public Parameter memoryMappedParam = null;
+  private boolean memoryMapped = false;
 
   /**
    * Construct an actor with the given container and name.
@@ -138,6 +146,10 @@ public class FileReader extends TriggeredChannelSource {
       inputTypeParam.addChoice(InputType.choices[i].getLabel());
     }
     registerConfigurableParameter(inputTypeParam);
+
+    memoryMappedParam = new Parameter(this, MEMORY_MAPPED_PARAM, new BooleanToken(memoryMapped));
+    memoryMappedParam.setTypeEquals(BaseType.BOOLEAN);
+    registerConfigurableParameter(memoryMappedParam);
   }
   
   @Override
@@ -181,6 +193,11 @@ public class FileReader extends TriggeredChannelSource {
       } catch (Exception e) {
         inputTypeParam.setExpression(prevInputType);
       }
+    } else if (attribute == memoryMappedParam) {
+      BooleanToken memoryMappedToken = (BooleanToken) memoryMappedParam.getToken();
+      if (memoryMappedToken != null) {
+        memoryMapped = memoryMappedToken.booleanValue();
+      }
     } else {
       super.attributeChanged(attribute);
     }
@@ -243,10 +260,14 @@ public class FileReader extends TriggeredChannelSource {
   }
 
   protected IReceiverChannel createChannel() {
+    FileReceiverChannel channel = null;
     if (getFileEncoding() != null && getFileEncoding().length() > 0) {
-      return new FileReceiverChannel(new File(getSourcePath()), getFileEncoding(), getInputType().getMsgExtractor().cloneExtractor());
+      channel = new FileReceiverChannel(new File(getSourcePath()), getFileEncoding(), getInputType().getMsgExtractor().cloneExtractor());
+    } else {
+      channel = new FileReceiverChannel(new File(getSourcePath()), getInputType().getMsgExtractor().cloneExtractor());
     }
-    return new FileReceiverChannel(new File(getSourcePath()), getInputType().getMsgExtractor().cloneExtractor());
+    channel.setMemoryMapped(memoryMapped);
+    return channel;
   }
 
   protected IMessageInterceptorChain createInterceptorChain() {
@@ -20,6 +20,7 @@ import java.net.URISyntaxException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ptolemy.data.BooleanToken;
+import ptolemy.data.IntToken;
 import ptolemy.data.expr.FileParameter;
 import ptolemy.data.expr.Parameter;
 import ptolemy.data.expr.StringParameter;
@@ -38,6 +39,10 @@ import com.isencia.util.StringConvertor;
 
 /**
  * This actor writes all received msgs in a file.
+ * <p>
+ * By default each message is flushed to the file immediately. For higher throughput, a buffer size can be set, 
+ * and the file can be flushed only after each N messages. The file is always flushed when the actor wraps up.
+ * </p>
  */
 public class FileWriter extends ChannelSink {
   private static final long serialVersionUID = 1L;
@@ -46,6 +51,8 @@ public class FileWriter extends ChannelSink {
   public final static String PATH_PARAM = "Path";
   public final static String APPEND_PARAM = "Append";
   public final static String ENCODING_PARAM = "Encoding";
+  public final static String BUFFER_SIZE_PARAM = "Buffer size";
+  public final static String FLUSH_COUNT_PARAM = "Flush every N msgs";
 
   public FileParameter destinationPathParam;
   private String destinationPath = null;
@@ -55,6 +62,11 @@ public class FileWriter extends ChannelSink {
   public Parameter fileEncodingParam = null;
   private String fileEncoding = null;
 
+  public Parameter bufferSizeParam;
+  private int bufferSize = 0;
+  public Parameter flushCountParam;
+  private int flushCount = 1;
+
   /**
    * Construct an actor with the given container and name.
    * 
@@ -82,6 +94,13 @@ public class FileWriter extends ChannelSink {
     appendModeParam = new Parameter(this, APPEND_PARAM, new BooleanToken(true));
     appendModeParam.setTypeEquals(BaseType.BOOLEAN);
     registerConfigurableParameter(appendModeParam);
+
+    bufferSizeParam = new Parameter(this, BUFFER_SIZE_PARAM, new IntToken(bufferSize));
+    bufferSizeParam.setTypeEquals(BaseType.INT);
+    flushCountParam = new Parameter(this, FLUSH_COUNT_PARAM, new IntToken(flushCount));
+    flushCountParam.setTypeEquals(BaseType.INT);
+    registerConfigurableParameter(bufferSizeParam);
+    registerConfigurableParameter(flushCountParam);
   }
   
   @Override
@@ -114,6 +133,16 @@ public class FileWriter extends ChannelSink {
       if (appendToken != null) {
         setAppendMode(appendToken.booleanValue());
       }
+    } else if (attribute == bufferSizeParam) {
+      IntToken bufferSizeToken = (IntToken) bufferSizeParam.getToken();
+      if (bufferSizeToken != null) {
+        bufferSize = bufferSizeToken.intValue();
+      }
+    } else if (attribute == flushCountParam) {
+      IntToken flushCountToken = (IntToken) flushCountParam.getToken();
+      if (flushCountToken != null) {
+        flushCount = flushCountToken.intValue();
+      }
     } else {
       super.attributeChanged(attribute);
     }
@@ -129,10 +158,15 @@ public class FileWriter extends ChannelSink {
   }
 
   protected ISenderChannel createChannel() {
+    MessageTextLineGenerator generator = new MessageTextLineGenerator(System.getProperty("line.separator"), flushCount, 0);
+    FileSenderChannel channel = null;
     if (getFileEncoding() != null && getFileEncoding().length() > 0) {
-      return new FileSenderChannel(new File(getDestinationPath()), getFileEncoding(), new MessageTextLineGenerator());
+      channel = new FileSenderChannel(new File(getDestinationPath()), getFileEncoding(), generator);
+    } else {
+      channel = new FileSenderChannel(new File(getDestinationPath()), generator);
     }
-    return new FileSenderChannel(new File(getDestinationPath()), new MessageTextLineGenerator());
+    channel.setBufferSize(bufferSize);
+    return channel;
   }
 
   /**
@@ -15,9 +15,12 @@
 package com.isencia.passerelle.actor.io;
 
 import java.io.File;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ptolemy.data.BooleanToken;
+import ptolemy.data.IntToken;
+import ptolemy.data.LongToken;
 import ptolemy.data.expr.FileParameter;
 import ptolemy.data.expr.Parameter;
 import ptolemy.data.expr.StringParameter;
@@ -27,6 +30,7 @@ import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
 import com.isencia.message.ChannelException;
 import com.isencia.message.ISenderChannel;
+import com.isencia.message.WriterSenderChannel;
 import com.isencia.message.generator.MessageTextLineGenerator;
 import com.isencia.message.interceptor.IMessageInterceptorChain;
 import com.isencia.message.interceptor.MessageInterceptorChain;
@@ -41,12 +45,20 @@ import com.isencia.passerelle.actor.v5.ProcessResponse;
 import com.isencia.passerelle.core.ErrorCode;
 import com.isencia.passerelle.core.Port;
 import com.isencia.passerelle.core.PortFactory;
+import com.isencia.passerelle.ext.TimerService;
 import com.isencia.passerelle.message.ManagedMessage;
 import com.isencia.passerelle.message.interceptor.MessageToTextConverter;
 
 /**
  * A new implementation of a FileWriter actor which forwards received messages on its output port (i.e. is not a Sink) and is based on the v5 Actor API. It also
  * allows to configure the path and filename separately.
+ * <p>
+ * By default each message is flushed to the file immediately. For higher throughput, a buffer size can be set, 
+ * combined with a flush policy : after each N messages, after a time interval and/or at the end of each message sequence.
+ * For the time interval, a flush is scheduled on the flow's timer service after each write,
+ * so the last messages also get flushed when no new messages arrive.
+ * The file is always flushed when the actor wraps up.
+ * </p>
  * 
  * @author erwin
  */
@@ -58,13 +70,26 @@ public class FileWriter2 extends Actor {
   public final static String FILE_PARAM = "File";
   public final static String APPEND_PARAM = "Append";
   public final static String ENCODING_PARAM = "Encoding";
+  public final static String BUFFER_SIZE_PARAM = "Buffer size";
+  public final static String FLUSH_COUNT_PARAM = "Flush every N msgs";
+  public final static String FLUSH_INTERVAL_PARAM = "Flush interval (ms)";
+  public final static String FLUSH_ON_SEQUENCE_END_PARAM = "Flush on sequence end";
+  public final static String USE_FILE_CHANNEL_PARAM = "Use FileChannel";
 
   private ISenderChannel sendChannel = null;
+  // guards the scheduled flush against closing the channel
+  private final Object flushLock = new Object();
+  private TimerService.Timeout flushTimeout;
 
   public FileParameter destinationPathParam;
   public StringParameter destinationFileNameParam;
   public Parameter appendModeParam;
   public StringParameter fileEncodingParam = null;
+  public Parameter bufferSizeParam;
+  public Parameter flushCountParam;
+  public Parameter flushIntervalParam;
+  public Parameter flushOnSequenceEndParam;
+  public Parameter useFileChannelParam;
 
   public Port input;
   public Port output;
@@ -93,6 +118,22 @@ public class FileWriter2 extends Actor {
     appendModeParam.setTypeEquals(BaseType.BOOLEAN);
     registerConfigurableParameter(appendModeParam);
 
+    bufferSizeParam = new Parameter(this, BUFFER_SIZE_PARAM, new IntToken(0));
+    bufferSizeParam.setTypeEquals(BaseType.INT);
+    flushCountParam = new Parameter(this, FLUSH_COUNT_PARAM, new IntToken(1));
+    flushCountParam.setTypeEquals(BaseType.INT);
+    flushIntervalParam = new Parameter(this, FLUSH_INTERVAL_PARAM, new LongToken(0));
+    flushIntervalParam.setTypeEquals(BaseType.LONG);
+    flushOnSequenceEndParam = new Parameter(this, FLUSH_ON_SEQUENCE_END_PARAM, new BooleanToken(true));
+    flushOnSequenceEndParam.setTypeEquals(BaseType.BOOLEAN);
+    useFileChannelParam = new Parameter(this, USE_FILE_CHANNEL_PARAM, new BooleanToken(false));
+    useFileChannelParam.setTypeEquals(BaseType.BOOLEAN);
+    registerConfigurableParameter(bufferSizeParam);
+    registerConfigurableParameter(flushCountParam);
+    registerConfigurableParameter(flushIntervalParam);
+    registerConfigurableParameter(flushOnSequenceEndParam);
+    registerConfigurableParameter(useFileChannelParam);
+
     _attachText("_iconDescription", "<svg>\n" + "<rect x=\"-20\" y=\"-20\" width=\"40\" " + "height=\"40\" style=\"fill:lightgrey;stroke:lightgrey\"/>\n"
         + "<line x1=\"-19\" y1=\"-19\" x2=\"19\" y2=\"-19\" " + "style=\"stroke-width:1.0;stroke:white\"/>\n"
         + "<line x1=\"-19\" y1=\"-19\" x2=\"-19\" y2=\"19\" " + "style=\"stroke-width:1.0;stroke:white\"/>\n"
@@ -150,6 +191,10 @@ public class FileWriter2 extends Actor {
     if (message != null) {
       try {
         getChannel().sendMessage(message);
+        if (message.isSequenceEnd() && isFlushOnSequenceEnd() && (getChannel() instanceof WriterSenderChannel)) {
+          ((WriterSenderChannel) getChannel()).flush();
+        }
+        scheduleFlush();
         response.addOutputMessage(output, message);
       } catch (InterruptedException e) {
         // do nothing, just means we've got to stop
@@ -164,7 +209,7 @@ public class FileWriter2 extends Actor {
   @Override
   protected void doStop() {
     try {
-      closeChannel(getChannel());
+      cancelFlushAndCloseChannel();
       getLogger().debug("{} - Closed : {}", getFullName(), getChannel());
     } catch (ChannelException e) {
       throw new RuntimeException(new TerminationException(ErrorCode.ACTOR_EXECUTION_ERROR, "File writing channel not closed correctly.", this, e));
@@ -174,7 +219,7 @@ public class FileWriter2 extends Actor {
 
   protected void doWrapUp() throws TerminationException {
     try {
-      closeChannel(getChannel());
+      cancelFlushAndCloseChannel();
       getLogger().debug("{} - Closed : {}", getFullName(), getChannel());
     } catch (ChannelException e) {
       throw new TerminationException(ErrorCode.ACTOR_EXECUTION_ERROR, "File writing channel not closed correctly.", this, e);
@@ -182,6 +227,43 @@ public class FileWriter2 extends Actor {
     super.doWrapUp();
   }
 
+  /**
+   * Schedules a flush of the channel after the configured flush interval, if none is pending yet.
+   * 
+   * @throws IllegalActionException
+   */
+  private void scheduleFlush() throws IllegalActionException {
+    long flushInterval = getFlushInterval();
+    if (flushInterval > 0 && (getChannel() instanceof WriterSenderChannel)) {
+      synchronized (flushLock) {
+        if (flushTimeout == null) {
+          flushTimeout = getDirectorAdapter().getTimerService().schedule(new Runnable() {
+            public void run() {
+              synchronized (flushLock) {
+                flushTimeout = null;
+                try {
+                  ((WriterSenderChannel) getChannel()).flush();
+                } catch (ChannelException e) {
+                  getLogger().error(getFullName() + " - Error flushing " + getChannel(), e);
+                }
+              }
+            }
+          }, flushInterval, TimeUnit.MILLISECONDS);
+        }
+      }
+    }
+  }
+
+  private void cancelFlushAndCloseChannel() throws ChannelException {
+    synchronized (flushLock) {
+      if (flushTimeout != null) {
+        flushTimeout.cancel();
+        flushTimeout = null;
+      }
+      closeChannel(getChannel());
+    }
+  }
+
   // parameter value shortcut methods
 
   protected String getFileEncoding() throws IllegalActionException {
@@ -200,13 +282,39 @@ public class FileWriter2 extends Actor {
     return ((BooleanToken)appendModeParam.getToken()).booleanValue();
   }
 
+  protected int getBufferSize() throws IllegalActionException {
+    return ((IntToken) bufferSizeParam.getToken()).intValue();
+  }
+
+  protected int getFlushCount() throws IllegalActionException {
+    return ((IntToken) flushCountParam.getToken()).intValue();
+  }
+
+  protected long getFlushInterval() throws IllegalActionException {
+    return ((LongToken) flushIntervalParam.getToken()).longValue();
+  }
+
+  protected boolean isFlushOnSequenceEnd() throws IllegalActionException {
+    return ((BooleanToken) flushOnSequenceEndParam.getToken()).booleanValue();
+  }
+
+  protected boolean isUseFileChannel() throws IllegalActionException {
+    return ((BooleanToken) useFileChannelParam.getToken()).booleanValue();
+  }
+
   // channel mgmt methods
 
   protected ISenderChannel createChannel() throws IllegalActionException {
+    MessageTextLineGenerator generator = new MessageTextLineGenerator(System.getProperty("line.separator"), getFlushCount(), getFlushInterval());
+    FileSenderChannel channel = null;
     if (getFileEncoding() != null && getFileEncoding().length() > 0) {
-      return new FileSenderChannel(new File(getDestinationPath(), getDestinationFileName()), getFileEncoding(), new MessageTextLineGenerator());
+      channel = new FileSenderChannel(new File(getDestinationPath(), getDestinationFileName()), getFileEncoding(), generator);
+    } else {
+      channel = new FileSenderChannel(new File(getDestinationPath(), getDestinationFileName()), generator);
     }
-    return new FileSenderChannel(new File(getDestinationPath(), getDestinationFileName()), new MessageTextLineGenerator());
+    channel.setBufferSize(getBufferSize());
+    channel.setUseFileChannel(isUseFileChannel());
+    return channel;
   }
 
   /**
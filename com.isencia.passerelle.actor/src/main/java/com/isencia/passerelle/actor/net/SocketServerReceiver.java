@@ -16,9 +16,12 @@
 package com.isencia.passerelle.actor.net;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ptolemy.data.BooleanToken;
 import ptolemy.data.IntToken;
 import ptolemy.data.expr.Parameter;
 import ptolemy.data.expr.StringParameter;
@@ -28,6 +31,8 @@ import ptolemy.kernel.util.IllegalActionException;
 import com.isencia.message.ChannelException;
 import com.isencia.message.IReceiverChannel;
 import com.isencia.message.extractor.IMessageExtractor;
+import com.isencia.message.extractor.INonBlockingMessageExtractor;
+import com.isencia.message.net.NioSocketServerReceiverChannel;
 import com.isencia.message.net.SocketServerReceiverChannel;
 import com.isencia.passerelle.actor.ChannelSource;
 import com.isencia.passerelle.actor.InitializationException;
@@ -35,6 +40,12 @@ import com.isencia.passerelle.actor.gui.IOptionsFactory.Option;
 import com.isencia.passerelle.core.ErrorCode;
 
 /**
+ * Receives messages on a server socket.
+ * <p>
+ * By default, each accepted connection is read by its own thread. 
+ * With many concurrent clients, the non-blocking mode can be used, where all connections are served by a small nr of IO threads.
+ * </p>
+ * 
  * @author Dirk
  */
 public class SocketServerReceiver extends ChannelSource {
@@ -47,6 +58,14 @@ public class SocketServerReceiver extends ChannelSource {
   public Parameter msgExtractorType;
   final static String MSG_EXTRACTOR_PARAM_NAME = "Msg End";
 
+  public Parameter nonBlockingParam;
+  private boolean nonBlocking = false;
+  public final static String NON_BLOCKING_PARAM_NAME = "Non-blocking IO";
+
+  public Parameter nrOfIOThreadsParam;
+  private int nrOfIOThreads = NioSocketServerReceiverChannel.DEFAULT_NR_OF_IO_THREADS;
+  public final static String NR_OF_IO_THREADS_PARAM_NAME = "Nr of IO threads";
+
   /**
    * 
    * @param container
@@ -61,6 +80,10 @@ public class SocketServerReceiver extends ChannelSource {
     socketPort.setTypeEquals(BaseType.INT);
     msgExtractorType = new StringParameter(this, MSG_EXTRACTOR_PARAM_NAME);
     new SocketSvrRcvOptionsFactory(this, OPTIONS_FACTORY_CFG_NAME).setOptionsForParameter(msgExtractorType);
+    nonBlockingParam = new Parameter(this, NON_BLOCKING_PARAM_NAME, new BooleanToken(nonBlocking));
+    nonBlockingParam.setTypeEquals(BaseType.BOOLEAN);
+    nrOfIOThreadsParam = new Parameter(this, NR_OF_IO_THREADS_PARAM_NAME, new IntToken(nrOfIOThreads));
+    nrOfIOThreadsParam.setTypeEquals(BaseType.INT);
   }
   
   @Override
@@ -93,6 +116,16 @@ public class SocketServerReceiver extends ChannelSource {
       if ((portToken != null) && (portToken.intValue() > 0)) {
         setPort(portToken.intValue());
       }
+    } else if (attribute == nonBlockingParam) {
+      BooleanToken nonBlockingToken = (BooleanToken) nonBlockingParam.getToken();
+      if (nonBlockingToken != null) {
+        nonBlocking = nonBlockingToken.booleanValue();
+      }
+    } else if (attribute == nrOfIOThreadsParam) {
+      IntToken nrOfIOThreadsToken = (IntToken) nrOfIOThreadsParam.getToken();
+      if ((nrOfIOThreadsToken != null) && (nrOfIOThreadsToken.intValue() > 0)) {
+        nrOfIOThreads = nrOfIOThreadsToken.intValue();
+      }
     } else {
       super.attributeChanged(attribute);
     }
@@ -103,8 +136,17 @@ public class SocketServerReceiver extends ChannelSource {
     IMessageExtractor extractor = getExtractorFromSelectedOption();
     IReceiverChannel res = null;
     try {
-      ServerSocket sSocket = new ServerSocket(getPort());
-      res = new SocketServerReceiverChannel(sSocket, extractor);
+      if (nonBlocking && (extractor instanceof INonBlockingMessageExtractor)) {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(getPort()));
+        res = new NioSocketServerReceiverChannel(serverChannel, (INonBlockingMessageExtractor) extractor, null, nrOfIOThreads);
+      } else {
+        if (nonBlocking) {
+          getLogger().warn("{} - Non-blocking IO not supported for {}, using a thread per connection", getFullName(), msgExtractorType.getExpression());
+        }
+        ServerSocket sSocket = new ServerSocket(getPort());
+        res = new SocketServerReceiverChannel(sSocket, extractor);
+      }
     } catch (IOException e) {
       throw new InitializationException(ErrorCode.FLOW_EXECUTION_FATAL, "Error opening server socket on port" + getPort(), this, e);
     }
@@ -0,0 +1,125 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.message;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import junit.framework.TestCase;
+
+/**
+ * Checks the bounded queue of the <code>BalancedMessageSender</code> : blocking producers when it is full,
+ * until the channels have taken messages from it, and delivering each message to exactly one channel.
+ *
+ * @author erwin
+ */
+public class BalancedMessageSenderTest extends TestCase {
+
+  private final static long TIMEOUT = 5000;
+  private final static long BLOCK_CHECK_TIME = 300;
+  private final static int MSG_COUNT = 1000;
+
+  private BalancedMessageSender sender;
+  private RecordingSenderChannel[] channels;
+
+  protected void tearDown() throws Exception {
+    if (channels != null) {
+      for (RecordingSenderChannel channel : channels) {
+        channel.release();
+      }
+    }
+    if (sender != null && sender.isOpen()) {
+      sender.close();
+    }
+  }
+
+  public void testSendBlocksWhenQueueFull() throws Exception {
+    open(2, true, 1);
+    RecordingSenderChannel channel = channels[0];
+    assertTrue(sender.sendMessage("m0"));
+    assertTrue("Channel did not take a message", channel.awaitSendStarted(TIMEOUT));
+    assertTrue(sender.sendMessage("m1"));
+    assertTrue(sender.sendMessage("m2"));
+
+    Thread producer = new Thread(new Runnable() {
+      public void run() {
+        sender.sendMessage("m3");
+      }
+    }, "producer");
+    producer.setDaemon(true);
+    producer.start();
+    producer.join(BLOCK_CHECK_TIME);
+    assertTrue("Producer not blocked on a full queue", producer.isAlive());
+
+    channel.release();
+    producer.join(TIMEOUT);
+    assertFalse("Producer not released", producer.isAlive());
+    assertEquals(Arrays.asList("m0", "m1", "m2", "m3"), channel.awaitMessages(4, TIMEOUT));
+  }
+
+  public void testEachMessageSentOnce() throws Exception {
+    open(16, false, 3);
+    for (int i = 0; i < MSG_COUNT; ++i) {
+      assertTrue(sender.sendMessage("m" + i));
+    }
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    Set<Object> received = new HashSet<Object>();
+    int receivedCount = 0;
+    while (receivedCount < MSG_COUNT && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+      received.clear();
+      receivedCount = 0;
+      for (RecordingSenderChannel channel : channels) {
+        List<Object> messages = channel.awaitMessages(0, 0);
+        received.addAll(messages);
+        receivedCount += messages.size();
+      }
+    }
+    assertEquals("Messages lost or sent more than once", MSG_COUNT, receivedCount);
+    assertEquals("Messages sent more than once", MSG_COUNT, received.size());
+  }
+
+  public void testGetMessageWhenEmpty() throws Exception {
+    sender = new BalancedMessageSender(2);
+    try {
+      sender.getMessage();
+      fail("Empty sender returned a message");
+    } catch (NoMoreMessagesException e) {
+      // expected
+    }
+  }
+
+  public void testSendWhenClosed() throws Exception {
+    open(2, false, 1);
+    sender.close();
+    try {
+      sender.sendMessage("m0");
+      fail("Closed sender accepted a message");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  private void open(int capacity, boolean blocked, int channelCount) {
+    sender = new BalancedMessageSender(capacity);
+    channels = new RecordingSenderChannel[channelCount];
+    for (int i = 0; i < channelCount; ++i) {
+      channels[i] = new RecordingSenderChannel(blocked);
+      sender.addChannel(channels[i]);
+    }
+    sender.open();
+  }
+}
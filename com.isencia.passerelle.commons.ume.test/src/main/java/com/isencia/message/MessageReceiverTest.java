@@ -0,0 +1,186 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Checks the bounded queue of the <code>MessageReceiver</code> : blocking channels when it is full, draining messages in batches,
+ * and releasing blocked channels and consumers when the receiver closes, dropping the messages that could not be queued.
+ *
+ * @author erwin
+ */
+public class MessageReceiverTest extends TestCase {
+
+  private final static long TIMEOUT = 5000;
+  private final static long BLOCK_CHECK_TIME = 300;
+
+  private MessageReceiver receiver;
+  private IReceiverChannel source = new ReceiverChannel() {
+    protected Object doGetMessage() throws ChannelException, NoMoreMessagesException {
+      return null;
+    }
+  };
+
+  public void testAcceptBlocksWhenQueueFull() throws Exception {
+    receiver = new MessageReceiver(false, 2);
+    receiver.open();
+    receiver.acceptMessage("m0", source);
+    receiver.acceptMessage("m1", source);
+    Thread producer = startProducer("m2");
+    producer.join(BLOCK_CHECK_TIME);
+    assertTrue("Producer not blocked on a full queue", producer.isAlive());
+
+    assertEquals("m0", receiver.getMessage());
+    producer.join(TIMEOUT);
+    assertFalse("Producer not released", producer.isAlive());
+    assertEquals("m1", receiver.getMessage());
+    assertEquals("m2", receiver.getMessage());
+  }
+
+  public void testDrainMessages() throws Exception {
+    receiver = new MessageReceiver(false, 10);
+    receiver.open();
+    for (int i = 0; i < 5; ++i) {
+      receiver.acceptMessage("m" + i, source);
+    }
+    List<Object> messages = new ArrayList<Object>();
+    assertEquals(3, receiver.drainMessages(messages, 3));
+    assertEquals(Arrays.asList("m0", "m1", "m2"), messages);
+    messages.clear();
+    assertEquals(2, receiver.drainMessages(messages, 3));
+    assertEquals(Arrays.asList("m3", "m4"), messages);
+  }
+
+  public void testDrainMessagesAfterClose() throws Exception {
+    receiver = new MessageReceiver(false, 10);
+    receiver.open();
+    receiver.acceptMessage("m0", source);
+    receiver.acceptMessage("m1", source);
+    receiver.close();
+    List<Object> messages = new ArrayList<Object>();
+    assertEquals("The end marker must not be returned as a message", 2, receiver.drainMessages(messages, 10));
+    assertEquals(Arrays.asList("m0", "m1"), messages);
+    try {
+      receiver.drainMessages(messages, 10);
+      fail("Closed and empty receiver returned messages");
+    } catch (NoMoreMessagesException e) {
+      // expected
+    }
+  }
+
+  public void testCloseReleasesBlockedConsumer() throws Exception {
+    receiver = new MessageReceiver(false, 2);
+    receiver.open();
+    final List<Throwable> results = new ArrayList<Throwable>();
+    Thread consumer = new Thread(new Runnable() {
+      public void run() {
+        try {
+          receiver.getMessage();
+        } catch (Throwable t) {
+          synchronized (results) {
+            results.add(t);
+          }
+        }
+      }
+    }, "consumer");
+    consumer.setDaemon(true);
+    consumer.start();
+    consumer.join(BLOCK_CHECK_TIME);
+    assertTrue("Consumer not blocked on an empty queue", consumer.isAlive());
+
+    receiver.close();
+    consumer.join(TIMEOUT);
+    assertFalse("Consumer not released", consumer.isAlive());
+    assertEquals(1, results.size());
+    assertTrue("Unexpected result " + results, results.get(0) instanceof NoMoreMessagesException);
+  }
+
+  public void testSourceClosedReleasesBlockedConsumer() throws Exception {
+    receiver = new MessageReceiver(true, 2);
+    receiver.open();
+    receiver.sourceOpened(source);
+    final List<Object> messages = new ArrayList<Object>();
+    Thread consumer = new Thread(new Runnable() {
+      public void run() {
+        try {
+          receiver.drainMessages(messages, 10);
+        } catch (NoMoreMessagesException e) {
+          // expected
+        }
+      }
+    }, "consumer");
+    consumer.setDaemon(true);
+    consumer.start();
+    consumer.join(BLOCK_CHECK_TIME);
+    assertTrue("Consumer not blocked on an empty queue", consumer.isAlive());
+
+    receiver.sourceClosed(source);
+    consumer.join(TIMEOUT);
+    assertFalse("Consumer not released", consumer.isAlive());
+    assertTrue("Unexpected messages " + messages, messages.isEmpty());
+    assertFalse(receiver.isOpen());
+  }
+
+  public void testCloseReleasesBlockedProducerAndDropsMessage() throws Exception {
+    receiver = new MessageReceiver(false, 1);
+    receiver.open();
+    receiver.acceptMessage("m0", source);
+    Thread producer = startProducer("m1");
+    producer.join(BLOCK_CHECK_TIME);
+    assertTrue("Producer not blocked on a full queue", producer.isAlive());
+
+    receiver.close();
+    producer.join(TIMEOUT);
+    assertFalse("Producer not released", producer.isAlive());
+    // the queued message is still delivered, the blocked one is dropped
+    assertTrue(receiver.hasMessage());
+    assertEquals("m0", receiver.getMessage());
+    assertFalse(receiver.hasMessage());
+    try {
+      receiver.getMessage();
+      fail("Dropped message was delivered");
+    } catch (NoMoreMessagesException e) {
+      // expected
+    }
+  }
+
+  public void testReopenAfterClose() throws Exception {
+    receiver = new MessageReceiver(false, 2);
+    receiver.open();
+    receiver.close();
+    receiver.open();
+    receiver.acceptMessage("m0", source);
+    assertEquals("The end marker of the previous close must be removed", "m0", receiver.getMessage());
+  }
+
+  private Thread startProducer(final Object message) {
+    Thread producer = new Thread(new Runnable() {
+      public void run() {
+        try {
+          receiver.acceptMessage(message, source);
+        } catch (InterruptedException e) {
+          // stop
+        }
+      }
+    }, "producer");
+    producer.setDaemon(true);
+    producer.start();
+    return producer;
+  }
+}
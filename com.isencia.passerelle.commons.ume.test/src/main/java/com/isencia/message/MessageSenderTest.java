@@ -0,0 +1,123 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.message;
+
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Checks the bounded queue of the <code>MessageSender</code> : blocking producers when it is full,
+ * sending the pending messages in order, also when the sender is closed.
+ *
+ * @author erwin
+ */
+public class MessageSenderTest extends TestCase {
+
+  private final static long TIMEOUT = 5000;
+  private final static long BLOCK_CHECK_TIME = 300;
+
+  private RecordingSenderChannel channel;
+  private MessageSender sender;
+
+  protected void setUp() throws Exception {
+    channel = new RecordingSenderChannel(true);
+    sender = new MessageSender(2);
+    sender.addChannel(channel);
+    sender.open();
+  }
+
+  protected void tearDown() throws Exception {
+    channel.release();
+    if (sender.isOpen()) {
+      sender.close();
+    }
+  }
+
+  public void testSendBlocksWhenQueueFull() throws Exception {
+    fillQueue();
+    Thread producer = startProducer("m3");
+    producer.join(BLOCK_CHECK_TIME);
+    assertTrue("Producer not blocked on a full queue", producer.isAlive());
+
+    channel.release();
+    producer.join(TIMEOUT);
+    assertFalse("Producer not released", producer.isAlive());
+    assertEquals(Arrays.asList("m0", "m1", "m2", "m3"), channel.awaitMessages(4, TIMEOUT));
+  }
+
+  public void testCloseSendsPendingMessages() throws Exception {
+    fillQueue();
+    Thread closer = new Thread(new Runnable() {
+      public void run() {
+        sender.close();
+      }
+    }, "closer");
+    closer.start();
+    closer.join(BLOCK_CHECK_TIME);
+    assertTrue("Close should wait for the pending messages", closer.isAlive());
+
+    channel.release();
+    closer.join(TIMEOUT);
+    assertFalse("Close did not finish", closer.isAlive());
+    assertEquals(Arrays.asList("m0", "m1", "m2"), channel.awaitMessages(3, TIMEOUT));
+    assertFalse("Channel not closed", channel.isOpen());
+  }
+
+  public void testNullMessageStopsLoop() throws Exception {
+    channel.release();
+    sender.sendMessage("m0");
+    sender.sendMessage(null);
+    List<Object> messages = channel.awaitMessages(1, TIMEOUT);
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (channel.isOpen() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertFalse("Channel not closed after a null message", channel.isOpen());
+    assertEquals(Arrays.asList("m0"), messages);
+  }
+
+  public void testSendWhenClosed() throws Exception {
+    channel.release();
+    sender.close();
+    try {
+      sender.sendMessage("m0");
+      fail("Closed sender accepted a message");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Sends a first message, on which the channel blocks, and then fills the queue.
+   */
+  private void fillQueue() throws Exception {
+    assertTrue(sender.sendMessage("m0"));
+    assertTrue("Message loop did not start sending", channel.awaitSendStarted(TIMEOUT));
+    assertTrue(sender.sendMessage("m1"));
+    assertTrue(sender.sendMessage("m2"));
+  }
+
+  private Thread startProducer(final Object message) {
+    Thread producer = new Thread(new Runnable() {
+      public void run() {
+        sender.sendMessage(message);
+      }
+    }, "producer");
+    producer.setDaemon(true);
+    producer.start();
+    return producer;
+  }
+}
@@ -0,0 +1,71 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A sender channel for the sender tests, that records the sent messages.
+ * When it is created as blocked, each send blocks until the channel is released.
+ *
+ * @author erwin
+ */
+class RecordingSenderChannel extends SenderChannel {
+  private final CountDownLatch released;
+  private final CountDownLatch entered = new CountDownLatch(1);
+  private final List<Object> messages = new ArrayList<Object>();
+
+  RecordingSenderChannel(boolean blocked) {
+    released = new CountDownLatch(blocked ? 1 : 0);
+  }
+
+  protected void doSendMessage(Object message) throws Exception {
+    entered.countDown();
+    released.await();
+    synchronized (messages) {
+      messages.add(message);
+      messages.notifyAll();
+    }
+  }
+
+  void release() {
+    released.countDown();
+  }
+
+  /**
+   * @return true if a send has started within the given time
+   */
+  boolean awaitSendStarted(long timeout) throws InterruptedException {
+    return entered.await(timeout, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @return the messages sent until the given count was reached, or until the timeout (ms) expired
+   */
+  List<Object> awaitMessages(int count, long timeout) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeout;
+    synchronized (messages) {
+      long remaining = timeout;
+      while (messages.size() < count && remaining > 0) {
+        messages.wait(remaining);
+        remaining = deadline - System.currentTimeMillis();
+      }
+      return new ArrayList<Object>(messages);
+    }
+  }
+}
@@ -0,0 +1,147 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.message.db;
+
+import java.util.List;
+import junit.framework.TestCase;
+import com.isencia.message.ChannelException;
+
+/**
+ * Checks that the <code>DatabaseReceiverChannel</code> applies the fetch size to the statement, so the rows are fetched in chunks,
+ * and that it returns each row as a separate message, or batches of rows when a row batch size is set.
+ *
+ * @author erwin
+ */
+public class DatabaseReceiverChannelTest extends TestCase {
+
+  private final static int ROW_COUNT = 2500;
+
+  private InMemoryDatabase database;
+
+  protected void setUp() throws Exception {
+    database = new InMemoryDatabase("ID", "NAME", "ID");
+    for (int i = 0; i < ROW_COUNT; ++i) {
+      database.addRow(i, "name" + i, -i);
+    }
+  }
+
+  public void testRowPerMessage() throws Exception {
+    DatabaseReceiverChannel channel = createChannel();
+    channel.open();
+    assertEquals(DatabaseReceiverChannel.DEFAULT_FETCH_SIZE, database.getAppliedFetchSize());
+
+    int count = 0;
+    Object msg = null;
+    while ((msg = channel.getMessage()) != null) {
+      assertRow(count++, (Row) msg);
+    }
+    channel.close();
+
+    assertEquals(ROW_COUNT, count);
+    assertEquals("Rows not fetched in chunks of the fetch size", 3, database.getFetchCount());
+    assertEquals(DatabaseReceiverChannel.DEFAULT_FETCH_SIZE, database.getMaxBufferedRows());
+    assertTrue("Not all resources closed", database.isAllClosed());
+  }
+
+  public void testRowBatches() throws Exception {
+    DatabaseReceiverChannel channel = createChannel();
+    channel.setFetchSize(500);
+    channel.setRowBatchSize(300);
+    channel.open();
+    assertEquals(500, database.getAppliedFetchSize());
+
+    int count = 0;
+    int batchCount = 0;
+    Object msg = null;
+    while ((msg = channel.getMessage()) != null) {
+      List<?> rows = (List<?>) msg;
+      batchCount++;
+      int expectedSize = Math.min(300, ROW_COUNT - count);
+      assertEquals("Batch " + batchCount, expectedSize, rows.size());
+      for (Object row : rows) {
+        assertRow(count++, (Row) row);
+      }
+    }
+    channel.close();
+
+    assertEquals(ROW_COUNT, count);
+    assertEquals(9, batchCount);
+    assertEquals(5, database.getFetchCount());
+    assertEquals(500, database.getMaxBufferedRows());
+  }
+
+  public void testRowBatchesForEmptyResult() throws Exception {
+    database = new InMemoryDatabase("ID");
+    DatabaseReceiverChannel channel = createChannel();
+    channel.setRowBatchSize(10);
+    channel.open();
+    assertNull("No empty batch expected", channel.getMessage());
+    channel.close();
+  }
+
+  public void testNoFetchSize() throws Exception {
+    DatabaseReceiverChannel channel = createChannel();
+    channel.setFetchSize(0);
+    channel.open();
+    assertEquals("Fetch size should be left to the driver", -1, database.getAppliedFetchSize());
+    int count = 0;
+    while (channel.getMessage() != null) {
+      count++;
+    }
+    channel.close();
+    assertEquals(ROW_COUNT, count);
+    assertEquals(ROW_COUNT / InMemoryDatabase.DRIVER_DEFAULT_FETCH_SIZE, database.getFetchCount());
+  }
+
+  public void testRowIsReadOnly() throws Exception {
+    DatabaseReceiverChannel channel = createChannel();
+    channel.open();
+    Row row = (Row) channel.getMessage();
+    channel.close();
+    try {
+      row.put("NAME", "other");
+      fail("Row should be read-only");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+
+  public void testOpenWithoutQuery() throws Exception {
+    DatabaseReceiverChannel channel = new DatabaseReceiverChannel(database.getConnection());
+    try {
+      channel.open();
+      fail("Channel opened without query");
+    } catch (ChannelException e) {
+      // expected
+    }
+  }
+
+  private DatabaseReceiverChannel createChannel() {
+    DatabaseReceiverChannel channel = new DatabaseReceiverChannel(database.getConnection());
+    channel.setQuery("select * from TEST");
+    return channel;
+  }
+
+  /**
+   * Checks the values of a row, where the duplicate ID label only maps to the first ID column.
+   */
+  private void assertRow(int index, Row row) {
+    assertEquals(2, row.size());
+    assertEquals(index, row.get("ID"));
+    assertEquals("name" + index, row.get("NAME"));
+    assertEquals(-index, row.getValue(2));
+    assertEquals(3, row.getSchema().getColumnCount());
+  }
+}
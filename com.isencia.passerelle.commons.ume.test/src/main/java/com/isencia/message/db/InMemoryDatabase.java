@@ -0,0 +1,181 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.message.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A minimal in-memory JDBC database with a single table, for the <code>DatabaseReceiverChannel</code> tests.
+ * <p>
+ * Any query returns all rows of the table. The result set simulates fetching the rows from the database in chunks
+ * of the statement's fetch size, and counts these fetches, so the tests can check the fetch size that the channel applied.
+ * Only the JDBC methods used by the channel are supported.
+ * </p>
+ *
+ * @author erwin
+ */
+class InMemoryDatabase {
+  // used when no fetch size is set on the statement
+  final static int DRIVER_DEFAULT_FETCH_SIZE = 10;
+
+  private final String[] columnLabels;
+  private final List<Object[]> rows = new ArrayList<Object[]>();
+
+  // the fetch size set on the last statement, or -1 if none was set
+  private int appliedFetchSize = -1;
+  private int fetchCount;
+  private int maxBufferedRows;
+  private boolean connectionClosed;
+  private boolean statementClosed;
+  private boolean resultSetClosed;
+
+  InMemoryDatabase(String... columnLabels) {
+    this.columnLabels = columnLabels;
+  }
+
+  void addRow(Object... values) {
+    rows.add(values);
+  }
+
+  Connection getConnection() {
+    return proxy(Connection.class, new InvocationHandler() {
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if ("createStatement".equals(method.getName())) {
+          return createStatement();
+        } else if ("close".equals(method.getName())) {
+          connectionClosed = true;
+          return null;
+        } else if ("isClosed".equals(method.getName())) {
+          return connectionClosed;
+        }
+        throw new SQLException("Not supported : " + method.getName());
+      }
+    });
+  }
+
+  int getAppliedFetchSize() {
+    return appliedFetchSize;
+  }
+
+  /**
+   * @return the nr of chunks that were fetched from the "database" until now
+   */
+  int getFetchCount() {
+    return fetchCount;
+  }
+
+  /**
+   * @return the max nr of rows that the "driver" held in memory at once
+   */
+  int getMaxBufferedRows() {
+    return maxBufferedRows;
+  }
+
+  boolean isAllClosed() {
+    return connectionClosed && statementClosed && resultSetClosed;
+  }
+
+  private Statement createStatement() {
+    appliedFetchSize = -1;
+    return proxy(Statement.class, new InvocationHandler() {
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if ("setFetchSize".equals(method.getName())) {
+          appliedFetchSize = (Integer) args[0];
+          return null;
+        } else if ("executeQuery".equals(method.getName())) {
+          return createResultSet((appliedFetchSize > 0) ? appliedFetchSize : DRIVER_DEFAULT_FETCH_SIZE);
+        } else if ("close".equals(method.getName())) {
+          statementClosed = true;
+          return null;
+        }
+        throw new SQLException("Not supported : " + method.getName());
+      }
+    });
+  }
+
+  private ResultSet createResultSet(final int fetchSize) {
+    fetchCount = 0;
+    maxBufferedRows = 0;
+    final ResultSetMetaData metaData = proxy(ResultSetMetaData.class, new InvocationHandler() {
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if ("getColumnCount".equals(method.getName())) {
+          return columnLabels.length;
+        } else if ("getColumnLabel".equals(method.getName())) {
+          return columnLabels[(Integer) args[0] - 1];
+        }
+        throw new SQLException("Not supported : " + method.getName());
+      }
+    });
+    return proxy(ResultSet.class, new InvocationHandler() {
+      private int cursor = -1;
+      // the index of the first row after the fetched chunk
+      private int fetchedLimit = 0;
+
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if ("next".equals(method.getName())) {
+          if (cursor + 1 >= rows.size()) {
+            cursor = rows.size();
+            return false;
+          }
+          cursor++;
+          if (cursor >= fetchedLimit) {
+            fetchedLimit = Math.min(rows.size(), cursor + fetchSize);
+            fetchCount++;
+            maxBufferedRows = Math.max(maxBufferedRows, fetchedLimit - cursor);
+          }
+          return true;
+        } else if ("getObject".equals(method.getName()) && (args[0] instanceof Integer)) {
+          if (cursor < 0 || cursor >= rows.size()) {
+            throw new SQLException("No current row");
+          }
+          return rows.get(cursor)[(Integer) args[0] - 1];
+        } else if ("getMetaData".equals(method.getName())) {
+          return metaData;
+        } else if ("close".equals(method.getName())) {
+          resultSetClosed = true;
+          return null;
+        }
+        throw new SQLException("Not supported : " + method.getName());
+      }
+    });
+  }
+
+  /**
+   * Creates a proxy for the given JDBC interface, where the <code>Object</code> methods are handled by identity.
+   */
+  private static <T> T proxy(final Class<T> type, final InvocationHandler handler) {
+    return type.cast(Proxy.newProxyInstance(InMemoryDatabase.class.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if ("equals".equals(method.getName()) && method.getParameterTypes().length == 1) {
+          return proxy == args[0];
+        } else if ("hashCode".equals(method.getName()) && method.getParameterTypes().length == 0) {
+          return System.identityHashCode(proxy);
+        } else if ("toString".equals(method.getName()) && method.getParameterTypes().length == 0) {
+          return "InMemory" + type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+        }
+        return handler.invoke(proxy, method, args);
+      }
+    }));
+  }
+}
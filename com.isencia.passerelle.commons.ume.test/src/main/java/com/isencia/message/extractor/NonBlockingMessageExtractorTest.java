@@ -0,0 +1,136 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.message.extractor;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Checks the extraction of pushed data by the <code>INonBlockingMessageExtractor</code> implementations.
+ * <p>
+ * Each input is pushed once as a whole and once split in fragments of each possible size,
+ * so messages and line separators are also split across buffers. The result must always be the same.
+ * </p>
+ *
+ * @author erwin
+ */
+public class NonBlockingMessageExtractorTest extends TestCase {
+
+  private final static char FS = 0x1C;
+
+  public void testTextLineMessages() {
+    assertExtracted(new TextLineMessageExtractor(), "first\nsecond\nthird\n", "first", "second", "third");
+  }
+
+  public void testTextLineSkipsCarriageReturn() {
+    assertExtracted(new TextLineMessageExtractor(), "first\r\nsecond\r\n", "first", "second");
+  }
+
+  public void testTextLineEmptyLines() {
+    assertExtracted(new TextLineMessageExtractor(), "first\n\n\r\nsecond\n", "first", "", "", "second");
+  }
+
+  public void testTextLineIncompleteLastLine() {
+    assertExtracted(new TextLineMessageExtractor(), "first\nlast", "first", "last");
+  }
+
+  public void testTextLineCarriageReturnAsLastLine() {
+    assertExtracted(new TextLineMessageExtractor(), "first\n\r", "first", "");
+  }
+
+  public void testTextLineNoDataAfterLastSeparator() {
+    assertExtracted(new TextLineMessageExtractor(), "first\n", "first");
+  }
+
+  public void testTextLineWaitsForSeparator() {
+    TextLineMessageExtractor extractor = new TextLineMessageExtractor();
+    List<Object> messages = new ArrayList<Object>();
+    extractor.extract(CharBuffer.wrap("fir"), messages);
+    extractor.extract(CharBuffer.wrap("st\r"), messages);
+    assertTrue("Incomplete line extracted " + messages, messages.isEmpty());
+    extractor.extract(CharBuffer.wrap("\nsec"), messages);
+    assertEquals(Arrays.asList("first"), messages);
+  }
+
+  public void testEndOfMsgCharMessages() {
+    assertExtracted(new EndOfMsgCharMsgExtractor(), "first" + FS + "second" + FS, "first", "second");
+  }
+
+  public void testEndOfMsgCharSkipsEmptyMessages() {
+    assertExtracted(new EndOfMsgCharMsgExtractor(), FS + "first" + FS + FS + "second" + FS + FS, "first", "second");
+  }
+
+  public void testEndOfMsgCharIncompleteLastMessage() {
+    assertExtracted(new EndOfMsgCharMsgExtractor(), "first" + FS + "last", "first", "last");
+  }
+
+  public void testEndOfMsgCharCustomChar() {
+    assertExtracted(new EndOfMsgCharMsgExtractor('|'), "first\n|second\r\n|", "first\n", "second\r\n");
+  }
+
+  public void testEndOfMsgCharClonePreservesChar() {
+    assertExtracted((INonBlockingMessageExtractor) new EndOfMsgCharMsgExtractor('|').cloneExtractor(), "first|second|", "first", "second");
+  }
+
+  public void testStreamClosedMessage() {
+    assertExtracted(new StreamClosedMsgExtractor(), "first\nsecond" + FS + "third", "first\nsecond" + FS + "third");
+  }
+
+  public void testStreamClosedWaitsForEndOfData() {
+    StreamClosedMsgExtractor extractor = new StreamClosedMsgExtractor();
+    List<Object> messages = new ArrayList<Object>();
+    extractor.extract(CharBuffer.wrap("first\n"), messages);
+    extractor.extract(CharBuffer.wrap("second\n"), messages);
+    assertTrue("Message extracted before end of data " + messages, messages.isEmpty());
+    extractor.endOfData(messages);
+    assertEquals(Arrays.asList("first\nsecond\n"), messages);
+  }
+
+  public void testStreamClosedNoData() {
+    assertExtracted(new StreamClosedMsgExtractor(), "");
+  }
+
+  public void testExtractConsumesAllData() {
+    INonBlockingMessageExtractor[] extractors = { new TextLineMessageExtractor(), new EndOfMsgCharMsgExtractor(), new StreamClosedMsgExtractor() };
+    for (INonBlockingMessageExtractor extractor : extractors) {
+      CharBuffer data = CharBuffer.wrap("first\nsecond" + FS + "third");
+      extractor.extract(data, new ArrayList<Object>());
+      assertFalse(extractor.getClass().getSimpleName() + " did not consume all data", data.hasRemaining());
+    }
+  }
+
+  /**
+   * Pushes the data as a whole, and split in fragments of each possible size, to a fresh clone of the given extractor,
+   * and checks that the expected messages are extracted each time.
+   */
+  private void assertExtracted(INonBlockingMessageExtractor extractor, String data, String... expectedMessages) {
+    List<String> expected = Arrays.asList(expectedMessages);
+    for (int fragmentSize = 1; fragmentSize <= Math.max(1, data.length()); ++fragmentSize) {
+      INonBlockingMessageExtractor clone = (INonBlockingMessageExtractor) extractor.cloneExtractor();
+      List<Object> messages = new ArrayList<Object>();
+      for (int start = 0; start < data.length(); start += fragmentSize) {
+        CharBuffer fragment = CharBuffer.allocate(fragmentSize);
+        fragment.append(data, start, Math.min(data.length(), start + fragmentSize));
+        fragment.flip();
+        clone.extract(fragment, messages);
+      }
+      clone.endOfData(messages);
+      assertEquals("Fragment size " + fragmentSize, expected, messages);
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.message.io;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.isencia.message.generator.MessageTextLineGenerator;
+
+/**
+ * Measures the sustained lines per second written by a <code>FileSenderChannel</code>, for the unbuffered writer
+ * that is flushed after each line, as used before, compared to a buffered writer and a <code>FileChannelWriter</code>
+ * that are only flushed after a batch of lines.
+ * <p>
+ * The results are logged, the test only fails when lines are missing in the written file.
+ * </p>
+ *
+ * @author erwin
+ */
+public class FileSenderChannelThroughputTest extends TestCase {
+  private final static Logger LOGGER = LoggerFactory.getLogger(FileSenderChannelThroughputTest.class);
+
+  private final static int LINE_COUNT = 200000;
+  private final static int FLUSH_COUNT = 1000;
+  private final static String LINE = "2011-01-01 00:00:00.000 some measurement value : 123456789";
+
+  private File destFile;
+
+  protected void setUp() throws Exception {
+    destFile = File.createTempFile("FileSenderChannelThroughputTest", ".txt");
+  }
+
+  protected void tearDown() throws Exception {
+    destFile.delete();
+  }
+
+  public void testUnbufferedFlushPerLine() throws Exception {
+    FileSenderChannel channel = new FileSenderChannel(destFile, new MessageTextLineGenerator());
+    LOGGER.info("Unbuffered, flush per line : {} lines/s", measureLineRate(channel));
+  }
+
+  public void testBufferedFlushPerBatch() throws Exception {
+    FileSenderChannel channel = new FileSenderChannel(destFile, new MessageTextLineGenerator(System.getProperty("line.separator"), FLUSH_COUNT, 0));
+    channel.setBufferSize(FileSenderChannel.DEFAULT_BUFFER_SIZE);
+    LOGGER.info("Buffered, flush per {} lines : {} lines/s", FLUSH_COUNT, measureLineRate(channel));
+  }
+
+  public void testFileChannelFlushPerBatch() throws Exception {
+    FileSenderChannel channel = new FileSenderChannel(destFile, "UTF-8", new MessageTextLineGenerator(System.getProperty("line.separator"), FLUSH_COUNT, 0));
+    channel.setUseFileChannel(true);
+    LOGGER.info("FileChannel, flush per {} lines : {} lines/s", FLUSH_COUNT, measureLineRate(channel));
+  }
+
+  /**
+   * @return the nr of lines per second written to the file, including the final flush and close
+   */
+  private long measureLineRate(FileSenderChannel channel) throws Exception {
+    channel.open();
+    long start = System.nanoTime();
+    try {
+      for (int i = 0; i < LINE_COUNT; ++i) {
+        channel.sendMessage(LINE);
+      }
+    } finally {
+      channel.close();
+    }
+    long elapsed = System.nanoTime() - start;
+    assertEquals("Missing lines in " + destFile, LINE_COUNT, countLines());
+    return (long) (LINE_COUNT * (double) TimeUnit.SECONDS.toNanos(1) / elapsed);
+  }
+
+  private int countLines() throws Exception {
+    BufferedReader reader = new BufferedReader(new FileReader(destFile));
+    try {
+      int count = 0;
+      String line = null;
+      while ((line = reader.readLine()) != null) {
+        assertEquals(LINE, line);
+        count++;
+      }
+      return count;
+    } finally {
+      reader.close();
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.message.net;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.isencia.message.extractor.TextLineMessageExtractor;
+
+/**
+ * A local loopback load test for the <code>NioSocketServerReceiverChannel</code>, measuring the accepted connections per second
+ * and the received messages per second for many concurrent clients.
+ * <p>
+ * The messages contain multi-byte chars, so these are also split across reads. For each connection, the messages must be received
+ * completely and in order. The rates are logged.
+ * </p>
+ *
+ * @author erwin
+ */
+public class NioSocketServerReceiverChannelLoadTest extends TestCase {
+  private final static Logger LOGGER = LoggerFactory.getLogger(NioSocketServerReceiverChannelLoadTest.class);
+
+  private final static int CONNECTION_COUNT = 200;
+  private final static int MSGS_PER_CONNECTION = 1000;
+  private final static int SENDER_COUNT = 8;
+  private final static Charset CHARSET = Charset.forName("UTF-8");
+
+  private NioSocketServerReceiverChannel channel;
+  private List<Socket> sockets = new ArrayList<Socket>();
+
+  protected void setUp() throws Exception {
+    ServerSocketChannel serverChannel = ServerSocketChannel.open();
+    serverChannel.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), CONNECTION_COUNT);
+    channel = new NioSocketServerReceiverChannel(serverChannel, new TextLineMessageExtractor(), CHARSET, NioSocketServerReceiverChannel.DEFAULT_NR_OF_IO_THREADS);
+    channel.setName("NioSocketServerReceiverChannelLoadTest");
+    channel.open();
+  }
+
+  protected void tearDown() throws Exception {
+    for (Socket socket : sockets) {
+      socket.close();
+    }
+    channel.close();
+  }
+
+  public void testLoopbackLoad() throws Exception {
+    int port = channel.getServerChannel().socket().getLocalPort();
+
+    long start = System.nanoTime();
+    for (int i = 0; i < CONNECTION_COUNT; ++i) {
+      sockets.add(new Socket(InetAddress.getLoopbackAddress(), port));
+    }
+    long deadline = start + TimeUnit.SECONDS.toNanos(30);
+    while (channel.getNrOfConnections() < CONNECTION_COUNT && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    long connectNanos = System.nanoTime() - start;
+    assertEquals("Not all connections accepted", CONNECTION_COUNT, channel.getNrOfConnections());
+
+    final List<Throwable> errors = new ArrayList<Throwable>();
+    List<Thread> senders = new ArrayList<Thread>();
+    for (int s = 0; s < SENDER_COUNT; ++s) {
+      final int senderIndex = s;
+      Thread sender = new Thread(new Runnable() {
+        public void run() {
+          try {
+            // each sender serves a subset of the connections, interleaving their messages
+            List<Writer> writers = new ArrayList<Writer>();
+            for (int i = senderIndex; i < CONNECTION_COUNT; i += SENDER_COUNT) {
+              writers.add(new BufferedWriter(new OutputStreamWriter(sockets.get(i).getOutputStream(), CHARSET)));
+            }
+            for (int j = 0; j < MSGS_PER_CONNECTION; ++j) {
+              for (int w = 0; w < writers.size(); ++w) {
+                writers.get(w).write(getMessage(senderIndex + w * SENDER_COUNT, j) + "\n");
+              }
+            }
+            for (Writer writer : writers) {
+              writer.close();
+            }
+          } catch (Throwable t) {
+            synchronized (errors) {
+              errors.add(t);
+            }
+          }
+        }
+      }, "sender-" + s);
+      sender.setDaemon(true);
+      senders.add(sender);
+    }
+
+    int totalCount = CONNECTION_COUNT * MSGS_PER_CONNECTION;
+    int[] nextMsgIndex = new int[CONNECTION_COUNT];
+    start = System.nanoTime();
+    for (Thread sender : senders) {
+      sender.start();
+    }
+    for (int n = 0; n < totalCount; ++n) {
+      String msg = (String) channel.getMessage();
+      assertNotNull("Missing message " + n, msg);
+      // format : connection index, msg index and a multi-byte suffix
+      String[] parts = msg.split(" ");
+      int connectionIndex = Integer.parseInt(parts[0]);
+      assertEquals("Message out of order for connection " + connectionIndex, getMessage(connectionIndex, nextMsgIndex[connectionIndex]++), msg);
+    }
+    long receiveNanos = System.nanoTime() - start;
+    for (Thread sender : senders) {
+      sender.join(TimeUnit.SECONDS.toMillis(10));
+    }
+    assertTrue("Sender errors " + errors, errors.isEmpty());
+    assertEquals(totalCount, channel.getNrOfMessages());
+
+    LOGGER.info("{} connections : {} connections/s, {} msg/s", new Object[] { CONNECTION_COUNT, getRate(CONNECTION_COUNT, connectNanos),
+        getRate(totalCount, receiveNanos) });
+  }
+
+  private String getMessage(int connectionIndex, int msgIndex) {
+    return connectionIndex + " " + msgIndex + " m\u00e9sure \u00b5s \u20ac";
+  }
+
+  private long getRate(long count, long nanos) {
+    return (long) (count * (double) TimeUnit.SECONDS.toNanos(1) / nanos);
+  }
+}
@@ -14,20 +14,20 @@
 */
 package com.isencia.message;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import com.isencia.util.EmptyQueueException;
-import com.isencia.util.FIFOQueue;
-import com.isencia.util.IQueue;
 
 /**
  * Base class for asynchronous message senders, using an intermediate
- * synchronized queue. This allows the send side clients to add new msgs
- * independently of the overhead of the actual sending operation. TODO: put a
- * max size on the queue.
+ * bounded blocking queue. This allows the send side clients to add new msgs
+ * independently of the overhead of the actual sending operation. When the
+ * queue is full, sendMessage() blocks until the channels have taken msgs from
+ * it.
  * 
  * @version 1.0
  * @author erwin
@@ -36,15 +36,27 @@ public class BalancedMessageSender implements IMessageSender, IMessageProvider {
 
   private static final Logger logger = LoggerFactory.getLogger(BalancedMessageSender.class);
   private Collection<ISenderChannel> channels = null;
-  private boolean open = false;
-  private IQueue queue = null;
+  private volatile boolean open = false;
+  private BlockingQueue<Object> queue = null;
+
+  public final static int DEFAULT_CAPACITY = 10000;
 
   /**
    * Creates a new BalancedMessageSender object.
    */
   public BalancedMessageSender() {
-    queue = new FIFOQueue();
-    channels = new ArrayList<ISenderChannel>();
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates a new BalancedMessageSender object.
+   * 
+   * @param capacity the max nr of msgs that can be queued in the sender
+   */
+  public BalancedMessageSender(int capacity) {
+    queue = new LinkedBlockingQueue<Object>(capacity);
+    // copy-on-write, so sendMessage() can notify the channels without locking
+    channels = new CopyOnWriteArrayList<ISenderChannel>();
   }
 
   public Collection<ISenderChannel> getChannels() {
@@ -54,16 +66,13 @@ public class BalancedMessageSender implements IMessageSender, IMessageProvider {
   public Object getMessage() throws NoMoreMessagesException {
     if (logger.isTraceEnabled()) logger.trace("getMessage() - entry");
 
-    synchronized (queue) {
-      try {
-        Object object = queue.get();
-        if (logger.isTraceEnabled()) logger.trace("getMessage() - exit - Result :" + object);
-
-        return object;
-      } catch (EmptyQueueException e) {
-        throw new NoMoreMessagesException(e.toString());
-      }
+    Object object = queue.poll();
+    if (object == null) {
+      throw new NoMoreMessagesException("Queue empty");
     }
+    if (logger.isTraceEnabled()) logger.trace("getMessage() - exit - Result :" + object);
+
+    return object;
   }
 
   public boolean isOpen() {
@@ -97,10 +106,8 @@ public class BalancedMessageSender implements IMessageSender, IMessageProvider {
     if (logger.isTraceEnabled()) logger.trace("close() - exit");
   }
 
-  public synchronized boolean hasMessage() {
-    synchronized (queue) {
-      return !queue.isEmpty();
-    }
+  public boolean hasMessage() {
+    return !queue.isEmpty();
   }
 
   public void open() {
@@ -150,15 +157,18 @@ public class BalancedMessageSender implements IMessageSender, IMessageProvider {
     boolean ret = false;
     if (!open) throw new IllegalStateException("sendMessage() - MessageSender is not open");
 
-    synchronized (queue) {
-      ret = queue.put(message);
-      if (ret) {
-        Iterator<ISenderChannel> chItr = channels.iterator();
-        while (chItr.hasNext()) {
-          ISenderChannel ch = chItr.next();
-          logger.debug("sendMessage() - Send message on channel ");
-          ch.messageAvailable();
-        }
+    try {
+      queue.put(message);
+      ret = true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (ret) {
+      Iterator<ISenderChannel> chItr = channels.iterator();
+      while (chItr.hasNext()) {
+        ISenderChannel ch = chItr.next();
+        logger.debug("sendMessage() - Send message on channel ");
+        ch.messageAvailable();
       }
     }
 
@@ -173,8 +183,6 @@ public class BalancedMessageSender implements IMessageSender, IMessageProvider {
    * @return boolean
    */
   protected boolean hasMessages() {
-    synchronized (queue) {
-      return !queue.isEmpty();
-    }
+    return !queue.isEmpty();
   }
 }
\ No newline at end of file
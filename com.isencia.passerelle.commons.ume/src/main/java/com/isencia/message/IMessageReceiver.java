@@ -39,6 +39,20 @@ public interface IMessageReceiver extends IMessageListener {
    */
   public Object getMessage() throws NoMoreMessagesException;
 
+  /**
+   * Moves available messages from the receiver to the given collection.
+   * Blocking method, waits until at least one message is available, and then
+   * adds it together with at most maxMessages-1 other messages that are
+   * already available. This allows consumers to handle many messages per
+   * wake-up.
+   * 
+   * @param messages
+   * @param maxMessages
+   * @return the nr of messages added to the collection
+   * @throws NoMoreMessagesException
+   */
+  public int drainMessages(Collection<Object> messages, int maxMessages) throws NoMoreMessagesException;
+
   /**
    * Adds a receiver channel.
    * 
@@ -19,15 +19,17 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import com.isencia.util.BlockingReaderQueue;
-import com.isencia.util.EmptyQueueException;
-import com.isencia.util.FIFOQueue;
 
 /**
  * Base class for asynchronous message receivers, using an intermediate
- * synchronized queue. TODO: put a max size on the queue.
+ * bounded blocking queue. When the queue is full, the channels are blocked
+ * in acceptMessage() until the consumer has taken messages from it.
+ * When the receiver is closing, blocked channels are released and their messages are dropped.
  * 
  * @version 1.0
  * @author erwin
@@ -42,10 +44,18 @@ public class MessageReceiver implements IMessageReceiver {
   private Collection<IReceiverChannel> channels = null;
 
   // flag used to simulate simple state machine during closing phase
-  private boolean isClosing = false;
+  private volatile boolean isClosing = false;
   private boolean open = false;
   private Set<IReceiverChannel> openChannels = null;
-  private BlockingReaderQueue queue = null;
+  private BlockingQueue<Object> queue = null;
+  // set when the receiver has closed, after which the END_MARKER is in the queue
+  // to release blocked consumers
+  private volatile boolean triggered = false;
+
+  public final static int DEFAULT_CAPACITY = 10000;
+  private final static Object END_MARKER = new Object();
+  // max time that producers and consumers block on the queue before checking whether the receiver has closed
+  private final static long CLOSE_CHECK_INTERVAL = 100;
 
   /**
    * Creates a new MessageReceiver object.
@@ -61,7 +71,18 @@ public class MessageReceiver implements IMessageReceiver {
    *          itself automatically when all its channels have closed.
    */
   public MessageReceiver(boolean autoClose) {
-    queue = new BlockingReaderQueue(new FIFOQueue());
+    this(autoClose, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates a new MessageReceiver object.
+   * 
+   * @param autoClose Flag used to indicate whether the receiver should close
+   *          itself automatically when all its channels have closed.
+   * @param capacity the max nr of messages that can be queued in the receiver
+   */
+  public MessageReceiver(boolean autoClose, int capacity) {
+    queue = new LinkedBlockingQueue<Object>(capacity);
     channels = new ArrayList<IReceiverChannel>();
     openChannels = new HashSet<IReceiverChannel>();
     this.autoClose = autoClose;
@@ -75,30 +96,79 @@ public class MessageReceiver implements IMessageReceiver {
     if (logger.isTraceEnabled()) {
       logger.trace("getMessage() - entry");
     }
-    if (isOpen() || hasMessage())
-      try {
-        Object result = queue.get();
-        if (logger.isTraceEnabled()) {
-          logger.trace("getMessage() - exit");
-        }
-        return result;
-      } catch (EmptyQueueException e) {
-        throw new NoMoreMessagesException(e.toString());
+    if (isOpen() || hasMessage()) {
+      Object result = take();
+      if (logger.isTraceEnabled()) {
+        logger.trace("getMessage() - exit");
       }
-    else
+      return result;
+    } else
       throw new NoMoreMessagesException("No more messages");
   }
 
+  public int drainMessages(Collection<Object> messages, int maxMessages) throws NoMoreMessagesException {
+    if (logger.isTraceEnabled()) {
+      logger.trace("drainMessages() - entry");
+    }
+    if (isOpen() || hasMessage()) {
+      messages.add(take());
+      int count = 1 + queue.drainTo(messages, maxMessages - 1);
+      if (triggered && messages.remove(END_MARKER)) {
+        count--;
+        queue.offer(END_MARKER);
+      }
+      if (logger.isTraceEnabled()) {
+        logger.trace("drainMessages() - exit - count :" + count);
+      }
+      return count;
+    } else
+      throw new NoMoreMessagesException("No more messages");
+  }
+
+  /**
+   * Blocks until a message is available, or until the receiver has closed.
+   * The END_MARKER releases blocked consumers immediately, but as it can not be queued when the queue is full,
+   * consumers also check for the closing of the receiver when the queue is empty.
+   */
+  private Object take() throws NoMoreMessagesException {
+    try {
+      Object result = null;
+      while ((result = queue.poll(CLOSE_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) == null) {
+        if (triggered) {
+          throw new NoMoreMessagesException("Triggered");
+        }
+      }
+      if (result == END_MARKER) {
+        // leave it for other blocked consumers
+        queue.offer(END_MARKER);
+        throw new NoMoreMessagesException("Triggered");
+      }
+      return result;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new NoMoreMessagesException("Interrupted");
+    }
+  }
+
   public boolean isOpen() {
     synchronized (openChannels) {
       return open;
     }
   }
 
-  public void acceptMessage(Object message, IReceiverChannel source) {
+  /**
+   * Blocks while the receiver's queue is full, until the receiver is closing.
+   * Messages that could not be queued before the receiver closes, are dropped.
+   */
+  public void acceptMessage(Object message, IReceiverChannel source) throws InterruptedException {
     if (logger.isTraceEnabled()) logger.trace("acceptMessage() - entry - Message: " + message);
 
-    queue.put(message);
+    while (!queue.offer(message, CLOSE_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+      if (isClosing || triggered) {
+        logger.warn("acceptMessage() - Receiver closing, dropped message from " + source);
+        return;
+      }
+    }
     if (logger.isTraceEnabled()) logger.trace("acceptMessage() - exit");
   }
 
@@ -128,6 +198,8 @@ public class MessageReceiver implements IMessageReceiver {
   public void close() {
     if (logger.isTraceEnabled()) logger.trace("close() - entry");
 
+    // set before closing the channels, to release the ones that are blocked on a full queue
+    isClosing = true;
     synchronized (channels) {
       if (getChannels().size() > 0) {
         Iterator<IReceiverChannel> chItr = channels.iterator();
@@ -142,10 +214,10 @@ public class MessageReceiver implements IMessageReceiver {
       } else {
         // set state immediately
         open = false;
+        triggerEnd();
       }
     }
 
-    isClosing = true;
     if (logger.isTraceEnabled()) logger.trace("close() - exit");
   }
 
@@ -154,12 +226,19 @@ public class MessageReceiver implements IMessageReceiver {
    * @see be.isencia.message.IMessageReceiver#hasMessage()
    */
   public boolean hasMessage() {
-    return !queue.isEmpty();
+    Object head = queue.peek();
+    return (head != null) && ((head != END_MARKER) || (queue.size() > 1));
   }
 
   public void open() {
     if (logger.isTraceEnabled()) logger.trace("open() - entry");
 
+    isClosing = false;
+    if (triggered) {
+      triggered = false;
+      queue.remove(END_MARKER);
+    }
+
     synchronized (channels) {
       // (re)open all channels
       Iterator<IReceiverChannel> chItr = getChannels().iterator();
@@ -208,17 +287,34 @@ public class MessageReceiver implements IMessageReceiver {
       open = !((openChannels.size() <= 0) && (autoClose || isClosing));
     }
 
-    // If all channels are closed, perform a trigger on the queue
+    // If all channels are closed, put the end marker on the queue
     // to release blocking get calls
     if (!isOpen()) {
       isClosing = false;
-      queue.trigger();
+      triggerEnd();
       logger.debug("sourceClosed() - Message receiver closed");
     }
 
     if (logger.isTraceEnabled()) logger.trace("sourceClosed() - exit - Open = " + open);
   }
 
+  /**
+   * Marks the receiver as closed and puts the END_MARKER on the queue, to release blocked consumers.
+   * When the queue remains full, consumers detect the closing once they have taken the remaining messages.
+   */
+  private void triggerEnd() {
+    if (!triggered) {
+      triggered = true;
+      try {
+        if (!queue.offer(END_MARKER, CLOSE_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+          logger.debug("triggerEnd() - Queue full, consumers will stop when it is drained");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
   public void sourceOpened(IReceiverChannel source) {
     if (logger.isTraceEnabled()) logger.trace("sourceOpened() - entry - source :" + source);
 
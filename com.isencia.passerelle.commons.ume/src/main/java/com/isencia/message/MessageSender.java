@@ -17,30 +17,43 @@ package com.isencia.message;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import com.isencia.util.BlockingReaderQueue;
-import com.isencia.util.EmptyQueueException;
-import com.isencia.util.FIFOQueue;
 
 /**
  * Base class for asynchronous message senders, using an intermediate
- * synchronized queue. This allows the send side clients to add new msgs
- * independently of the overhead of the actual sending operation. TODO: put a
- * max size on the queue.
+ * bounded blocking queue. This allows the send side clients to add new msgs
+ * independently of the overhead of the actual sending operation. When the
+ * queue is full, sendMessage() blocks until the message loop has taken msgs
+ * from it. The message loop takes all available msgs at each wake-up.
  * 
  * @author erwin
  */
 public class MessageSender implements IMessageSender {
   private final static Logger logger = LoggerFactory.getLogger(MessageSender.class);
 
-  private BlockingReaderQueue queue = null;
+  private BlockingQueue<Object> queue = null;
   private Collection<ISenderChannel> channels = null;
   private MessageLoop msgLoop = null;
-  private boolean open = false;
+  private volatile boolean open = false;
+
+  public final static int DEFAULT_CAPACITY = 10000;
+  private final static int MAX_BATCH_SIZE = 256;
+  // represents a null msg on the queue, which stops the message loop
+  private final static Object NULL_MESSAGE = new Object();
 
   public MessageSender() {
-    queue = new BlockingReaderQueue(new FIFOQueue());
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param capacity the max nr of msgs that can be queued in the sender
+   */
+  public MessageSender(int capacity) {
+    queue = new LinkedBlockingQueue<Object>(capacity);
     channels = new ArrayList<ISenderChannel>();
   }
 
@@ -59,7 +72,13 @@ public class MessageSender implements IMessageSender {
 
     if (!open) throw new IllegalStateException("MessageSender is not open");
 
-    boolean ret = queue.put(message);
+    boolean ret = false;
+    try {
+      queue.put(message != null ? message : NULL_MESSAGE);
+      ret = true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
 
     if (logger.isTraceEnabled()) logger.trace("sendMessage() - exit - ");
 
@@ -92,13 +111,16 @@ public class MessageSender implements IMessageSender {
     }
     if (open || hasMessages())
       try {
-        Object result = queue.get();
+        Object result = queue.take();
+        if (result == NULL_MESSAGE) {
+          result = null;
+        }
         if (logger.isTraceEnabled()) {
           logger.trace("getMessage() - exit - Result :" + result);
         }
         return result;
-      } catch (EmptyQueueException e) {
-        throw new NoMoreMessagesException(e.toString());
+      } catch (InterruptedException e) {
+        throw new NoMoreMessagesException("Interrupted");
       }
     else {
       throw new NoMoreMessagesException("No more messages");
@@ -239,17 +261,23 @@ public class MessageSender implements IMessageSender {
         logger.trace("MessageLoop.run() - entry");
       }
       try {
-        Object msg = null;
+        List<Object> batch = new ArrayList<Object>();
         boolean loop = true;
         int msgNr = 1;
         while (loop) {
-          msg = getMessage();
-          if (msg == null) {
-            loop = false;
-          } else {
-            logger.info("MessageLoop.run() - sending msg " + (msgNr++) + ":" + msg);
-            dispatchMessage(msg);
+          // block for the first msg, then take the ones that are already waiting as well
+          batch.add(getMessage());
+          queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+          for (Object msg : batch) {
+            if (msg == null || msg == NULL_MESSAGE) {
+              loop = false;
+              break;
+            } else {
+              if (logger.isDebugEnabled()) logger.debug("MessageLoop.run() - sending msg " + (msgNr++) + ":" + msg);
+              dispatchMessage(msg);
+            }
           }
+          batch.clear();
         }
       } catch (InterruptedException e) {
         // do nothing, just stop the loop
@@ -96,6 +96,26 @@ public class WriterSenderChannel extends SenderChannel {
     if (logger.isTraceEnabled()) logger.trace("close() - exit");
   }
 
+  /**
+   * Flushes any buffered messages to the underlying writer's destination.
+   * 
+   * @throws ChannelException
+   */
+  public void flush() throws ChannelException {
+    if (isOpen() && getWriter() != null) {
+      try {
+        if (getGenerator() instanceof MessageTextLineGenerator) {
+          // also resets the generator's flush policy state
+          ((MessageTextLineGenerator) getGenerator()).flush();
+        } else {
+          getWriter().flush();
+        }
+      } catch (IOException e) {
+        throw new ChannelException(e.getMessage());
+      }
+    }
+  }
+
   /**
    * Returns the generator.
    * 
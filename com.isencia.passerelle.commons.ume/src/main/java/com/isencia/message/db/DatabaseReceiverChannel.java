@@ -16,15 +16,28 @@ package com.isencia.message.db;
 
 import java.sql.Connection;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
-import java.util.HashMap;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.isencia.message.ChannelException;
 import com.isencia.message.ReceiverChannel;
 
 /**
- * DatabaseReceiverChannel
+ * DatabaseReceiverChannel reads the results of a query, and returns them as messages.
+ * <p>
+ * The rows are fetched from the database in chunks of the configured fetch size, 
+ * so the driver does not need to buffer the complete result in memory.
+ * (Some drivers have extra conditions for this, e.g. PostgreSQL only does it when the connection is not in auto-commit mode.)
+ * </p>
+ * <p>
+ * Each row is a <code>Row</code>, i.e. a read-only map of column names to values, 
+ * for which the column values are obtained by index and the column names are shared in a <code>RowSchema</code>.
+ * Receivers that modify the received rows must copy them first, e.g. into a <code>HashMap</code>.
+ * When a row batch size is set, each message is a <code>List</code> of up to that nr of rows, 
+ * i.o. a single row.
+ * </p>
  * 
  * @author wim geeraerts
  */
@@ -33,9 +46,13 @@ public class DatabaseReceiverChannel extends ReceiverChannel {
 
   private Connection connection;
   private String query;
+  private Statement statement;
   private ResultSet resultSet;
-  private ResultSetMetaData metaData;
-  private String[] columnNames;
+  private RowSchema schema;
+  private int fetchSize = DEFAULT_FETCH_SIZE;
+  private int rowBatchSize = 0;
+
+  public final static int DEFAULT_FETCH_SIZE = 1000;
 
   /**
    * @param server
@@ -52,12 +69,12 @@ public class DatabaseReceiverChannel extends ReceiverChannel {
     }
 
     try {
-      resultSet = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY).executeQuery(getQuery());
-      metaData = resultSet.getMetaData();
-      columnNames = new String[metaData.getColumnCount()];
-      for (int column = 0; column < metaData.getColumnCount(); column++) {
-        columnNames[column] = metaData.getColumnLabel(column + 1);
+      statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+      if (fetchSize > 0) {
+        statement.setFetchSize(fetchSize);
       }
+      resultSet = statement.executeQuery(getQuery());
+      schema = RowSchema.fromMetaData(resultSet.getMetaData());
     } catch (Exception e) {
       throw new ChannelException(e.toString());
     }
@@ -69,6 +86,7 @@ public class DatabaseReceiverChannel extends ReceiverChannel {
     super.close();
     try {
       resultSet.close();
+      statement.close();
       connection.close();
       logger.debug("Channel Closed");
     } catch (Exception e) {
@@ -77,21 +95,58 @@ public class DatabaseReceiverChannel extends ReceiverChannel {
   }
 
   protected Object doGetMessage() throws ChannelException {
-    HashMap<String, Object> msg = null;
     try {
-      if (resultSet.next()) {
-        msg = new HashMap<String, Object>();
-        for (int i = 0; i < columnNames.length; i++) {
-          String columnName = columnNames[i];
-          msg.put(columnName, resultSet.getObject(columnName));
+      if (rowBatchSize <= 0) {
+        return resultSet.next() ? readRow() : null;
+      }
+      List<Row> rows = null;
+      while (((rows == null) || (rows.size() < rowBatchSize)) && resultSet.next()) {
+        if (rows == null) {
+          rows = new ArrayList<Row>(rowBatchSize);
         }
+        rows.add(readRow());
       }
-      return msg;
+      return rows;
     } catch (Exception e) {
       throw new ChannelException(e.getMessage());
     }
   }
 
+  private Row readRow() throws Exception {
+    Object[] values = new Object[schema.getColumnCount()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = resultSet.getObject(i + 1);
+    }
+    return new Row(schema, values);
+  }
+
+  public RowSchema getSchema() {
+    return schema;
+  }
+
+  public int getFetchSize() {
+    return fetchSize;
+  }
+
+  /**
+   * @param fetchSize the nr of rows the driver should fetch from the database at once. 
+   * 0 means the driver's default. Only applied when the channel is opened.
+   */
+  public void setFetchSize(int fetchSize) {
+    this.fetchSize = fetchSize;
+  }
+
+  public int getRowBatchSize() {
+    return rowBatchSize;
+  }
+
+  /**
+   * @param rowBatchSize the max nr of rows in each message, or 0 if each row should be a separate message
+   */
+  public void setRowBatchSize(int rowBatchSize) {
+    this.rowBatchSize = rowBatchSize;
+  }
+
   public String getQuery() {
     return query;
   }
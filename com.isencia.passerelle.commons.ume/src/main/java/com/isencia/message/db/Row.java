@@ -0,0 +1,122 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.message.db;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A read-only row of a query result, holding just its column values and a reference to the shared <code>RowSchema</code>.
+ * <p>
+ * It can be used as a map from column names to values, like the <code>HashMap</code>s that were used before for each row.
+ * For duplicate column labels, the map only contains the first column's value. All values are available via <code>getValue(int)</code>.
+ * </p>
+ * <p>
+ * Unlike those <code>HashMap</code>s, a <code>Row</code> can not be modified: <code>put</code>, <code>remove</code> and <code>clear</code>
+ * throw an <code>UnsupportedOperationException</code>. Code that needs to modify a row should copy it first, 
+ * e.g. with <code>new HashMap&lt;String, Object&gt;(row)</code>.
+ * </p>
+ * 
+ * @author erwin
+ */
+public class Row extends AbstractMap<String, Object> implements Serializable {
+  private static final long serialVersionUID = 5641738205913274890L;
+
+  private RowSchema schema;
+  private Object[] values;
+
+  public Row(RowSchema schema, Object[] values) {
+    this.schema = schema;
+    this.values = values;
+  }
+
+  public RowSchema getSchema() {
+    return schema;
+  }
+
+  /**
+   * @param index 0-based column index
+   * @return the column's value
+   */
+  public Object getValue(int index) {
+    return values[index];
+  }
+
+  @Override
+  public Object get(Object key) {
+    int index = (key instanceof String) ? schema.getColumnIndex((String) key) : -1;
+    return (index >= 0) ? values[index] : null;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return (key instanceof String) && schema.getColumnIndex((String) key) >= 0;
+  }
+
+  @Override
+  public int size() {
+    return schema.getKeyColumnCount();
+  }
+
+  /**
+   * Rows are read-only.
+   * 
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public Object put(String key, Object value) {
+    throw new UnsupportedOperationException("Row is read-only, copy it to a HashMap to modify it");
+  }
+
+  @Override
+  public Set<Map.Entry<String, Object>> entrySet() {
+    return new AbstractSet<Map.Entry<String, Object>>() {
+      @Override
+      public int size() {
+        return schema.getKeyColumnCount();
+      }
+
+      @Override
+      public Iterator<Map.Entry<String, Object>> iterator() {
+        return new Iterator<Map.Entry<String, Object>>() {
+          private int index = 0;
+
+          public boolean hasNext() {
+            return index < schema.getKeyColumnCount();
+          }
+
+          public Map.Entry<String, Object> next() {
+            if (index >= schema.getKeyColumnCount()) {
+              throw new NoSuchElementException();
+            }
+            int column = schema.getKeyColumnIndex(index);
+            Map.Entry<String, Object> entry = new AbstractMap.SimpleImmutableEntry<String, Object>(schema.getColumnName(column), values[column]);
+            index++;
+            return entry;
+          }
+
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+}
@@ -0,0 +1,112 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.message.db;
+
+import java.io.Serializable;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The column names of a query result, shared by all its <code>Row</code>s.
+ * <p>
+ * When several columns have the same label, only the first one is used as map key by the <code>Row</code>s,
+ * as for ResultSet.getObject(String). The other ones remain available via their index.
+ * </p>
+ * 
+ * @author erwin
+ */
+public class RowSchema implements Serializable {
+  private static final long serialVersionUID = -3180472956184715163L;
+
+  private String[] columnNames;
+  private Map<String, Integer> columnIndexes;
+  // the indexes of the first column for each distinct label, in column order
+  private int[] keyColumnIndexes;
+
+  public RowSchema(String[] columnNames) {
+    this.columnNames = columnNames;
+    this.columnIndexes = new HashMap<String, Integer>();
+    for (int i = 0; i < columnNames.length; i++) {
+      // for duplicate labels, the first column wins, as for ResultSet.getObject(String)
+      if (!columnIndexes.containsKey(columnNames[i])) {
+        columnIndexes.put(columnNames[i], i);
+      }
+    }
+    this.keyColumnIndexes = new int[columnIndexes.size()];
+    int keyCount = 0;
+    for (int i = 0; i < columnNames.length; i++) {
+      if (columnIndexes.get(columnNames[i]) == i) {
+        keyColumnIndexes[keyCount++] = i;
+      }
+    }
+  }
+
+  /**
+   * @param metaData
+   * @return a schema with the column labels of the given result set meta data
+   * @throws SQLException
+   */
+  public static RowSchema fromMetaData(ResultSetMetaData metaData) throws SQLException {
+    String[] columnNames = new String[metaData.getColumnCount()];
+    for (int column = 0; column < columnNames.length; column++) {
+      columnNames[column] = metaData.getColumnLabel(column + 1);
+    }
+    return new RowSchema(columnNames);
+  }
+
+  public int getColumnCount() {
+    return columnNames.length;
+  }
+
+  /**
+   * @param index 0-based
+   * @return the column's name
+   */
+  public String getColumnName(int index) {
+    return columnNames[index];
+  }
+
+  /**
+   * @return the nr of distinct column labels
+   */
+  public int getKeyColumnCount() {
+    return keyColumnIndexes.length;
+  }
+
+  /**
+   * @param keyIndex 0-based index in the distinct column labels
+   * @return the 0-based index of the first column with that label
+   */
+  public int getKeyColumnIndex(int keyIndex) {
+    return keyColumnIndexes[keyIndex];
+  }
+
+  public List<String> getColumnNames() {
+    return Arrays.asList(columnNames);
+  }
+
+  /**
+   * @param columnName
+   * @return the 0-based index of the column, or -1 if there's no column with the given name
+   */
+  public int getColumnIndex(String columnName) {
+    Integer index = columnIndexes.get(columnName);
+    return (index != null) ? index : -1;
+  }
+}
@@ -17,6 +17,8 @@ package com.isencia.message.extractor;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.Collection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.isencia.message.EndOfDataException;
@@ -27,7 +29,7 @@ import com.isencia.message.EndOfDataException;
  * 
  * @author erwin
  */
-public class EndOfMsgCharMsgExtractor implements IMessageExtractor {
+public class EndOfMsgCharMsgExtractor implements INonBlockingMessageExtractor {
 
   private static final Logger logger = LoggerFactory.getLogger(EndOfMsgCharMsgExtractor.class);
   private static int defaultBuffSize = 256;
@@ -36,6 +38,8 @@ public class EndOfMsgCharMsgExtractor implements IMessageExtractor {
   private Reader reader;
 
   private char endOfMsgChar = 0x1C;
+  // the incomplete message for pushed data
+  private StringBuilder frame;
 
   public EndOfMsgCharMsgExtractor() {
     super();
@@ -171,6 +175,33 @@ public class EndOfMsgCharMsgExtractor implements IMessageExtractor {
     }
   }
 
+  /**
+   * For pushed data, empty messages are skipped.
+   */
+  public void extract(CharBuffer data, Collection<Object> messages) {
+    if (frame == null) {
+      frame = new StringBuilder(defaultBuffSize);
+    }
+    while (data.hasRemaining()) {
+      char c = data.get();
+      if (c == endOfMsgChar) {
+        if (frame.length() > 0) {
+          messages.add(frame.toString());
+          frame.setLength(0);
+        }
+      } else {
+        frame.append(c);
+      }
+    }
+  }
+
+  public void endOfData(Collection<Object> messages) {
+    if (frame != null && frame.length() > 0) {
+      messages.add(frame.toString());
+      frame.setLength(0);
+    }
+  }
+
   public IMessageExtractor cloneExtractor() {
     IMessageExtractor result = new EndOfMsgCharMsgExtractor(endOfMsgChar);
     return result;
@@ -0,0 +1,37 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.message.extractor;
+
+import java.io.IOException;
+
+/**
+ * Optional contract for readers that can find line ends themselves, more efficiently than by reading character per character.
+ * <p>
+ * The <code>TextLineMessageExtractor</code> uses it when the reader it is opened with implements this interface.
+ * </p>
+ * 
+ * @author erwin
+ */
+public interface ILineReader {
+
+  /**
+   * Reads the next line, i.e. until the next line feed or the end of the data. Carriage returns are dropped.
+   * 
+   * @return the next line, or null if the end of the data has been reached
+   * @throws IOException
+   */
+  public String readLine() throws IOException;
+
+}
@@ -0,0 +1,48 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.message.extractor;
+
+import java.nio.CharBuffer;
+import java.util.Collection;
+
+/**
+ * Extension of the extractor contract for data that is pushed to the extractor, e.g. by non-blocking channels,
+ * i.o. being pulled from a reader.
+ * <p>
+ * The data may arrive in arbitrary fragments. The extractor keeps the incomplete message between calls.
+ * As for all extractors, an instance must not be used concurrently, and it must be used either with a reader or with pushed data.
+ * </p>
+ * 
+ * @author erwin
+ */
+public interface INonBlockingMessageExtractor extends IMessageExtractor {
+
+  /**
+   * Consumes all remaining chars of the given data, and adds the messages that are completed by them to the given collection.
+   * 
+   * @param data
+   * @param messages
+   */
+  public void extract(CharBuffer data, Collection<Object> messages);
+
+  /**
+   * Indicates that no more data will arrive, e.g. because the connection has been closed by the peer.
+   * A remaining incomplete message is added to the given collection, if the extraction strategy considers it as a message.
+   * 
+   * @param messages
+   */
+  public void endOfData(Collection<Object> messages);
+
+}
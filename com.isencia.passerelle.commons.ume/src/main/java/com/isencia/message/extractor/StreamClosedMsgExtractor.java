@@ -17,6 +17,8 @@ package com.isencia.message.extractor;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.Collection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.isencia.message.EndOfDataException;
@@ -27,13 +29,15 @@ import com.isencia.message.EndOfDataException;
  * 
  * @author erwin
  */
-public class StreamClosedMsgExtractor implements IMessageExtractor {
+public class StreamClosedMsgExtractor implements INonBlockingMessageExtractor {
 
   private static final Logger logger = LoggerFactory.getLogger(StreamClosedMsgExtractor.class);
   private static int defaultBuffSize = 256;
   private StringBuffer buffer = null;
   private char prevChar;
   private Reader reader;
+  // all data pushed until now
+  private StringBuilder frame;
 
   public StreamClosedMsgExtractor() {
     super();
@@ -161,6 +165,21 @@ public class StreamClosedMsgExtractor implements IMessageExtractor {
     }
   }
 
+  public void extract(CharBuffer data, Collection<Object> messages) {
+    if (frame == null) {
+      frame = new StringBuilder(defaultBuffSize);
+    }
+    frame.append(data);
+    data.position(data.limit());
+  }
+
+  public void endOfData(Collection<Object> messages) {
+    if (frame != null && frame.length() > 0) {
+      messages.add(frame.toString());
+      frame.setLength(0);
+    }
+  }
+
   public IMessageExtractor cloneExtractor() {
     IMessageExtractor result = new StreamClosedMsgExtractor();
     return result;
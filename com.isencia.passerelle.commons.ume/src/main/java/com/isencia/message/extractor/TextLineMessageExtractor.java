@@ -17,6 +17,8 @@ package com.isencia.message.extractor;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.Collection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.isencia.message.EndOfDataException;
@@ -24,16 +26,34 @@ import com.isencia.message.EndOfDataException;
 /**
  * TextLineMessageExtractor An extractor that chops messages at each line feed,
  * corresponding to the platform default line feed sequence.
+ * <p>
+ * When the reader is an <code>ILineReader</code>, finding the lines is delegated to it.
+ * Otherwise the reader's data is read in blocks into a reused buffer.
+ * </p>
+ * <p>
+ * For pushed data, the same line semantics are applied.
+ * </p>
+ * <p>
+ * As all message extractors, it is not thread-safe.
+ * </p>
  * 
  * @author erwin
  */
-public class TextLineMessageExtractor implements IMessageExtractor {
+public class TextLineMessageExtractor implements INonBlockingMessageExtractor {
 
   private static final Logger logger = LoggerFactory.getLogger(TextLineMessageExtractor.class);
   private static int defaultBuffSize = 256;
-  private StringBuffer buffer = null;
+  private static int defaultReadBuffSize = 8192;
+  private StringBuilder buffer = new StringBuilder(defaultBuffSize);
   private char prevChar;
   private Reader reader;
+  // block of chars read from the reader, of which the ones between readPos and readLimit are not yet consumed
+  private char[] readBuffer;
+  private int readPos;
+  private int readLimit;
+  // the incomplete line for pushed data, and whether any char was received for it
+  private StringBuilder frame;
+  private boolean frameStarted;
 
   public TextLineMessageExtractor() {
     super();
@@ -43,7 +63,7 @@ public class TextLineMessageExtractor implements IMessageExtractor {
    * (non-Javadoc)
    * @see be.isencia.message.IMessageExtractor#getMessage()
    */
-  public synchronized Object getMessage() {
+  public Object getMessage() {
     if (logger.isTraceEnabled()) {
       logger.trace("getMessage() - entry");
     }
@@ -54,6 +74,19 @@ public class TextLineMessageExtractor implements IMessageExtractor {
       return null;
     }
 
+    if (reader instanceof ILineReader) {
+      try {
+        String message = ((ILineReader) reader).readLine();
+        if (logger.isTraceEnabled()) {
+          logger.trace("getMessage() - exit - result :" + message);
+        }
+        return message;
+      } catch (IOException e) {
+        // same as end of data, cfr readNextChar()
+        return null;
+      }
+    }
+
     while (true) {
 
       char c = '\uFFFF';
@@ -112,11 +145,18 @@ public class TextLineMessageExtractor implements IMessageExtractor {
    */
   private char readNextChar() throws EndOfDataException, Exception {
     try {
-      int res = reader.read();
+      if (readPos >= readLimit) {
+        if (readBuffer == null) {
+          readBuffer = new char[defaultReadBuffSize];
+        }
+        int res = reader.read(readBuffer, 0, readBuffer.length);
 
-      if (res == -1) throw new EndOfDataException();
+        if (res == -1) throw new EndOfDataException();
 
-      return (char) res;
+        readPos = 0;
+        readLimit = res;
+      }
+      return readBuffer[readPos++];
     } catch (EOFException e) {
       throw new EndOfDataException(e.getMessage());
     } catch (IOException e) {
@@ -157,7 +197,7 @@ public class TextLineMessageExtractor implements IMessageExtractor {
       logger.trace("initialize() - entry");
     }
     // clear buffer
-    buffer = new StringBuffer(defaultBuffSize);
+    buffer.setLength(0);
     prevChar = '\uFFFF';
 
     if (logger.isTraceEnabled()) {
@@ -175,11 +215,41 @@ public class TextLineMessageExtractor implements IMessageExtractor {
       logger.trace("open() - entry");
     }
     this.reader = reader;
+    readPos = 0;
+    readLimit = 0;
     if (logger.isTraceEnabled()) {
       logger.trace("open() - exit");
     }
   }
 
+  public void extract(CharBuffer data, Collection<Object> messages) {
+    if (frame == null) {
+      frame = new StringBuilder(defaultBuffSize);
+    }
+    while (data.hasRemaining()) {
+      char c = data.get();
+      if (c == '\n') {
+        messages.add(frame.toString());
+        frame.setLength(0);
+        frameStarted = false;
+      } else {
+        // skip \r, but it still counts as data for a last line
+        if (c != '\r') {
+          frame.append(c);
+        }
+        frameStarted = true;
+      }
+    }
+  }
+
+  public void endOfData(Collection<Object> messages) {
+    if (frameStarted) {
+      messages.add(frame.toString());
+      frame.setLength(0);
+      frameStarted = false;
+    }
+  }
+
   public IMessageExtractor cloneExtractor() {
     IMessageExtractor result = new TextLineMessageExtractor();
     return result;
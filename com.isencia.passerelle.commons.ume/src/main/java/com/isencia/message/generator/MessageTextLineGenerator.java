@@ -14,6 +14,7 @@
 */
 package com.isencia.message.generator;
 
+import java.io.IOException;
 import java.io.Writer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,6 +22,13 @@ import org.slf4j.LoggerFactory;
 /**
  * A message generator that delineates each outgoing message by an ending
  * line-separator according to the JVM platform.
+ * <p>
+ * By default the writer is flushed after each message. 
+ * For higher throughput on a buffered writer, it can be flushed only after a given nr of messages
+ * and/or when a given time has passed since the previous flush. The time is only checked when a message is written,
+ * so the last messages are only guaranteed to be flushed when the writer is flushed or closed by its owner.
+ * Owners can call flush() from another thread, e.g. from a timer.
+ * </p>
  * 
  * @author erwin
  */
@@ -31,6 +39,13 @@ public class MessageTextLineGenerator implements IMessageGenerator {
 
   private Writer writer;
 
+  // flush after each N messages, 0 for no count-based flushing
+  private int flushCount = 1;
+  // flush when this nr of ms has passed since the previous flush, 0 for no time-based flushing
+  private long flushInterval = 0;
+  private int unflushedCount;
+  private long lastFlushTime;
+
   /**
    * Constructor for MessageTextLineGenerator.
    */
@@ -43,12 +58,41 @@ public class MessageTextLineGenerator implements IMessageGenerator {
     this.lineSeparator = lineSeparator;
   }
 
+  /**
+   * @param lineSeparator
+   * @param flushCount flush after each N messages, 0 for no count-based flushing
+   * @param flushInterval flush when this nr of ms has passed since the previous flush, 0 for no time-based flushing
+   */
+  public MessageTextLineGenerator(String lineSeparator, int flushCount, long flushInterval) {
+    this(lineSeparator);
+    this.flushCount = flushCount;
+    this.flushInterval = flushInterval;
+  }
+
+  public int getFlushCount() {
+    return flushCount;
+  }
+
+  public void setFlushCount(int flushCount) {
+    this.flushCount = flushCount;
+  }
+
+  public long getFlushInterval() {
+    return flushInterval;
+  }
+
+  public void setFlushInterval(long flushInterval) {
+    this.flushInterval = flushInterval;
+  }
+
   /*
    * (non-Javadoc)
    * @see be.isencia.message.IMessageGenerator#open(java.io.Writer)
    */
   public void open(Writer writer) {
     this.writer = writer;
+    unflushedCount = 0;
+    lastFlushTime = System.currentTimeMillis();
   }
 
   /*
@@ -70,18 +114,35 @@ public class MessageTextLineGenerator implements IMessageGenerator {
    * (non-Javadoc)
    * @see be.isencia.message.IMessageGenerator#sendMessage(java.lang.Object)
    */
-  public void sendMessage(Object message) throws Exception {
+  public synchronized void sendMessage(Object message) throws Exception {
     if (logger.isTraceEnabled()) logger.trace("sendMessage() - entry - msg :\n" + message);
 
-    String res = message.toString() + lineSeparator;
+    String res = message.toString();
     writer.write(res);
-    writer.flush();
+    writer.write(lineSeparator);
+    unflushedCount++;
+    if ((flushCount > 0 && unflushedCount >= flushCount) || (flushInterval > 0 && System.currentTimeMillis() - lastFlushTime >= flushInterval)) {
+      flush();
+    }
 
     if (logger.isTraceEnabled()) logger.trace("sendMessage() - exit - Wrote msg :\n" + res);
   }
 
+  /**
+   * Flushes the writer, independently of the flush policy.
+   * 
+   * @throws IOException
+   */
+  public synchronized void flush() throws IOException {
+    if (writer != null) {
+      writer.flush();
+    }
+    unflushedCount = 0;
+    lastFlushTime = System.currentTimeMillis();
+  }
+
   public IMessageGenerator cloneGenerator() {
-    IMessageGenerator result = new MessageTextLineGenerator(lineSeparator);
+    IMessageGenerator result = new MessageTextLineGenerator(lineSeparator, flushCount, flushInterval);
     return result;
   }
 
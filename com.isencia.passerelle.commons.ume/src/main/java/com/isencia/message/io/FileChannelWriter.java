@@ -0,0 +1,139 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.message.io;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A Writer on a FileChannel, that encodes characters with a reusable encoder and buffers.
+ * <p>
+ * Characters are collected in a char buffer, and only encoded and written to the channel when it is full or when the writer is flushed.
+ * No objects are allocated per write.
+ * </p>
+ * 
+ * @author erwin
+ */
+public class FileChannelWriter extends Writer {
+
+  private FileChannel channel;
+  private CharsetEncoder encoder;
+  private CharBuffer charBuffer;
+  private ByteBuffer byteBuffer;
+
+  /**
+   * @param channel
+   * @param charset
+   * @param bufferSize the size of the char buffer, with a minimum of 16
+   */
+  public FileChannelWriter(FileChannel channel, Charset charset, int bufferSize) {
+    bufferSize = Math.max(16, bufferSize);
+    this.channel = channel;
+    this.encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+    this.charBuffer = CharBuffer.allocate(bufferSize);
+    this.byteBuffer = ByteBuffer.allocateDirect((int) Math.ceil(bufferSize * encoder.maxBytesPerChar()));
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) throws IOException {
+    ensureOpen();
+    while (len > 0) {
+      int n = Math.min(len, charBuffer.remaining());
+      charBuffer.put(cbuf, off, n);
+      off += n;
+      len -= n;
+      if (!charBuffer.hasRemaining()) {
+        writeBuffer(false);
+      }
+    }
+  }
+
+  @Override
+  public void write(String str, int off, int len) throws IOException {
+    ensureOpen();
+    while (len > 0) {
+      int n = Math.min(len, charBuffer.remaining());
+      charBuffer.put(str, off, off + n);
+      off += n;
+      len -= n;
+      if (!charBuffer.hasRemaining()) {
+        writeBuffer(false);
+      }
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    ensureOpen();
+    writeBuffer(false);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (channel != null) {
+      try {
+        writeBuffer(true);
+      } finally {
+        channel.close();
+        channel = null;
+      }
+    }
+  }
+
+  /**
+   * Encodes the buffered chars and writes the resulting bytes to the channel.
+   * 
+   * @param endOfInput
+   * @throws IOException
+   */
+  private void writeBuffer(boolean endOfInput) throws IOException {
+    charBuffer.flip();
+    CoderResult result;
+    do {
+      result = encoder.encode(charBuffer, byteBuffer, endOfInput);
+      writeBytes();
+    } while (result.isOverflow());
+    if (endOfInput) {
+      while (encoder.flush(byteBuffer).isOverflow()) {
+        writeBytes();
+      }
+      writeBytes();
+      encoder.reset();
+    }
+    // keep any chars that could not be encoded yet, e.g. the first half of a surrogate pair
+    charBuffer.compact();
+  }
+
+  private void writeBytes() throws IOException {
+    byteBuffer.flip();
+    while (byteBuffer.hasRemaining()) {
+      channel.write(byteBuffer);
+    }
+    byteBuffer.clear();
+  }
+
+  private void ensureOpen() throws IOException {
+    if (channel == null) {
+      throw new IOException("Writer closed");
+    }
+  }
+}
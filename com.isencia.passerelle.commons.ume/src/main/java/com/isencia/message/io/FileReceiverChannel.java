@@ -18,9 +18,11 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.isencia.message.ChannelException;
@@ -28,7 +30,12 @@ import com.isencia.message.ReaderReceiverChannel;
 import com.isencia.message.extractor.IMessageExtractor;
 
 /**
- * FileReceiverChannel TODO: class comment
+ * FileReceiverChannel reads messages from a file, using the given extractor.
+ * <p>
+ * In memory-mapped mode, the file is read via a <code>MappedFileReader</code>, 
+ * which allows a <code>TextLineMessageExtractor</code> to find lines without decoding the file character per character.
+ * For encodings that are not supported by the <code>MappedFileReader</code>, the channel falls back to a normal reader.
+ * </p>
  * 
  * @author erwin
  */
@@ -37,6 +44,10 @@ public class FileReceiverChannel extends ReaderReceiverChannel {
 
   private File source = null;
   private String encoding = null;
+  private boolean memoryMapped = false;
+  private int mappedChunkSize = DEFAULT_MAPPED_CHUNK_SIZE;
+
+  public final static int DEFAULT_MAPPED_CHUNK_SIZE = 16 * 1024 * 1024;
 
   /**
    * @param srcFile
@@ -53,6 +64,28 @@ public class FileReceiverChannel extends ReaderReceiverChannel {
     encoding = srcEncoding;
   }
 
+  public boolean isMemoryMapped() {
+    return memoryMapped;
+  }
+
+  /**
+   * @param memoryMapped true if the file should be read via memory-mapped chunks. Only applied when the channel is opened.
+   */
+  public void setMemoryMapped(boolean memoryMapped) {
+    this.memoryMapped = memoryMapped;
+  }
+
+  public int getMappedChunkSize() {
+    return mappedChunkSize;
+  }
+
+  /**
+   * @param mappedChunkSize the nr of bytes that are mapped at once in memory-mapped mode
+   */
+  public void setMappedChunkSize(int mappedChunkSize) {
+    this.mappedChunkSize = mappedChunkSize;
+  }
+
   /*
    * @see IReceiverChannel#open()
    */
@@ -63,7 +96,17 @@ public class FileReceiverChannel extends ReaderReceiverChannel {
 
     try {
       Reader reader = null;
-      if (encoding != null) {
+      Charset charset = null;
+      if (memoryMapped) {
+        charset = (encoding != null) ? Charset.forName(encoding) : Charset.defaultCharset();
+        if (!MappedFileReader.isSupported(charset)) {
+          logger.warn("Memory-mapped reading not supported for encoding " + charset.name() + ", using normal reader for " + source.getAbsolutePath());
+          charset = null;
+        }
+      }
+      if (charset != null) {
+        reader = new MappedFileReader(new FileInputStream(source).getChannel(), charset, mappedChunkSize);
+      } else if (encoding != null) {
         FileInputStream fileInputStream = new FileInputStream(source);
         reader = new InputStreamReader(fileInputStream, encoding);
       } else {
@@ -74,6 +117,11 @@ public class FileReceiverChannel extends ReaderReceiverChannel {
       throw new ChannelException("Source file " + source.getAbsolutePath() + " does not exist");
     } catch (UnsupportedEncodingException e) {
       throw new ChannelException("UnsupportedEncodingException " + encoding);
+    } catch (IllegalArgumentException e) {
+      // unsupported or illegal charset name
+      throw new ChannelException("UnsupportedEncodingException " + encoding);
+    } catch (IOException e) {
+      throw new ChannelException("Error opening source file " + source.getAbsolutePath() + " : " + e.getMessage());
     }
 
     super.open();
@@ -14,12 +14,15 @@
 */
 package com.isencia.message.io;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.isencia.message.ChannelException;
@@ -27,15 +30,25 @@ import com.isencia.message.WriterSenderChannel;
 import com.isencia.message.generator.IMessageGenerator;
 
 /**
- * FileSenderChannel TODO: class comment
+ * A sender channel that writes messages to a file.
+ * <p>
+ * By default, each write is passed directly to the file. When a buffer size is set, writes are collected in a buffer of that size, 
+ * and only reach the file when the buffer is full or when the channel is flushed or closed.
+ * The generator's flush policy then determines how often this happens.
+ * Alternatively, a writer on a <code>FileChannel</code> can be used, with a reusable encoder and buffers.
+ * </p>
  * 
  * @author erwin
  */
 public class FileSenderChannel extends WriterSenderChannel {
   private final static Logger logger = LoggerFactory.getLogger(FileSenderChannel.class);
 
+  public final static int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
   private File destFile = null;
   private String encoding = null;
+  private int bufferSize = 0;
+  private boolean useFileChannel = false;
 
   /**
    * @param destFile
@@ -55,6 +68,28 @@ public class FileSenderChannel extends WriterSenderChannel {
     this.encoding = encoding;
   }
 
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  /**
+   * @param bufferSize the nr of chars to buffer before writing to the file, or 0 to write directly. Only applied when the channel is opened.
+   */
+  public void setBufferSize(int bufferSize) {
+    this.bufferSize = bufferSize;
+  }
+
+  public boolean isUseFileChannel() {
+    return useFileChannel;
+  }
+
+  /**
+   * @param useFileChannel true to write via a <code>FileChannelWriter</code> i.o. a std <code>java.io</code> writer. Only applied when the channel is opened.
+   */
+  public void setUseFileChannel(boolean useFileChannel) {
+    this.useFileChannel = useFileChannel;
+  }
+
   public void open() throws ChannelException {
     open(false);
   }
@@ -69,15 +104,28 @@ public class FileSenderChannel extends WriterSenderChannel {
     if (destFile == null) throw new ChannelException("Destination file is not specified");
 
     try {
-      if (encoding != null) {
-        FileOutputStream fileOutputStream = new FileOutputStream(destFile, append);
-        setWriter(new OutputStreamWriter(fileOutputStream, encoding));
+      Writer writer = null;
+      if (useFileChannel) {
+        Charset charset = (encoding != null) ? Charset.forName(encoding) : Charset.defaultCharset();
+        writer = new FileChannelWriter(new FileOutputStream(destFile, append).getChannel(), charset, (bufferSize > 0) ? bufferSize : DEFAULT_BUFFER_SIZE);
       } else {
-        setWriter(new FileWriter(destFile, append));
+        if (encoding != null) {
+          FileOutputStream fileOutputStream = new FileOutputStream(destFile, append);
+          writer = new OutputStreamWriter(fileOutputStream, encoding);
+        } else {
+          writer = new FileWriter(destFile, append);
+        }
+        if (bufferSize > 0) {
+          writer = new BufferedWriter(writer, bufferSize);
+        }
       }
+      setWriter(writer);
 
     } catch (UnsupportedEncodingException e) {
       throw new ChannelException("UnsupportedEncodingException " + encoding);
+    } catch (IllegalArgumentException e) {
+      // thrown by Charset.forName() for illegal or unsupported charset names
+      throw new ChannelException("UnsupportedEncodingException " + encoding);
     } catch (IOException e) {
       logger.error("Error opening destination file " + destFile.getAbsolutePath(), e);
       throw new ChannelException("Error opening destination file " + destFile.getAbsolutePath() + " : " + e.getMessage());
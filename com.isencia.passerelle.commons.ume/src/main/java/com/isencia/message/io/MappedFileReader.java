@@ -0,0 +1,220 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.message.io;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import com.isencia.message.extractor.ILineReader;
+
+/**
+ * A Reader on a file, that maps consecutive chunks of the file in memory i.o. copying its contents through stream buffers.
+ * <p>
+ * Next to the standard Reader methods, it can read lines as an <code>ILineReader</code>. 
+ * It then scans the mapped bytes for line feeds, and only decodes the bytes of each found line.
+ * This is only correct for charsets where the line feed and carriage return are encoded as single bytes,
+ * that can not occur inside the encoding of other characters, e.g. UTF-8 or ISO-8859-x. 
+ * This can be checked via <code>isSupported()</code>.
+ * </p>
+ * <p>
+ * A MappedFileReader must be used either as a Reader or as an ILineReader, not both.
+ * </p>
+ * 
+ * @author erwin
+ */
+public class MappedFileReader extends Reader implements ILineReader {
+
+  private static final byte LF = '\n';
+  private static final char CR = '\r';
+
+  private FileChannel channel;
+  private long fileSize;
+  private int chunkSize;
+  private CharsetDecoder decoder;
+
+  // the currently mapped chunk, starting at mapStart in the file
+  private MappedByteBuffer map;
+  private long mapStart;
+
+  // reused for decoding lines, and for decoded chars that were not yet consumed by read()
+  private CharBuffer lineChars;
+  private CharBuffer pendingChars;
+
+  /**
+   * @param channel
+   * @param charset
+   * @param chunkSize the nr of bytes to map at once. Larger chunks are mapped when needed for a single long line.
+   * @throws IOException
+   */
+  public MappedFileReader(FileChannel channel, Charset charset, int chunkSize) throws IOException {
+    this.channel = channel;
+    this.fileSize = channel.size();
+    this.chunkSize = Math.max(1024, chunkSize);
+    this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+    this.lineChars = CharBuffer.allocate(256);
+    this.pendingChars = CharBuffer.allocate(8192);
+    this.pendingChars.flip();
+  }
+
+  /**
+   * @param charset
+   * @return true if lines can be found by scanning the encoded bytes for line feeds
+   */
+  public static boolean isSupported(Charset charset) {
+    return Arrays.equals("\n".getBytes(charset), new byte[] { LF }) && Arrays.equals("\r".getBytes(charset), new byte[] { CR });
+  }
+
+  public String readLine() throws IOException {
+    ensureOpen();
+    if (pendingChars.hasRemaining()) {
+      throw new IllegalStateException("readLine() can not be mixed with read()");
+    }
+    long position = getPosition();
+    if (position >= fileSize) {
+      return null;
+    }
+    ensureMapped(position);
+    int lineStart = map.position();
+    int scanPosition = lineStart;
+    while (true) {
+      int limit = map.limit();
+      for (int i = scanPosition; i < limit; ++i) {
+        if (map.get(i) == LF) {
+          String line = decode(lineStart, i);
+          map.position(i + 1);
+          return line;
+        }
+      }
+      if (mapStart + limit >= fileSize) {
+        // last line, without line feed
+        String line = decode(lineStart, limit);
+        map.position(limit);
+        return line;
+      }
+      // the line continues beyond the mapped chunk, so map a new chunk starting at the line,
+      // which must be larger if the line already started at the beginning of the current one
+      int scannedLength = limit - lineStart;
+      mapFrom(mapStart + lineStart, (lineStart == 0) ? (int) Math.min(Integer.MAX_VALUE, 2L * limit) : chunkSize);
+      lineStart = 0;
+      scanPosition = scannedLength;
+    }
+  }
+
+  @Override
+  public int read(char[] cbuf, int off, int len) throws IOException {
+    ensureOpen();
+    if (len == 0) {
+      return 0;
+    }
+    while (!pendingChars.hasRemaining()) {
+      long position = getPosition();
+      if (position >= fileSize) {
+        return -1;
+      }
+      ensureMapped(position);
+      boolean endOfInput = mapStart + map.limit() >= fileSize;
+      pendingChars.clear();
+      decoder.decode(map, pendingChars, endOfInput);
+      if (endOfInput) {
+        decoder.flush(pendingChars);
+      }
+      pendingChars.flip();
+      if (!pendingChars.hasRemaining() && !endOfInput) {
+        // only a partial multi-byte char left in the chunk, so map the next one starting from it
+        mapFrom(mapStart + map.position(), chunkSize);
+      }
+    }
+    int n = Math.min(len, pendingChars.remaining());
+    pendingChars.get(cbuf, off, n);
+    return n;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+      channel = null;
+      map = null;
+    }
+  }
+
+  private long getPosition() {
+    return (map != null) ? mapStart + map.position() : 0;
+  }
+
+  /**
+   * Keeps using the current chunk as long as it has unread bytes, and only maps the next chunk once it is consumed.
+   */
+  private void ensureMapped(long position) throws IOException {
+    if (map == null || !map.hasRemaining()) {
+      mapFrom(position, chunkSize);
+    }
+  }
+
+  /**
+   * Ensures that a chunk is mapped that contains the given file position, and at least the given nr of bytes after it 
+   * (or until the end of the file). The mapped buffer's position is set to the given file position.
+   */
+  private void mapFrom(long position, int size) throws IOException {
+    long end = Math.min(fileSize, position + size);
+    if (map != null && position >= mapStart && end <= mapStart + map.limit() && position < mapStart + map.limit()) {
+      map.position((int) (position - mapStart));
+      return;
+    }
+    map = channel.map(FileChannel.MapMode.READ_ONLY, position, end - position);
+    mapStart = position;
+  }
+
+  /**
+   * Decodes the mapped bytes between the given positions, dropping carriage returns.
+   */
+  private String decode(int from, int to) {
+    ByteBuffer bytes = map.duplicate();
+    bytes.limit(to);
+    bytes.position(from);
+    int maxChars = (int) Math.ceil((to - from) * (double) decoder.maxCharsPerByte());
+    if (lineChars.capacity() < maxChars) {
+      lineChars = CharBuffer.allocate(maxChars);
+    }
+    lineChars.clear();
+    decoder.reset();
+    decoder.decode(bytes, lineChars, true);
+    decoder.flush(lineChars);
+    lineChars.flip();
+    char[] chars = lineChars.array();
+    int length = lineChars.limit();
+    int writePos = 0;
+    for (int readPos = 0; readPos < length; ++readPos) {
+      char c = chars[readPos];
+      if (c != CR) {
+        chars[writePos++] = c;
+      }
+    }
+    return new String(chars, 0, writePos);
+  }
+
+  private void ensureOpen() throws IOException {
+    if (channel == null) {
+      throw new IOException("Reader closed");
+    }
+  }
+}
@@ -0,0 +1,395 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.message.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.isencia.message.ChannelException;
+import com.isencia.message.IMessageReceiver;
+import com.isencia.message.MessageReceiver;
+import com.isencia.message.NoMoreMessagesException;
+import com.isencia.message.ReceiverChannel;
+import com.isencia.message.extractor.INonBlockingMessageExtractor;
+
+/**
+ * A socket server channel that handles all its connections with a small fixed group of IO threads, 
+ * i.o. with a SocketReceiverChannel thread per connection as the <code>SocketServerReceiverChannel</code>.
+ * <p>
+ * The channel's own thread accepts the connections, and assigns them round-robin to the IO threads.
+ * Each IO thread has its own selector, and reads the data of its connections into a single reused buffer.
+ * The data is decoded per connection, and fed to the connection's clone of the given non-blocking extractor.
+ * All extracted messages are queued in a common receiver, from which they can be obtained via <code>getMessage()</code>.
+ * </p>
+ * 
+ * @author erwin
+ */
+public class NioSocketServerReceiverChannel extends ReceiverChannel {
+  private final static Logger logger = LoggerFactory.getLogger(NioSocketServerReceiverChannel.class);
+
+  public final static int DEFAULT_NR_OF_IO_THREADS = 2;
+  private final static int READ_BUFFER_SIZE = 16 * 1024;
+  // max time to wait for each IO thread to terminate when closing
+  private final static long IO_THREAD_JOIN_TIMEOUT = 5000;
+
+  private ServerSocketChannel serverChannel;
+  private INonBlockingMessageExtractor extractor;
+  private Charset charset;
+  private IOThread[] ioThreads;
+  private IMessageReceiver receiver;
+  // msgs that have been taken from the receiver in one batch, but not yet returned
+  private Queue<Object> pendingMessages = new ArrayDeque<Object>();
+  private final static int MAX_BATCH_SIZE = 256;
+  private Selector acceptSelector;
+
+  private AtomicLong nrOfConnections = new AtomicLong();
+  private AtomicLong nrOfMessages = new AtomicLong();
+
+  /**
+   * @param serverChannel a bound server socket channel
+   * @param extractor the extractor that is cloned for each connection
+   * @param charset the encoding of the received data
+   * @param nrOfIOThreads
+   */
+  public NioSocketServerReceiverChannel(ServerSocketChannel serverChannel, INonBlockingMessageExtractor extractor, Charset charset, int nrOfIOThreads) {
+    super();
+    this.serverChannel = serverChannel;
+    this.extractor = extractor;
+    this.charset = (charset != null) ? charset : Charset.defaultCharset();
+    this.ioThreads = new IOThread[Math.max(1, nrOfIOThreads)];
+    // auto-close, so a blocked getMessage() is released when this channel closes
+    receiver = new MessageReceiver(true);
+  }
+
+  public ServerSocketChannel getServerChannel() {
+    return serverChannel;
+  }
+
+  public INonBlockingMessageExtractor getExtractor() {
+    return extractor;
+  }
+
+  /**
+   * @return the nr of connections that have been accepted since the channel was opened
+   */
+  public long getNrOfConnections() {
+    return nrOfConnections.get();
+  }
+
+  /**
+   * @return the nr of messages that have been extracted since the channel was opened
+   */
+  public long getNrOfMessages() {
+    return nrOfMessages.get();
+  }
+
+  public void open() throws ChannelException {
+    if (logger.isTraceEnabled()) logger.trace("open() - entry");
+
+    try {
+      serverChannel.configureBlocking(false);
+      acceptSelector = Selector.open();
+      serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+      for (int i = 0; i < ioThreads.length; ++i) {
+        ioThreads[i] = new IOThread(getName() + "-io-" + i);
+      }
+    } catch (IOException e) {
+      throw new ChannelException("Error opening server socket channel " + e.getMessage());
+    }
+    nrOfConnections.set(0);
+    nrOfMessages.set(0);
+    super.open();
+    receiver.open();
+    receiver.sourceOpened(this);
+    for (IOThread ioThread : ioThreads) {
+      ioThread.start();
+    }
+    start();
+
+    if (logger.isTraceEnabled()) logger.trace("open() - exit");
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.lang.Runnable#run()
+   */
+  public void run() {
+    if (logger.isTraceEnabled()) logger.trace("run() - entry");
+    int nextIOThread = 0;
+    try {
+      while (!isInterrupted()) {
+        acceptSelector.select();
+        Iterator<SelectionKey> keyItr = acceptSelector.selectedKeys().iterator();
+        while (keyItr.hasNext()) {
+          keyItr.next();
+          keyItr.remove();
+          SocketChannel socketChannel = null;
+          while ((socketChannel = serverChannel.accept()) != null) {
+            logger.debug("run() - Accepted connection request. Socket: {}", socketChannel);
+            nrOfConnections.incrementAndGet();
+            ioThreads[nextIOThread].addConnection(socketChannel);
+            nextIOThread = (nextIOThread + 1) % ioThreads.length;
+          }
+        }
+      }
+    } catch (ClosedSelectorException e) {
+      // closed by close()
+    } catch (IOException e) {
+      logger.info("run() - " + e.getMessage() + ". Terminating...");
+    }
+    try {
+      serverChannel.close();
+    } catch (IOException e) {
+    }
+    if (logger.isTraceEnabled()) logger.trace("run() - exit");
+  }
+
+  public void close() throws ChannelException {
+    if (logger.isTraceEnabled()) logger.trace("close() - entry");
+
+    super.close();
+    interrupt();
+    try {
+      serverChannel.close();
+      if (acceptSelector != null) {
+        acceptSelector.close();
+      }
+    } catch (IOException e) {
+      logger.error("close() - Error closing server socket channel", e);
+    }
+    for (IOThread ioThread : ioThreads) {
+      if (ioThread != null) {
+        ioThread.shutdown();
+      }
+    }
+    try {
+      for (IOThread ioThread : ioThreads) {
+        if (ioThread != null && ioThread != Thread.currentThread()) {
+          ioThread.join(IO_THREAD_JOIN_TIMEOUT);
+          if (ioThread.isAlive()) {
+            logger.warn("close() - IO thread {} did not terminate in time", ioThread.getName());
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    receiver.sourceClosed(this);
+
+    if (logger.isTraceEnabled()) logger.trace("close() - exit");
+  }
+
+  protected Object doGetMessage() throws ChannelException, NoMoreMessagesException {
+    if (logger.isTraceEnabled()) logger.trace("doGetMessage() - entry");
+
+    if (pendingMessages.isEmpty()) {
+      receiver.drainMessages(pendingMessages, MAX_BATCH_SIZE);
+    }
+    Object msg = pendingMessages.poll();
+
+    if (logger.isTraceEnabled()) logger.trace("doGetMessage() - exit : " + msg);
+
+    return msg;
+  }
+
+  /**
+   * The per-connection decoding and extraction state.
+   */
+  private class Connection {
+    private SocketChannel socketChannel;
+    private CharsetDecoder decoder;
+    private INonBlockingMessageExtractor connExtractor;
+    // the bytes of an incomplete multi-byte char at the end of the previous read
+    private ByteBuffer remainingBytes;
+
+    private Connection(SocketChannel socketChannel) {
+      this.socketChannel = socketChannel;
+      this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+      this.connExtractor = (INonBlockingMessageExtractor) extractor.cloneExtractor();
+    }
+  }
+
+  /**
+   * An IO thread with its own selector, serving a subset of the connections.
+   */
+  private class IOThread extends Thread {
+    private Selector selector;
+    private Queue<SocketChannel> newConnections = new ConcurrentLinkedQueue<SocketChannel>();
+    private ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private CharBuffer charBuffer = CharBuffer.allocate(READ_BUFFER_SIZE);
+    private List<Object> messages = new ArrayList<Object>();
+    private volatile boolean running = true;
+
+    private IOThread(String name) throws IOException {
+      super(name);
+      setDaemon(true);
+      selector = Selector.open();
+    }
+
+    private void addConnection(SocketChannel socketChannel) {
+      newConnections.add(socketChannel);
+      selector.wakeup();
+    }
+
+    /**
+     * Also interrupts the thread, to release it when it is blocked on a full receiver queue.
+     */
+    private void shutdown() {
+      running = false;
+      interrupt();
+      selector.wakeup();
+    }
+
+    public void run() {
+      try {
+        while (running) {
+          selector.select();
+          registerNewConnections();
+          Iterator<SelectionKey> keyItr = selector.selectedKeys().iterator();
+          while (keyItr.hasNext()) {
+            SelectionKey key = keyItr.next();
+            keyItr.remove();
+            if (key.isValid() && key.isReadable()) {
+              read(key);
+            }
+          }
+        }
+      } catch (ClosedSelectorException e) {
+        // ignore
+      } catch (IOException e) {
+        logger.error(getName() + " - Error selecting connections", e);
+      } finally {
+        for (SelectionKey key : selector.keys()) {
+          closeConnection(key);
+        }
+        SocketChannel socketChannel = null;
+        while ((socketChannel = newConnections.poll()) != null) {
+          try {
+            socketChannel.close();
+          } catch (IOException e) {
+          }
+        }
+        try {
+          selector.close();
+        } catch (IOException e) {
+        }
+      }
+    }
+
+    private void registerNewConnections() {
+      SocketChannel socketChannel = null;
+      while ((socketChannel = newConnections.poll()) != null) {
+        try {
+          socketChannel.configureBlocking(false);
+          socketChannel.register(selector, SelectionKey.OP_READ, new Connection(socketChannel));
+        } catch (IOException e) {
+          logger.error(getName() + " - Error registering connection " + socketChannel, e);
+          try {
+            socketChannel.close();
+          } catch (IOException ex) {
+          }
+        }
+      }
+    }
+
+    private void read(SelectionKey key) {
+      Connection connection = (Connection) key.attachment();
+      int count = 0;
+      try {
+        readBuffer.clear();
+        if (connection.remainingBytes != null) {
+          readBuffer.put(connection.remainingBytes);
+          connection.remainingBytes = null;
+        }
+        count = connection.socketChannel.read(readBuffer);
+      } catch (IOException e) {
+        logger.debug("{} - Error reading connection {} : {}", getName(), connection.socketChannel, e.getMessage());
+        count = -1;
+      }
+      readBuffer.flip();
+      boolean endOfData = (count < 0);
+      CoderResult result = null;
+      do {
+        result = connection.decoder.decode(readBuffer, charBuffer, endOfData);
+        extract(connection);
+      } while (result.isOverflow());
+      if (endOfData) {
+        do {
+          result = connection.decoder.flush(charBuffer);
+          extract(connection);
+        } while (result.isOverflow());
+      }
+      if (readBuffer.hasRemaining()) {
+        connection.remainingBytes = ByteBuffer.allocate(readBuffer.remaining());
+        connection.remainingBytes.put(readBuffer);
+        connection.remainingBytes.flip();
+      }
+      if (endOfData) {
+        connection.connExtractor.endOfData(messages);
+        closeConnection(key);
+      }
+      dispatchMessages();
+    }
+
+    private void extract(Connection connection) {
+      charBuffer.flip();
+      connection.connExtractor.extract(charBuffer, messages);
+      charBuffer.clear();
+    }
+
+    /**
+     * Blocks while the receiver's queue is full, which also stops reading the other connections of this IO thread.
+     */
+    private void dispatchMessages() {
+      try {
+        for (Object message : messages) {
+          nrOfMessages.incrementAndGet();
+          receiver.acceptMessage(message, NioSocketServerReceiverChannel.this);
+        }
+      } catch (InterruptedException e) {
+        running = false;
+      } catch (Exception e) {
+        logger.error(getName() + " - Error dispatching messages", e);
+      }
+      messages.clear();
+    }
+
+    private void closeConnection(SelectionKey key) {
+      key.cancel();
+      try {
+        key.channel().close();
+      } catch (IOException e) {
+      }
+    }
+  }
+}
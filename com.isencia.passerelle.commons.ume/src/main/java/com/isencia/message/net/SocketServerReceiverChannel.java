@@ -18,7 +18,9 @@ import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Queue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.isencia.message.ChannelException;
@@ -40,6 +42,9 @@ public class SocketServerReceiverChannel extends ReceiverChannel {
   private ServerSocket sSocket = null;
   private IMessageExtractor extractor = null;
   private IMessageReceiver receiver = null;
+  // msgs that have been taken from the receiver in one batch, but not yet returned
+  private Queue<Object> pendingMessages = new ArrayDeque<Object>();
+  private final static int MAX_BATCH_SIZE = 256;
 
   /**
    * @param sSocket
@@ -174,7 +179,10 @@ public class SocketServerReceiverChannel extends ReceiverChannel {
   protected Object doGetMessage() throws ChannelException, NoMoreMessagesException {
     if (logger.isTraceEnabled()) logger.trace("doGetMessage() - entry");
 
-    Object msg = receiver.getMessage();
+    if (pendingMessages.isEmpty()) {
+      receiver.drainMessages(pendingMessages, MAX_BATCH_SIZE);
+    }
+    Object msg = pendingMessages.poll();
 
     if (logger.isTraceEnabled()) logger.trace("doGetMessage() - exit : " + msg);
 
@@ -0,0 +1,147 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.isencia.passerelle.domain.et.impl;
+
+import java.text.DateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ptolemy.kernel.util.NamedObj;
+import com.isencia.passerelle.domain.et.AbstractEvent;
+import com.isencia.passerelle.domain.et.EventHandler;
+import com.isencia.passerelle.runtime.Event;
+
+/**
+ * Measures the events per second and the dispatch latency percentiles of the <code>ThreadPoolEventDispatcher</code>,
+ * compared to the single-threaded <code>SimpleEventDispatcher</code>.
+ * <p>
+ * The latency is the time between the acceptance of an event and its handling. The results are logged,
+ * the test only fails when events are not handled.
+ * </p>
+ *
+ * @author delerw
+ */
+public class EventDispatcherThroughputTest extends TestCase {
+  private final static Logger LOGGER = LoggerFactory.getLogger(EventDispatcherThroughputTest.class);
+
+  private final static int EVENT_COUNT = 100000;
+  private final static int THREAD_COUNT = 4;
+
+  public void testSimpleEventDispatcher() throws Exception {
+    LatencyRecorder recorder = new LatencyRecorder();
+    measure(new SimpleEventDispatcher("simple", recorder), recorder);
+  }
+
+  public void testThreadPoolEventDispatcher() throws Exception {
+    LatencyRecorder recorder = new LatencyRecorder();
+    measure(new ThreadPoolEventDispatcher("threadpool", THREAD_COUNT, recorder), recorder);
+  }
+
+  private void measure(final SimpleEventDispatcher dispatcher, LatencyRecorder recorder) throws Exception {
+    final NamedObj subject = new NamedObj("subject");
+    dispatcher.initialize();
+    try {
+      Thread producer = new Thread(new Runnable() {
+        public void run() {
+          try {
+            for (int i = 0; i < EVENT_COUNT; ++i) {
+              dispatcher.accept(new LatencyEvent(subject));
+            }
+          } catch (Exception e) {
+            LOGGER.error("Error accepting events", e);
+          }
+        }
+      }, "producer");
+      long start = System.nanoTime();
+      producer.start();
+      long deadline = start + TimeUnit.SECONDS.toNanos(60);
+      while (recorder.getCount() < EVENT_COUNT && System.nanoTime() < deadline) {
+        dispatcher.dispatch(10);
+      }
+      long elapsed = System.nanoTime() - start;
+      producer.join();
+
+      assertEquals("Not all events handled", EVENT_COUNT, recorder.getCount());
+      assertTrue("Event errors " + dispatcher.getEventErrors(), dispatcher.getEventErrors().isEmpty());
+      long[] latencies = recorder.getSortedLatencies();
+      LOGGER.info("{} : {} events/s, latency p50 {} us, p99 {} us, p99.9 {} us, max {} us", new Object[] { dispatcher.getClass().getSimpleName(),
+          (long) (EVENT_COUNT * (double) TimeUnit.SECONDS.toNanos(1) / elapsed), getPercentile(latencies, 0.5), getPercentile(latencies, 0.99),
+          getPercentile(latencies, 0.999), TimeUnit.NANOSECONDS.toMicros(latencies[latencies.length - 1]) });
+    } finally {
+      dispatcher.shutdownNow();
+    }
+  }
+
+  private long getPercentile(long[] sortedLatencies, double fraction) {
+    int index = Math.min(sortedLatencies.length - 1, (int) (fraction * sortedLatencies.length));
+    return TimeUnit.NANOSECONDS.toMicros(sortedLatencies[index]);
+  }
+
+  private static class LatencyEvent extends AbstractEvent {
+    private static final long serialVersionUID = 1L;
+
+    private final NamedObj subject;
+    private final long acceptNanos = System.nanoTime();
+
+    LatencyEvent(NamedObj subject) {
+      super(subject, TOPIC_PREFIX + "latency", new Date());
+      this.subject = subject;
+    }
+
+    public Event copy() {
+      return new LatencyEvent(subject);
+    }
+
+    public String toString(DateFormat dateFormat) {
+      return dateFormat.format(getCreationTS()) + " " + getId() + " LatencyEvent";
+    }
+  }
+
+  private static class LatencyRecorder implements EventHandler {
+    private final long[] latencies = new long[EVENT_COUNT];
+    private final AtomicInteger count = new AtomicInteger();
+
+    public void initialize() {
+    }
+
+    public HandleType canHandleAs(Event event, boolean isRetry) {
+      return (event instanceof LatencyEvent) ? HandleType.FUNCTIONAL : HandleType.SKIP;
+    }
+
+    public HandleResult handle(Event event, boolean isRetry) throws Exception {
+      long latency = System.nanoTime() - ((LatencyEvent) event).acceptNanos;
+      int index = count.getAndIncrement();
+      if (index < latencies.length) {
+        latencies[index] = latency;
+      }
+      return HandleResult.DONE;
+    }
+
+    int getCount() {
+      return count.get();
+    }
+
+    long[] getSortedLatencies() {
+      long[] result = Arrays.copyOf(latencies, Math.min(getCount(), latencies.length));
+      Arrays.sort(result);
+      return result;
+    }
+  }
+}
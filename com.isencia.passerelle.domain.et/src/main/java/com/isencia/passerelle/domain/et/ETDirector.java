@@ -15,10 +15,16 @@
 
 package com.isencia.passerelle.domain.et;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ptolemy.actor.Actor;
@@ -30,7 +36,9 @@ import ptolemy.actor.gui.style.CheckBoxStyle;
 import ptolemy.actor.util.Time;
 import ptolemy.data.BooleanToken;
 import ptolemy.data.IntToken;
+import ptolemy.data.expr.FileParameter;
 import ptolemy.data.expr.Parameter;
+import ptolemy.data.type.BaseType;
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
@@ -59,8 +67,15 @@ public class ETDirector extends Director implements PasserelleDirector {
   public static final String KEEP_EVENT_HISTORY_PARAMNAME = "Keep event history";
   public static final String DISPATCH_TIMEOUT_PARAMNAME = "Dispatch timeout(ms)";
   public static final String NR_OF_DISPATCH_THREADS_PARAMNAME = "Nr of dispatch threads";
+  public static final String EVENT_LOG_CAPACITY_PARAMNAME = "Event log capacity";
+  public static final String EVENT_LOG_FILE_PARAMNAME = "Event log file";
+  public static final String SPILL_EVENT_LOG_PARAMNAME = "Spill event log to file";
 
   private final static Logger LOGGER = LoggerFactory.getLogger(ETDirector.class);
+  // cap on fireAt delays, so the dispatchers can add them to System.nanoTime() and compare due times without overflow
+  private final static long MAX_FIRE_DELAY_NANOS = Long.MAX_VALUE / 4;
+  // max time (ms) that wrapup() waits for the flow finish event to be handled
+  private final static long MAX_FINISH_WAIT = 10000;
 
   // not sure yet if this is a good idea or not,
   // to split-out a separate event dispatcher.
@@ -69,8 +84,17 @@ public class ETDirector extends Director implements PasserelleDirector {
   // like one using OSGi event bus etc...
   private EventDispatcher dispatcher;
   private EventDispatchReporter dispatchReporter;
+  // the writer for the event log file, when it is open
+  private Writer eventLogWriter;
 
   private boolean notDone = true;
+  // set when the FINISH event of the current run has been handled
+  private volatile boolean flowFinishHandled;
+
+  // model time follows wall-clock time, starting from modelStartTime at the System.nanoTime() startNanos;
+  // modelStartTime is null when the model is not executing
+  private volatile Time modelStartTime;
+  private volatile long startNanos;
 
   // Map maintaining which actors are currently iterating, and for which triggering event
   private Map<Actor, Event> busyIteratingActors = new ConcurrentHashMap<Actor, Event>();
@@ -79,6 +103,9 @@ public class ETDirector extends Director implements PasserelleDirector {
   public Parameter dispatchTimeoutParameter;
 
   public Parameter eventHistoryParameter;
+  public Parameter eventLogCapacityParameter;
+  public FileParameter eventLogFileParameter;
+  public Parameter spillEventLogParameter;
 
   /**
    * @param container
@@ -94,6 +121,11 @@ public class ETDirector extends Director implements PasserelleDirector {
     
     eventHistoryParameter = new Parameter(this, KEEP_EVENT_HISTORY_PARAMNAME, BooleanToken.FALSE);
     new CheckBoxStyle(eventHistoryParameter, "check");
+    eventLogCapacityParameter = new Parameter(this, EVENT_LOG_CAPACITY_PARAMNAME, new IntToken(EventDispatchReporter.DEFAULT_EVENT_LOG_CAPACITY));
+    eventLogCapacityParameter.setTypeEquals(BaseType.INT);
+    eventLogFileParameter = new FileParameter(this, EVENT_LOG_FILE_PARAMNAME);
+    spillEventLogParameter = new Parameter(this, SPILL_EVENT_LOG_PARAMNAME, BooleanToken.FALSE);
+    new CheckBoxStyle(spillEventLogParameter, "check");
     
     // to trigger the creation of our default adapter
     getAdapter(null);
@@ -165,6 +197,8 @@ public class ETDirector extends Director implements PasserelleDirector {
 
     int threadCount = ((IntToken) dispatchThreadsParameter.getToken()).intValue();
     boolean needEventLog = ((BooleanToken)eventHistoryParameter.getToken()).booleanValue();
+    int eventLogCapacity = ((IntToken) eventLogCapacityParameter.getToken()).intValue();
+    boolean spillEventLog = ((BooleanToken)spillEventLogParameter.getToken()).booleanValue();
 
     List<EventHandler> eventHandlers = new ArrayList<EventHandler>();
     eventHandlers.add(new SendEventHandler(this));
@@ -181,11 +215,24 @@ public class ETDirector extends Director implements PasserelleDirector {
     dispatcher.initialize();
     dispatchReporter = (EventDispatchReporter) dispatcher;
     dispatchReporter.enableEventHistory(needEventLog);
+    dispatchReporter.setEventLogCapacity(eventLogCapacity);
+    closeEventLog();
+    if (spillEventLog) {
+      try {
+        eventLogWriter = openEventLog();
+      } catch (IOException e) {
+        throw new IllegalActionException(this, e, "Error opening event log file");
+      }
+      dispatchReporter.setEventLogSpillWriter(eventLogWriter);
+    }
     notDone = true;
   }
 
   @Override
   public void initialize() throws IllegalActionException {
+    // set before the actors are initialized, as they may already ask to be fired at some time
+    startNanos = System.nanoTime();
+    modelStartTime = new Time(this);
     getAdapter(null).getExecutionPrePostProcessor().preProcess();
     try {
       enqueueEvent(new FlowExecutionEvent((CompositeActor) getContainer(), FlowExecutionEventType.START));
@@ -228,9 +275,18 @@ public class ETDirector extends Director implements PasserelleDirector {
   @Override
   public void wrapup() throws IllegalActionException {
     try {
+      flowFinishHandled = false;
       enqueueEvent(new FlowExecutionEvent((CompositeActor) getContainer(), FlowExecutionEventType.FINISH));
       // TODO a bit annoying this explicit dispatch call, but as fire-loop is done we need to repeat it one last time here; isn't there a better way???
-      dispatcher.dispatch(10);
+      // A ThreadPoolEventDispatcher only waits for its workers in dispatch(), so one call is not enough to be sure the FINISH event is handled.
+      long deadline = System.currentTimeMillis() + MAX_FINISH_WAIT;
+      while (!flowFinishHandled) {
+        if (System.currentTimeMillis() > deadline) {
+          LOGGER.warn("{} - flow finish event not handled after {} ms", getFullName(), MAX_FINISH_WAIT);
+          break;
+        }
+        dispatcher.dispatch(10);
+      }
     } catch (EventRefusedException e) {
       LOGGER.warn("Internal status error - refused flow finish event",e);
     } catch (InterruptedException e) {
@@ -238,35 +294,106 @@ public class ETDirector extends Director implements PasserelleDirector {
     }
     getAdapter(null).getExecutionPrePostProcessor().postProcess();
     super.wrapup();
+    modelStartTime = null;
     boolean needEventLog = ((BooleanToken)eventHistoryParameter.getToken()).booleanValue();
 
-    if(needEventLog) {
-      System.err.println(getFullName()+" - Event History");
-      for (Event evt : getEventHistory()) {
-        System.err.println(evt);
-      }
-      System.err.println(getFullName()+" - Event Errors");
-      for (EventError evtErr : getEventErrors()) {
-        System.err.println(evtErr);
+    if(needEventLog || eventLogWriter != null) {
+      writeEventLog();
+    }
+    
+    dispatcher.shutdown();
+  }
+
+  /**
+   * Writes the events that are still stored by the dispatcher, and the pending ones, to the event log file.
+   * When the event log was being spilled, they are appended to the spilled entries.
+   */
+  protected void writeEventLog() {
+    try {
+      if (eventLogWriter == null) {
+        eventLogWriter = openEventLog();
       }
-      System.err.println(getFullName()+" - Unhandled Events");
-      for (Event evt : getUnhandledEvents()) {
-        System.err.println(evt);
+      dispatchReporter.setEventLogSpillWriter(null);
+      // dispatch threads may still be spilling an entry
+      synchronized (eventLogWriter) {
+        dispatchReporter.writeEventLog(eventLogWriter);
+        String lineSeparator = System.getProperty("line.separator");
+        for (Event evt : getPendingEvents()) {
+          eventLogWriter.write("Pending - " + evt + lineSeparator);
+        }
       }
-      System.err.println(getFullName()+" - Pending Events");
-      for (Event evt : getPendingEvents()) {
-        System.err.println(evt);
+    } catch (IOException e) {
+      LOGGER.error("Error writing event log for " + getFullName(), e);
+    } finally {
+      closeEventLog();
+    }
+  }
+
+  private Writer openEventLog() throws IOException {
+    File eventLogFile = null;
+    try {
+      eventLogFile = eventLogFileParameter.asFile();
+    } catch (IllegalActionException e) {
+      LOGGER.warn("Invalid event log file for " + getFullName(), e);
+    }
+    if (eventLogFile == null) {
+      // a unique file per run, so concurrent or consecutive runs of a same model do not overwrite each other's logs
+      eventLogFile = File.createTempFile(getContainer().getName() + "_events_", ".log");
+    }
+    LOGGER.info("Writing event log of {} to {}", getFullName(), eventLogFile.getAbsolutePath());
+    // append to a configured file, so the logs of previous runs are kept
+    return new BufferedWriter(new FileWriter(eventLogFile, true));
+  }
+
+  private void closeEventLog() {
+    if (eventLogWriter != null) {
+      try {
+        eventLogWriter.close();
+      } catch (IOException e) {
+        LOGGER.warn("Error closing event log for " + getFullName(), e);
       }
+      eventLogWriter = null;
     }
-    
-    dispatcher.shutdown();
   }
 
+  /**
+   * In the ET domain, model time follows wall-clock time (in seconds) from the moment the model is initialized.
+   */
+  @Override
+  public Time getModelTime() {
+    Time startTime = modelStartTime;
+    if (startTime == null) {
+      return super.getModelTime();
+    }
+    return startTime.add((System.nanoTime() - startNanos) / 1.0E9);
+  }
+
+  /**
+   * Schedules a fire event for the actor, that will be dispatched once the wall-clock time corresponding to the given model time has been reached.
+   * A request to fire at an infinite time is ignored.
+   */
   @Override
   public void fireAt(Actor actor, Time time) throws IllegalActionException {
-    // TODO add time handling
+    if (time.isPositiveInfinite()) {
+      LOGGER.debug("{} - Ignoring fireAt infinity for {}", getFullName(), actor.getFullName());
+      return;
+    }
+    if (dispatcher == null) {
+      throw new IllegalActionException(actor, "No event dispatcher for fireAt, " + getFullName() + " has not been preinitialized");
+    }
+    Time startTime = modelStartTime;
+    long delayNanos = 0;
+    if (startTime != null) {
+      // computed as double and capped, to avoid overflow for far-away times
+      double remainingNanos = time.subtract(startTime).getDoubleValue() * 1.0E9 - (System.nanoTime() - startNanos);
+      delayNanos = (long) Math.min(remainingNanos, MAX_FIRE_DELAY_NANOS);
+    }
     try {
-      enqueueEvent(new FireEvent(actor));
+      if (delayNanos > 0) {
+        dispatcher.schedule(new FireEvent(actor), delayNanos, TimeUnit.NANOSECONDS);
+      } else {
+        enqueueEvent(new FireEvent(actor));
+      }
     } catch (EventRefusedException e) {
       throw new IllegalActionException(actor, e, "Error enqueing fire event");
     }
@@ -313,6 +440,17 @@ public class ETDirector extends Director implements PasserelleDirector {
     }
   }
 
+  /**
+   * To be called by the event handler that handled the given flow execution event.
+   * 
+   * @param event
+   */
+  public void notifyFlowExecutionEventHandled(FlowExecutionEvent event) {
+    if (FlowExecutionEventType.FINISH.equals(event.getEventType())) {
+      flowFinishHandled = true;
+    }
+  }
+
   public boolean isActorIterating(Actor actor) {
     return busyIteratingActors.get(actor) != null;
   }
@@ -15,6 +15,7 @@
 
 package com.isencia.passerelle.domain.et;
 
+import java.io.Writer;
 import java.util.List;
 import com.isencia.passerelle.runtime.Event;
 
@@ -26,18 +27,49 @@ import com.isencia.passerelle.runtime.Event;
  * a list of unhandled events and a list of events that failed being processed, 
  * with the associated error cause. 
  * </p>
+ * <p>
+ * The reporter only keeps a limited nr of the most recent entries of each kind. Older entries are dropped, 
+ * or written to a spill writer when one has been set.
+ * </p>
  * 
  * @author delerw
  *
  */
 public interface EventDispatchReporter {
   
+  /**
+   * The default max nr of entries kept for each of the history, unhandled events and event errors.
+   */
+  int DEFAULT_EVENT_LOG_CAPACITY = 1000;
+  
   /**
    * 
    * @param enable true if the reporter should maintain a full event history.
    */
   void enableEventHistory(boolean enable);
   
+  /**
+   * Set the max nr of entries kept for each of the history, unhandled events and event errors.
+   * Any entries that were already stored are discarded.
+   * 
+   * @param capacity
+   */
+  void setEventLogCapacity(int capacity);
+  
+  /**
+   * 
+   * @param writer the writer to which entries are spilled when they no longer fit in the reporter,
+   * or null if they can just be dropped.
+   */
+  void setEventLogSpillWriter(Writer writer);
+  
+  /**
+   * Write all stored entries to the given writer, one entry per line, oldest first.
+   * 
+   * @param writer
+   */
+  void writeEventLog(Writer writer);
+  
   
   /**
    * @return the list of all events that are still pending for execution
@@ -36,14 +36,30 @@ public interface EventDispatcher {
    * @throws EventRefusedException
    */
   void accept(Event e) throws EventRefusedException;
+
+  /**
+   * Accept a new event, that may only be dispatched once the given delay has passed.
+   * <p>
+   * Events that are not yet due when the dispatcher is shut down, are dropped.
+   * </p>
+   * 
+   * @param e
+   * @param delay
+   * @param unit
+   * @throws EventRefusedException
+   */
+  void schedule(Event e, long delay, TimeUnit unit) throws EventRefusedException;
   
   /**
    * 
-   * @return true if the dispatcher has pending events that still need to be dispatched. false otherwise.
+   * @return true if the dispatcher has pending events that still need to be dispatched, including scheduled ones that are not yet due. false otherwise.
    */
   boolean hasWork();
 
   /**
+   * Waits until an event is available, or until the given timeout has passed. Scheduled events become available as soon as they're due,
+   * without waiting for the timeout.
+   * 
    * @param timeOut (ms)
    * @return true if an event was dispatched or must be retried, false if no event was pending during the given timeout
    * @throws InterruptedException
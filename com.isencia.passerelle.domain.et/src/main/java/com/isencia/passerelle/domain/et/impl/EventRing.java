@@ -0,0 +1,120 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.isencia.passerelle.domain.et.impl;
+
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fixed-capacity ring for event reporting entries, that can be written concurrently without locking.
+ * <p>
+ * When the ring is full, each new entry overwrites the oldest one. If a spill writer has been set, the overwritten entry is written to it first, one entry
+ * per line, prefixed with the ring's name.
+ * </p>
+ *
+ * @author delerw
+ */
+class EventRing<T> {
+  private final static Logger LOGGER = LoggerFactory.getLogger(EventRing.class);
+
+  private String name;
+  private AtomicReferenceArray<T> slots;
+  // total nr of entries that were ever added, i.e. the position of the next entry
+  private AtomicLong writePosition = new AtomicLong();
+  private volatile Writer spillWriter;
+
+  EventRing(String name, int capacity) {
+    this.name = name;
+    this.slots = new AtomicReferenceArray<T>(Math.max(1, capacity));
+  }
+
+  int getCapacity() {
+    return slots.length();
+  }
+
+  Writer getSpillWriter() {
+    return spillWriter;
+  }
+
+  /**
+   * @param spillWriter the writer for overwritten entries, or null if they can just be dropped
+   */
+  void setSpillWriter(Writer spillWriter) {
+    this.spillWriter = spillWriter;
+  }
+
+  void add(T entry) {
+    long position = writePosition.getAndIncrement();
+    T overwritten = slots.getAndSet((int) (position % slots.length()), entry);
+    if (overwritten != null) {
+      Writer writer = spillWriter;
+      if (writer != null) {
+        write(writer, overwritten);
+      }
+    }
+  }
+
+  /**
+   * @return the entries currently in the ring, most recent first.
+   */
+  List<T> getEntries() {
+    long position = writePosition.get();
+    int count = (int) Math.min(position, slots.length());
+    List<T> result = new ArrayList<T>(count);
+    for (long i = position - 1; i >= position - count; --i) {
+      T entry = slots.get((int) (i % slots.length()));
+      if (entry != null) {
+        result.add(entry);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Writes all entries currently in the ring to the given writer, oldest first, in the same format as the spilled ones.
+   *
+   * @param writer
+   */
+  void writeTo(Writer writer) {
+    List<T> entries = getEntries();
+    for (int i = entries.size() - 1; i >= 0; --i) {
+      write(writer, entries.get(i));
+    }
+  }
+
+  void clear() {
+    writePosition.set(0);
+    for (int i = 0; i < slots.length(); ++i) {
+      slots.set(i, null);
+    }
+  }
+
+  private void write(Writer writer, T entry) {
+    try {
+      // the writer is shared between the rings of a dispatcher
+      synchronized (writer) {
+        writer.write(name + " - " + entry + System.getProperty("line.separator"));
+      }
+    } catch (Exception e) {
+      LOGGER.warn("Error writing " + name + " entry " + entry, e);
+    }
+  }
+}
@@ -48,7 +48,11 @@ public class FlowEventHandler implements EventHandler {
 
   public HandleResult handle(Event event, boolean isRetry) throws Exception {
     FlowExecutionEvent fee = (FlowExecutionEvent) event;
-    ExecutionTracerService.trace(director, fee.getEventType()+" - "+fee.getTarget().getFullName());
+    try {
+      ExecutionTracerService.trace(director, fee.getEventType()+" - "+fee.getTarget().getFullName());
+    } finally {
+      director.notifyFlowExecutionEventHandled(fee);
+    }
     return HandleResult.DONE;
   }
 
@@ -15,12 +15,18 @@
 
 package com.isencia.passerelle.domain.et.impl;
 
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.isencia.passerelle.core.ErrorCode;
@@ -33,10 +39,21 @@ import com.isencia.passerelle.domain.et.EventHandler;
 import com.isencia.passerelle.domain.et.EventHandler.HandleResult;
 import com.isencia.passerelle.domain.et.EventHandler.HandleType;
 import com.isencia.passerelle.domain.et.EventRefusedException;
+import com.isencia.passerelle.domain.et.FireEvent;
+import com.isencia.passerelle.domain.et.SendEvent;
 
 /**
  * A basic implementation of an event dispatcher, based on a BlockingQueue and a method for dispatching the oldest queued event. The method must be invoked by
  * some external component (e.g. the model director).
+ * <p>
+ * Events for a same actor are kept in a mailbox per actor. Only the oldest event of a mailbox is in the dispatch queue, and the next one is only queued after
+ * that one has been dispatched. So an actor is never offered a next event while it's still iterating for a previous one, which avoids RETRY loops on busy
+ * actors. As the next event is queued at the tail, actors get their turns in a round-robin fashion.
+ * </p>
+ * <p>
+ * Scheduled events are kept in a heap ordered by their due time, and are queued as soon as they're due. Threads waiting for an event only wait until the
+ * earliest scheduled event is due, so there's no need to poll for them.
+ * </p>
  * 
  * @author delerw
  */
@@ -46,19 +63,58 @@ public class SimpleEventDispatcher implements EventDispatcher, EventDispatchRepo
 
   private String name;
 
-  private static class EventEntry {
+  protected static class EventEntry {
     Event event;
     boolean retry;
+    // nr of times the event has been offered again to the handlers after a RETRY
+    int retryCount;
+    // the mailbox of the event's destination actor, if any
+    Mailbox mailbox;
     public EventEntry(Event event) {
       this.event = event;
       this.retry = false;
     }
   }
   
+  private static class TimedEventEntry implements Comparable<TimedEventEntry> {
+    EventEntry eventEntry;
+    // the System.nanoTime() at which the event may be dispatched
+    long dueTime;
+    // to keep events with the same due time in the order in which they were scheduled
+    long seqNr;
+
+    TimedEventEntry(EventEntry eventEntry, long dueTime, long seqNr) {
+      this.eventEntry = eventEntry;
+      this.dueTime = dueTime;
+      this.seqNr = seqNr;
+    }
+
+    public int compareTo(TimedEventEntry other) {
+      long diff = dueTime - other.dueTime;
+      if (diff == 0) {
+        diff = seqNr - other.seqNr;
+      }
+      return (diff < 0) ? -1 : ((diff > 0) ? 1 : 0);
+    }
+  }
+
+  // queued to wake up the threads waiting for an event, when a scheduled event is due earlier than the ones they're waiting for
+  private static final EventEntry WAKE_UP = new EventEntry(null);
+
+  private static class Mailbox {
+    Queue<EventEntry> entries = new ConcurrentLinkedQueue<EventEntry>();
+    // true while one of the mailbox's entries is in the eventQ or being dispatched
+    AtomicBoolean scheduled = new AtomicBoolean();
+  }
+
   private BlockingQueue<EventEntry> eventQ = new LinkedBlockingQueue<EventEntry>();
-  private List<Event> eventHistory = new LinkedList<Event>();
-  private List<Event> unhandledEvents = new LinkedList<Event>();
-  private List<EventError> eventErrors = new LinkedList<EventError>();
+  private EventRing<Event> eventHistory;
+  private EventRing<Event> unhandledEvents;
+  private EventRing<EventError> eventErrors;
+  private ConcurrentMap<Object, Mailbox> mailboxes = new ConcurrentHashMap<Object, Mailbox>();
+  // scheduled events that are not yet due, the earliest first; guarded by itself
+  private PriorityQueue<TimedEventEntry> timedEvents = new PriorityQueue<TimedEventEntry>();
+  private long timedEventSeqNr;
 
   private EventHandler eventHandlers[];
 
@@ -74,6 +130,7 @@ public class SimpleEventDispatcher implements EventDispatcher, EventDispatchRepo
   public SimpleEventDispatcher(String name, EventHandler... handlers) {
     this.name = name;
     eventHandlers = handlers;
+    setEventLogCapacity(DEFAULT_EVENT_LOG_CAPACITY);
 
     getLogger().debug("Created {}", this);
   }
@@ -81,6 +138,26 @@ public class SimpleEventDispatcher implements EventDispatcher, EventDispatchRepo
   public void enableEventHistory(boolean enable) {
     this.keepHistory = enable;
   }
+
+  public void setEventLogCapacity(int capacity) {
+    Writer spillWriter = (eventHistory != null) ? eventHistory.getSpillWriter() : null;
+    eventHistory = new EventRing<Event>("History", capacity);
+    unhandledEvents = new EventRing<Event>("Unhandled", capacity);
+    eventErrors = new EventRing<EventError>("Error", capacity);
+    setEventLogSpillWriter(spillWriter);
+  }
+
+  public void setEventLogSpillWriter(Writer writer) {
+    eventHistory.setSpillWriter(writer);
+    unhandledEvents.setSpillWriter(writer);
+    eventErrors.setSpillWriter(writer);
+  }
+
+  public void writeEventLog(Writer writer) {
+    eventHistory.writeTo(writer);
+    unhandledEvents.writeTo(writer);
+    eventErrors.writeTo(writer);
+  }
   
   public String getName() {
     return name;
@@ -92,6 +169,10 @@ public class SimpleEventDispatcher implements EventDispatcher, EventDispatchRepo
 
   public void initialize() {
     clearEvents();
+    mailboxes.clear();
+    synchronized (timedEvents) {
+      timedEvents.clear();
+    }
     active = true;
     forcedShutdown = false;
     for (EventHandler evtHandler : eventHandlers) {
@@ -101,7 +182,22 @@ public class SimpleEventDispatcher implements EventDispatcher, EventDispatchRepo
   }
 
   protected int getPendingEventCount() {
-    return eventQ.size();
+    int count = eventQ.size();
+    for (Mailbox mailbox : mailboxes.values()) {
+      count += mailbox.entries.size();
+    }
+    synchronized (timedEvents) {
+      count += timedEvents.size();
+    }
+    return count;
+  }
+
+  protected boolean isActive() {
+    return active;
+  }
+
+  protected boolean isForcedShutdown() {
+    return forcedShutdown;
   }
 
   public void accept(Event e) throws EventRefusedException {
@@ -109,87 +205,270 @@ public class SimpleEventDispatcher implements EventDispatcher, EventDispatchRepo
       throw new EventRefusedException(e, ErrorCode.FLOW_STATE_ERROR, "Dispatcher inactive " + getName(), new IllegalStateException());
     }
     try {
-      eventQ.put(new EventEntry(e));
+      enqueue(new EventEntry(e));
     } catch (Exception e1) {
       throw new EventRefusedException(e, ErrorCode.FLOW_EXECUTION_ERROR, "Error accepting event " + getName(), e1);
     }
   }
 
+  public void schedule(Event e, long delay, TimeUnit unit) throws EventRefusedException {
+    if (!active) {
+      throw new EventRefusedException(e, ErrorCode.FLOW_STATE_ERROR, "Dispatcher inactive " + getName(), new IllegalStateException());
+    }
+    try {
+      EventEntry eventEntry = new EventEntry(e);
+      long delayNanos = unit.toNanos(delay);
+      if (delayNanos <= 0) {
+        enqueue(eventEntry);
+      } else {
+        boolean earliest = false;
+        synchronized (timedEvents) {
+          TimedEventEntry timedEventEntry = new TimedEventEntry(eventEntry, System.nanoTime() + delayNanos, timedEventSeqNr++);
+          timedEvents.add(timedEventEntry);
+          earliest = (timedEvents.peek() == timedEventEntry);
+        }
+        if (earliest) {
+          eventQ.put(WAKE_UP);
+        }
+      }
+    } catch (Exception e1) {
+      throw new EventRefusedException(e, ErrorCode.FLOW_EXECUTION_ERROR, "Error scheduling event " + getName(), e1);
+    }
+  }
+
+  /**
+   * Queues the entry in the eventQ, or in its actor's mailbox.
+   */
+  private void enqueue(EventEntry eventEntry) throws InterruptedException {
+    Object mailboxKey = getMailboxKey(eventEntry.event);
+    if (mailboxKey != null) {
+      Mailbox mailbox = mailboxes.get(mailboxKey);
+      if (mailbox == null) {
+        Mailbox newMailbox = new Mailbox();
+        mailbox = mailboxes.putIfAbsent(mailboxKey, newMailbox);
+        if (mailbox == null) {
+          mailbox = newMailbox;
+        }
+      }
+      eventEntry.mailbox = mailbox;
+      mailbox.entries.add(eventEntry);
+      scheduleMailbox(mailbox);
+    } else {
+      eventQ.put(eventEntry);
+    }
+  }
+
   public boolean hasWork() {
-    return !eventQ.isEmpty();
+    if (!eventQ.isEmpty()) {
+      return true;
+    }
+    synchronized (timedEvents) {
+      return !timedEvents.isEmpty();
+    }
+  }
+
+  /**
+   * Queues the scheduled events that are due.
+   * 
+   * @param now
+   * @return the time (ns) until the next scheduled event is due, or Long.MAX_VALUE if there are none
+   * @throws InterruptedException
+   */
+  private long releaseDueEvents(long now) throws InterruptedException {
+    List<EventEntry> dueEntries = null;
+    long nanosToNextDue = Long.MAX_VALUE;
+    synchronized (timedEvents) {
+      TimedEventEntry timedEventEntry = null;
+      while ((timedEventEntry = timedEvents.peek()) != null) {
+        if (timedEventEntry.dueTime - now > 0) {
+          nanosToNextDue = timedEventEntry.dueTime - now;
+          break;
+        }
+        timedEvents.poll();
+        if (dueEntries == null) {
+          dueEntries = new ArrayList<EventEntry>();
+        }
+        dueEntries.add(timedEventEntry.eventEntry);
+      }
+    }
+    if (dueEntries != null) {
+      for (EventEntry eventEntry : dueEntries) {
+        enqueue(eventEntry);
+      }
+    }
+    return nanosToNextDue;
+  }
+
+  /**
+   * Drops the scheduled events that are not yet due.
+   * 
+   * @return the nr of dropped events
+   */
+  protected int dropTimedEvents() {
+    synchronized (timedEvents) {
+      int count = timedEvents.size();
+      timedEvents.clear();
+      return count;
+    }
+  }
+
+  /**
+   * @param event
+   * @return the actor to which the event is addressed, or null if the event does not need to be kept in a mailbox
+   */
+  protected Object getMailboxKey(Event event) {
+    if (event instanceof SendEvent) {
+      return ((SendEvent) event).getReceivingPort().getContainer();
+    } else if (event instanceof FireEvent) {
+      return ((FireEvent) event).getTarget();
+    } else {
+      return null;
+    }
+  }
+
+  /**
+   * Moves the oldest entry of the mailbox to the eventQ, unless another entry of the mailbox is already there or being dispatched.
+   */
+  private void scheduleMailbox(Mailbox mailbox) {
+    while (mailbox.scheduled.compareAndSet(false, true)) {
+      EventEntry next = mailbox.entries.poll();
+      if (next != null) {
+        eventQ.add(next);
+        return;
+      }
+      mailbox.scheduled.set(false);
+      if (mailbox.entries.isEmpty()) {
+        return;
+      }
+      // an entry was added concurrently, after we found the mailbox empty but before it was unscheduled
+    }
   }
   
   public boolean dispatch(long timeOut) throws InterruptedException {
     if (forcedShutdown) {
       throw new IllegalStateException("Dispatcher forced to shutdown");
     }
+    EventEntry eventEntry = pollEvent(timeOut);
+    return (eventEntry != null) ? dispatch(eventEntry) : false;
+  }
+
+  /**
+   * @param timeOut (ms)
+   * @return the oldest queued event entry, or null if none arrived or became due during the given timeout
+   * @throws InterruptedException
+   */
+  protected EventEntry pollEvent(long timeOut) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeOut);
+    for (;;) {
+      long now = System.nanoTime();
+      long waitNanos = Math.min(deadline - now, releaseDueEvents(now));
+      EventEntry eventEntry = eventQ.poll(Math.max(0, waitNanos), TimeUnit.NANOSECONDS);
+      if (eventEntry != null && eventEntry != WAKE_UP) {
+        return eventEntry;
+      } else if (eventEntry == null && deadline - System.nanoTime() <= 0) {
+        return null;
+      }
+      // woken up for a scheduled event that is due earlier, or one is due now
+    }
+  }
+
+  /**
+   * Offers the given event entry to the event handlers.
+   * 
+   * @param eventEntry
+   * @return true if the event was handled or must be retried
+   */
+  protected boolean dispatch(EventEntry eventEntry) {
     boolean possiblyMoreWork = false;
     boolean eventHandled = false;
-    EventEntry eventEntry = null;
-    Event event = null;
+    boolean eventRetried = false;
+    Event event = eventEntry.event;
     try {
-      eventEntry = eventQ.poll(timeOut, TimeUnit.MILLISECONDS);
-      if (eventEntry != null) {
-        event = eventEntry.event;
-        boolean eventEffected = false;
-        for (EventHandler evtHandler : eventHandlers) {
-          try {
-            HandleType handleType = evtHandler.canHandleAs(event, eventEntry.retry);
-            if (HandleType.SKIP.equals(handleType)
-                || (eventEffected && HandleType.EFFECT.equals(handleType)) ) {
-              continue;
-            } else {
-              HandleResult result = evtHandler.handle(event, eventEntry.retry);
-              if (HandleResult.DONE.equals(result)) {
-                eventHandled = true;
-                possiblyMoreWork = true;
-                eventEffected = HandleType.EFFECT.equals(handleType);
-              } else if (!eventEffected && HandleResult.RETRY.equals(result)){
-                // interrupt current handling loop and add event to Q again for later retry
-                possiblyMoreWork = true;
-                EventEntry newEventEntry = new EventEntry(((AbstractEvent)event).copy());
-                newEventEntry.retry=true;
-                eventQ.add(newEventEntry);
-                break;
-              }
+      boolean eventEffected = false;
+      for (EventHandler evtHandler : eventHandlers) {
+        try {
+          HandleType handleType = evtHandler.canHandleAs(event, eventEntry.retry);
+          if (HandleType.SKIP.equals(handleType)
+              || (eventEffected && HandleType.EFFECT.equals(handleType)) ) {
+            continue;
+          } else {
+            HandleResult result = evtHandler.handle(event, eventEntry.retry);
+            if (HandleResult.DONE.equals(result)) {
+              eventHandled = true;
+              possiblyMoreWork = true;
+              eventEffected = HandleType.EFFECT.equals(handleType);
+            } else if (!eventEffected && HandleResult.RETRY.equals(result)){
+              // interrupt current handling loop and add event to Q again for later retry
+              possiblyMoreWork = true;
+              EventEntry newEventEntry = new EventEntry(((AbstractEvent)event).copy());
+              newEventEntry.retry=true;
+              newEventEntry.retryCount = eventEntry.retryCount + 1;
+              // the retried entry keeps the mailbox's turn
+              newEventEntry.mailbox = eventEntry.mailbox;
+              eventRetried = true;
+              retry(newEventEntry);
+              break;
             }
-          } catch (Exception e) {
-            eventErrors.add(0, new EventError(event, e));
           }
+        } catch (Exception e) {
+          eventErrors.add(new EventError(event, e));
         }
       }
     } finally {
-      if (event != null) {
-        if (eventHandled) {
-          if(keepHistory) {
-            eventHistory.add(0, event);
-          }
-        } else {
-          unhandledEvents.add(0, event);
+      if (eventHandled) {
+        if(keepHistory) {
+          eventHistory.add(event);
         }
+      } else {
+        unhandledEvents.add(event);
+      }
+      if (eventEntry.mailbox != null && !eventRetried) {
+        eventEntry.mailbox.scheduled.set(false);
+        scheduleMailbox(eventEntry.mailbox);
       }
     }
     return possiblyMoreWork;
   }
 
+  /**
+   * Queues an event again, after one of the handlers asked to retry it.
+   * 
+   * @param eventEntry the entry for the copied event
+   */
+  protected void retry(EventEntry eventEntry) {
+    eventQ.add(eventEntry);
+  }
+
   public List<Event> getEventHistory() {
-    return eventHistory;
+    return eventHistory.getEntries();
   }
 
   public List<Event> getUnhandledEvents() {
-    return unhandledEvents;
+    return unhandledEvents.getEntries();
   }
   
   public List<Event> getPendingEvents() {
     List<Event> result = new ArrayList<Event>();
     for(EventEntry ee : eventQ) {
-      result.add(ee.event);
+      if (ee != WAKE_UP) {
+        result.add(ee.event);
+      }
+    }
+    for (Mailbox mailbox : mailboxes.values()) {
+      for (EventEntry ee : mailbox.entries) {
+        result.add(ee.event);
+      }
+    }
+    synchronized (timedEvents) {
+      for (TimedEventEntry tee : timedEvents) {
+        result.add(tee.eventEntry.event);
+      }
     }
     return result;
   }
 
   public List<EventError> getEventErrors() {
-    return eventErrors;
+    return eventErrors.getEntries();
   }
 
   public void clearEvents() {
@@ -200,18 +479,31 @@ public class SimpleEventDispatcher implements EventDispatcher, EventDispatchRepo
 
   public void shutdown() {
     active = false;
-    getLogger().debug("Shutdown {}", this);
+    int droppedCount = dropTimedEvents();
+    getLogger().debug("Shutdown {} dropped {} scheduled events", this, droppedCount);
   }
 
   public List<Event> shutdownNow() {
     getLogger().debug("shutdownNow {}", this);
+    // the scheduled events are dropped by shutdown(), but they should be returned as well
+    List<EventEntry> pendingEventEntries = new ArrayList<EventEntry>();
+    synchronized (timedEvents) {
+      for (TimedEventEntry tee : timedEvents) {
+        pendingEventEntries.add(tee.eventEntry);
+      }
+    }
     shutdown();
     forcedShutdown = true;
-    List<EventEntry> pendingEventEntries = new ArrayList<EventEntry>(eventQ);
+    pendingEventEntries.addAll(eventQ);
+    for (Mailbox mailbox : mailboxes.values()) {
+      pendingEventEntries.addAll(mailbox.entries);
+    }
     getLogger().info("shutdownNow {} found {} pending events", this, pendingEventEntries.size());
     List<Event> pendingEvents = new ArrayList<Event>();
     for (EventEntry eventEntry : pendingEventEntries) {
-      pendingEvents.add(eventEntry.event);
+      if (eventEntry != WAKE_UP) {
+        pendingEvents.add(eventEntry.event);
+      }
     }
     return pendingEvents;
   }
@@ -15,97 +15,292 @@
 
 package com.isencia.passerelle.domain.et.impl;
 
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.CompletionService;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorCompletionService;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.isencia.passerelle.runtime.Event;
 import com.isencia.passerelle.domain.et.EventHandler;
+import com.isencia.passerelle.domain.et.EventRefusedException;
 
 /**
- * 
+ * An event dispatcher with a fixed set of long-lived worker threads that continuously drain the event queue.
+ * <p>
+ * Events that must be retried are queued again after a short delay, that grows with each retry of a same event, so busy actors are not hammered by the
+ * workers.
+ * </p>
+ * <p>
+ * The <code>dispatch()</code> method no longer dispatches events itself. It just blocks the calling thread (e.g. the model director) till all accepted
+ * events have been dispatched, or till the given timeout has passed.
+ * </p>
+ *
  * @author delerw
  */
 public class ThreadPoolEventDispatcher extends SimpleEventDispatcher {
 
   private final static Logger LOGGER = LoggerFactory.getLogger(ThreadPoolEventDispatcher.class);
 
-  // theadpool for the eventQSinks
-  private ExecutorService queueDepletionExecutor;
+  // max time (ms) that an idle worker waits for an event, before checking the shutdown state again
+  private static final long WORKER_POLL_TIMEOUT = 100;
+  // max delay (ms) before a retried event is queued again
+  private static final long MAX_RETRY_DELAY = 64;
+
+  private int threadCount;
+  // threadpool for the long-lived dispatch workers
+  private ExecutorService workerExecutor;
+  // for queueing retried events again after their delay
+  private ScheduledExecutorService retryScheduler;
+  // retried events that are waiting for their delay to pass
+  private Set<EventEntry> delayedRetries = Collections.newSetFromMap(new ConcurrentHashMap<EventEntry, Boolean>());
+
+  // nr of accepted events that have not been completely dispatched yet, including the ones that are being retried
+  private AtomicInteger outstandingEvents = new AtomicInteger();
+  // nr of times an event has been offered to the handlers
+  private AtomicLong dispatchCount = new AtomicLong();
+  // the dispatchCount as seen by the previous dispatch() call; guarded by the stateLock
+  private long lastSeenDispatchCount;
+  // signalled each time all accepted events have been dispatched
+  private Lock stateLock = new ReentrantLock();
+  private Condition quiescent = stateLock.newCondition();
 
   public ThreadPoolEventDispatcher(String name, int threadCount, EventHandler... handlers) {
     super(name, handlers);
-
-    queueDepletionExecutor = Executors.newFixedThreadPool(threadCount);
+    this.threadCount = threadCount;
   }
 
   protected Logger getLogger() {
     return LOGGER;
   }
-  
+
+  @Override
+  public void initialize() {
+    super.initialize();
+    delayedRetries.clear();
+    outstandingEvents.set(0);
+    dispatchCount.set(0);
+    lastSeenDispatchCount = 0;
+
+    // the workers of a previous run may still be around, e.g. when it was not shut down properly
+    if (workerExecutor != null) {
+      workerExecutor.shutdownNow();
+      retryScheduler.shutdownNow();
+    }
+    final String threadNamePrefix = getName() + "-dispatcher-";
+    workerExecutor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+      private final AtomicInteger threadNr = new AtomicInteger();
+
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, threadNamePrefix + threadNr.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    retryScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, threadNamePrefix + "retry");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    for (int i = 0; i < threadCount; ++i) {
+      workerExecutor.execute(new DispatchWorker());
+    }
+  }
+
+  @Override
+  protected int getPendingEventCount() {
+    return super.getPendingEventCount() + delayedRetries.size();
+  }
+
+  @Override
+  public List<Event> getPendingEvents() {
+    List<Event> result = super.getPendingEvents();
+    for (EventEntry ee : delayedRetries) {
+      result.add(ee.event);
+    }
+    return result;
+  }
+
+  @Override
+  public void accept(Event e) throws EventRefusedException {
+    // count it before it is queued, so a worker can never see it finished before it was counted
+    outstandingEvents.incrementAndGet();
+    try {
+      super.accept(e);
+    } catch (EventRefusedException ex) {
+      eventDone();
+      throw ex;
+    }
+  }
+
+  @Override
+  public void schedule(Event e, long delay, TimeUnit unit) throws EventRefusedException {
+    // a scheduled event is outstanding until it has been dispatched, or dropped when it was not yet due at shutdown
+    outstandingEvents.incrementAndGet();
+    try {
+      super.schedule(e, delay, unit);
+    } catch (EventRefusedException ex) {
+      eventDone();
+      throw ex;
+    }
+  }
+
+  @Override
+  protected int dropTimedEvents() {
+    int droppedCount = super.dropTimedEvents();
+    for (int i = 0; i < droppedCount; ++i) {
+      eventDone();
+    }
+    return droppedCount;
+  }
+
+  @Override
+  public boolean hasWork() {
+    return outstandingEvents.get() > 0;
+  }
+
   @Override
   public void shutdown() {
-    queueDepletionExecutor.shutdown();
     super.shutdown();
+    // running workers go on till all pending events are dispatched,
+    // and delayed retries are still queued after shutdown of the scheduler
+    if (workerExecutor != null) {
+      workerExecutor.shutdown();
+      retryScheduler.shutdown();
+    }
   }
-  
+
   @Override
   public List<Event> shutdownNow() {
-    queueDepletionExecutor.shutdownNow();
-    return super.shutdownNow();
+    List<Event> pendingEvents = super.shutdownNow();
+    if (workerExecutor != null) {
+      workerExecutor.shutdownNow();
+      retryScheduler.shutdownNow();
+    }
+    for (EventEntry ee : delayedRetries) {
+      pendingEvents.add(ee.event);
+    }
+    delayedRetries.clear();
+    return pendingEvents;
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    if (isActive() || workerExecutor == null) {
+      return false;
+    }
+    return workerExecutor.awaitTermination(timeout, unit);
   }
 
+  /**
+   * Blocks till all accepted events have been dispatched by the workers, or till the given timeout has passed.
+   * <p>
+   * When there's nothing to do, this just waits for the timeout, so the caller sees no difference with polling an empty event queue.
+   * </p>
+   */
   @Override
   public boolean dispatch(long timeOut) throws InterruptedException {
-    int evtCount = getPendingEventCount();
-    boolean hasDispatchedSomething = false;
-    if (evtCount > 0) {
-      CompletionService<Boolean> execComplSvc = new ExecutorCompletionService<Boolean>(queueDepletionExecutor);
-      for (int i = 0; i < evtCount; ++i) {
-        execComplSvc.submit(new EventQueueSink(timeOut));
+    if (isForcedShutdown()) {
+      throw new IllegalStateException("Dispatcher forced to shutdown");
+    }
+    long nanos = TimeUnit.MILLISECONDS.toNanos(timeOut);
+    stateLock.lock();
+    try {
+      while (nanos > 0 && (outstandingEvents.get() > 0 || dispatchCount.get() == lastSeenDispatchCount)) {
+        nanos = quiescent.awaitNanos(nanos);
       }
-      for (int i = 0; i < evtCount; ++i) {
-        try {
-          // Watch out! Order of the RHS is important.
-          // The ...get() must come first as we want to ensure that we wait for ALL tasks to have completed.
-          // If it would be at the end, the Java logical expression evaluation would no longer execute it once
-          // the hasDispatchedSomething has become true!
-          hasDispatchedSomething = execComplSvc.take().get() || hasDispatchedSomething;
-        } catch (ExecutionException e) {
-          // TODO Auto-generated catch block
-          e.printStackTrace();
-        }
+      long currentDispatchCount = dispatchCount.get();
+      boolean hasDispatchedSomething = (currentDispatchCount != lastSeenDispatchCount) || (outstandingEvents.get() > 0);
+      lastSeenDispatchCount = currentDispatchCount;
+      getLogger().debug("{} hasDispatchedSomething {}", this, hasDispatchedSomething);
+      return hasDispatchedSomething;
+    } finally {
+      stateLock.unlock();
+    }
+  }
+
+  @Override
+  protected void retry(final EventEntry eventEntry) {
+    // the retried copy is outstanding until it has been dispatched in its turn
+    outstandingEvents.incrementAndGet();
+    long delay = getRetryDelay(eventEntry.retryCount);
+    if (delay > 0) {
+      delayedRetries.add(eventEntry);
+      try {
+        retryScheduler.schedule(new Runnable() {
+          public void run() {
+            if (delayedRetries.remove(eventEntry)) {
+              ThreadPoolEventDispatcher.super.retry(eventEntry);
+            }
+          }
+        }, delay, TimeUnit.MILLISECONDS);
+        return;
+      } catch (RejectedExecutionException e) {
+        // shutting down, so no more waiting
+        delayedRetries.remove(eventEntry);
       }
-    } else {
-      // block the calling thread until an event has arrived, or timeout is passed
-      // if an event arrives, it will also be processed in the calling thread...
-      super.dispatch(timeOut);
     }
-    getLogger().debug(this + " hasDispatchedSomething " + hasDispatchedSomething);
-    return hasDispatchedSomething;
+    super.retry(eventEntry);
   }
 
-  private class EventQueueSink implements Callable<Boolean> {
-    private long timeout;
+  /**
+   * @param retryCount
+   * @return the delay (ms) before an event is queued again for its given retry; the first retry is immediate, next ones back off exponentially.
+   */
+  protected long getRetryDelay(int retryCount) {
+    if (retryCount <= 1) {
+      return 0;
+    }
+    return Math.min(1L << Math.min(retryCount - 2, 6), MAX_RETRY_DELAY);
+  }
 
-    public EventQueueSink(long timeout) {
-      this.timeout = timeout;
+  private void eventDone() {
+    if (outstandingEvents.decrementAndGet() == 0) {
+      stateLock.lock();
+      try {
+        quiescent.signalAll();
+      } finally {
+        stateLock.unlock();
+      }
     }
+  }
 
-    public Boolean call() throws Exception {
-      String name = getName() + " - " + Thread.currentThread().getName();
-      getLogger().trace("Starting dispatch {}", name);
+  private class DispatchWorker implements Runnable {
+    public void run() {
+      String name = Thread.currentThread().getName();
+      getLogger().trace("Starting dispatch worker {}", name);
       try {
-        boolean hasDispatchedSomething = ThreadPoolEventDispatcher.super.dispatch(timeout);
-        getLogger().debug(name + " hasDispatchedSomething " + hasDispatchedSomething);
-        return hasDispatchedSomething;
+        while (!isForcedShutdown() && (isActive() || outstandingEvents.get() > 0)) {
+          EventEntry eventEntry = pollEvent(WORKER_POLL_TIMEOUT);
+          if (eventEntry != null) {
+            try {
+              ThreadPoolEventDispatcher.this.dispatch(eventEntry);
+            } catch (Throwable t) {
+              // the worker must go on with the next events
+              getLogger().error("Error dispatching event " + eventEntry.event + " in " + name, t);
+            } finally {
+              dispatchCount.incrementAndGet();
+              eventDone();
+            }
+          }
+        }
+      } catch (InterruptedException e) {
+        // shutdownNow
       } finally {
-        getLogger().trace("Finished dispatch {}", name);
+        getLogger().trace("Finished dispatch worker {}", name);
       }
     }
   }
@@ -0,0 +1,114 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.passerelle.core;
+
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ptolemy.actor.Receiver;
+import ptolemy.actor.TypedAtomicActor;
+import ptolemy.actor.TypedCompositeActor;
+import com.isencia.passerelle.domain.cap.BlockingQueueReceiver;
+import com.isencia.passerelle.domain.cap.Director;
+import com.isencia.passerelle.message.MessageFactory;
+
+/**
+ * Measures the broadcasts per second of an output port connected to 1, 8 and 64 input ports,
+ * once via the cached far links of an initialized port and once via the locked path,
+ * that obtains read access on the workspace and checks the token type for each broadcast.
+ * <p>
+ * The results are logged, the test only fails when a receiver misses a token.
+ * </p>
+ *
+ * @author erwin
+ */
+public class PortBroadcastThroughputTest extends TestCase {
+  private final static Logger LOGGER = LoggerFactory.getLogger(PortBroadcastThroughputTest.class);
+
+  private final static int WARMUP_COUNT = 10000;
+  private final static int BROADCAST_COUNT = 100000;
+  private final static int DRAIN_INTERVAL = 1000;
+
+  public void testFanOut1() throws Exception {
+    compareBroadcasts(1);
+  }
+
+  public void testFanOut8() throws Exception {
+    compareBroadcasts(8);
+  }
+
+  public void testFanOut64() throws Exception {
+    compareBroadcasts(64);
+  }
+
+  private void compareBroadcasts(int fanOut) throws Exception {
+    long lockedNanos = measureBroadcasts(fanOut, false);
+    long cachedNanos = measureBroadcasts(fanOut, true);
+    LOGGER.info("Fan-out {} : locked path {} broadcasts/s, cached far links {} broadcasts/s ({} deliveries/s)", new Object[] { fanOut,
+        getRate(BROADCAST_COUNT, lockedNanos), getRate(BROADCAST_COUNT, cachedNanos), getRate((long) BROADCAST_COUNT * fanOut, cachedNanos) });
+  }
+
+  /**
+   * @param fanOut the nr of input ports connected to the output port
+   * @param initialized true if the output port must be initialized, so it can use its cached far links without workspace locking
+   * @return the time (ns) needed for the broadcasts
+   */
+  private long measureBroadcasts(int fanOut, boolean initialized) throws Exception {
+    TypedCompositeActor flow = new TypedCompositeActor();
+    flow.setName("flow_" + fanOut + "_" + initialized);
+    new Director(flow, "director");
+    TypedAtomicActor sender = new TypedAtomicActor(flow, "sender");
+    Port output = new Port(sender, "output", false, true);
+    BlockingQueueReceiver[] receivers = new BlockingQueueReceiver[fanOut];
+    for (int i = 0; i < fanOut; ++i) {
+      TypedAtomicActor receiver = new TypedAtomicActor(flow, "receiver" + i);
+      Port input = new Port(receiver, "input", true, false);
+      flow.connect(output, input);
+      input.createReceivers();
+      Receiver[][] inputReceivers = input.getReceivers();
+      receivers[i] = (BlockingQueueReceiver) inputReceivers[0][0];
+    }
+    if (initialized) {
+      output.initialize();
+    }
+    PasserelleToken token = new PasserelleToken(MessageFactory.getInstance().createMessage());
+
+    broadcast(output, token, receivers, WARMUP_COUNT);
+    long start = System.nanoTime();
+    broadcast(output, token, receivers, BROADCAST_COUNT);
+    return System.nanoTime() - start;
+  }
+
+  private void broadcast(Port output, PasserelleToken token, BlockingQueueReceiver[] receivers, int count) throws Exception {
+    for (int n = 1; n <= count; ++n) {
+      output.broadcast(token);
+      if (n % DRAIN_INTERVAL == 0 || n == count) {
+        int expected = (n % DRAIN_INTERVAL == 0) ? DRAIN_INTERVAL : n % DRAIN_INTERVAL;
+        for (int i = 0; i < receivers.length; ++i) {
+          int received = 0;
+          while (receivers[i].poll() != null) {
+            received++;
+          }
+          assertEquals("Receiver " + i + " missed tokens", expected, received);
+        }
+      }
+    }
+  }
+
+  private long getRate(long count, long nanos) {
+    return (long) (count * (double) TimeUnit.SECONDS.toNanos(1) / nanos);
+  }
+}
@@ -0,0 +1,127 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.passerelle.core;
+
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ptolemy.actor.Receiver;
+import ptolemy.actor.TypedAtomicActor;
+import ptolemy.actor.TypedCompositeActor;
+import ptolemy.actor.process.ProcessReceiver;
+import ptolemy.data.expr.Parameter;
+import com.isencia.passerelle.domain.cap.CapDirector;
+import com.isencia.passerelle.ext.DirectorAdapter;
+import com.isencia.passerelle.message.MessageFactory;
+
+/**
+ * Reads all channels of an input port with 8, 64 and 512 channels through a <code>PortHandler</code>,
+ * once with a thread per channel and once with the director's shared channel reader executor.
+ * <p>
+ * With the shared executor, the nr of reader threads must not exceed the configured pool size, whatever the port width.
+ * The read times are logged for comparison.
+ * </p>
+ *
+ * @author erwin
+ */
+public class PortHandlerScalingTest extends TestCase {
+  private final static Logger LOGGER = LoggerFactory.getLogger(PortHandlerScalingTest.class);
+
+  private final static int TOKENS_PER_CHANNEL = 20;
+  private final static int POOL_SIZE = 4;
+
+  public void test8Channels() throws Exception {
+    compareReaders(8);
+  }
+
+  public void test64Channels() throws Exception {
+    compareReaders(64);
+  }
+
+  public void test512Channels() throws Exception {
+    compareReaders(512);
+  }
+
+  private void compareReaders(int width) throws Exception {
+    long threadPerChannelNanos = readAllChannels(width, 0);
+    long sharedReaderNanos = readAllChannels(width, POOL_SIZE);
+    LOGGER.info("{} channels : thread per channel {} ms, shared reader {} ms", new Object[] { width, TimeUnit.NANOSECONDS.toMillis(threadPerChannelNanos),
+        TimeUnit.NANOSECONDS.toMillis(sharedReaderNanos) });
+  }
+
+  /**
+   * @param width the nr of channels of the input port
+   * @param poolSize the channel reader pool size, or 0 for a thread per channel
+   * @return the time (ns) needed to read all tokens
+   */
+  private long readAllChannels(int width, int poolSize) throws Exception {
+    TypedCompositeActor flow = new TypedCompositeActor();
+    flow.setName("flow_" + width + "_" + poolSize);
+    CapDirector director = new CapDirector(flow, "director");
+    director.initialQueueCapacity.setExpression(Integer.toString(TOKENS_PER_CHANNEL));
+    ((Parameter) director.getAttribute(DirectorAdapter.CHANNEL_READER_POOL_SIZE_PARAM)).setExpression(Integer.toString(poolSize));
+    TypedAtomicActor sender = new TypedAtomicActor(flow, "sender");
+    TypedAtomicActor receiver = new TypedAtomicActor(flow, "receiver");
+    Port input = new Port(receiver, "input", true, false);
+    for (int i = 0; i < width; ++i) {
+      flow.connect(new Port(sender, "output" + i, false, true), input);
+    }
+    input.createReceivers();
+    assertEquals(width, input.getWidth());
+
+    PortHandler handler = new PortHandler(input, true);
+    handler.start();
+    String readerThreadPrefix = flow.getFullName() + "-channelReader-";
+
+    long start = System.nanoTime();
+    Receiver[][] receivers = input.getReceivers();
+    for (int t = 0; t < TOKENS_PER_CHANNEL; ++t) {
+      for (int i = 0; i < width; ++i) {
+        receivers[i][0].put(new PasserelleToken(MessageFactory.getInstance().createMessage()));
+      }
+    }
+    for (int n = 0; n < width * TOKENS_PER_CHANNEL; ++n) {
+      assertNotNull("Missing token " + n, handler.getToken());
+    }
+    long elapsed = System.nanoTime() - start;
+
+    int readerThreadCount = 0;
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if ((thread instanceof PortHandler.ChannelHandler) || thread.getName().startsWith(readerThreadPrefix)) {
+        readerThreadCount++;
+      }
+    }
+    if (poolSize > 0) {
+      assertNotNull("Shared channel reader not used", handler.sharedChannelReader);
+      assertNull("Channel handler threads created", handler.channelHandlers);
+      assertTrue("Expected at most " + poolSize + " reader threads, found " + readerThreadCount, readerThreadCount <= poolSize);
+    } else {
+      assertTrue("Expected a reader thread per channel, found " + readerThreadCount, readerThreadCount >= width);
+    }
+
+    for (int i = 0; i < width; ++i) {
+      ((ProcessReceiver) receivers[i][0]).requestFinish();
+    }
+    assertNull("Port handler should be exhausted", handler.getToken());
+    if (handler.channelHandlers != null) {
+      // so they are not counted for a next port
+      for (Thread channelHandler : handler.channelHandlers) {
+        channelHandler.join(TimeUnit.SECONDS.toMillis(10));
+      }
+    }
+    return elapsed;
+  }
+}
@@ -0,0 +1,124 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.passerelle.domain.cap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ptolemy.actor.TypedAtomicActor;
+import ptolemy.actor.TypedCompositeActor;
+import ptolemy.data.BooleanToken;
+import com.isencia.passerelle.message.MessageInputContext;
+import com.isencia.passerelle.message.MessageQueue;
+
+/**
+ * Compares the throughput of <code>CapActorMessageQueue</code>, that synchronizes on the director,
+ * with <code>CapConcurrentActorMessageQueue</code>, that only locks per queue,
+ * for 1, 4 and 16 producers putting messages in one actor's queue.
+ * <p>
+ * The queue is bounded, so the producers regularly block on a full queue.
+ * The results are logged, the test only fails when messages get lost.
+ * </p>
+ *
+ * @author erwin
+ */
+public class CapActorMessageQueueThroughputTest extends TestCase {
+  private final static Logger LOGGER = LoggerFactory.getLogger(CapActorMessageQueueThroughputTest.class);
+
+  private final static int MSG_COUNT = 200000;
+  private final static int CAPACITY = 1000;
+
+  public void testOneProducer() throws Exception {
+    compareQueues(1);
+  }
+
+  public void testFourProducers() throws Exception {
+    compareQueues(4);
+  }
+
+  public void testSixteenProducers() throws Exception {
+    compareQueues(16);
+  }
+
+  private void compareQueues(int producerCount) throws Exception {
+    double directorLockedRate = measureThroughput(false, producerCount);
+    double perQueueLockedRate = measureThroughput(true, producerCount);
+    LOGGER.info("{} producers : CapActorMessageQueue {} msg/s, CapConcurrentActorMessageQueue {} msg/s", new Object[] { producerCount,
+        (long) directorLockedRate, (long) perQueueLockedRate });
+  }
+
+  /**
+   * @return the nr of messages per second that passed through the queue
+   */
+  private double measureThroughput(boolean perQueueLocking, int producerCount) throws Exception {
+    TypedCompositeActor flow = new TypedCompositeActor();
+    flow.setName("flow");
+    CapDirector director = new CapDirector(flow, "director");
+    director.perQueueLockingParameter.setToken(BooleanToken.getInstance(perQueueLocking));
+    director.maximumQueueCapacity.setExpression(Integer.toString(CAPACITY));
+    TypedAtomicActor actor = new TypedAtomicActor(flow, "receiver");
+    final MessageQueue queue = director.newMessageQueue(actor);
+    assertEquals(perQueueLocking, queue instanceof CapConcurrentActorMessageQueue);
+
+    final int msgsPerProducer = MSG_COUNT / producerCount;
+    final int totalCount = msgsPerProducer * producerCount;
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final CountDownLatch doneLatch = new CountDownLatch(producerCount);
+    final List<Throwable> errors = new ArrayList<Throwable>();
+    for (int i = 0; i < producerCount; ++i) {
+      final int producerIndex = i;
+      Thread producer = new Thread(new Runnable() {
+        public void run() {
+          try {
+            startLatch.await();
+            for (int j = 0; j < msgsPerProducer; ++j) {
+              queue.put(new MessageInputContext(producerIndex, "input", null));
+            }
+          } catch (Throwable t) {
+            synchronized (errors) {
+              errors.add(t);
+            }
+          } finally {
+            doneLatch.countDown();
+          }
+        }
+      }, "producer-" + i);
+      producer.setDaemon(true);
+      producer.start();
+    }
+
+    long start = System.nanoTime();
+    startLatch.countDown();
+    int receivedCount = 0;
+    while (receivedCount < totalCount) {
+      if (queue.poll() != null) {
+        receivedCount++;
+      } else if (doneLatch.getCount() == 0 && queue.isEmpty()) {
+        break;
+      } else {
+        Thread.yield();
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    assertTrue("Producers did not finish", doneLatch.await(10, TimeUnit.SECONDS));
+    assertTrue("Producer errors " + errors, errors.isEmpty());
+    assertEquals("Lost messages", totalCount, receivedCount);
+    return totalCount * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+  }
+}
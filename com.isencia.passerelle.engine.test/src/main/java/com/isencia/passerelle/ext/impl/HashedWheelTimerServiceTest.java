@@ -0,0 +1,246 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.passerelle.ext.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ptolemy.actor.TypedCompositeActor;
+import com.isencia.passerelle.director.DirectorUtils;
+import com.isencia.passerelle.domain.cap.Director;
+import com.isencia.passerelle.ext.DirectorAdapter;
+import com.isencia.passerelle.ext.TimerService;
+import com.isencia.passerelle.ext.TimerService.Timeout;
+
+/**
+ * Checks the scheduling and cancelling of tasks on the <code>HashedWheelTimerService</code>, the stopping and restarting of its wheel thread
+ * when it's idle, and the cancelling of left-over tasks by <code>DefaultDirectorAdapter.clearExecutionState()</code>.
+ * <p>
+ * A load test holds 100k pending tasks, and checks that they are all executed with a handful of threads. Their lateness is logged.
+ * </p>
+ *
+ * @author erwin
+ */
+public class HashedWheelTimerServiceTest extends TestCase {
+  private final static Logger LOGGER = LoggerFactory.getLogger(HashedWheelTimerServiceTest.class);
+
+  private final static long TIMEOUT = 5000;
+  private final static int LOAD_TASK_COUNT = 100000;
+  private final static long LOAD_MAX_DELAY = 2000;
+
+  private HashedWheelTimerService timerService;
+
+  protected void setUp() throws Exception {
+    timerService = new HashedWheelTimerService(getName());
+  }
+
+  protected void tearDown() throws Exception {
+    timerService.stop();
+  }
+
+  public void testTaskExecutedAfterDelay() throws Exception {
+    final CountDownLatch executed = new CountDownLatch(1);
+    long start = System.nanoTime();
+    Timeout timeout = timerService.schedule(new Runnable() {
+      public void run() {
+        executed.countDown();
+      }
+    }, 50, TimeUnit.MILLISECONDS);
+    assertEquals(1, timerService.getPendingCount());
+    assertTrue("Task not executed", executed.await(TIMEOUT, TimeUnit.MILLISECONDS));
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertTrue("Task executed too early, after " + elapsedMillis + " ms", elapsedMillis >= 50);
+    assertTrue(timeout.isExpired());
+    assertEquals(0, timerService.getPendingCount());
+  }
+
+  public void testCancel() throws Exception {
+    final AtomicInteger executionCount = new AtomicInteger();
+    Timeout timeout = timerService.schedule(new Runnable() {
+      public void run() {
+        executionCount.incrementAndGet();
+      }
+    }, 100, TimeUnit.MILLISECONDS);
+    assertTrue(timeout.cancel());
+    assertFalse("A task can only be cancelled once", timeout.cancel());
+    assertTrue(timeout.isCancelled());
+    assertEquals(0, timerService.getPendingCount());
+    Thread.sleep(300);
+    assertEquals("Cancelled task was executed", 0, executionCount.get());
+    assertFalse(timeout.isExpired());
+  }
+
+  public void testWheelThreadStopsWhenIdleAndRestarts() throws Exception {
+    String wheelThreadName = getName() + "-wheel";
+    assertEquals("Wheel thread started without tasks", 0, countThreads(wheelThreadName));
+
+    scheduleAndAwait(10);
+    assertEquals(1, countThreads(wheelThreadName));
+    assertTrue("Wheel thread did not stop when idle", awaitThreadCount(wheelThreadName, 0));
+
+    scheduleAndAwait(10);
+    assertEquals("Wheel thread not restarted", 1, countThreads(wheelThreadName));
+    assertTrue("Wheel thread did not stop when idle", awaitThreadCount(wheelThreadName, 0));
+  }
+
+  public void testCancelAll() throws Exception {
+    final AtomicInteger executionCount = new AtomicInteger();
+    Runnable task = new Runnable() {
+      public void run() {
+        executionCount.incrementAndGet();
+      }
+    };
+    List<Timeout> timeouts = new ArrayList<Timeout>();
+    for (int i = 0; i < 1000; ++i) {
+      timeouts.add(timerService.schedule(task, 1, TimeUnit.HOURS));
+    }
+    // let the wheel thread move these into the wheel, and add some that are still new
+    Thread.sleep(50);
+    for (int i = 0; i < 1000; ++i) {
+      timeouts.add(timerService.schedule(task, 1, TimeUnit.HOURS));
+    }
+    assertEquals(2000, timerService.cancelAll());
+    assertEquals(0, timerService.getPendingCount());
+    for (Timeout timeout : timeouts) {
+      assertTrue(timeout.isCancelled());
+    }
+    assertFalse("Service should remain usable after cancelAll", timerService.isStopped());
+    scheduleAndAwait(10);
+    assertEquals(0, executionCount.get());
+  }
+
+  public void testScheduleAfterStop() throws Exception {
+    Timeout timeout = timerService.schedule(new Runnable() {
+      public void run() {
+      }
+    }, 1, TimeUnit.HOURS);
+    assertEquals(1, timerService.stop());
+    assertTrue(timeout.isCancelled());
+    try {
+      timerService.schedule(new Runnable() {
+        public void run() {
+        }
+      }, 1, TimeUnit.MILLISECONDS);
+      fail("Stopped service accepted a task");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  public void testClearExecutionStateCancelsPendingTasks() throws Exception {
+    TypedCompositeActor flow = new TypedCompositeActor();
+    flow.setName("flow");
+    Director director = new Director(flow, "director");
+    DirectorAdapter adapter = DirectorUtils.getAdapter(director, null);
+    TimerService flowTimerService = adapter.getTimerService();
+    assertSame("The timer service must be shared", flowTimerService, adapter.getTimerService());
+
+    final AtomicInteger executionCount = new AtomicInteger();
+    List<Timeout> timeouts = new ArrayList<Timeout>();
+    for (int i = 0; i < 100; ++i) {
+      timeouts.add(flowTimerService.schedule(new Runnable() {
+        public void run() {
+          executionCount.incrementAndGet();
+        }
+      }, 200, TimeUnit.MILLISECONDS));
+    }
+    adapter.clearExecutionState();
+    assertEquals(0, flowTimerService.getPendingCount());
+    for (Timeout timeout : timeouts) {
+      assertTrue(timeout.isCancelled());
+    }
+    Thread.sleep(400);
+    assertEquals("Tasks of a previous execution were executed", 0, executionCount.get());
+    ((HashedWheelTimerService) flowTimerService).stop();
+  }
+
+  public void testPendingTimeoutsLoad() throws Exception {
+    final long[] latenessNanos = new long[LOAD_TASK_COUNT];
+    final AtomicInteger executionCount = new AtomicInteger();
+    final CountDownLatch allExecuted = new CountDownLatch(LOAD_TASK_COUNT);
+    Random random = new Random(LOAD_TASK_COUNT);
+
+    long start = System.nanoTime();
+    for (int i = 0; i < LOAD_TASK_COUNT; ++i) {
+      final int index = i;
+      long delayNanos = TimeUnit.MILLISECONDS.toNanos(1 + random.nextInt((int) LOAD_MAX_DELAY));
+      final long deadline = System.nanoTime() + delayNanos;
+      timerService.schedule(new Runnable() {
+        public void run() {
+          latenessNanos[index] = System.nanoTime() - deadline;
+          executionCount.incrementAndGet();
+          allExecuted.countDown();
+        }
+      }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+    long scheduleNanos = System.nanoTime() - start;
+    assertTrue("Most tasks should still be pending", timerService.getPendingCount() > LOAD_TASK_COUNT / 2);
+    int threadCount = countThreads(getName() + "-");
+    assertTrue("Too many timer threads : " + threadCount, threadCount <= 1 + HashedWheelTimerService.DEFAULT_NR_OF_TASK_THREADS);
+
+    assertTrue("Not all tasks executed, missing " + allExecuted.getCount(), allExecuted.await(LOAD_MAX_DELAY + 30000, TimeUnit.MILLISECONDS));
+    assertEquals(LOAD_TASK_COUNT, executionCount.get());
+    assertEquals(0, timerService.getPendingCount());
+
+    Arrays.sort(latenessNanos);
+    assertTrue("Task executed before its deadline", latenessNanos[0] >= 0);
+    LOGGER.info("{} tasks : scheduled {} tasks/s, lateness p50 {} ms, p99 {} ms, max {} ms", new Object[] { LOAD_TASK_COUNT,
+        (long) (LOAD_TASK_COUNT * (double) TimeUnit.SECONDS.toNanos(1) / scheduleNanos), getPercentile(latenessNanos, 0.5),
+        getPercentile(latenessNanos, 0.99), TimeUnit.NANOSECONDS.toMillis(latenessNanos[LOAD_TASK_COUNT - 1]) });
+  }
+
+  private void scheduleAndAwait(long delay) throws InterruptedException {
+    final CountDownLatch executed = new CountDownLatch(1);
+    timerService.schedule(new Runnable() {
+      public void run() {
+        executed.countDown();
+      }
+    }, delay, TimeUnit.MILLISECONDS);
+    assertTrue("Task not executed", executed.await(TIMEOUT, TimeUnit.MILLISECONDS));
+  }
+
+  private int countThreads(String namePrefix) {
+    int count = 0;
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.isAlive() && thread.getName().startsWith(namePrefix)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private boolean awaitThreadCount(String namePrefix, int expectedCount) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (countThreads(namePrefix) != expectedCount) {
+      if (System.currentTimeMillis() > deadline) {
+        return false;
+      }
+      Thread.sleep(50);
+    }
+    return true;
+  }
+
+  private long getPercentile(long[] sortedNanos, double fraction) {
+    int index = Math.min(sortedNanos.length - 1, (int) (fraction * sortedNanos.length));
+    return TimeUnit.NANOSECONDS.toMillis(sortedNanos[index]);
+  }
+}
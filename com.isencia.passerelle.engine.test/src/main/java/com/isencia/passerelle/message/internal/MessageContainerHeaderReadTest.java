@@ -0,0 +1,115 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.passerelle.message.internal;
+
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.isencia.passerelle.message.ManagedMessage;
+import com.isencia.passerelle.message.MessageFactory;
+
+/**
+ * Checks the typed system header values of <code>MessageContainer</code>, and measures how many header reads per second they allow,
+ * compared to reading and parsing the MIME header strings as was done before.
+ *
+ * @author erwin
+ */
+public class MessageContainerHeaderReadTest extends TestCase {
+  private final static Logger LOGGER = LoggerFactory.getLogger(MessageContainerHeaderReadTest.class);
+
+  private final static int WARMUP_COUNT = 200000;
+  private final static int READ_COUNT = 2000000;
+
+  public void testTypedValuesMatchMimeHeaders() throws Exception {
+    MessageContainer msg = (MessageContainer) MessageFactory.getInstance().createMessageInSequence(42L, 3L, true);
+    msg.addCauseID(7L);
+    msg.addCauseID(8L);
+    assertEquals(Long.valueOf(42), msg.getSequenceID());
+    assertEquals(Long.valueOf(3), msg.getSequencePosition());
+    assertTrue(msg.isSequenceEnd());
+    assertEquals(2, msg.getCauseIDs().length);
+
+    assertEquals(msg.getID().toString(), msg.getHeader(ManagedMessage.SystemHeader.HEADER_ID)[0]);
+    assertEquals("42", msg.getHeader(ManagedMessage.SystemHeader.HEADER_SEQ_ID)[0]);
+    assertEquals("3", msg.getHeader(ManagedMessage.SystemHeader.HEADER_SEQ_POS)[0]);
+    assertEquals(2, msg.getHeader(ManagedMessage.SystemHeader.HEADER_CAUSES_IDS).length);
+  }
+
+  public void testMimeHeaderIsParsedOnce() throws Exception {
+    MessageContainer msg = (MessageContainer) MessageFactory.getInstance().createMessage();
+    msg.setHeader(ManagedMessage.SystemHeader.HEADER_SEQ_ID, "123456789");
+    Long seqID = msg.getSequenceID();
+    assertEquals(Long.valueOf(123456789), seqID);
+    assertSame("Typed value should be cached", seqID, msg.getSequenceID());
+
+    msg.setHeader(ManagedMessage.SystemHeader.HEADER_SEQ_ID, "987654321");
+    assertEquals("Setting the MIME header should invalidate the typed value", Long.valueOf(987654321), msg.getSequenceID());
+  }
+
+  public void testCopyKeepsTypedValues() throws Exception {
+    MessageContainer msg = (MessageContainer) MessageFactory.getInstance().createMessageInSequence(42L, 3L, false);
+    MessageContainer copy = msg.copy();
+    assertEquals(msg.getID(), copy.getID());
+    assertEquals(msg.getCreationTimeStamp(), copy.getCreationTimeStamp());
+    assertEquals(msg.getSequenceID(), copy.getSequenceID());
+    assertEquals(msg.getSequencePosition(), copy.getSequencePosition());
+    assertEquals(msg.getVersion() + 1, copy.getVersion().longValue());
+  }
+
+  public void testHeaderReadRate() throws Exception {
+    MessageContainer msg = ((MessageContainer) MessageFactory.getInstance().createMessageInSequence(42L, 3L, false)).copy();
+
+    readTypedHeaders(msg, WARMUP_COUNT);
+    long start = System.nanoTime();
+    long typedSum = readTypedHeaders(msg, READ_COUNT);
+    long typedNanos = System.nanoTime() - start;
+
+    readMimeHeaders(msg, WARMUP_COUNT);
+    start = System.nanoTime();
+    long mimeSum = readMimeHeaders(msg, READ_COUNT);
+    long mimeNanos = System.nanoTime() - start;
+
+    assertEquals(typedSum, mimeSum);
+    LOGGER.info("Header reads per second : typed {}, parsed from MIME headers {}", getRate(typedNanos), getRate(mimeNanos));
+  }
+
+  private long readTypedHeaders(MessageContainer msg, int count) {
+    long sum = 0;
+    for (int i = 0; i < count; ++i) {
+      sum += msg.getID();
+      sum += msg.getSequenceID();
+      sum += msg.getSequencePosition();
+      sum += msg.getVersion();
+    }
+    return sum;
+  }
+
+  private long readMimeHeaders(MessageContainer msg, int count) {
+    long sum = 0;
+    for (int i = 0; i < count; ++i) {
+      sum += Long.parseLong(msg.getHeader(ManagedMessage.SystemHeader.HEADER_ID)[0]);
+      sum += Long.parseLong(msg.getHeader(ManagedMessage.SystemHeader.HEADER_SEQ_ID)[0]);
+      sum += Long.parseLong(msg.getHeader(ManagedMessage.SystemHeader.HEADER_SEQ_POS)[0]);
+      sum += Long.parseLong(msg.getHeader(ManagedMessage.SystemHeader.HEADER_VERSION)[0]);
+    }
+    return sum;
+  }
+
+  private long getRate(long nanos) {
+    // 4 headers per iteration
+    return (long) (4.0 * READ_COUNT * TimeUnit.SECONDS.toNanos(1) / nanos);
+  }
+}
@@ -14,8 +14,10 @@
  */
 package com.isencia.passerelle.actor;
 
+import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.Queue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ptolemy.kernel.CompositeEntity;
@@ -28,6 +30,12 @@ import com.isencia.passerelle.core.ErrorCode;
 import com.isencia.passerelle.message.ManagedMessage;
 
 /**
+ * A source that obtains its messages from an <code>IMessageReceiver</code>.
+ * <p>
+ * At each wake-up, all messages that are already waiting in the receiver are taken together, up to a max batch size.
+ * They are then sent out one per iteration, without accessing the receiver's queue again.
+ * </p>
+ * 
  * @author erwin
  */
 public abstract class MessageReceiverSource extends Source {
@@ -35,6 +43,9 @@ public abstract class MessageReceiverSource extends Source {
   private static final long serialVersionUID = 1L;
   private static Logger LOGGER = LoggerFactory.getLogger(MessageReceiverSource.class);
   private IMessageReceiver messageReceiver = null;
+  // messages taken from the receiver in one batch, that have not yet been sent out
+  private Queue<Object> pendingMessages = new ArrayDeque<Object>();
+  private final static int MAX_BATCH_SIZE = 256;
 
   /**
    * Creates a new MessageReceiverSource object.
@@ -64,6 +75,7 @@ public abstract class MessageReceiverSource extends Source {
 
   protected void doInitialize() throws InitializationException {
     super.doInitialize();
+    pendingMessages.clear();
     messageReceiver = createMessageReceiver();
     if (messageReceiver == null) {
       throw new InitializationException(ErrorCode.FLOW_EXECUTION_FATAL, "MessageReceiver not created correctly.", this, null);
@@ -103,8 +115,12 @@ public abstract class MessageReceiverSource extends Source {
 
     ManagedMessage res = null;
     try {
-      if (messageReceiver != null)
-        res = (ManagedMessage) messageReceiver.getMessage();
+      if (messageReceiver != null) {
+        if (pendingMessages.isEmpty()) {
+          messageReceiver.drainMessages(pendingMessages, MAX_BATCH_SIZE);
+        }
+        res = (ManagedMessage) pendingMessages.poll();
+      }
     } catch (Exception e) {
       throw new ProcessingException(ErrorCode.ACTOR_EXECUTION_ERROR, "Error getting message from messageReceiver", this, e);
     }
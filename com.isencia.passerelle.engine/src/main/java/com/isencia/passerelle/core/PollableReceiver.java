@@ -0,0 +1,50 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.passerelle.core;
+
+import ptolemy.actor.Receiver;
+import ptolemy.data.Token;
+
+/**
+ * A receiver that, besides the blocking <code>get()</code> of process domains, allows to check for and obtain received tokens without blocking, and to be
+ * notified when tokens arrive.
+ * <p>
+ * This allows a <code>PortHandler</code> to read all channels of a multi-channel input port from a small shared pool of threads, i.o. needing a blocked
+ * <code>ChannelHandler</code> thread per channel.
+ * </p>
+ *
+ * @author erwin
+ */
+public interface PollableReceiver extends Receiver {
+
+  /**
+   * @return the next received token, or null if no token is available right now.
+   */
+  Token poll();
+
+  /**
+   * @return true if this receiver has been requested to finish and all its received tokens have been retrieved.
+   */
+  boolean isExhausted();
+
+  /**
+   * Register a listener that gets notified via <code>tokenReceived()</code> for each token that is put in this receiver, and via <code>noMoreTokens()</code>
+   * when the receiver is requested to finish.
+   *
+   * @param listener
+   *          the listener, or null to remove the current one
+   */
+  void setPortListener(PortListener listener);
+}
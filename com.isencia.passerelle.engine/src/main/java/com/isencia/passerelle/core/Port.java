@@ -30,8 +30,11 @@ import ptolemy.data.Token;
 import ptolemy.data.type.Type;
 import ptolemy.kernel.Entity;
 import ptolemy.kernel.util.Attribute;
+import ptolemy.kernel.util.ChangeListener;
+import ptolemy.kernel.util.ChangeRequest;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
+import ptolemy.kernel.util.NamedObj;
 import ptolemy.kernel.util.Settable;
 import ptolemy.kernel.util.StringAttribute;
 import ptolemy.kernel.util.Workspace;
@@ -81,6 +84,51 @@ public class Port extends TypedIOPort {
   // "diamond" relations (vertices)
   private Set<IOPort> operationalSourcePorts;
 
+  /**
+   * The far receivers and the per-link conversion decisions, as compiled for the current workspace version.
+   * This allows the send path to skip the workspace read access for Passerelle-to-Passerelle links, as long as the model's topology does not change.
+   * <p>
+   * The workspace version can not be checked on that path, as Workspace.getVersion() is synchronized. Instead the links are reset by the topologyListener
+   * after each change request on the model, as topology changes during an execution must be done through change requests.
+   * </p>
+   */
+  private volatile FarLinks farLinks;
+  // resets the far links when the model is changed; registered on the toplevel in initialize()
+  private TopologyListener topologyListener;
+
+  private static class FarLinks {
+    private final long workspaceVersion;
+    // true if this port expects Passerelle messages, in which case the type check for PasserelleTokens can be skipped
+    private final boolean passerelleTyped;
+    private final Receiver[][] receivers;
+    // indicates, per far receiver, if tokens must pass through convertTokenForFarPort()
+    private final boolean[][] conversions;
+
+    private FarLinks(long workspaceVersion, boolean passerelleTyped, Receiver[][] receivers, boolean[][] conversions) {
+      this.workspaceVersion = workspaceVersion;
+      this.passerelleTyped = passerelleTyped;
+      this.receivers = receivers;
+      this.conversions = conversions;
+    }
+  }
+
+  private class TopologyListener implements ChangeListener {
+    private final NamedObj toplevel;
+
+    private TopologyListener(NamedObj toplevel) {
+      this.toplevel = toplevel;
+    }
+
+    public void changeExecuted(ChangeRequest change) {
+      farLinks = null;
+    }
+
+    public void changeFailed(ChangeRequest change, Exception exception) {
+      // the change may have been partially done
+      farLinks = null;
+    }
+  }
+
   /**
    * REMARK : only used for obtaining prototype instances in the UI actions...
    */
@@ -143,6 +191,8 @@ public class Port extends TypedIOPort {
     port.statistics = new PortStatistics(port);
     port.modeAttr = null;
     port.operationalSourcePorts = null;
+    port.farLinks = null;
+    port.topologyListener = null;
     // TODO check what must be done with buffer
     port.setMode(port.mode);
     return port;
@@ -271,21 +321,25 @@ public class Port extends TypedIOPort {
                 IOPortEvent.ALLCHANNELS, true, token));
     }
     
-    try {
-      _workspace.getReadAccess();
-      _checkType(token);
-      farReceivers = getRemoteReceivers();
-      if (farReceivers == null) {
-        return;
+    FarLinks links = getValidFarLinks(token);
+    if (links == null) {
+      try {
+        _workspace.getReadAccess();
+        _checkType(token);
+        links = getFarLinks();
+      } finally {
+        _workspace.doneReading();
       }
-    } finally {
-      _workspace.doneReading();
+    }
+    farReceivers = links.receivers;
+    if (farReceivers == null) {
+      return;
     }
     // NOTE: This does not call send() here, because send()
     // repeats the above on each call.
     for (int i = 0; i < farReceivers.length; i++) {
       if (farReceivers[i] == null) continue;
-      putAtFarReceivers(token, farReceivers[i]);
+      putAtFarReceivers(token, farReceivers[i], links.conversions[i]);
     }
 
     logger.trace("{} - broadcast() - exit", this.getFullName());
@@ -331,7 +385,7 @@ public class Port extends TypedIOPort {
         token = tokenArray[i];
         _checkType(token);
       }
-      farReceivers = getRemoteReceivers();
+      farReceivers = getFarLinks().receivers;
       if (farReceivers == null) {
         return;
       }
@@ -388,21 +442,22 @@ public class Port extends TypedIOPort {
     }
     
     try {
-      try {
-        _workspace.getReadAccess();
-        _checkType(token);
-
-        // Note that the getRemoteReceivers() method doesn't throw
-        // any non-runtime exception.
-        farReceivers = getRemoteReceivers();
-        if (farReceivers == null || farReceivers.length <= channelIndex || farReceivers[channelIndex] == null) {
-          return;
+      FarLinks links = getValidFarLinks(token);
+      if (links == null) {
+        try {
+          _workspace.getReadAccess();
+          _checkType(token);
+          links = getFarLinks();
+        } finally {
+          _workspace.doneReading();
         }
-      } finally {
-        _workspace.doneReading();
+      }
+      farReceivers = links.receivers;
+      if (farReceivers == null || farReceivers.length <= channelIndex || farReceivers[channelIndex] == null) {
+        return;
       }
 
-      putAtFarReceivers(token, farReceivers[channelIndex]);
+      putAtFarReceivers(token, farReceivers[channelIndex], links.conversions[channelIndex]);
     } catch (ArrayIndexOutOfBoundsException ex) {
       // NOTE: This may occur if the channel index is out of range.
       // This is allowed, just do nothing.
@@ -464,9 +519,7 @@ public class Port extends TypedIOPort {
           token = tokenArray[i];
           _checkType(token);
         }
-        // Note that the getRemoteReceivers() method doesn't throw
-        // any non-runtime exception.
-        farReceivers = getRemoteReceivers();
+        farReceivers = getFarLinks().receivers;
         if (farReceivers == null || farReceivers[channelIndex] == null) {
           return;
         }
@@ -558,6 +611,48 @@ public class Port extends TypedIOPort {
     return token;
   }
 
+  /**
+   * Non-blocking variant of <code>get(int)</code>, only supported when the channel's receivers are <code>PollableReceiver</code>s.
+   * 
+   * @param channelIndex The channel index.
+   * @return A token from the specified channel, or null if no token is available right now.
+   * @exception IllegalActionException If there is no director, and hence no receivers have been created, if the port is not an input port, if the channel
+   *              index is out of range, or if the channel's receivers do not support polling.
+   */
+  public Token poll(int channelIndex) throws IllegalActionException {
+    Receiver[][] localReceivers;
+    try {
+      _workspace.getReadAccess();
+      localReceivers = getReceivers();
+    } finally {
+      _workspace.doneReading();
+    }
+    if (channelIndex >= localReceivers.length) {
+      throw new IllegalActionException(this, "poll: channel index is out of range.");
+    }
+    Token token = null;
+    if (localReceivers[channelIndex] != null) {
+      for (int j = 0; j < localReceivers[channelIndex].length; j++) {
+        Receiver receiver = localReceivers[channelIndex][j];
+        if (!(receiver instanceof PollableReceiver)) {
+          throw new IllegalActionException(this, "poll: receiver at index " + channelIndex + " does not support polling.");
+        }
+        Token localToken = ((PollableReceiver) receiver).poll();
+        if (token == null) {
+          token = localToken;
+        }
+      }
+    }
+    if (token != null) {
+      if (isDebugged()) {
+        event(new IOPortEvent(this, IOPortEvent.GET_END, channelIndex, true, token));
+      }
+      token = convertTokenForMe(token);
+      statistics.acceptReceivedMessage(null);
+    }
+    return token;
+  }
+
   /**
    * Get an array of tokens from the specified channel. The parameter <i>channelIndex</i> specifies the channel and the parameter <i>vectorLength</i> specifies
    * the number of valid tokens to get in the returned array. The length of the returned array can be greater than the specified vector length, in which case,
@@ -681,15 +776,76 @@ public class Port extends TypedIOPort {
   }
 
   /**
-   * @param channelIndex
+   * Returns the compiled far links, if they are still valid for the current workspace version and if the given token can be sent without type check, i.e.
+   * when it is a PasserelleToken and this port expects Passerelle messages.
+   * <p>
+   * This method does not obtain read access on the workspace, nor does it check the workspace version. The links are only available here once the
+   * topologyListener has been registered, which resets them on each model change.
+   * </p>
+   * 
+   * @param token
+   * @return the valid far links, or null if the caller must obtain them via getFarLinks(), with read access on the workspace.
+   */
+  private FarLinks getValidFarLinks(Token token) {
+    FarLinks links = farLinks;
+    if (links != null && links.passerelleTyped && (token instanceof PasserelleToken) && topologyListener != null) {
+      return links;
+    }
+    return null;
+  }
+
+  /**
+   * Returns the far receivers and the per-link conversion decisions, compiling them again when the workspace version has changed since the previous time.
+   * <p>
+   * The caller must have read access on the workspace.
+   * </p>
+   * 
+   * @return the far links for the current workspace version
+   */
+  private FarLinks getFarLinks() {
+    long workspaceVersion = _workspace.getVersion();
+    FarLinks links = farLinks;
+    if (links == null || links.workspaceVersion != workspaceVersion) {
+      Receiver[][] receivers = getRemoteReceivers();
+      boolean[][] conversions = null;
+      if (receivers != null) {
+        conversions = new boolean[receivers.length][];
+        for (int i = 0; i < receivers.length; i++) {
+          if (receivers[i] == null) continue;
+          conversions[i] = new boolean[receivers[i].length];
+          for (int j = 0; j < receivers[i].length; j++) {
+            conversions[i][j] = needsConversionForFarPort((TypedIOPort) receivers[i][j].getContainer());
+          }
+        }
+      }
+      links = new FarLinks(workspaceVersion, PasserelleType.PASSERELLE_MSG_TYPE.equals(getType()), receivers, conversions);
+      farLinks = links;
+    }
+    return links;
+  }
+
+  /**
+   * @param farPort
+   * @return false if tokens can be passed as-is to the far port, i.e. when both this port's and the far port's actor are Passerelle actors and the far port
+   *         expects Passerelle messages.
+   */
+  private boolean needsConversionForFarPort(TypedIOPort farPort) {
+    return !(getContainer() instanceof Actor) || !(farPort.getContainer() instanceof Actor) || !PasserelleType.PASSERELLE_MSG_TYPE.equals(farPort.getType());
+  }
+
+  /**
    * @param token
    * @param farReceivers
+   * @param conversions
    * @throws IllegalActionException
    */
-  private void putAtFarReceivers(Token token, Receiver[] farReceivers) throws IllegalActionException {
+  private void putAtFarReceivers(Token token, Receiver[] farReceivers, boolean[] conversions) throws IllegalActionException {
     for (int j = 0; j < farReceivers.length; j++) {
-      TypedIOPort farPort = (TypedIOPort) farReceivers[j].getContainer();
-      Token newToken = convertTokenForFarPort(token, farPort);
+      Token newToken = token;
+      if (conversions[j]) {
+        TypedIOPort farPort = (TypedIOPort) farReceivers[j].getContainer();
+        newToken = convertTokenForFarPort(token, farPort);
+      }
       farReceivers[j].put(newToken);
     }
   }
@@ -811,6 +967,16 @@ public class Port extends TypedIOPort {
    * Custom initialization method, called by the enclosing actor, during its initialization.
    */
   public synchronized void initialize() {
+    // the far links are compiled again on the first send, as the types may have been resolved differently
+    farLinks = null;
+    NamedObj toplevel = toplevel();
+    if (topologyListener == null || topologyListener.toplevel != toplevel) {
+      if (topologyListener != null) {
+        topologyListener.toplevel.removeChangeListener(topologyListener);
+      }
+      topologyListener = new TopologyListener(toplevel);
+      toplevel.addChangeListener(topologyListener);
+    }
     operationalSourcePorts = new HashSet<IOPort>();
     operationalSourcePorts.addAll(this.sourcePortList());
     if (isInput() && getContainer() instanceof MessageBuffer) {
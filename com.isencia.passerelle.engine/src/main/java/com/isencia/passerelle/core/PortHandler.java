@@ -16,15 +16,21 @@
 package com.isencia.passerelle.core;
 
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ptolemy.actor.Director;
 import ptolemy.actor.NoTokenException;
+import ptolemy.actor.Receiver;
 import ptolemy.actor.process.TerminateProcessException;
 import ptolemy.data.Token;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.Nameable;
 import ptolemy.kernel.util.NamedObj;
+import com.isencia.passerelle.director.PasserelleDirector;
 import com.isencia.passerelle.domain.cap.ProcessThread;
 import com.isencia.passerelle.util.LoggerManager;
 
@@ -59,6 +65,11 @@ import com.isencia.passerelle.util.LoggerManager;
  * it will generate <code>ChannelHandler</code>s per input channel when needed. In an event domain, it will just iterate over the channels without needing extra
  * threads.
  * </p>
+ * <p>
+ * When the director's adapter offers a channel reader executor (i.e. a "Channel reader pool size" > 0 was configured), and all of the port's receivers are
+ * <code>PollableReceiver</code>s, no <code>ChannelHandler</code> threads are created in a process domain either. The receivers then notify the PortHandler of
+ * received tokens, and the channels are drained by tasks on that shared executor. The nr of threads for a flow run is then independent of the port widths.
+ * </p>
  * 
  * @author erwin
  */
@@ -74,6 +85,7 @@ public class PortHandler {
   protected Object channelLock = new Object();
   protected PortListener listener = null;
   protected Thread[] channelHandlers = null;
+  protected SharedChannelReader sharedChannelReader = null;
   protected boolean started = false;
 
   // A counter for channels that are still active
@@ -264,11 +276,17 @@ public class PortHandler {
     channelCount = getWidth();
 
     if (mustUseHandlers()) {
-      channelHandlers = new Thread[getWidth()];
-
-      for (int i = 0; i < getWidth(); i++) {
-        channelHandlers[i] = createChannelHandler(i);
-        channelHandlers[i].start();
+      ExecutorService channelReaderExecutor = getChannelReaderExecutor();
+      if (channelReaderExecutor != null && canPollChannels()) {
+        sharedChannelReader = new SharedChannelReader(channelReaderExecutor);
+        sharedChannelReader.start();
+      } else {
+        channelHandlers = new Thread[getWidth()];
+
+        for (int i = 0; i < getWidth(); i++) {
+          channelHandlers[i] = createChannelHandler(i);
+          channelHandlers[i].start();
+        }
       }
     }
 
@@ -296,6 +314,43 @@ public class PortHandler {
     return inProcessDomain && (getWidth() > 1);
   }
 
+  /**
+   * 
+   * @return the executor configured on the director's adapter to read input channels, or null if a thread per channel must be used.
+   */
+  protected ExecutorService getChannelReaderExecutor() {
+    Nameable actor = ioPort.getContainer();
+    if (inProcessDomain && (actor instanceof ptolemy.actor.Actor)) {
+      Director director = ((ptolemy.actor.Actor) actor).getDirector();
+      if (director instanceof PasserelleDirector) {
+        try {
+          return ((PasserelleDirector) director).getAdapter(null).getChannelReaderExecutor();
+        } catch (IllegalActionException e) {
+          LOGGER.error(getPort().getFullName() + " - Failed to obtain channel reader executor", e);
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return true if all receivers of the port support non-blocking reads
+   */
+  protected boolean canPollChannels() {
+    Receiver[][] receivers = ioPort.getReceivers();
+    for (Receiver[] channelReceivers : receivers) {
+      if (channelReceivers == null) {
+        return false;
+      }
+      for (Receiver receiver : channelReceivers) {
+        if (!(receiver instanceof PollableReceiver)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
   /**
    * Override to provide alternative implementation.
    * 
@@ -306,6 +361,121 @@ public class PortHandler {
     return new ChannelHandler(index);
   }
 
+  /**
+   * Reads all channels of the port, from tasks on a shared executor. At most one such task is active at any time for a same port. The receivers trigger a new
+   * task when tokens arrive or when they are requested to finish.
+   */
+  protected final class SharedChannelReader implements Runnable, PortListener {
+    private final ExecutorService executor;
+    private final AtomicInteger pendingSignals = new AtomicInteger();
+    private final boolean[] channelDone;
+
+    public SharedChannelReader(ExecutorService executor) {
+      this.executor = executor;
+      this.channelDone = new boolean[getWidth()];
+    }
+
+    public void start() {
+      setReceiverListener(this);
+      // tokens may have been received before we started listening
+      tokenReceived();
+    }
+
+    public void tokenReceived() {
+      if (pendingSignals.getAndIncrement() == 0) {
+        try {
+          executor.execute(this);
+        } catch (RejectedExecutionException e) {
+          pendingSignals.set(0);
+          LOGGER.error(PortHandler.this.ioPort.getFullName() + " - Shared channel reader rejected", e);
+        }
+      }
+    }
+
+    public void noMoreTokens() {
+      tokenReceived();
+    }
+
+    public void run() {
+      try {
+        LoggerManager.pushMDC(ProcessThread.ACTOR_MDC_NAME, actorInfo);
+        int signals = pendingSignals.get();
+        do {
+          drain();
+          signals = pendingSignals.addAndGet(-signals);
+        } while (signals > 0);
+      } catch (Throwable t) { // NOSONAR - need to make sure any exception that breaks the reading is logged
+        LOGGER.error(PortHandler.this.ioPort.getFullName() + " - Error in SharedChannelReader", t);
+      } finally {
+        LoggerManager.popMDC(ProcessThread.ACTOR_MDC_NAME);
+      }
+    }
+
+    private void drain() {
+      LOGGER.trace("{} - SharedChannelReader - drain() - entry", PortHandler.this.ioPort.getFullName());
+      for (int i = 0; i < channelDone.length; i++) {
+        if (channelDone[i]) {
+          continue;
+        }
+        boolean terminated = false;
+        try {
+          Token token = null;
+          while ((token = ioPort.poll(i)) != null) {
+            if (!token.isNil()) {
+              queue.offer(token);
+              if (listener != null) {
+                listener.tokenReceived();
+              }
+            }
+          }
+          terminated = isChannelExhausted(i);
+        } catch (TerminateProcessException e) {
+          terminated = true;
+        } catch (IllegalActionException e) {
+          terminated = true;
+        } catch (NoTokenException e) {
+          terminated = true;
+        }
+        if (terminated) {
+          channelDone[i] = true;
+          int remainingChannels = 0;
+          synchronized (channelLock) {
+            remainingChannels = --channelCount;
+          }
+          LOGGER.debug("{} - SharedChannelReader - channel {} done", PortHandler.this.ioPort.getFullName(), i);
+          // No more channels active
+          // Force queue to return
+          if (remainingChannels == 0) {
+            setReceiverListener(null);
+            queue.offer(Token.NIL);
+            if (listener != null) {
+              listener.noMoreTokens();
+            }
+          }
+        }
+      }
+      LOGGER.trace("{} - SharedChannelReader - drain() - exit", PortHandler.this.ioPort.getFullName());
+    }
+
+    private boolean isChannelExhausted(int channelIndex) {
+      Receiver[] channelReceivers = ioPort.getReceivers()[channelIndex];
+      for (Receiver receiver : channelReceivers) {
+        if (!((PollableReceiver) receiver).isExhausted()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void setReceiverListener(PortListener receiverListener) {
+      for (Receiver[] channelReceivers : ioPort.getReceivers()) {
+        for (Receiver receiver : channelReceivers) {
+          ((PollableReceiver) receiver).setPortListener(receiverListener);
+        }
+      }
+    }
+  }
+
   public final class ChannelHandler extends Thread {
     private Token token = null;
     private boolean terminated = false;
@@ -22,18 +22,23 @@ import ptolemy.actor.CompositeActor;
 import ptolemy.actor.IOPort;
 import ptolemy.actor.Manager;
 import ptolemy.actor.QueueReceiver;
+import ptolemy.actor.Receiver;
 import ptolemy.actor.process.BoundaryDetector;
 import ptolemy.actor.process.ProcessReceiver;
 import ptolemy.data.Token;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.Workspace;
 import com.isencia.passerelle.core.PasserelleException;
+import com.isencia.passerelle.core.PollableReceiver;
 import com.isencia.passerelle.core.Port;
+import com.isencia.passerelle.core.PortListener;
 import com.isencia.passerelle.message.ManagedMessage;
 import com.isencia.passerelle.message.MessageBuffer;
 import com.isencia.passerelle.message.MessageHelper;
 import com.isencia.passerelle.message.MessageInputContext;
 import com.isencia.passerelle.message.MessageProvider;
+import com.isencia.passerelle.statistics.QueueStatistics;
+import com.isencia.passerelle.statistics.StatisticsServiceFactory;
 
 /**
  * DOCUMENT ME!
@@ -41,11 +46,15 @@ import com.isencia.passerelle.message.MessageProvider;
  * @version $Id: BlockingQueueReceiver.java,v 1.6 2005/10/28 14:06:18 erwin Exp $
  * @author Dirk Jacobs
  */
-public class BlockingQueueReceiver extends QueueReceiver implements ProcessReceiver, MessageProvider {
+public class BlockingQueueReceiver extends QueueReceiver implements ProcessReceiver, MessageProvider, PollableReceiver {
   // ~ Instance variables _____________________________________________________________________________________________________________________________________
 
   private final static Logger logger = LoggerFactory.getLogger(BlockingQueueReceiver.class);
 
+  // the min time (ns) to obtain the receiver's lock in put(), for the put to be counted as contended;
+  // shorter times are just the cost of an uncontended lock and of System.nanoTime() itself
+  private final static long CONTENDED_PUT_NANOS = 1000;
+
   private BoundaryDetector _boundaryDetector;
   private boolean _terminate = false;
 
@@ -53,6 +62,10 @@ public class BlockingQueueReceiver extends QueueReceiver implements ProcessRecei
 
   private MessageBuffer buffer;
 
+  private volatile PortListener portListener;
+
+  private volatile QueueStatistics statistics;
+
   // ~ Constructors ___________________________________________________________________________________________________________________________________________
 
   /**
@@ -190,12 +203,36 @@ public class BlockingQueueReceiver extends QueueReceiver implements ProcessRecei
 
         if (super.hasToken()) {
           result = super.get();
+          QueueStatistics s = statistics;
+          if (s != null) {
+            s.acceptPoll(super.size());
+          }
         }
       }
     }
     return result;
   }
 
+  /**
+   * Only calls the blocking <code>get()</code> when we're sure a token is available.
+   * 
+   * @return the next token, or null if none is available right now
+   */
+  public synchronized Token poll() {
+    if (buffer != null) {
+      throw new UnsupportedOperationException("poll() not supported for shared buffer");
+    }
+    return super.hasToken() ? get() : null;
+  }
+
+  public synchronized boolean isExhausted() {
+    return _terminate && !super.hasToken();
+  }
+
+  public void setPortListener(PortListener listener) {
+    this.portListener = listener;
+  }
+
   private boolean isPaused() {
     try {
       Manager manager = ((CompositeActor) getContainer().toplevel()).getManager();
@@ -283,12 +320,18 @@ public class BlockingQueueReceiver extends QueueReceiver implements ProcessRecei
 
   /**
    * Store the token in the queue. If the size warning threshold has been reached, a warning msg is logged.
+   * <p>
+   * The queue itself is unbounded, so a put never waits for capacity, only while other threads hold the receiver's lock.
+   * That time is reported to the queue statistics as contended time, separately from the blocked time of bounded queues.
+   * </p>
    * 
    * @param token
    */
   @Override
   public void put(Token token) {
+    long lockRequestTime = System.nanoTime();
     synchronized (this) {
+      long lockWaitTime = System.nanoTime() - lockRequestTime;
       if (_terminate) {
         return;
       } else {
@@ -312,6 +355,13 @@ public class BlockingQueueReceiver extends QueueReceiver implements ProcessRecei
         } else {
           // token can be put in the queue;
           super.put(token);
+          QueueStatistics s = statistics;
+          if (s != null) {
+            s.acceptPut(super.size());
+            if (lockWaitTime >= CONTENDED_PUT_NANOS) {
+              s.acceptContendedPut(lockWaitTime);
+            }
+          }
         }
       }
       // Wake up all threads waiting on a write to this receiver;
@@ -320,6 +370,10 @@ public class BlockingQueueReceiver extends QueueReceiver implements ProcessRecei
         logger.warn(getContainer().getFullName() + " - reached/passed warning threshold size " + getSizeWarningThreshold());
       }
     }
+    PortListener listener = portListener;
+    if (listener != null && buffer == null) {
+      listener.tokenReceived();
+    }
   }
 
   /**
@@ -333,6 +387,10 @@ public class BlockingQueueReceiver extends QueueReceiver implements ProcessRecei
     _terminate = true;
     notifyAll();
     if (buffer != null) buffer.unregisterMessageProvider(this);
+    PortListener listener = portListener;
+    if (listener != null) {
+      listener.noMoreTokens();
+    }
     if (logger.isTraceEnabled()) {
       logger.trace("requestFinish() - exit");
     }
@@ -342,6 +400,54 @@ public class BlockingQueueReceiver extends QueueReceiver implements ProcessRecei
   public void reset() {
     _terminate = false;
     _boundaryDetector.reset();
+    resetStatistics();
+  }
+
+  /**
+   * @return the statistics of this receiver's queue, or null if the receiver has not been reset in a port yet.
+   */
+  public QueueStatistics getStatistics() {
+    return statistics;
+  }
+
+  /**
+   * Resets and registers the queue statistics, identified by the port and the channel to which this receiver belongs.
+   */
+  private void resetStatistics() {
+    final IOPort port = getContainer();
+    if (port == null) {
+      return;
+    }
+    if (statistics == null) {
+      int channel = 0;
+      Receiver[][] receivers = port.getReceivers();
+      for (int i = 0; i < receivers.length; i++) {
+        for (int j = 0; receivers[i] != null && j < receivers[i].length; j++) {
+          if (receivers[i][j] == this) {
+            channel = i;
+          }
+        }
+      }
+      statistics = new QueueStatistics(port.getFullName() + "-queue" + channel) {
+        public int getSize() {
+          return size();
+        }
+
+        public int getCapacity() {
+          return BlockingQueueReceiver.this.getCapacity();
+        }
+
+        public void setCapacity(int newCapacity) {
+          try {
+            BlockingQueueReceiver.this.setCapacity(newCapacity);
+          } catch (IllegalActionException e) {
+            throw new IllegalArgumentException(e.getMessage());
+          }
+        }
+      };
+    }
+    statistics.reset();
+    StatisticsServiceFactory.getService().registerStatistics(statistics);
   }
 
   public void setSizeWarningThreshold(int qWarningSize) {
@@ -17,6 +17,9 @@ import com.isencia.passerelle.actor.InitializationException;
 import com.isencia.passerelle.core.ErrorCode;
 import com.isencia.passerelle.message.MessageInputContext;
 import com.isencia.passerelle.message.MessageQueue;
+import com.isencia.passerelle.message.MessageQueueStatistics;
+import com.isencia.passerelle.statistics.QueueStatistics;
+import com.isencia.passerelle.statistics.StatisticsServiceFactory;
 
 /**
  * Instances of this class can be used to manage the actor's internal buffer to handle messages from PUSH input ports. 
@@ -38,6 +41,7 @@ public class CapActorMessageQueue implements MessageQueue {
   private BlockingQueue<MessageInputContext> messages;
   private int capacity;
   private boolean terminate;
+  private QueueStatistics statistics;
 
   /** Reference to a thread that is write blocked on this queue. */
   private Thread _writePending = null;
@@ -51,6 +55,8 @@ public class CapActorMessageQueue implements MessageQueue {
     } catch (ClassCastException e) {
       throw new InitializationException(ErrorCode.ACTOR_INITIALISATION_ERROR, "Can not create a CapActorMessageQueue when no CapDirector is used", actor, e);
     }
+    statistics = new MessageQueueStatistics(actor, this);
+    StatisticsServiceFactory.getService().registerStatistics(statistics);
   }
 
   public int getCapacity() {
@@ -78,10 +84,16 @@ public class CapActorMessageQueue implements MessageQueue {
   }
 
   public void put(MessageInputContext ctxt) throws InterruptedException {
+    // in ns, only set when this put needs to wait for room in the queue
+    long blockedSince = 0;
     synchronized (director) {
       while (!terminate) {
         if (messages.remainingCapacity() > 0) {
           messages.put(ctxt);
+          statistics.acceptPut(messages.size());
+          if (blockedSince != 0) {
+            statistics.acceptBlockedPut(System.nanoTime() - blockedSince);
+          }
           // Normally, the _writePending reference will have
           // been cleared by the read that unblocked this write.
           // However, it might be that the director increased the
@@ -94,6 +106,9 @@ public class CapActorMessageQueue implements MessageQueue {
           break;
         }
         // Wait to try again.
+        if (blockedSince == 0) {
+          blockedSince = System.nanoTime();
+        }
         try {
           _writePending = Thread.currentThread();
           director.threadBlocked(_writePending, myDummyReceiver, PNDirector.WRITE_BLOCKED);
@@ -114,6 +129,9 @@ public class CapActorMessageQueue implements MessageQueue {
     MessageInputContext result = null;
     synchronized (director) {
       result = messages.poll();
+      if (result != null) {
+        statistics.acceptPoll(messages.size());
+      }
       // Need to mark any thread that is write blocked on this queue unblocked now.
       if (result!=null && _writePending != null) {
         director.threadUnblocked(_writePending, myDummyReceiver, PNDirector.WRITE_BLOCKED);
@@ -137,7 +155,14 @@ public class CapActorMessageQueue implements MessageQueue {
     messages.clear();
   }
 
-  private static class DummyReceiver implements ProcessReceiver {
+  /**
+   * @return the statistics of this queue, registered with the StatisticsService at construction
+   */
+  public QueueStatistics getStatistics() {
+    return statistics;
+  }
+
+  static class DummyReceiver implements ProcessReceiver {
     @Override
     public void clear() throws IllegalActionException {
     }
@@ -0,0 +1,183 @@
+package com.isencia.passerelle.domain.cap;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import ptolemy.actor.Actor;
+import ptolemy.actor.process.TerminateProcessException;
+import ptolemy.domains.pn.kernel.PNDirector;
+import com.isencia.passerelle.actor.InitializationException;
+import com.isencia.passerelle.core.ErrorCode;
+import com.isencia.passerelle.message.MessageInputContext;
+import com.isencia.passerelle.message.MessageQueue;
+import com.isencia.passerelle.message.MessageQueueStatistics;
+import com.isencia.passerelle.statistics.QueueStatistics;
+import com.isencia.passerelle.statistics.StatisticsServiceFactory;
+
+/**
+ * Alternative for <code>CapActorMessageQueue</code> that does not synchronize on the director for each put/poll.
+ * <p>
+ * Puts and polls go straight to a per-queue concurrent queue. Only when a writer finds the queue full, it blocks on a monitor owned by this queue, and
+ * reports itself as write-blocked to the <code>PNDirector</code>, so deadlock detection keeps working. A successful poll marks all reported writers as
+ * unblocked again, in the same way as is done by <code>CapActorMessageQueue</code>.
+ * While blocked, a writer releases its workspace read access, as with <code>CapActorMessageQueue</code>, so it does not hold up model changes.
+ * </p>
+ * <p>
+ * The capacity is fixed when the queue is created.
+ * </p>
+ * <p>
+ * As a consequence, actors in a same flow only contend with each other when they share a same receiving actor, and no longer on one director-wide monitor.
+ * </p>
+ *
+ * @author erwin
+ */
+public class CapConcurrentActorMessageQueue implements MessageQueue {
+
+  private CapActorMessageQueue.DummyReceiver myDummyReceiver = new CapActorMessageQueue.DummyReceiver();
+  private Actor actor;
+  private CapDirector director;
+  private BlockingQueue<MessageInputContext> messages;
+  private int capacity;
+  private volatile boolean terminate;
+  private QueueStatistics statistics;
+
+  // the monitor on which write-blocked threads are waiting
+  private final Object writeMonitor = new Object();
+  // the nr of writers that are (about to be) waiting on the writeMonitor; only modified while holding the writeMonitor
+  private volatile int waitingWriters;
+  // the writers that have been reported as write-blocked to the director; guarded by the writeMonitor
+  private Set<Thread> writesPending = new HashSet<Thread>();
+
+  CapConcurrentActorMessageQueue(Actor actor, int capacity) throws InitializationException {
+    this.actor = actor;
+    this.capacity = capacity;
+    try {
+      this.director = (CapDirector) actor.getDirector();
+      messages = (capacity > 0) ? new LinkedBlockingQueue<MessageInputContext>(capacity) : new LinkedBlockingQueue<MessageInputContext>();
+    } catch (ClassCastException e) {
+      throw new InitializationException(ErrorCode.ACTOR_INITIALISATION_ERROR, "Can not create a CapConcurrentActorMessageQueue when no CapDirector is used", actor, e);
+    }
+    statistics = new MessageQueueStatistics(actor, this);
+    StatisticsServiceFactory.getService().registerStatistics(statistics);
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  @Override
+  public int size() {
+    return messages.size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return messages.isEmpty();
+  }
+
+  /**
+   * The bound of the underlying concurrent queue can not be changed, so only the current capacity is accepted.
+   */
+  public void setCapacity(int capacity) throws InitializationException, IllegalArgumentException {
+    if ((capacity < 0) && (capacity != INFINITE_CAPACITY)) {
+      throw new IllegalArgumentException("Cannot set queue capacity to " + capacity);
+    }
+    if (capacity != this.capacity) {
+      throw new InitializationException(ErrorCode.ACTOR_INITIALISATION_ERROR, "The capacity of a CapConcurrentActorMessageQueue can not be changed after creation.",
+          actor, null);
+    }
+  }
+
+  public void put(MessageInputContext ctxt) throws InterruptedException {
+    if (terminate) {
+      throw new TerminateProcessException("Process terminated.");
+    }
+    // fast path, without any locking beyond the queue's own put lock
+    if (messages.offer(ctxt)) {
+      statistics.acceptPut(messages.size());
+      return;
+    }
+    // in ns, only set when this put needs to wait for room in the queue
+    long blockedSince = 0;
+    synchronized (writeMonitor) {
+      // register as waiting before retrying the offer,
+      // so a concurrent poll is guaranteed to notify us
+      waitingWriters++;
+      try {
+        Thread current = Thread.currentThread();
+        while (!terminate) {
+          if (messages.offer(ctxt)) {
+            statistics.acceptPut(messages.size());
+            if (blockedSince != 0) {
+              statistics.acceptBlockedPut(System.nanoTime() - blockedSince);
+            }
+            // Normally, our blocked state will have been cleared by the poll that unblocked this write.
+            // But it might be that the clear() or another poll happened in between, so we check it here.
+            if (writesPending.remove(current)) {
+              director.threadUnblocked(current, myDummyReceiver, PNDirector.WRITE_BLOCKED);
+            }
+            break;
+          }
+          if (writesPending.add(current)) {
+            director.threadBlocked(current, myDummyReceiver, PNDirector.WRITE_BLOCKED);
+          }
+          if (blockedSince == 0) {
+            blockedSince = System.nanoTime();
+          }
+          try {
+            // releases the workspace read access while waiting
+            director.workspace().wait(writeMonitor);
+          } catch (InterruptedException e) {
+            terminate = true;
+          }
+        }
+      } finally {
+        waitingWriters--;
+      }
+    }
+    if (terminate) {
+      throw new TerminateProcessException("Process terminated.");
+    }
+  }
+
+  public MessageInputContext poll() throws InterruptedException, TerminateProcessException {
+    MessageInputContext result = messages.poll();
+    if (result != null) {
+      statistics.acceptPoll(messages.size());
+    }
+    if (result != null && waitingWriters > 0) {
+      // Need to mark any thread that is write blocked on this queue unblocked now.
+      releaseWriters();
+    }
+    if (terminate && result == null) {
+      throw new TerminateProcessException("");
+    }
+    return result;
+  }
+
+  /**
+   * Clear the state variables for this queue.
+   */
+  public void clear() {
+    messages.clear();
+    releaseWriters();
+  }
+
+  /**
+   * @return the statistics of this queue, registered with the StatisticsService at construction
+   */
+  public QueueStatistics getStatistics() {
+    return statistics;
+  }
+
+  private void releaseWriters() {
+    synchronized (writeMonitor) {
+      for (Thread writer : writesPending) {
+        director.threadUnblocked(writer, myDummyReceiver, PNDirector.WRITE_BLOCKED);
+      }
+      writesPending.clear();
+      writeMonitor.notifyAll();
+    }
+  }
+}
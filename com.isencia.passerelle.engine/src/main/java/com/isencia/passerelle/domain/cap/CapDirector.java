@@ -24,7 +24,11 @@ import org.slf4j.LoggerFactory;
 import ptolemy.actor.Actor;
 import ptolemy.actor.Initializable;
 import ptolemy.actor.Receiver;
+import ptolemy.actor.gui.style.CheckBoxStyle;
+import ptolemy.data.BooleanToken;
 import ptolemy.data.IntToken;
+import ptolemy.data.expr.Parameter;
+import ptolemy.data.type.BaseType;
 import ptolemy.domains.pn.kernel.PNDirector;
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.IllegalActionException;
@@ -53,6 +57,14 @@ public class CapDirector extends PNDirector implements PasserelleDirector {
   // as it is not reachable from subclasses....
   private Collection<Thread> myThreads = new HashSet<Thread>();
 
+  public final static String PER_QUEUE_LOCKING_PARAM = "Per-queue locking";
+
+  /**
+   * When true, actors' message queues are created as <code>CapConcurrentActorMessageQueue</code>, that only lock per queue. When false, the original
+   * <code>CapActorMessageQueue</code> is used, that synchronizes all puts and polls on this director.
+   */
+  public Parameter perQueueLockingParameter;
+
   /**
    * Construct a director in the default workspace with an empty string as its name. The director is added to the list of objects in the workspace. Increment
    * the version number of the workspace. Create a director parameter "Initial_queue_capacity" with the default value 1. This sets the initial capacities of the
@@ -72,6 +84,7 @@ public class CapDirector extends PNDirector implements PasserelleDirector {
    */
   public CapDirector(Workspace workspace) throws IllegalActionException, NameDuplicationException {
     super(workspace);
+    _createParameters();
     // to trigger the creation of our default adapter
     getAdapter(null);
   }
@@ -92,6 +105,7 @@ public class CapDirector extends PNDirector implements PasserelleDirector {
    */
   public CapDirector(CompositeEntity container, String name) throws IllegalActionException, NameDuplicationException {
     super(container, name);
+    _createParameters();
 
     // to trigger the creation of our default adapter
     getAdapter(null);
@@ -124,6 +138,12 @@ public class CapDirector extends PNDirector implements PasserelleDirector {
         + "style=\"fill:black;stroke:white\"/>\n" + "<circle cx=\"14\" cy=\"-14\" r=\"1\"" + "style=\"fill:black;stroke:white\"/>\n" + "</svg>\n");
   }
 
+  private void _createParameters() throws IllegalActionException, NameDuplicationException {
+    perQueueLockingParameter = new Parameter(this, PER_QUEUE_LOCKING_PARAM, new BooleanToken(false));
+    perQueueLockingParameter.setTypeEquals(BaseType.BOOLEAN);
+    new CheckBoxStyle(perQueueLockingParameter, "style");
+  }
+
   @Override
   public Object clone(Workspace workspace) throws CloneNotSupportedException {
     List<Initializable> oldInitializables = this._initializables;
@@ -205,7 +225,12 @@ public class CapDirector extends PNDirector implements PasserelleDirector {
   @Override
   public MessageQueue newMessageQueue(Actor actor) throws InitializationException {
     try {
-      return new CapActorMessageQueue(actor, ((IntToken) maximumQueueCapacity.getToken()).intValue());
+      int capacity = ((IntToken) maximumQueueCapacity.getToken()).intValue();
+      if (((BooleanToken) perQueueLockingParameter.getToken()).booleanValue()) {
+        return new CapConcurrentActorMessageQueue(actor, capacity);
+      } else {
+        return new CapActorMessageQueue(actor, capacity);
+      }
     } catch (IllegalActionException e) {
       throw new InitializationException(ErrorCode.ERROR, "Unable to create actor message queue", actor, e);
     }
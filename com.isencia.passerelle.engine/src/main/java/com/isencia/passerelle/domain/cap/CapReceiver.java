@@ -24,17 +24,20 @@ import ptolemy.domains.pn.kernel.PNQueueReceiver;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.Workspace;
 import com.isencia.passerelle.core.PasserelleException;
+import com.isencia.passerelle.core.PollableReceiver;
 import com.isencia.passerelle.core.Port;
+import com.isencia.passerelle.core.PortListener;
 import com.isencia.passerelle.message.ManagedMessage;
 import com.isencia.passerelle.message.MessageBuffer;
 import com.isencia.passerelle.message.MessageHelper;
 import com.isencia.passerelle.message.MessageInputContext;
 import com.isencia.passerelle.message.MessageProvider;
 
-public class CapReceiver extends PNQueueReceiver implements MessageProvider {
+public class CapReceiver extends PNQueueReceiver implements MessageProvider, PollableReceiver {
 
   private MessageBuffer buffer;
   private volatile boolean _terminate;
+  private volatile PortListener portListener;
 
   /**
    * Construct an empty receiver with no container
@@ -84,6 +87,26 @@ public class CapReceiver extends PNQueueReceiver implements MessageProvider {
     return result;
   }
 
+  /**
+   * Only calls the blocking <code>get()</code> when we're sure a token is available.
+   * 
+   * @return the next token, or null if none is available right now
+   */
+  public Token poll() {
+    if (buffer != null) {
+      throw new UnsupportedOperationException("poll() not supported for shared buffer");
+    }
+    return (super.size() > 0) ? get() : null;
+  }
+
+  public boolean isExhausted() {
+    return _terminate && (super.size() == 0);
+  }
+
+  public void setPortListener(PortListener listener) {
+    this.portListener = listener;
+  }
+
   private boolean isPaused() {
     try {
       Manager manager = ((CompositeActor) getContainer().toplevel()).getManager();
@@ -154,6 +177,10 @@ public class CapReceiver extends PNQueueReceiver implements MessageProvider {
     } else {
       // token can be put in the queue;
       super.put(token);
+      PortListener listener = portListener;
+      if (listener != null) {
+        listener.tokenReceived();
+      }
     }
   }
 
@@ -164,6 +191,10 @@ public class CapReceiver extends PNQueueReceiver implements MessageProvider {
       buffer.unregisterMessageProvider(this);
     }
     super.requestFinish();
+    PortListener listener = portListener;
+    if (listener != null) {
+      listener.noMoreTokens();
+    }
   }
 
   @Override
@@ -16,6 +16,7 @@ package com.isencia.passerelle.ext;
 
 import java.util.Collection;
 import java.util.ConcurrentModificationException;
+import java.util.concurrent.ExecutorService;
 import ptolemy.actor.Actor;
 import ptolemy.actor.FiringEvent;
 import ptolemy.data.expr.Parameter;
@@ -34,6 +35,7 @@ public interface DirectorAdapter {
   public static final String EXPERTMODE_PARAM = "Expert Modeler";
   public static final String VALIDATE_INITIALIZATION_PARAM = "Validate Initialization";
   public static final String VALIDATE_ITERATION_PARAM = "Validate Iteration";
+  public static final String CHANNEL_READER_POOL_SIZE_PARAM = "Channel reader pool size";
   String DEFAULT_ADAPTER_NAME = "__directorAdapter";
 
   /**
@@ -140,6 +142,25 @@ public interface DirectorAdapter {
    */
   boolean mustValidateIteration();
 
+  /**
+   * In process domains, multi-channel input ports by default get a reader thread per channel. When this method returns an executor, the channels of such
+   * ports are read by tasks on this shared executor instead, if the ports' receivers support it.
+   * 
+   * @return the executor to be shared by all PortHandlers to read their input channels, or null if each channel must get its own thread
+   */
+  ExecutorService getChannelReaderExecutor();
+
+  /**
+   * Actors that need to do some work after a delay should schedule it on this shared service,
+   * instead of blocking their own thread or creating their own timer threads.
+   * <p>
+   * Tasks that are still pending when a new model execution starts, are cancelled.
+   * </p>
+   * 
+   * @return the timer service to be shared by all actors in the model
+   */
+  TimerService getTimerService();
+
   /**
    * @return all configurable parameters
    */
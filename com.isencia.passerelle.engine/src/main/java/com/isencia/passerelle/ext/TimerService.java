@@ -0,0 +1,70 @@
+/* Copyright 2012 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.isencia.passerelle.ext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A timer service that is shared by all actors of a flow, to schedule delayed work without blocking their own threads
+ * and without each actor needing its own timer thread.
+ * <p>
+ * Scheduled tasks are executed on the service's own threads. They should be short, e.g. sending a message or
+ * notifying the actor that its delayed work can be done.
+ * </p>
+ * 
+ * @author erwin
+ * 
+ * @see com.isencia.passerelle.ext.DirectorAdapter#getTimerService()
+ */
+public interface TimerService {
+
+  /**
+   * A handle to a scheduled task.
+   */
+  interface Timeout {
+    /**
+     * Cancel the task, if it has not been executed yet.
+     * 
+     * @return true if the task was cancelled, false if it had already expired or been cancelled before
+     */
+    boolean cancel();
+
+    /**
+     * @return true if the task was cancelled
+     */
+    boolean isCancelled();
+
+    /**
+     * @return true if the delay has passed and the task has been handed over for execution
+     */
+    boolean isExpired();
+  }
+
+  /**
+   * Schedule the given task to be executed once after the given delay.
+   * 
+   * @param task
+   * @param delay
+   * @param unit
+   * @return the handle to the scheduled task, e.g. to cancel it
+   * @throws IllegalStateException when the service has been stopped
+   */
+  Timeout schedule(Runnable task, long delay, TimeUnit unit) throws IllegalStateException;
+
+  /**
+   * @return the nr of tasks that have been scheduled, and have not yet expired or been cancelled
+   */
+  int getPendingCount();
+}
@@ -15,6 +15,7 @@
 
 package com.isencia.passerelle.ext.impl;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -23,6 +24,12 @@ import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ptolemy.actor.Actor;
@@ -31,6 +38,7 @@ import ptolemy.actor.FiringEvent;
 import ptolemy.actor.Manager;
 import ptolemy.actor.gui.style.CheckBoxStyle;
 import ptolemy.data.BooleanToken;
+import ptolemy.data.IntToken;
 import ptolemy.data.expr.Parameter;
 import ptolemy.data.type.BaseType;
 import ptolemy.kernel.CompositeEntity;
@@ -49,6 +57,7 @@ import com.isencia.passerelle.ext.ErrorHandler;
 import com.isencia.passerelle.ext.ExecutionControlStrategy;
 import com.isencia.passerelle.ext.ExecutionPrePostProcessor;
 import com.isencia.passerelle.ext.FiringEventListener;
+import com.isencia.passerelle.ext.TimerService;
 
 /**
  * @author erwin
@@ -86,6 +95,15 @@ public class DefaultDirectorAdapter extends Attribute implements DirectorAdapter
   private Parameter expertModeParam = null;
   private Parameter validateInitializationParam = null;
   private Parameter validateIterationParam = null;
+  private Parameter channelReaderPoolSizeParam = null;
+
+  // shared executor for reading input channels, lazily (re)created according to channelReaderPoolSizeParam
+  private ThreadPoolExecutor channelReaderExecutor;
+  // executors that may still be used by running port handlers, after the pool was disabled
+  private List<ExecutorService> retiredChannelReaderExecutors = new ArrayList<ExecutorService>();
+
+  // shared timer for delayed actor work, lazily created
+  private HashedWheelTimerService timerService;
 
   // Need some collection to maintain info about busy tasks
   // i.e. for slow actions done by actors.
@@ -157,6 +175,14 @@ public class DefaultDirectorAdapter extends Attribute implements DirectorAdapter
       new CheckBoxStyle(validateIterationParam, "style");
       registerConfigurableParameter(validateIterationParam);
     }
+
+    if (container.getAttribute(CHANNEL_READER_POOL_SIZE_PARAM) != null) {
+      channelReaderPoolSizeParam = (Parameter) container.getAttribute(CHANNEL_READER_POOL_SIZE_PARAM);
+    } else {
+      channelReaderPoolSizeParam = new Parameter(container, CHANNEL_READER_POOL_SIZE_PARAM, new IntToken(0));
+      channelReaderPoolSizeParam.setTypeEquals(BaseType.INT);
+      registerConfigurableParameter(channelReaderPoolSizeParam);
+    }
   }
   
   protected void init() {
@@ -165,11 +191,22 @@ public class DefaultDirectorAdapter extends Attribute implements DirectorAdapter
     errorCollectors = Collections.synchronizedSet(new HashSet<ErrorCollector>());
     busyTaskActors = new ConcurrentHashMap<Object, Actor>();
     activeActors = new ConcurrentLinkedQueue<Actor>();
+    synchronized (this) {
+      shutdownChannelReaderExecutors();
+      if (timerService != null) {
+        timerService.stop();
+        timerService = null;
+      }
+    }
   }
 
   @Override
   public Object clone(Workspace workspace) throws CloneNotSupportedException {
     DefaultDirectorAdapter clonedAdapter = (DefaultDirectorAdapter)  super.clone(workspace);
+    // these are still the original's, so they must not be shut down by the clone's init()
+    clonedAdapter.channelReaderExecutor = null;
+    clonedAdapter.retiredChannelReaderExecutors = new ArrayList<ExecutorService>();
+    clonedAdapter.timerService = null;
     clonedAdapter.init();
     return clonedAdapter;
   }
@@ -302,6 +339,69 @@ public class DefaultDirectorAdapter extends Attribute implements DirectorAdapter
     }
   }
 
+  public synchronized ExecutorService getChannelReaderExecutor() {
+    int poolSize = 0;
+    try {
+      poolSize = ((IntToken) channelReaderPoolSizeParam.getToken()).intValue();
+    } catch (IllegalActionException e) {
+      LOGGER.error("Invalid channel reader pool size", e);
+    }
+    if (poolSize <= 0) {
+      if (channelReaderExecutor != null) {
+        // port handlers that were started before may still be using it, so only shut it down between executions
+        retiredChannelReaderExecutors.add(channelReaderExecutor);
+        channelReaderExecutor = null;
+      }
+    } else if (channelReaderExecutor != null) {
+      if (channelReaderExecutor.getCorePoolSize() != poolSize) {
+        // resize in place, as port handlers keep using the executor they obtained when they were started
+        if (poolSize > channelReaderExecutor.getMaximumPoolSize()) {
+          channelReaderExecutor.setMaximumPoolSize(poolSize);
+          channelReaderExecutor.setCorePoolSize(poolSize);
+        } else {
+          channelReaderExecutor.setCorePoolSize(poolSize);
+          channelReaderExecutor.setMaximumPoolSize(poolSize);
+        }
+      }
+    } else {
+      final String threadNamePrefix = getContainer().getFullName() + "-channelReader-";
+      channelReaderExecutor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, threadNamePrefix + threadCount.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        }
+      });
+      // idle reader threads should not linger once a flow run is done
+      channelReaderExecutor.allowCoreThreadTimeOut(true);
+    }
+    return channelReaderExecutor;
+  }
+
+  /**
+   * Must only be called when no port handlers are using the executors anymore, i.e. between model executions. Must be called while holding this adapter's
+   * lock.
+   */
+  private void shutdownChannelReaderExecutors() {
+    if (channelReaderExecutor != null) {
+      channelReaderExecutor.shutdown();
+      channelReaderExecutor = null;
+    }
+    for (ExecutorService executor : retiredChannelReaderExecutors) {
+      executor.shutdown();
+    }
+    retiredChannelReaderExecutors.clear();
+  }
+
+  public synchronized TimerService getTimerService() {
+    if (timerService == null) {
+      timerService = new HashedWheelTimerService(getContainer().getFullName() + "-timer");
+    }
+    return timerService;
+  }
+
   public Parameter[] getConfigurableParameters() {
     return (Parameter[]) configurableParameters.toArray(new Parameter[0]);
   }
@@ -363,6 +463,16 @@ public class DefaultDirectorAdapter extends Attribute implements DirectorAdapter
     LOGGER.debug("clearExecutionState() - {}", getFullName());
     busyTaskActors.clear();
     activeActors.clear();
+    synchronized (this) {
+      // the port handlers of a previous execution are done, and the next ones will obtain a fresh executor
+      shutdownChannelReaderExecutors();
+      if (timerService != null) {
+        int cancelCount = timerService.cancelAll();
+        if (cancelCount > 0) {
+          LOGGER.warn("{} - cancelled {} timer tasks left over from a previous execution", getFullName(), cancelCount);
+        }
+      }
+    }
   }
 
   public boolean hasBusyTaskActors() {
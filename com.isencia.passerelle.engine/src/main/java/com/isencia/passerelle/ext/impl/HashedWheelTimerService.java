@@ -0,0 +1,367 @@
+/* Copyright 2012 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.isencia.passerelle.ext.impl;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.isencia.passerelle.ext.TimerService;
+
+/**
+ * A <code>TimerService</code> backed by a hashed timing wheel.
+ * <p>
+ * Scheduling a task only adds it to a lock-free queue, so it's cheap for any nr of pending tasks. One wheel thread
+ * moves the new tasks into the wheel's buckets and advances the wheel each tick, handing the expired tasks over to a
+ * small pool of task threads. So the precision is about one tick, and a slow task does not delay the other ones.
+ * </p>
+ * <p>
+ * The wheel thread is only started when there are pending tasks, and stops by itself when it has been idle for a while.
+ * </p>
+ * 
+ * @author erwin
+ */
+public class HashedWheelTimerService implements TimerService {
+  private final static Logger LOGGER = LoggerFactory.getLogger(HashedWheelTimerService.class);
+
+  public static final long DEFAULT_TICK_DURATION = 1;
+  public static final int DEFAULT_WHEEL_SIZE = 1024;
+  public static final int DEFAULT_NR_OF_TASK_THREADS = 2;
+  // idle time (ms) after which the wheel thread stops
+  private static final long IDLE_TIMEOUT = 1000;
+
+  private static final int STATE_IDLE = 0;
+  private static final int STATE_RUNNING = 1;
+  private static final int STATE_STOPPED = 2;
+
+  private final String name;
+  private final long tickNanos;
+  private final Bucket[] wheel;
+  private final int mask;
+  private final ThreadPoolExecutor taskExecutor;
+
+  private final Queue<WheelTimeout> newTimeouts = new ConcurrentLinkedQueue<WheelTimeout>();
+  private final AtomicInteger pendingCount = new AtomicInteger();
+  private final AtomicInteger state = new AtomicInteger(STATE_IDLE);
+
+  // guarded by the wheel's lock
+  private long startTime;
+  private long tick;
+
+  /**
+   * Creates a timer service with a 1ms tick and the default wheel size and nr of task threads.
+   * 
+   * @param name used to name the service's threads
+   */
+  public HashedWheelTimerService(String name) {
+    this(name, DEFAULT_TICK_DURATION, TimeUnit.MILLISECONDS, DEFAULT_WHEEL_SIZE, DEFAULT_NR_OF_TASK_THREADS);
+  }
+
+  /**
+   * 
+   * @param name used to name the service's threads
+   * @param tickDuration
+   * @param unit
+   * @param wheelSize the nr of buckets in the wheel, rounded up to a power of 2
+   * @param nrOfTaskThreads the max nr of threads to execute expired tasks
+   */
+  public HashedWheelTimerService(String name, long tickDuration, TimeUnit unit, int wheelSize, int nrOfTaskThreads) {
+    if (tickDuration <= 0) {
+      throw new IllegalArgumentException("tickDuration must be > 0");
+    }
+    if (wheelSize <= 0 || wheelSize > (1 << 30)) {
+      throw new IllegalArgumentException("wheelSize must be between 1 and 2^30");
+    }
+    this.name = name;
+    this.tickNanos = Math.max(unit.toNanos(tickDuration), TimeUnit.MILLISECONDS.toNanos(1));
+    int normalizedSize = Integer.highestOneBit(wheelSize);
+    if (normalizedSize < wheelSize) {
+      normalizedSize <<= 1;
+    }
+    this.wheel = new Bucket[normalizedSize];
+    for (int i = 0; i < wheel.length; ++i) {
+      wheel[i] = new Bucket();
+    }
+    this.mask = wheel.length - 1;
+    int poolSize = Math.max(1, nrOfTaskThreads);
+    taskExecutor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+      private final AtomicInteger threadCount = new AtomicInteger();
+
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, HashedWheelTimerService.this.name + "-task-" + threadCount.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    taskExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  public Timeout schedule(Runnable task, long delay, TimeUnit unit) throws IllegalStateException {
+    if (task == null) {
+      throw new IllegalArgumentException("task can not be null");
+    }
+    if (state.get() == STATE_STOPPED) {
+      throw new IllegalStateException(name + " has been stopped");
+    }
+    WheelTimeout timeout = new WheelTimeout(task, System.nanoTime() + Math.max(0, unit.toNanos(delay)));
+    pendingCount.incrementAndGet();
+    newTimeouts.add(timeout);
+    start();
+    return timeout;
+  }
+
+  public int getPendingCount() {
+    return pendingCount.get();
+  }
+
+  /**
+   * Cancel all pending tasks.
+   * 
+   * @return the nr of cancelled tasks
+   */
+  public int cancelAll() {
+    int cancelCount = 0;
+    for (WheelTimeout timeout; (timeout = newTimeouts.poll()) != null;) {
+      if (timeout.cancel()) {
+        cancelCount++;
+      }
+    }
+    // the ones already in the wheel are cancelled by the wheel thread,
+    // or here if the wheel thread is not running anymore.
+    synchronized (wheel) {
+      for (Bucket bucket : wheel) {
+        for (WheelTimeout timeout = bucket.head; timeout != null; timeout = timeout.next) {
+          if (timeout.cancel()) {
+            cancelCount++;
+          }
+        }
+      }
+    }
+    return cancelCount;
+  }
+
+  /**
+   * Cancel all pending tasks and release the service's threads. After this, no new tasks can be scheduled.
+   * 
+   * @return the nr of cancelled tasks
+   */
+  public int stop() {
+    state.set(STATE_STOPPED);
+    int cancelCount = cancelAll();
+    taskExecutor.shutdown();
+    return cancelCount;
+  }
+
+  public boolean isStopped() {
+    return state.get() == STATE_STOPPED;
+  }
+
+  private void start() {
+    if (state.compareAndSet(STATE_IDLE, STATE_RUNNING)) {
+      Thread wheelThread = new Thread(new Worker(), name + "-wheel");
+      wheelThread.setDaemon(true);
+      wheelThread.start();
+    }
+  }
+
+  private void expire(WheelTimeout timeout) {
+    if (timeout.expire()) {
+      try {
+        taskExecutor.execute(timeout);
+      } catch (RejectedExecutionException e) {
+        // the service has been stopped in the meantime
+        LOGGER.debug("{} - dropped expired task {}", name, timeout.task);
+      }
+    }
+  }
+
+  /**
+   * Advances the wheel each tick, until the service is stopped or has been idle for a while.
+   */
+  private class Worker implements Runnable {
+    public void run() {
+      synchronized (wheel) {
+        startTime = System.nanoTime();
+        tick = 0;
+      }
+      long idleSince = 0;
+      while (state.get() == STATE_RUNNING) {
+        waitForNextTick();
+        synchronized (wheel) {
+          transferNewTimeouts();
+          wheel[(int) (tick & mask)].expireTimeouts();
+          tick++;
+        }
+        if (pendingCount.get() > 0) {
+          idleSince = 0;
+        } else if (idleSince == 0) {
+          idleSince = System.nanoTime();
+        } else if (System.nanoTime() - idleSince > TimeUnit.MILLISECONDS.toNanos(IDLE_TIMEOUT)) {
+          if (state.compareAndSet(STATE_RUNNING, STATE_IDLE)) {
+            // a task may have been scheduled just before we went idle, without starting a new wheel thread
+            if (pendingCount.get() == 0 || !state.compareAndSet(STATE_IDLE, STATE_RUNNING)) {
+              break;
+            }
+          }
+          idleSince = 0;
+        }
+      }
+      LOGGER.trace("{} - wheel thread stopped", name);
+    }
+
+    private void waitForNextTick() {
+      long deadline = startTime + (tick + 1) * tickNanos;
+      long sleepNanos;
+      while ((sleepNanos = deadline - System.nanoTime()) > 0) {
+        try {
+          TimeUnit.NANOSECONDS.sleep(sleepNanos);
+        } catch (InterruptedException e) {
+          if (state.get() != STATE_RUNNING) {
+            return;
+          }
+        }
+      }
+    }
+
+    private void transferNewTimeouts() {
+      // limit the transfer per tick, to not stall the wheel when lots of tasks are scheduled at once
+      for (int i = 0; i < 100000; ++i) {
+        WheelTimeout timeout = newTimeouts.poll();
+        if (timeout == null) {
+          break;
+        }
+        if (timeout.isCancelled()) {
+          continue;
+        }
+        long expiryTick = (timeout.deadline - startTime) / tickNanos;
+        if (expiryTick <= tick) {
+          // already due, so no need to wait for a next tick
+          expire(timeout);
+        } else {
+          timeout.remainingRounds = (expiryTick - tick) / wheel.length;
+          wheel[(int) (expiryTick & mask)].add(timeout);
+        }
+      }
+    }
+  }
+
+  /**
+   * A doubly-linked list of the timeouts in one wheel slot, only accessed while holding the wheel's lock.
+   */
+  private class Bucket {
+    private WheelTimeout head;
+    private WheelTimeout tail;
+
+    void add(WheelTimeout timeout) {
+      if (head == null) {
+        head = tail = timeout;
+      } else {
+        tail.next = timeout;
+        timeout.prev = tail;
+        tail = timeout;
+      }
+    }
+
+    void expireTimeouts() {
+      WheelTimeout timeout = head;
+      while (timeout != null) {
+        WheelTimeout next = timeout.next;
+        if (timeout.isCancelled()) {
+          remove(timeout);
+        } else if (timeout.remainingRounds <= 0) {
+          remove(timeout);
+          expire(timeout);
+        } else {
+          timeout.remainingRounds--;
+        }
+        timeout = next;
+      }
+    }
+
+    private void remove(WheelTimeout timeout) {
+      if (timeout.prev != null) {
+        timeout.prev.next = timeout.next;
+      } else {
+        head = timeout.next;
+      }
+      if (timeout.next != null) {
+        timeout.next.prev = timeout.prev;
+      } else {
+        tail = timeout.prev;
+      }
+      timeout.prev = null;
+      timeout.next = null;
+    }
+  }
+
+  private class WheelTimeout implements Timeout, Runnable {
+    private static final int ST_PENDING = 0;
+    private static final int ST_CANCELLED = 1;
+    private static final int ST_EXPIRED = 2;
+
+    private final Runnable task;
+    private final long deadline;
+    private final AtomicInteger timeoutState = new AtomicInteger(ST_PENDING);
+
+    // guarded by the wheel's lock
+    private long remainingRounds;
+    private WheelTimeout prev;
+    private WheelTimeout next;
+
+    WheelTimeout(Runnable task, long deadline) {
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    public boolean cancel() {
+      if (timeoutState.compareAndSet(ST_PENDING, ST_CANCELLED)) {
+        pendingCount.decrementAndGet();
+        return true;
+      }
+      return false;
+    }
+
+    public boolean isCancelled() {
+      return timeoutState.get() == ST_CANCELLED;
+    }
+
+    public boolean isExpired() {
+      return timeoutState.get() == ST_EXPIRED;
+    }
+
+    boolean expire() {
+      if (timeoutState.compareAndSet(ST_PENDING, ST_EXPIRED)) {
+        pendingCount.decrementAndGet();
+        return true;
+      }
+      return false;
+    }
+
+    public void run() {
+      try {
+        task.run();
+      } catch (Throwable t) {
+        LOGGER.error(name + " - error executing task " + task, t);
+      }
+    }
+  }
+}
@@ -17,6 +17,7 @@ package com.isencia.passerelle.ext.impl;
 
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import ptolemy.actor.Actor;
 import ptolemy.actor.FiringEvent;
 import ptolemy.data.expr.Parameter;
@@ -28,6 +29,7 @@ import com.isencia.passerelle.ext.ErrorControlStrategy;
 import com.isencia.passerelle.ext.ExecutionControlStrategy;
 import com.isencia.passerelle.ext.ExecutionPrePostProcessor;
 import com.isencia.passerelle.ext.FiringEventListener;
+import com.isencia.passerelle.ext.TimerService;
 
 /**
  * An implementation that does nothing.
@@ -47,6 +49,9 @@ public class NullDirectorAdapter implements DirectorAdapter {
 
   private ErrorControlStrategy errorCtrlStrategy = new DefaultActorErrorControlStrategy();
   
+  // shared by all actors without a Passerelle director; its threads stop by themselves when idle
+  private TimerService timerService = new HashedWheelTimerService("NullDirectorAdapter-timer");
+
   private final static NullDirectorAdapter instance = new NullDirectorAdapter();
   
   public final static NullDirectorAdapter getInstance() {
@@ -109,6 +114,14 @@ public class NullDirectorAdapter implements DirectorAdapter {
     return false;
   }
 
+  public ExecutorService getChannelReaderExecutor() {
+    return null;
+  }
+
+  public TimerService getTimerService() {
+    return timerService;
+  }
+
   public Parameter[] getConfigurableParameters() {
     return EMPTY_PARAMETER_ARRAY;
   }
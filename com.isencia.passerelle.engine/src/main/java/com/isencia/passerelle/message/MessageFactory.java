@@ -15,9 +15,11 @@
 package com.isencia.passerelle.message;
 
 import java.text.DateFormat;
+import java.text.ParseException;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import com.isencia.passerelle.core.PasserelleException;
 import com.isencia.passerelle.message.internal.ErrorMessageContainer;
 import com.isencia.passerelle.message.internal.MessageContainer;
@@ -25,22 +27,54 @@ import com.isencia.passerelle.message.internal.TriggerMessageContainer;
 
 /**
  * MessageFactory TODO: class comment
+ * <p>
+ * The factory methods are not synchronized. Message IDs and sequence IDs are allocated from atomic counters, so they are unique and increasing per JVM,
+ * and timestamps are formatted/parsed with a DateFormat per thread.
+ * </p>
  * 
  * @author erwin
  */
 public class MessageFactory {
 
   private static final MessageFactory instance = new MessageFactory();
-  private static long msgIdCounter = 0;
-  private static long seqIDCounter = 0;
+  private static final AtomicLong msgIdCounter = new AtomicLong();
+  private static final AtomicLong seqIDCounter = new AtomicLong();
 
+  /**
+   * @deprecated DateFormat is not thread-safe, use <code>formatTimestamp()</code> and <code>parseTimestamp()</code>.
+   */
+  @Deprecated
   public final static DateFormat timestampFormat = DateFormat.getDateTimeInstance();
 
+  private final static ThreadLocal<DateFormat> threadTimestampFormat = new ThreadLocal<DateFormat>() {
+    @Override
+    protected DateFormat initialValue() {
+      return DateFormat.getDateTimeInstance();
+    }
+  };
+
+  /**
+   * @param timestamp
+   * @return the timestamp formatted in the std format for message headers
+   */
+  public static String formatTimestamp(Date timestamp) {
+    return threadTimestampFormat.get().format(timestamp);
+  }
+
+  /**
+   * @param timestamp
+   * @return the timestamp parsed from the std format for message headers
+   * @throws ParseException
+   */
+  public static Date parseTimestamp(String timestamp) throws ParseException {
+    return threadTimestampFormat.get().parse(timestamp);
+  }
+
   public static MessageFactory getInstance() {
     return instance;
   }
 
-  public synchronized ManagedMessage createMessage() {
+  public ManagedMessage createMessage() {
     MessageContainer newMsg = new MessageContainer();
     setStdHeaders(newMsg);
 
@@ -54,7 +88,7 @@ public class MessageFactory {
    * @param headerProps
    * @return
    */
-  public synchronized ManagedMessage createMessage(Map headerProps) {
+  public ManagedMessage createMessage(Map headerProps) {
     MessageContainer newMsg = (MessageContainer) createMessage();
     setHeaders(newMsg, headerProps);
     return newMsg;
@@ -86,25 +120,25 @@ public class MessageFactory {
     }
   }
 
-  public synchronized Long createSequenceID() {
-    return new Long(seqIDCounter++);
+  public Long createSequenceID() {
+    return seqIDCounter.getAndIncrement();
   }
 
-  public synchronized ManagedMessage createCorrelatedMessage(String correlationID) {
+  public ManagedMessage createCorrelatedMessage(String correlationID) {
     MessageContainer newMsg = (MessageContainer) createMessage();
     newMsg.setHeader(ManagedMessage.SystemHeader.HEADER_CORRELATION_ID, correlationID);
 
     return newMsg;
   }
 
-  public synchronized ManagedMessage createCorrelatedMessage(String correlationID, Map headerProps) {
+  public ManagedMessage createCorrelatedMessage(String correlationID, Map headerProps) {
     MessageContainer newMsg = (MessageContainer) createMessage(headerProps);
     newMsg.setHeader(ManagedMessage.SystemHeader.HEADER_CORRELATION_ID, correlationID);
 
     return newMsg;
   }
 
-  public synchronized ManagedMessage createMessageInSequence(Long seqID, Long seqPos, boolean isSeqEnd) {
+  public ManagedMessage createMessageInSequence(Long seqID, Long seqPos, boolean isSeqEnd) {
     MessageContainer newMsg = (MessageContainer) createMessage();
     newMsg.setSequenceID(seqID);
     newMsg.setSequencePosition(seqPos);
@@ -123,7 +157,7 @@ public class MessageFactory {
    * @param headerProps
    * @return
    */
-  public synchronized ManagedMessage createMessageInSequence(Long seqID, Long seqPos, boolean isSeqEnd, Map headerProps) {
+  public ManagedMessage createMessageInSequence(Long seqID, Long seqPos, boolean isSeqEnd, Map headerProps) {
     MessageContainer newMsg = (MessageContainer) createMessage(headerProps);
     newMsg.setSequenceID(seqID);
     newMsg.setSequencePosition(seqPos);
@@ -132,26 +166,26 @@ public class MessageFactory {
     return newMsg;
   }
 
-  public synchronized ManagedMessage createErrorMessage(PasserelleException e) {
+  public ManagedMessage createErrorMessage(PasserelleException e) {
     ErrorMessageContainer newMsg = new ErrorMessageContainer(e);
     setStdHeaders(newMsg);
     return newMsg;
   }
 
-  public synchronized ManagedMessage createErrorMessage(PasserelleException e, Map headerProps) {
+  public ManagedMessage createErrorMessage(PasserelleException e, Map headerProps) {
     ErrorMessageContainer newMsg = (ErrorMessageContainer) createErrorMessage(e);
     setHeaders(newMsg, headerProps);
 
     return newMsg;
   }
 
-  public synchronized ManagedMessage createTriggerMessage() {
+  public ManagedMessage createTriggerMessage() {
     TriggerMessageContainer newMsg = new TriggerMessageContainer();
     setStdHeaders(newMsg);
     return newMsg;
   }
 
-  public synchronized ManagedMessage createTriggerMessage(Map headerProps) {
+  public ManagedMessage createTriggerMessage(Map headerProps) {
     TriggerMessageContainer newMsg = (TriggerMessageContainer) createTriggerMessage();
     setHeaders(newMsg, headerProps);
     return newMsg;
@@ -164,7 +198,7 @@ public class MessageFactory {
    * @return
    * @throws MessageException
    */
-  public synchronized ManagedMessage copyMessage(ManagedMessage msg) throws MessageException {
+  public ManagedMessage copyMessage(ManagedMessage msg) throws MessageException {
     if (msg != null && msg instanceof MessageContainer) {
       MessageContainer newMsg = ((MessageContainer) msg).copy();
       return newMsg;
@@ -181,7 +215,7 @@ public class MessageFactory {
    * @return
    * @throws MessageException
    */
-  public synchronized ManagedMessage createCausedCopyMessage(ManagedMessage msg) throws MessageException {
+  public ManagedMessage createCausedCopyMessage(ManagedMessage msg) throws MessageException {
     if (msg != null && msg instanceof MessageContainer) {
       MessageContainer newMsg = ((MessageContainer) msg).copy();
       setStdHeaders(newMsg);
@@ -202,7 +236,7 @@ public class MessageFactory {
    * @return
    * @throws MessageException
    */
-  public synchronized ManagedMessage createMessageCopyInSequence(ManagedMessage msg, Long seqID, Long seqPos, boolean isSeqEnd) throws MessageException {
+  public ManagedMessage createMessageCopyInSequence(ManagedMessage msg, Long seqID, Long seqPos, boolean isSeqEnd) throws MessageException {
     MessageContainer newMsg = (MessageContainer) copyMessage(msg);
     setStdHeaders(newMsg);
     newMsg.addCauseID(msg.getID());
@@ -222,7 +256,7 @@ public class MessageFactory {
    * @return
    * @throws MessageException
    */
-  public synchronized ManagedMessage createMessageCloneInSequence(ManagedMessage msg, Long seqID, Long seqPos, boolean isSeqEnd) throws MessageException {
+  public ManagedMessage createMessageCloneInSequence(ManagedMessage msg, Long seqID, Long seqPos, boolean isSeqEnd) throws MessageException {
     MessageContainer newMsg = (MessageContainer) copyMessage(msg);
     setStdHeaders(newMsg);
     newMsg.addCauseID(msg.getID());
@@ -233,9 +267,9 @@ public class MessageFactory {
   }
 
   private void setStdHeaders(MessageContainer newMsg) {
-    newMsg.setHeader(ManagedMessage.SystemHeader.HEADER_ID, Long.toString(msgIdCounter++));
-    newMsg.setHeader(ManagedMessage.SystemHeader.HEADER_VERSION, "1");
-    newMsg.setHeader(ManagedMessage.SystemHeader.HEADER_TIMESTAMP_CREATION, timestampFormat.format(new Date()));
+    newMsg.setID(msgIdCounter.getAndIncrement());
+    newMsg.setVersion(1L);
+    newMsg.setCreationTimeStamp(new Date());
   }
 
 }
@@ -165,7 +165,12 @@ public class MessageHelper {
     }
 
     Object[] res = null;
-    if (msg instanceof SettableMessage) {
+    if (msg instanceof MessageContainer) {
+      // read-only access, so a body that is shared with message copies need not be copied
+      Part msgBody = ((MessageContainer) msg).getBodyForReading();
+
+      res = _getFilteredContent(msgBody, typeFilter);
+    } else if (msg instanceof SettableMessage) {
       Part msgBody = ((SettableMessage) msg).getBody();
 
       res = _getFilteredContent(msgBody, typeFilter);
@@ -0,0 +1,34 @@
+package com.isencia.passerelle.message;
+
+import ptolemy.actor.Actor;
+import com.isencia.passerelle.statistics.QueueStatistics;
+
+/**
+ * Statistics for an actor's queue of pushed messages.
+ * 
+ * @author erwin
+ */
+public class MessageQueueStatistics extends QueueStatistics {
+
+  private MessageQueue queue;
+
+  public MessageQueueStatistics(Actor actor, MessageQueue queue) {
+    super(actor.getFullName() + "-queue");
+    this.queue = queue;
+  }
+
+  public int getSize() {
+    return queue.size();
+  }
+
+  public int getCapacity() {
+    return queue.getCapacity();
+  }
+
+  /**
+   * The capacity of an actor's message queue is determined by its director, and can not be modified via its statistics.
+   */
+  public void setCapacity(int newCapacity) {
+    throw new UnsupportedOperationException("setCapacity() not supported for actor message queue " + getName());
+  }
+}
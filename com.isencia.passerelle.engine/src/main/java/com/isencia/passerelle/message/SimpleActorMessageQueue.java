@@ -2,9 +2,12 @@ package com.isencia.passerelle.message;
 
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import ptolemy.actor.Actor;
 import ptolemy.actor.process.TerminateProcessException;
 import com.isencia.passerelle.actor.InitializationException;
+import com.isencia.passerelle.statistics.QueueStatistics;
+import com.isencia.passerelle.statistics.StatisticsServiceFactory;
 
 /**
  * Instances of this class can be used to manage the actor's internal buffer to handle messages from PUSH input ports. This implementation simply provides an
@@ -16,11 +19,16 @@ public class SimpleActorMessageQueue implements MessageQueue {
 
   private Actor actor;
   private Queue<MessageInputContext> messages;
+  // maintained separately, as ConcurrentLinkedQueue.size() needs to traverse the queue
+  private AtomicInteger size = new AtomicInteger();
   private boolean terminate;
+  private QueueStatistics statistics;
 
   public SimpleActorMessageQueue(Actor actor) throws InitializationException {
     this.actor = actor;
     messages = new ConcurrentLinkedQueue<MessageInputContext>();
+    statistics = new MessageQueueStatistics(actor, this);
+    StatisticsServiceFactory.getService().registerStatistics(statistics);
   }
 
   public int getCapacity() {
@@ -29,7 +37,7 @@ public class SimpleActorMessageQueue implements MessageQueue {
 
   @Override
   public int size() {
-    return messages.size();
+    return Math.max(0, size.get());
   }
 
   @Override
@@ -43,6 +51,7 @@ public class SimpleActorMessageQueue implements MessageQueue {
   public void put(MessageInputContext ctxt) throws InterruptedException {
     if (!terminate) {
       messages.add(ctxt);
+      statistics.acceptPut(size.incrementAndGet());
     } else {
       throw new TerminateProcessException("Process terminated.");
     }
@@ -50,6 +59,9 @@ public class SimpleActorMessageQueue implements MessageQueue {
 
   public MessageInputContext poll() throws InterruptedException, TerminateProcessException {
     MessageInputContext result = messages.poll();
+    if (result != null) {
+      statistics.acceptPoll(size.decrementAndGet());
+    }
     if (terminate && result == null) {
       throw new TerminateProcessException("");
     }
@@ -61,5 +73,13 @@ public class SimpleActorMessageQueue implements MessageQueue {
    */
   public void clear() {
     messages.clear();
+    size.set(0);
+  }
+
+  /**
+   * @return the statistics of this queue, registered with the StatisticsService at construction
+   */
+  public QueueStatistics getStatistics() {
+    return statistics;
   }
 }
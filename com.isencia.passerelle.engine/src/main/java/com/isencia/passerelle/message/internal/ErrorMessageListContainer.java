@@ -22,7 +22,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.isencia.passerelle.message.ManagedMessage;
 import com.isencia.passerelle.message.MessageException;
-import com.isencia.util.MapOfLists;
 
 
 /**
@@ -71,7 +70,7 @@ public class ErrorMessageListContainer extends MessageContainer {
             ErrorMessageContainer msg = (ErrorMessageContainer) iter.next();
             res.addErrorMessage((ErrorMessageContainer)msg.copy());
         }
-        res.headers = ((MapOfLists)this.headers).copy();
+        copyHeadersTo(res);
         return res;
     }
 
@@ -14,6 +14,9 @@
 */
 package com.isencia.passerelle.message.internal;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -81,6 +84,10 @@ import com.isencia.util.MapOfLists;
  * The body (and/or its parts) may also contain own header info, meant to contain data related to the handling of that specific
  * body (part).
  * 
+ * The Passerelle system headers (ID, version, creation timestamp, sequence info, causes...) are maintained as typed values.
+ * They are parsed at most once from their MIME form, and when set through the typed setters, their MIME form is only generated
+ * when the raw headers are accessed, e.g. when the message is serialized or exported.
+ * 
  * @author        erwin
  */
 public class MessageContainer implements ManagedMessage, SettableMessage {
@@ -89,9 +96,15 @@ public class MessageContainer implements ManagedMessage, SettableMessage {
   // collection of headers (i.e. name/value pairs)
   protected MapOfLists headers = null;
 
+  // typed values of the system headers
+  private SystemHeaders systemHeaders = new SystemHeaders();
+
   // the data content
   private PasserelleBodyPart body = null;
 
+  // true when the body may be shared with copies of this message, i.e. it must not be modified anymore.
+  private volatile boolean bodyShared;
+
   public MessageContainer() {
     headers = new MapOfLists();
     body = new PasserelleBodyPart();
@@ -106,26 +119,74 @@ public class MessageContainer implements ManagedMessage, SettableMessage {
   }
 
   /**
-   * Returns a copy of this message container. Header collections and body are copied in a shallow way. I.e. all header
+   * Constructor for copies, sharing the given body with the original message.
+   * 
+   * @param sharedBody
+   */
+  private MessageContainer(PasserelleBodyPart sharedBody) {
+    headers = new MapOfLists();
+    body = sharedBody;
+    bodyShared = true;
+  }
+
+  /**
+   * Returns a copy of this message container. Header collections are copied in a shallow way. I.e. all header
    * collections are copies, their entries are reused. Since javax.mail.Header is immutable, this is sufficient.
+   * <p>
+   * The body is not copied, but shared between this message and the copy. Whichever message is the first one to
+   * modify its body, gets its own copy of the body at that moment. So the cost of a copy does not depend on the body size,
+   * and messages that are just passed on are never copied at all.
+   * </p>
    * 
    * @return MessageContainer
    */
   public MessageContainer copy() throws MessageException {
-    MessageContainer res = new MessageContainer();
-    res.headers = this.headers.copy();
+    bodyShared = true;
+    MessageContainer res = new MessageContainer(body);
+    copyHeadersTo(res);
     Long msgVersion = getVersion();
     msgVersion = (msgVersion!=null) ? (msgVersion + 1) : 1;
-    res.setHeader(ManagedMessage.SystemHeader.HEADER_VERSION, msgVersion.toString());
-    res.setBodyContent(getBodyContent(), getBodyContentType());
-    Iterator<Header> bodyHdrItr = getAllBodyHeaders().iterator();
-    while (bodyHdrItr.hasNext()) {
-      Header aHeader = bodyHdrItr.next();
-      res.setBodyHeader(aHeader.getName(), aHeader.getValue());
-    }
+    res.setVersion(msgVersion);
     return res;
   }
 
+  /**
+   * Makes sure this message has its own body, before it gets modified.
+   * 
+   * @throws MessageException
+   */
+  private void ensureOwnBody() throws MessageException {
+    if (bodyShared) {
+      synchronized (this) {
+        if (bodyShared) {
+          try {
+            PasserelleBodyPart ownBody = new PasserelleBodyPart();
+            ownBody.setContent(body.getContent(), body.getContentType());
+            Enumeration<?> hdrEnum = body.getAllHeaders();
+            while (hdrEnum != null && hdrEnum.hasMoreElements()) {
+              Header aHeader = (Header) hdrEnum.nextElement();
+              ownBody.setHeader(aHeader.getName(), aHeader.getValue());
+            }
+            body = ownBody;
+            bodyShared = false;
+          } catch (Exception e) {
+            throw new MessageException(ErrorCode.MSG_CONSTRUCTION_ERROR, "Error copying shared msg body", this, e);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Copies all headers, including the typed system headers, to the given container.
+   * 
+   * @param target
+   */
+  protected void copyHeadersTo(MessageContainer target) {
+    target.headers = this.headers.copy();
+    target.systemHeaders = this.systemHeaders.copy();
+  }
+
   public List<Header> getAllBodyHeaders() throws MessageException {
     try {
       List<Header> col = new ArrayList<Header>();
@@ -142,18 +203,38 @@ public class MessageContainer implements ManagedMessage, SettableMessage {
   }
 
   public Collection<Header> getAllHeaders() {
+    flushSystemHeaders();
     return headers.values();
   }
 
   public void setBody(PasserelleBodyPart body) {
     this.body = body;
+    bodyShared = false;
   }
 
+  /**
+   * As the returned body part may be modified by the caller, 
+   * this message first gets its own body if it was shared with copies.
+   */
   public PasserelleBodyPart getBody() {
+    try {
+      ensureOwnBody();
+    } catch (MessageException e) {
+      LOGGER.error("", e);
+    }
+    return body;
+  }
+
+  /**
+   * Returns the body without first copying it when it is shared with copies of this message.
+   * The caller must not modify the returned body part.
+   */
+  public PasserelleBodyPart getBodyForReading() {
     return body;
   }
 
   public void setBodyContent(Multipart part) throws MessageException {
+    ensureOwnBody();
     try {
       body.setContent(part);
     } catch (MessagingException e) {
@@ -162,6 +243,7 @@ public class MessageContainer implements ManagedMessage, SettableMessage {
   }
 
   public void setBodyContentPlainText(String content) throws MessageException {
+    ensureOwnBody();
     try {
       body.setContent(content, "text/plain");
     } catch (MessagingException e) {
@@ -170,6 +252,7 @@ public class MessageContainer implements ManagedMessage, SettableMessage {
   }
 
   public void setBodyContent(Object content, String contentType) throws MessageException {
+    ensureOwnBody();
     try {
       body.setContent(content, contentType);
     } catch (MessagingException e) {
@@ -216,6 +299,7 @@ public class MessageContainer implements ManagedMessage, SettableMessage {
   }
 
   public void setBodyHeader(String name, String value) throws MessageException {
+    ensureOwnBody();
     try {
       body.setHeader(name, value);
     } catch (MessagingException e) {
@@ -232,15 +316,17 @@ public class MessageContainer implements ManagedMessage, SettableMessage {
   }
 
   public void setHeader(String name, String value) {
-    Collection<?> hdrs = (Collection<?>) headers.remove(name);
-
-    if (hdrs != null)
-      hdrs.clear();
-
+    forgetSystemHeader(name);
+    removeHeaderValues(name);
     headers.put(name, new Header(name, value));
   }
 
   public String[] getHeader(String name) {
+    flushSystemHeader(SystemHeaders.indexOf(name));
+    return getHeaderValues(name);
+  }
+
+  private String[] getHeaderValues(String name) {
     ArrayList<String> values = new ArrayList<String>();
     Collection<?> c = (Collection<?>) headers.get(name);
 
@@ -257,6 +343,7 @@ public class MessageContainer implements ManagedMessage, SettableMessage {
   }
 
   public void addBodyHeader(String name, String value) throws MessageException {
+    ensureOwnBody();
     try {
       body.addHeader(name, value);
     } catch (MessagingException e) {
@@ -265,6 +352,12 @@ public class MessageContainer implements ManagedMessage, SettableMessage {
   }
 
   public void addHeader(String name, String value) {
+    int index = SystemHeaders.indexOf(name);
+    if (index >= 0) {
+      // the new value must be added to the existing ones, so they must be available in MIME form
+      flushSystemHeader(index);
+      systemHeaders.forget(index);
+    }
     headers.put(name, new Header(name, value));
   }
 
@@ -279,10 +372,12 @@ public class MessageContainer implements ManagedMessage, SettableMessage {
   }
 
   public boolean hasHeader(String name) {
+    flushSystemHeader(SystemHeaders.indexOf(name));
     return headers.containsKey(name);
   }
 
   public void removeBodyHeader(String name) throws MessageException {
+    ensureOwnBody();
     try {
       body.removeHeader(name);
     } catch (MessagingException e) {
@@ -291,6 +386,11 @@ public class MessageContainer implements ManagedMessage, SettableMessage {
   }
 
   public void removeHeader(String name) {
+    forgetSystemHeader(name);
+    removeHeaderValues(name);
+  }
+
+  private void removeHeaderValues(String name) {
     Collection<?> hdrs = (Collection<?>) headers.remove(name);
 
     if (hdrs != null)
@@ -301,8 +401,9 @@ public class MessageContainer implements ManagedMessage, SettableMessage {
    * @throws MessageException
    */
   public void saveChanges() throws MessageException {
+    ensureOwnBody();
     try {
-      getBody().saveChanges();
+      body.saveChanges();
     } catch (MessagingException e) {
       throw new MessageException(ErrorCode.MSG_CONTENT_TYPE_ERROR, "Error saving msg body", this, e);
     }
@@ -321,7 +422,11 @@ public class MessageContainer implements ManagedMessage, SettableMessage {
   }
 
   public Long getID() {
-    return getSingleHeaderLongValue(SystemHeader.HEADER_ID);
+    return (Long) getSystemHeaderValue(SystemHeaders.ID);
+  }
+
+  public void setID(Long id) {
+    setSystemHeaderValue(SystemHeaders.ID, id);
   }
 
   public String getSourceRef() {
@@ -333,11 +438,20 @@ public class MessageContainer implements ManagedMessage, SettableMessage {
   }
 
   public Date getCreationTimeStamp() {
-    return getSingleHeaderDateValue(SystemHeader.HEADER_TIMESTAMP_CREATION);
+    Long timeStamp = (Long) getSystemHeaderValue(SystemHeaders.TIMESTAMP_CREATION);
+    return (timeStamp != null) ? new Date(timeStamp) : null;
+  }
+
+  public void setCreationTimeStamp(Date creationTimeStamp) {
+    setSystemHeaderValue(SystemHeaders.TIMESTAMP_CREATION, (creationTimeStamp != null) ? creationTimeStamp.getTime() : null);
   }
 
   public Long getVersion() {
-    return getSingleHeaderLongValue(SystemHeader.HEADER_VERSION);
+    return (Long) getSystemHeaderValue(SystemHeaders.VERSION);
+  }
+
+  public void setVersion(Long version) {
+    setSystemHeaderValue(SystemHeaders.VERSION, version);
   }
 
   public AuditTrailEntry[] getAuditTrail() {
@@ -350,7 +464,7 @@ public class MessageContainer implements ManagedMessage, SettableMessage {
   }
 
   public Long getCorrelationID() {
-    return getSingleHeaderLongValue(SystemHeader.HEADER_CORRELATION_ID);
+    return (Long) getSystemHeaderValue(SystemHeaders.CORRELATION_ID);
   }
 
   public boolean isPartOfSequence() {
@@ -358,50 +472,149 @@ public class MessageContainer implements ManagedMessage, SettableMessage {
   }
 
   public Long getSequenceID() {
-    return getSingleHeaderLongValue(SystemHeader.HEADER_SEQ_ID);
+    return (Long) getSystemHeaderValue(SystemHeaders.SEQ_ID);
   }
 
   public void setSequenceID(Long seqID) {
-    setHeader(SystemHeader.HEADER_SEQ_ID, seqID.toString());
+    setSystemHeaderValue(SystemHeaders.SEQ_ID, seqID);
   }
 
   public Long getSequencePosition() {
-    return getSingleHeaderLongValue(SystemHeader.HEADER_SEQ_POS);
+    return (Long) getSystemHeaderValue(SystemHeaders.SEQ_POS);
   }
 
   public void setSequencePosition(Long seqPos) {
-    setHeader(SystemHeader.HEADER_SEQ_POS, seqPos.toString());
+    setSystemHeaderValue(SystemHeaders.SEQ_POS, seqPos);
   }
 
   public boolean isSequenceEnd() {
-    return getSingleHeaderBooleanValue(SystemHeader.HEADER_SEQ_END).booleanValue();
+    return ((Boolean) getSystemHeaderValue(SystemHeaders.SEQ_END)).booleanValue();
   }
 
   public void setSequenceEnd(boolean seqEnd) {
-    setHeader(SystemHeader.HEADER_SEQ_END, Boolean.toString(seqEnd));
+    setSystemHeaderValue(SystemHeaders.SEQ_END, Boolean.valueOf(seqEnd));
   }
 
   public boolean hasCauses() {
-    return (getCauseIDs() != null && getCauseIDs().length > 0);
+    Long[] causeIDs = (Long[]) getSystemHeaderValue(SystemHeaders.CAUSES_IDS);
+    return (causeIDs != null && causeIDs.length > 0);
   }
 
   public Long[] getCauseIDs() {
-    return getMultiHeaderLongValue(SystemHeader.HEADER_CAUSES_IDS);
+    Long[] causeIDs = (Long[]) getSystemHeaderValue(SystemHeaders.CAUSES_IDS);
+    return (causeIDs != null) ? causeIDs.clone() : null;
   }
 
   public void addCauseID(Long causeID) {
-    if (causeID != null)
-      addHeader(SystemHeader.HEADER_CAUSES_IDS, causeID.toString());
+    if (causeID != null) {
+      Long[] causeIDs = (Long[]) getSystemHeaderValue(SystemHeaders.CAUSES_IDS);
+      Long[] newCauseIDs = null;
+      if (causeIDs == null) {
+        newCauseIDs = new Long[] { causeID };
+      } else {
+        newCauseIDs = new Long[causeIDs.length + 1];
+        System.arraycopy(causeIDs, 0, newCauseIDs, 0, causeIDs.length);
+        newCauseIDs[causeIDs.length] = causeID;
+      }
+      setSystemHeaderValue(SystemHeaders.CAUSES_IDS, newCauseIDs);
+    }
+  }
+
+  // TYPED SYSTEM HEADER HANDLING ===============================================================
+  private Object getSystemHeaderValue(int index) {
+    if (!systemHeaders.isKnown(index)) {
+      systemHeaders.setParsed(index, parseSystemHeader(index));
+    }
+    return systemHeaders.get(index);
+  }
+
+  private void setSystemHeaderValue(int index, Object value) {
+    synchronized (systemHeaders) {
+      removeHeaderValues(SystemHeaders.NAMES[index]);
+      if (value != null) {
+        systemHeaders.set(index, value);
+      } else {
+        // known to be absent, so nothing pending for the MIME form
+        systemHeaders.setParsed(index, (index == SystemHeaders.SEQ_END) ? Boolean.FALSE : null);
+      }
+    }
+  }
+
+  private void forgetSystemHeader(String name) {
+    int index = SystemHeaders.indexOf(name);
+    if (index >= 0) {
+      systemHeaders.forget(index);
+    }
+  }
+
+  /**
+   * Generates the MIME form of all system headers that were set via typed setters and that were not yet exported to MIME.
+   */
+  protected void flushSystemHeaders() {
+    if (systemHeaders.hasPending()) {
+      for (int i = 0; i < SystemHeaders.NAMES.length; ++i) {
+        flushSystemHeader(i);
+      }
+    }
+  }
+
+  private void flushSystemHeader(int index) {
+    if (index >= 0 && systemHeaders.isPending(index)) {
+      synchronized (systemHeaders) {
+        if (systemHeaders.isPending(index)) {
+          String name = SystemHeaders.NAMES[index];
+          removeHeaderValues(name);
+          Object value = systemHeaders.get(index);
+          if (index == SystemHeaders.CAUSES_IDS) {
+            for (Long causeID : (Long[]) value) {
+              headers.put(name, new Header(name, causeID.toString()));
+            }
+          } else if (index == SystemHeaders.TIMESTAMP_CREATION) {
+            headers.put(name, new Header(name, MessageFactory.formatTimestamp(new Date((Long) value))));
+          } else {
+            headers.put(name, new Header(name, value.toString()));
+          }
+          systemHeaders.clearPending(index);
+        }
+      }
+    }
+  }
+
+  private Object parseSystemHeader(int index) {
+    String name = SystemHeaders.NAMES[index];
+    switch (index) {
+    case SystemHeaders.TIMESTAMP_CREATION:
+      Date timeStamp = getSingleHeaderDateValue(name);
+      return (timeStamp != null) ? timeStamp.getTime() : null;
+    case SystemHeaders.SEQ_END:
+      return getSingleHeaderBooleanValue(name);
+    case SystemHeaders.CAUSES_IDS:
+      return getMultiHeaderLongValue(name);
+    default:
+      return getSingleHeaderLongValue(name);
+    }
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    flushSystemHeaders();
+    out.defaultWriteObject();
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    if (systemHeaders == null) {
+      systemHeaders = new SystemHeaders();
+    }
   }
 
   // PRIVATE METHODS TO READ TYPED VALUES FROM HEADERS ========================================
   private Boolean getSingleHeaderBooleanValue(String headerName) {
     Boolean res = Boolean.FALSE;
-    String[] headerValues = getHeader(headerName);
+    String[] headerValues = getHeaderValues(headerName);
     if (headerValues != null && headerValues.length > 0) {
       // just take the first one
       try {
-        res = new Boolean(headerValues[0]);
+        res = Boolean.valueOf(headerValues[0]);
       } catch (NumberFormatException e) {
         LOGGER.warn("Header " + headerName + " contains illegal value " + headerValues[0]);
       }
@@ -411,11 +624,11 @@ public class MessageContainer implements ManagedMessage, SettableMessage {
 
   private Long getSingleHeaderLongValue(String headerName) {
     Long res = null;
-    String[] headerValues = getHeader(headerName);
+    String[] headerValues = getHeaderValues(headerName);
     if (headerValues != null && headerValues.length > 0) {
       // just take the first one
       try {
-        res = new Long(headerValues[0]);
+        res = Long.valueOf(headerValues[0]);
       } catch (NumberFormatException e) {
         LOGGER.warn("Header " + headerName + " contains illegal value " + headerValues[0]);
       }
@@ -425,12 +638,12 @@ public class MessageContainer implements ManagedMessage, SettableMessage {
 
   private Long[] getMultiHeaderLongValue(String headerName) {
     Long[] res = null;
-    String[] headerValues = getHeader(headerName);
+    String[] headerValues = getHeaderValues(headerName);
     if (headerValues != null && headerValues.length > 0) {
+      res = new Long[headerValues.length];
       for (int i = 0; i < headerValues.length; ++i) {
-        res = new Long[headerValues.length];
         try {
-          res[i] = new Long(headerValues[i]);
+          res[i] = Long.valueOf(headerValues[i]);
         } catch (NumberFormatException e) {
           LOGGER.warn("Header " + headerName + " contains illegal value " + headerValues[i]);
         }
@@ -441,7 +654,7 @@ public class MessageContainer implements ManagedMessage, SettableMessage {
 
   private String getSingleHeaderStringValue(String headerName) {
     String res = null;
-    String[] headerValues = getHeader(headerName);
+    String[] headerValues = getHeaderValues(headerName);
     if (headerValues != null && headerValues.length > 0) {
       // just take the first one
       res = headerValues[0];
@@ -451,7 +664,7 @@ public class MessageContainer implements ManagedMessage, SettableMessage {
 
   private String[] getMultiHeaderStringValue(String headerName) {
     String[] res = null;
-    String[] headerValues = getHeader(headerName);
+    String[] headerValues = getHeaderValues(headerName);
     if (headerValues != null && headerValues.length > 0) {
       res = new String[headerValues.length];
       System.arraycopy(headerValues, 0, res, 0, headerValues.length);
@@ -461,13 +674,13 @@ public class MessageContainer implements ManagedMessage, SettableMessage {
 
   private Date getSingleHeaderDateValue(String headerName) {
     Date res = null;
-    String[] headerValues = getHeader(headerName);
+    String[] headerValues = getHeaderValues(headerName);
     if (headerValues != null && headerValues.length > 0) {
       // just take the first one
       String dateHeader = headerValues[0];
       try {
         // use the std date format to parse the timestamp
-        res = MessageFactory.timestampFormat.parse(dateHeader);
+        res = MessageFactory.parseTimestamp(dateHeader);
       } catch (ParseException e) {
         LOGGER.warn("Header " + headerName + " contains illegal value " + headerValues[0]);
       }
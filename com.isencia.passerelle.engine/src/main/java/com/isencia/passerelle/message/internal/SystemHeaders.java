@@ -0,0 +1,124 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.passerelle.message.internal;
+
+import java.io.Serializable;
+import com.isencia.passerelle.message.ManagedMessage.SystemHeader;
+
+/**
+ * Compact holder for the typed values of the Passerelle system headers of a <code>MessageContainer</code>.
+ * <p>
+ * A value can be known here because it was set through a typed setter, or because it was parsed once from its MIME header. Values that were set through a
+ * typed setter are marked as pending, i.e. their MIME header still needs to be generated. The <code>MessageContainer</code> only does that when the raw
+ * headers are accessed, e.g. when the message is serialized or exported.
+ * </p>
+ * <p>
+ * Values are immutable : <code>Long</code> for the numerical headers and for the creation timestamp (in ms), <code>Boolean</code> for the sequence end flag
+ * and <code>Long[]</code> for the cause IDs.
+ * </p>
+ *
+ * @author erwin
+ */
+final class SystemHeaders implements Serializable {
+  private static final long serialVersionUID = -3096524167312405125L;
+
+  static final int ID = 0;
+  static final int VERSION = 1;
+  static final int TIMESTAMP_CREATION = 2;
+  static final int CORRELATION_ID = 3;
+  static final int SEQ_ID = 4;
+  static final int SEQ_POS = 5;
+  static final int SEQ_END = 6;
+  static final int CAUSES_IDS = 7;
+
+  static final String[] NAMES = { SystemHeader.HEADER_ID, SystemHeader.HEADER_VERSION, SystemHeader.HEADER_TIMESTAMP_CREATION,
+      SystemHeader.HEADER_CORRELATION_ID, SystemHeader.HEADER_SEQ_ID, SystemHeader.HEADER_SEQ_POS, SystemHeader.HEADER_SEQ_END, SystemHeader.HEADER_CAUSES_IDS };
+
+  private final Object[] values = new Object[NAMES.length];
+  // a bit per header that has a valid typed value
+  private volatile int known;
+  // a bit per header for which the MIME form has not been generated yet
+  private volatile int pending;
+
+  /**
+   * @param headerName
+   * @return the index of the system header with the given name, or -1 if it's not a typed system header
+   */
+  static int indexOf(String headerName) {
+    if (headerName == null || !headerName.startsWith("__PSRL_")) {
+      return -1;
+    }
+    for (int i = 0; i < NAMES.length; ++i) {
+      if (NAMES[i].equals(headerName)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  boolean isKnown(int index) {
+    return (known & (1 << index)) != 0;
+  }
+
+  boolean isPending(int index) {
+    return (pending & (1 << index)) != 0;
+  }
+
+  boolean hasPending() {
+    return pending != 0;
+  }
+
+  Object get(int index) {
+    return values[index];
+  }
+
+  /**
+   * Store a value that was parsed from the MIME header.
+   */
+  synchronized void setParsed(int index, Object value) {
+    values[index] = value;
+    known |= (1 << index);
+  }
+
+  /**
+   * Store a value that was set via a typed setter, and for which the MIME header must still be generated.
+   */
+  synchronized void set(int index, Object value) {
+    values[index] = value;
+    known |= (1 << index);
+    pending |= (1 << index);
+  }
+
+  synchronized void clearPending(int index) {
+    pending &= ~(1 << index);
+  }
+
+  /**
+   * Forget the typed value, e.g. because its MIME header was modified directly.
+   */
+  synchronized void forget(int index) {
+    values[index] = null;
+    known &= ~(1 << index);
+    pending &= ~(1 << index);
+  }
+
+  synchronized SystemHeaders copy() {
+    SystemHeaders res = new SystemHeaders();
+    System.arraycopy(values, 0, res.values, 0, values.length);
+    res.known = known;
+    res.pending = pending;
+    return res;
+  }
+}
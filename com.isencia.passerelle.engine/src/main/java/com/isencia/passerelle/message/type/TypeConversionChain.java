@@ -14,12 +14,18 @@
 */
 package com.isencia.passerelle.message.type;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.isencia.passerelle.core.PasserelleException;
 import com.isencia.passerelle.core.PasserelleToken;
+import com.isencia.passerelle.core.PasserelleType;
 import com.isencia.passerelle.ext.TypeConverterProvider;
 import com.isencia.passerelle.ext.impl.DefaultTypeConverterProvider;
 import com.isencia.passerelle.message.MessageException;
@@ -30,6 +36,15 @@ import ptolemy.data.type.Type;
 /**
  * Provides an easy access to a preconfigured series
  * of converters using the Chain-of-Responsibility design pattern.
+ * <p>
+ * To avoid walking the complete chain for each conversion, the converters that are compatible
+ * with a given source and target type are resolved once and cached.
+ * For a combination of types that no converter supports, an empty list is cached.
+ * The cache is cleared when a new TypeConverterProvider is set.
+ * It is also tied to a snapshot of the provider's list of converters, so when that list is
+ * modified at runtime, the cache is dropped automatically on the next conversion
+ * and the modified list is used from then onwards.
+ * </p>
  * 
  * 
  * @author erwin
@@ -39,7 +54,14 @@ public class TypeConversionChain implements TypeConverter {
 	private final static Logger logger = LoggerFactory.getLogger(TypeConversionChain.class);
 
 	private final static TypeConverterProvider DEFAULT_CONVERTER_PROVIDER = new DefaultTypeConverterProvider();
-	private TypeConverterProvider converterProvider = DEFAULT_CONVERTER_PROVIDER;
+	private volatile TypeConverterProvider converterProvider = DEFAULT_CONVERTER_PROVIDER;
+	
+	// the kinds of conversions for which the compatible converters are cached
+	private final static int TO_PTOLEMY_TOKEN = 0;
+	private final static int TO_PASSERELLE_TOKEN = 1;
+	private final static int TO_CONTENT_TYPE = 2;
+	
+	private volatile ResolvedConverters resolvedConverters = new ResolvedConverters(Collections.<TypeConverter>emptyList());
 	
 	private final static TypeConversionChain instance = new TypeConversionChain();
 	
@@ -50,7 +72,7 @@ public class TypeConversionChain implements TypeConverter {
 		return instance;
 	}
 	
-	public synchronized TypeConverterProvider getConverterProvider() {
+	public TypeConverterProvider getConverterProvider() {
 		return converterProvider;
 	}
 
@@ -59,9 +81,19 @@ public class TypeConversionChain implements TypeConverter {
 			this.converterProvider = converterProvider;
 		else 
 			this.converterProvider = DEFAULT_CONVERTER_PROVIDER;
+		clearConversionCache();
 		
 		logger.info("Set TypeConverterProvider to {}",this.converterProvider.getName());
 	}
+	
+	/**
+	 * Drops all cached converter resolutions.
+	 * This is not needed after a modification of the list of converters of the current TypeConverterProvider,
+	 * as such modifications are detected automatically.
+	 */
+	public void clearConversionCache() {
+		resolvedConverters = new ResolvedConverters(Collections.<TypeConverter>emptyList());
+	}
 
 	// used internally by ArrayConverter
 	protected Token convertContentToToken(Object content, Type targetType) throws UnsupportedOperationException, MessageException {
@@ -113,7 +145,14 @@ public class TypeConversionChain implements TypeConverter {
 		Token res = null;
 		Iterator iter = null;
 		boolean foundConversion = false;
-		for (iter = converterProvider.getTypeConverters().iterator(); iter.hasNext();) {
+		List<TypeConverter> converters = null;
+		Class contentType = getMessageContentType(passerelleMsgToken);
+		if(contentType!=null && !PasserelleType.PASSERELLE_MSG_TYPE.equals(ptolemyTargetType)) {
+			converters = getConverters(TO_PTOLEMY_TOKEN, contentType, ptolemyTargetType);
+		} else {
+			converters = converterProvider.getTypeConverters();
+		}
+		for (iter = converters.iterator(); iter.hasNext();) {
 			TypeConverter converter = (TypeConverter) iter.next();
 			try {
 				res = converter.convertPasserelleTokenToPtolemyToken(passerelleMsgToken,ptolemyTargetType);
@@ -135,7 +174,17 @@ public class TypeConversionChain implements TypeConverter {
 		PasserelleToken res = null;
 		Iterator iter = null;
 		boolean foundConversion = false;
-		for (iter = converterProvider.getTypeConverters().iterator(); iter.hasNext();) {
+		List<TypeConverter> converters = null;
+		if(origToken instanceof PasserelleToken) {
+			// the converters just delegate to the conversion of the message content
+			Class contentType = getMessageContentType((PasserelleToken) origToken);
+			converters = (contentType!=null) ? getConverters(TO_CONTENT_TYPE, contentType, targetContentType) : converterProvider.getTypeConverters();
+		} else if(origToken!=null) {
+			converters = getConverters(TO_PASSERELLE_TOKEN, origToken.getType(), targetContentType);
+		} else {
+			converters = converterProvider.getTypeConverters();
+		}
+		for (iter = converters.iterator(); iter.hasNext();) {
 			TypeConverter converter = (TypeConverter) iter.next();
 			try {
 				res = converter.convertPtolemyTokenToPasserelleToken(origToken, targetContentType);
@@ -157,7 +206,14 @@ public class TypeConversionChain implements TypeConverter {
 		PasserelleToken res = null;
 		Iterator iter = null;
 		boolean foundConversion = false;
-		for (iter = converterProvider.getTypeConverters().iterator(); iter.hasNext();) {
+		List<TypeConverter> converters = null;
+		Class contentType = getMessageContentType(origToken);
+		if(contentType!=null) {
+			converters = getConverters(TO_CONTENT_TYPE, contentType, targetContentType);
+		} else {
+			converters = converterProvider.getTypeConverters();
+		}
+		for (iter = converters.iterator(); iter.hasNext();) {
 			TypeConverter converter = (TypeConverter) iter.next();
 			try {
 				res = converter.convertPasserelleMessageContent(origToken, targetContentType);
@@ -175,4 +231,128 @@ public class TypeConversionChain implements TypeConverter {
 		return res;
 	}
 	
+	/**
+	 * 
+	 * @param token
+	 * @return the class of the token's message body content, or null if there's no token, message or body content
+	 */
+	private Class getMessageContentType(PasserelleToken token) {
+		if(token==null || token.getMessage()==null) {
+			return null;
+		}
+		try {
+			Object content = token.getMessage().getBodyContent();
+			return (content!=null) ? content.getClass() : null;
+		} catch (MessageException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns the converters, in chain order, that may be able to perform the given kind of conversion between the given types.
+	 * For converters that are not based on <code>ConverterBase</code>, the compatibility can not be checked,
+	 * so these are always included.
+	 * 
+	 * @param conversionKind
+	 * @param fromType
+	 * @param toType
+	 * @return the cached list of converters, which is empty if no converter supports the conversion
+	 */
+	private List<TypeConverter> getConverters(int conversionKind, Object fromType, Object toType) {
+		List<TypeConverter> allConverters = converterProvider.getTypeConverters();
+		ResolvedConverters resolved = resolvedConverters;
+		if(!resolved.isResolvedFor(allConverters)) {
+			resolved = new ResolvedConverters(allConverters);
+			resolvedConverters = resolved;
+		}
+		ConcurrentMap<ConversionKey, List<TypeConverter>> cache = resolved.cache;
+		ConversionKey key = new ConversionKey(conversionKind, fromType, toType);
+		List<TypeConverter> converters = cache.get(key);
+		if(converters==null) {
+			converters = new ArrayList<TypeConverter>();
+			for (TypeConverter converter : resolved.snapshot) {
+				if(!(converter instanceof ConverterBase) || isCompatible((ConverterBase) converter, conversionKind, fromType, toType)) {
+					converters.add(converter);
+				}
+			}
+			converters = Collections.unmodifiableList(converters);
+			cache.putIfAbsent(key, converters);
+		}
+		return converters;
+	}
+	
+	private boolean isCompatible(ConverterBase converter, int conversionKind, Object fromType, Object toType) {
+		switch (conversionKind) {
+		case TO_PTOLEMY_TOKEN:
+			return converter.areTypesCompatible((Class) fromType, (Type) toType);
+		case TO_PASSERELLE_TOKEN:
+			return converter.areTypesCompatible((Type) fromType, (Class) toType);
+		default:
+			return converter.areTypesCompatible((Class) fromType, (Class) toType);
+		}
+	}
+	
+	/**
+	 * The cached converter resolutions, together with the snapshot of the provider's converter list
+	 * from which they were resolved.
+	 */
+	private final static class ResolvedConverters {
+		private final List<TypeConverter> snapshot;
+		private final ConcurrentMap<ConversionKey, List<TypeConverter>> cache = new ConcurrentHashMap<ConversionKey, List<TypeConverter>>();
+		
+		private ResolvedConverters(List<TypeConverter> converters) {
+			this.snapshot = new ArrayList<TypeConverter>(converters);
+		}
+		
+		/**
+		 * 
+		 * @param converters
+		 * @return true if the given list still holds the same converter instances, in the same order, as the snapshot
+		 */
+		private boolean isResolvedFor(List<TypeConverter> converters) {
+			if(converters.size()!=snapshot.size()) {
+				return false;
+			}
+			Iterator<TypeConverter> convIter = converters.iterator();
+			for (TypeConverter converter : snapshot) {
+				if(converter!=convIter.next()) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+	
+	private final static class ConversionKey {
+		private final int conversionKind;
+		private final Object fromType;
+		private final Object toType;
+		
+		private ConversionKey(int conversionKind, Object fromType, Object toType) {
+			this.conversionKind = conversionKind;
+			this.fromType = fromType;
+			this.toType = toType;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = conversionKind;
+			result = prime * result + ((fromType == null) ? 0 : fromType.hashCode());
+			result = prime * result + ((toType == null) ? 0 : toType.hashCode());
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null || getClass() != obj.getClass())
+				return false;
+			ConversionKey other = (ConversionKey) obj;
+			return conversionKind == other.conversionKind
+					&& (fromType == null ? other.fromType == null : fromType.equals(other.fromType))
+					&& (toType == null ? other.toType == null : toType.equals(other.toType));
+		}
+	}
 }
@@ -129,6 +129,17 @@ public class Flow extends TypedCompositeActor {
       handle.setName(name);
     }
   }
+
+  /**
+   * A clone gets its own handle, referring to the clone, and does not share the original's execution listener.
+   */
+  @Override
+  public Object clone(Workspace workspace) throws CloneNotSupportedException {
+    Flow newObject = (Flow) super.clone(workspace);
+    newObject.handle = new FlowHandle(0L, newObject, authorativeResourceLocation);
+    newObject.executionListener = null;
+    return newObject;
+  }
 	
 	/**
 	 * 
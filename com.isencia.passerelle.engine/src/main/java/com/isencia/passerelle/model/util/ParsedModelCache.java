@@ -0,0 +1,271 @@
+/* Copyright 2013 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.passerelle.model.util;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ptolemy.kernel.util.Workspace;
+import com.isencia.passerelle.model.Flow;
+import com.isencia.passerelle.model.FlowManager;
+
+/**
+ * A cache of parsed model files below a repository root folder.
+ * <p>
+ * Each model file is parsed only once. The parsed flow is kept as template, and callers receive a clone of it,
+ * which is much cheaper than parsing the file again.
+ * </p>
+ * <p>
+ * The root folder is watched with a <code>WatchService</code>, and a cached model is dropped as soon as its file (or one of its folders) is modified or deleted.
+ * To limit the nr of watched folders, only the folders up to a given depth below the root are watched, e.g. the folders that contain the models 
+ * in a repository's fixed folder structure. Models in deeper folders are parsed each time.
+ * Repository implementations can register an <code>InvalidationListener</code> to drop their own derived data, e.g. metadata, at the same time.
+ * </p>
+ * 
+ * @author erwin
+ */
+public class ParsedModelCache {
+  private final static Logger LOGGER = LoggerFactory.getLogger(ParsedModelCache.class);
+
+  /**
+   * Gets notified of changes in the watched repository folders.
+   */
+  public interface InvalidationListener {
+    /**
+     * @param file the file or folder that has been created, modified or deleted, or the root folder if the changes are unknown
+     */
+    void invalidated(File file);
+  }
+
+  private File rootFolder;
+  private ConcurrentMap<File, Flow> templates = new ConcurrentHashMap<File, Flow>();
+  // increased on each invalidation, to detect changes while a model was being parsed
+  private AtomicLong invalidationCount = new AtomicLong();
+  private List<InvalidationListener> listeners = new CopyOnWriteArrayList<InvalidationListener>();
+  private WatchService watchService;
+  private Thread watchThread;
+  private int maxWatchDepth;
+
+  /**
+   * Creates a cache for the model files below the given root folder, and starts watching it and all its subfolders.
+   * 
+   * @param rootFolder
+   */
+  public ParsedModelCache(File rootFolder) {
+    this(rootFolder, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Creates a cache for the model files below the given root folder, and starts watching it.
+   * 
+   * @param rootFolder
+   * @param maxWatchDepth the depth of the deepest watched subfolders, e.g. 0 to only watch the root folder itself
+   */
+  public ParsedModelCache(File rootFolder, int maxWatchDepth) {
+    this.rootFolder = rootFolder.getAbsoluteFile();
+    this.maxWatchDepth = maxWatchDepth;
+    try {
+      watchService = FileSystems.getDefault().newWatchService();
+      registerAll(this.rootFolder.toPath());
+      watchThread = new Thread(new Runnable() {
+        public void run() {
+          watch();
+        }
+      }, "ParsedModelCache watcher " + this.rootFolder);
+      watchThread.setDaemon(true);
+      watchThread.start();
+    } catch (IOException e) {
+      // without watching, we can not know when a model changes
+      LOGGER.warn("Unable to watch " + this.rootFolder + ", parsed models will not be cached", e);
+      if (watchService != null) {
+        try {
+          watchService.close();
+        } catch (IOException e1) {
+          // ignore
+        }
+      }
+      watchService = null;
+    }
+  }
+
+  public File getRootFolder() {
+    return rootFolder;
+  }
+
+  public void addInvalidationListener(InvalidationListener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeInvalidationListener(InvalidationListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * @param modelFile
+   * @return a new copy of the flow defined in the given file
+   * @throws Exception when the file could not be parsed
+   */
+  public Flow getFlow(File modelFile) throws Exception {
+    File key = modelFile.getAbsoluteFile();
+    if (watchService == null || !isWatched(key.getParentFile())) {
+      return FlowManager.readMoml(key.toURI().toURL());
+    }
+    Flow template = templates.get(key);
+    if (template == null) {
+      long count = invalidationCount.get();
+      template = FlowManager.readMoml(key.toURI().toURL());
+      Flow previous = templates.putIfAbsent(key, template);
+      if (previous != null) {
+        template = previous;
+      } else if (count != invalidationCount.get()) {
+        // the file may have changed while it was being parsed
+        templates.remove(key, template);
+      }
+    }
+    // the template is never handed out, but concurrent cloning of a same model is not guaranteed to be safe
+    synchronized (template) {
+      return (Flow) template.clone(new Workspace());
+    }
+  }
+
+  /**
+   * Drops the cached models for the given file, or for all files below it when it's a folder.
+   * 
+   * @param file
+   */
+  public void invalidate(File file) {
+    File key = file.getAbsoluteFile();
+    invalidationCount.incrementAndGet();
+    templates.remove(key);
+    String folderPrefix = key.getPath() + File.separator;
+    for (Iterator<File> keyItr = templates.keySet().iterator(); keyItr.hasNext();) {
+      if (keyItr.next().getPath().startsWith(folderPrefix)) {
+        keyItr.remove();
+      }
+    }
+    for (InvalidationListener listener : listeners) {
+      try {
+        listener.invalidated(key);
+      } catch (Exception e) {
+        LOGGER.error("Error notifying " + listener + " of change in " + key, e);
+      }
+    }
+  }
+
+  /**
+   * Drops all cached models.
+   */
+  public void clear() {
+    invalidationCount.incrementAndGet();
+    templates.clear();
+    for (InvalidationListener listener : listeners) {
+      listener.invalidated(rootFolder);
+    }
+  }
+
+  /**
+   * Stops watching the root folder, and drops all cached models.
+   */
+  public void close() {
+    if (watchService != null) {
+      try {
+        watchService.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+    templates.clear();
+  }
+
+  /**
+   * @param folder
+   * @return true if the folder is the root folder, or a subfolder of it within the max watch depth
+   */
+  private boolean isWatched(File folder) {
+    int depth = 0;
+    for (File f = folder; f != null; f = f.getParentFile(), ++depth) {
+      if (f.equals(rootFolder)) {
+        return depth <= maxWatchDepth;
+      }
+    }
+    return false;
+  }
+
+  private void registerAll(Path folder) throws IOException {
+    Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        if (!isWatched(dir.toFile())) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  private void watch() {
+    try {
+      while (true) {
+        WatchKey watchKey = watchService.take();
+        Path folder = (Path) watchKey.watchable();
+        for (WatchEvent<?> event : watchKey.pollEvents()) {
+          if (event.kind() == OVERFLOW) {
+            clear();
+            continue;
+          }
+          Path changed = folder.resolve((Path) event.context());
+          if (event.kind() == ENTRY_CREATE && Files.isDirectory(changed)) {
+            try {
+              registerAll(changed);
+            } catch (IOException e) {
+              LOGGER.warn("Unable to watch new folder " + changed, e);
+            }
+          }
+          invalidate(changed.toFile());
+        }
+        if (!watchKey.reset()) {
+          // the folder is no longer accessible, e.g. it has been deleted
+          invalidate(folder.toFile());
+        }
+      }
+    } catch (ClosedWatchServiceException e) {
+      // closed, so stop watching
+    } catch (InterruptedException e) {
+      // stop watching
+    }
+  }
+}
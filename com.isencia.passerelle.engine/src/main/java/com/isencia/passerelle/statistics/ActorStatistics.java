@@ -106,4 +106,52 @@ public class ActorStatistics implements ActorStatisticsMBean, NamedStatistics {
 			return 0;
 		}
 	}
+	
+	public long getCycleTimeP50() {
+		return getCycleTimePercentile(50);
+	}
+	
+	public long getCycleTimeP99() {
+		return getCycleTimePercentile(99);
+	}
+	
+	public long getCycleTimeP999() {
+		return getCycleTimePercentile(99.9);
+	}
+	
+	public long getIdleTimeP50() {
+		return getIdleTimePercentile(50);
+	}
+	
+	public long getIdleTimeP99() {
+		return getIdleTimePercentile(99);
+	}
+	
+	public long getIdleTimeP999() {
+		return getIdleTimePercentile(99.9);
+	}
+	
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the given percentile of the cycle times, in microseconds
+	 */
+	public long getCycleTimePercentile(double percentile) {
+		try {
+			return cycleStatistics.getProcessingTimePercentile(percentile);
+		} catch (InsufficientDataException e) {
+			return 0;
+		}
+	}
+	
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the given percentile of the idle times, in microseconds
+	 */
+	public long getIdleTimePercentile(double percentile) {
+		try {
+			return cycleStatistics.getIdleTimePercentile(percentile);
+		} catch (InsufficientDataException e) {
+			return 0;
+		}
+	}
 }
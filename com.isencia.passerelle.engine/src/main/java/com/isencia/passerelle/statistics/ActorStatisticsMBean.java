@@ -27,6 +27,14 @@ public interface ActorStatisticsMBean {
 	long getMinIdleTime();
 	long getMaxIdleTime();
 	
+	// percentiles, in microseconds
+	long getCycleTimeP50();
+	long getCycleTimeP99();
+	long getCycleTimeP999();
+	long getIdleTimeP50();
+	long getIdleTimeP99();
+	long getIdleTimeP999();
+	
 	void reset();
 
 }
@@ -14,7 +14,7 @@
 */
 package com.isencia.passerelle.statistics;
 
-import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -30,6 +30,9 @@ import java.util.Date;
  * <i>idle</i> state when a CycleStatistics instance is created. 
  * So, the time interval from instance construction time until the first call to acceptCycleBegin()
  * is considered as the first idle period.
+ * <p>
+ * Times are measured with <code>System.nanoTime()</code> and recorded in microseconds,
+ * so the percentiles are also meaningful for short cycles. Avg, min and max are returned in milliseconds.
  * 
  * @author erwin
  *
@@ -38,10 +41,11 @@ final class CycleStatistics {
 	
 	// boolean flag to maintain whether we're
 	// in a cycle (idle==false) or in-between cycles (idle==true)
-	private boolean idle=true;
+	private volatile boolean idle=true;
 	
-	private Date lastCycleStartTime;
-	private Date lastCycleEndTime=new Date();
+	// in ns, as obtained from System.nanoTime()
+	private volatile long lastCycleStartTime;
+	private volatile long lastCycleEndTime=System.nanoTime();
 	
 	private StatisticalLongData idleData = new StatisticalLongData();
 	private StatisticalLongData cycleData = new StatisticalLongData();
@@ -51,8 +55,8 @@ final class CycleStatistics {
 	 *
 	 */
 	public void reset() {
-		lastCycleStartTime=null;
-		lastCycleEndTime=new Date();
+		lastCycleStartTime=0;
+		lastCycleEndTime=System.nanoTime();
 		idle=true;
 		idleData.reset();
 		cycleData.reset();
@@ -66,8 +70,8 @@ final class CycleStatistics {
 		if(!idle)
 			throw new IllegalStateException("Not idle");
 		idle=false;
-		lastCycleStartTime = new Date();
-		idleData.acceptData(lastCycleStartTime.getTime() - lastCycleEndTime.getTime());
+		lastCycleStartTime = System.nanoTime();
+		idleData.acceptData(TimeUnit.NANOSECONDS.toMicros(lastCycleStartTime - lastCycleEndTime));
 	}
 	
 	/**
@@ -78,32 +82,50 @@ final class CycleStatistics {
 		if(idle)
 			throw new IllegalStateException("Idle");
 		idle=true;
-		lastCycleEndTime = new Date();
-		cycleData.acceptData(lastCycleEndTime.getTime()-lastCycleStartTime.getTime());
+		lastCycleEndTime = System.nanoTime();
+		cycleData.acceptData(TimeUnit.NANOSECONDS.toMicros(lastCycleEndTime-lastCycleStartTime));
 	}
 	
 	public long getAvgIdleTime() throws InsufficientDataException {
-		return idleData.getAvgData();
+		return TimeUnit.MICROSECONDS.toMillis(idleData.getAvgData());
 	}
 	
 	public long getMinIdleTime() throws InsufficientDataException {
-		return idleData.getMinData();
+		return TimeUnit.MICROSECONDS.toMillis(idleData.getMinData());
 	}
 	
 	public long getMaxIdleTime() throws InsufficientDataException {
-		return idleData.getMaxData();
+		return TimeUnit.MICROSECONDS.toMillis(idleData.getMaxData());
 	}
 	
 	public long getAvgProcessingTime() throws InsufficientDataException {
-		return cycleData.getAvgData();
+		return TimeUnit.MICROSECONDS.toMillis(cycleData.getAvgData());
 	}
 	
 	public long getMinProcessingTime() throws InsufficientDataException {
-		return cycleData.getMinData();
+		return TimeUnit.MICROSECONDS.toMillis(cycleData.getMinData());
 	}
 	
 	public long getMaxProcessingTime() throws InsufficientDataException {
-		return cycleData.getMaxData();
+		return TimeUnit.MICROSECONDS.toMillis(cycleData.getMaxData());
+	}
+	
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the given percentile of the idle times, in microseconds
+	 * @throws InsufficientDataException
+	 */
+	public long getIdleTimePercentile(double percentile) throws InsufficientDataException {
+		return idleData.getPercentileData(percentile);
+	}
+	
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the given percentile of the cycle times, in microseconds
+	 * @throws InsufficientDataException
+	 */
+	public long getProcessingTimePercentile(double percentile) throws InsufficientDataException {
+		return cycleData.getPercentileData(percentile);
 	}
 	
 	public long getNrCycles() {
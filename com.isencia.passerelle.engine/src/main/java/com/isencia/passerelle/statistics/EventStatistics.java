@@ -15,6 +15,7 @@
 package com.isencia.passerelle.statistics;
 
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A container for counting and timing information about arbitrary
@@ -23,13 +24,20 @@ import java.util.Date;
  * For the moment, this class is only meant for usage in this package.
  * Actual "public" statistics are provided by specific wrapper classes,
  * related to actual passerelle components (actors, ports,...).
+ * <p>
+ * Intervals are measured with <code>System.nanoTime()</code> and recorded in microseconds.
+ * Avg, min and max are returned in milliseconds, percentiles in microseconds.
+ * </p>
  * 
  * @author erwin
  *
  */
 final class EventStatistics {
 	
-	private Date lastTime=new Date();
+	// in ms, as obtained from System.currentTimeMillis()
+	private volatile long lastTime=System.currentTimeMillis();
+	// in ns, as obtained from System.nanoTime()
+	private volatile long lastNanoTime=System.nanoTime();
 	private StatisticalLongData statData = new StatisticalLongData();
 	
 	/**
@@ -37,9 +45,10 @@ final class EventStatistics {
 	 *
 	 */
 	public void acceptEvent(Object event) {
-		Date time = new Date();
-		statData.acceptData(time.getTime() - lastTime.getTime());
-		lastTime = time;
+		long nanoTime = System.nanoTime();
+		statData.acceptData(TimeUnit.NANOSECONDS.toMicros(nanoTime - lastNanoTime));
+		lastNanoTime = nanoTime;
+		lastTime = System.currentTimeMillis();
 	}
 	
 	/**
@@ -47,7 +56,8 @@ final class EventStatistics {
 	 *
 	 */
 	void reset() {
-		lastTime=new Date();
+		lastTime=System.currentTimeMillis();
+		lastNanoTime=System.nanoTime();
 		statData.reset();
 	}
 
@@ -56,14 +66,23 @@ final class EventStatistics {
 	 * @throws InsufficientDataException 
 	 */
 	public long getAvgInterval() throws InsufficientDataException {
-		return statData.getAvgData();
+		return TimeUnit.MICROSECONDS.toMillis(statData.getAvgData());
 	}
 	
 	/**
 	 * @return Returns the lastTime.
 	 */
 	public Date getLastTime() {
-		return lastTime;
+		return new Date(lastTime);
+	}
+	
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the given percentile of the intervals, in microseconds
+	 * @throws InsufficientDataException 
+	 */
+	public long getIntervalPercentile(double percentile) throws InsufficientDataException {
+		return statData.getPercentileData(percentile);
 	}
 	
 	/**
@@ -71,7 +90,7 @@ final class EventStatistics {
 	 * @throws InsufficientDataException 
 	 */
 	public long getMaxInterval() throws InsufficientDataException {
-		return statData.getMaxData();
+		return TimeUnit.MICROSECONDS.toMillis(statData.getMaxData());
 	}
 	
 	/**
@@ -79,7 +98,7 @@ final class EventStatistics {
 	 * @throws InsufficientDataException 
 	 */
 	public long getMinInterval() throws InsufficientDataException {
-		return statData.getMinData();
+		return TimeUnit.MICROSECONDS.toMillis(statData.getMinData());
 	}
 
 	public boolean isWaitingForSufficientData() {
@@ -94,7 +113,7 @@ final class EventStatistics {
 			StringBuffer buffer = new StringBuffer();
 			buffer.append("[EventStatistics:");
 			buffer.append(" lastTime: ");
-			buffer.append(lastTime);
+			buffer.append(getLastTime());
 			buffer.append(statData);
 			buffer.append("]");
 			return buffer.toString();
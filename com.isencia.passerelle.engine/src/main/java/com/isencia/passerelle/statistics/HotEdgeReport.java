@@ -0,0 +1,43 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.passerelle.statistics;
+
+import java.util.List;
+
+/**
+ * Ranks the links of the executing flows by the accumulated time that senders were blocked on a full queue.
+ * <p>
+ * This is meant to identify the links for which a larger capacity, or a faster receiving actor, would help most.
+ * </p>
+ * 
+ * @author erwin
+ */
+public class HotEdgeReport implements HotEdgeReportMBean {
+	
+	private StatisticsService service;
+
+	public HotEdgeReport(StatisticsService service) {
+		this.service = service;
+	}
+
+	public String[] getHotEdges() {
+		List<QueueStatistics> hotEdges = service.getHotEdges();
+		String[] result = new String[hotEdges.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = hotEdges.get(i).toString();
+		}
+		return result;
+	}
+}
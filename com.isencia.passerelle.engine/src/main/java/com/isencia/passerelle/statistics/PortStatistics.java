@@ -75,6 +75,39 @@ public class PortStatistics implements PortStatisticsMBean, NamedStatistics {
 		}
 	}
 
+	/**
+	 * in microsec
+	 */
+	public long getIntervalSentMessagesP50() {
+		try {
+			return sendingStatistics.getIntervalPercentile(50);
+		} catch (InsufficientDataException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * in microsec
+	 */
+	public long getIntervalSentMessagesP99() {
+		try {
+			return sendingStatistics.getIntervalPercentile(99);
+		} catch (InsufficientDataException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * in microsec
+	 */
+	public long getIntervalSentMessagesP999() {
+		try {
+			return sendingStatistics.getIntervalPercentile(99.9);
+		} catch (InsufficientDataException e) {
+			return 0;
+		}
+	}
+
 	public long getNrReceivedMessages() {
 		return receiptStatistics.getNrEvents();
 	}
@@ -90,6 +123,39 @@ public class PortStatistics implements PortStatisticsMBean, NamedStatistics {
 		}
 	}
 
+	/**
+	 * in microsec
+	 */
+	public long getIntervalReceivedMessagesP50() {
+		try {
+			return receiptStatistics.getIntervalPercentile(50);
+		} catch (InsufficientDataException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * in microsec
+	 */
+	public long getIntervalReceivedMessagesP99() {
+		try {
+			return receiptStatistics.getIntervalPercentile(99);
+		} catch (InsufficientDataException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * in microsec
+	 */
+	public long getIntervalReceivedMessagesP999() {
+		try {
+			return receiptStatistics.getIntervalPercentile(99.9);
+		} catch (InsufficientDataException e) {
+			return 0;
+		}
+	}
+
 	public void reset() {
 		receiptStatistics.reset();
 		sendingStatistics.reset();
@@ -22,9 +22,17 @@ public interface PortStatisticsMBean {
 
 	long getNrSentMessages();
 	long getAvgIntervalSentMessages();
+	// percentiles, in microseconds
+	long getIntervalSentMessagesP50();
+	long getIntervalSentMessagesP99();
+	long getIntervalSentMessagesP999();
 	
 	long getNrReceivedMessages();
 	long getAvgIntervalReceivedMessages();
+	// percentiles, in microseconds
+	long getIntervalReceivedMessagesP50();
+	long getIntervalReceivedMessagesP99();
+	long getIntervalReceivedMessagesP999();
 	
 	void reset();
 
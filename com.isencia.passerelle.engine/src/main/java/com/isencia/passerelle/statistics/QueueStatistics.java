@@ -0,0 +1,176 @@
+/* Copyright 2011 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.passerelle.statistics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics for a message queue between actors, e.g. a receiver of an input port or an actor's queue of pushed messages.
+ * <p>
+ * Queue implementations call the accept-methods on each put and poll.
+ * These are lock-free and do not allocate, so they can remain active in production.
+ * The queue depth is sampled on each put and poll, to maintain the min, max and avg size.
+ * </p>
+ * <p>
+ * Concrete subclasses give access to the current size and capacity of the monitored queue.
+ * </p>
+ * 
+ * @author erwin
+ */
+public abstract class QueueStatistics implements QueueStatisticsMBean, NamedStatistics {
+	
+	private String name;
+	
+	private AtomicLong nrPuts = new AtomicLong();
+	private AtomicLong nrPolls = new AtomicLong();
+	private AtomicLong nrBlockedPuts = new AtomicLong();
+	// in ns
+	private AtomicLong blockedTime = new AtomicLong();
+	private AtomicLong nrContendedPuts = new AtomicLong();
+	// in ns
+	private AtomicLong contendedTime = new AtomicLong();
+	private AtomicLong sizeSum = new AtomicLong();
+	private AtomicInteger minSize = new AtomicInteger(Integer.MAX_VALUE);
+	private AtomicInteger maxSize = new AtomicInteger();
+	// in ns, as obtained from System.nanoTime()
+	private volatile long resetTime = System.nanoTime();
+
+	public QueueStatistics(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * @param size the queue size after the put
+	 */
+	public void acceptPut(int size) {
+		nrPuts.incrementAndGet();
+		acceptSize(size);
+	}
+	
+	/**
+	 * @param size the queue size after the poll
+	 */
+	public void acceptPoll(int size) {
+		nrPolls.incrementAndGet();
+		acceptSize(size);
+	}
+	
+	/**
+	 * To be called when a put had to wait for room in the queue.
+	 * 
+	 * @param blockedNanos the time the put was blocked, in ns
+	 */
+	public void acceptBlockedPut(long blockedNanos) {
+		nrBlockedPuts.incrementAndGet();
+		blockedTime.addAndGet(blockedNanos);
+	}
+	
+	/**
+	 * To be called when a put had to wait for the queue's lock, held by other threads, 
+	 * i.e. lock contention rather than a full queue.
+	 * 
+	 * @param waitNanos the time the put waited for the lock, in ns
+	 */
+	public void acceptContendedPut(long waitNanos) {
+		nrContendedPuts.incrementAndGet();
+		contendedTime.addAndGet(waitNanos);
+	}
+	
+	private void acceptSize(int size) {
+		sizeSum.addAndGet(size);
+		int current;
+		while ((current = minSize.get()) > size && !minSize.compareAndSet(current, size)) {
+			// retry
+		}
+		while ((current = maxSize.get()) < size && !maxSize.compareAndSet(current, size)) {
+			// retry
+		}
+	}
+
+	public int getMinSize() {
+		int result = minSize.get();
+		return (result == Integer.MAX_VALUE) ? 0 : result;
+	}
+
+	public int getMaxSize() {
+		return maxSize.get();
+	}
+
+	public int getAvgSize() {
+		long samples = nrPuts.get() + nrPolls.get();
+		return (samples == 0) ? 0 : (int) (sizeSum.get() / samples);
+	}
+
+	public long getNrPuts() {
+		return nrPuts.get();
+	}
+
+	public long getNrPolls() {
+		return nrPolls.get();
+	}
+
+	public double getPutRate() {
+		return getRate(nrPuts.get());
+	}
+
+	public double getPollRate() {
+		return getRate(nrPolls.get());
+	}
+	
+	private double getRate(long count) {
+		long elapsed = System.nanoTime() - resetTime;
+		return (elapsed <= 0) ? 0 : count * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+	}
+
+	public long getNrBlockedPuts() {
+		return nrBlockedPuts.get();
+	}
+
+	public long getBlockedTime() {
+		return TimeUnit.NANOSECONDS.toMillis(blockedTime.get());
+	}
+
+	public long getNrContendedPuts() {
+		return nrContendedPuts.get();
+	}
+
+	public long getContendedTime() {
+		return TimeUnit.NANOSECONDS.toMillis(contendedTime.get());
+	}
+
+	public void reset() {
+		nrPuts.set(0);
+		nrPolls.set(0);
+		nrBlockedPuts.set(0);
+		blockedTime.set(0);
+		nrContendedPuts.set(0);
+		contendedTime.set(0);
+		sizeSum.set(0);
+		minSize.set(Integer.MAX_VALUE);
+		maxSize.set(0);
+		resetTime = System.nanoTime();
+	}
+	
+	public String toString() {
+		return name + " : blocked " + getBlockedTime() + " ms in " + getNrBlockedPuts() + " of " + getNrPuts() + " puts, contended " + getContendedTime()
+				+ " ms in " + getNrContendedPuts() + " puts, max size " + getMaxSize() + ", capacity " + getCapacity();
+	}
+}
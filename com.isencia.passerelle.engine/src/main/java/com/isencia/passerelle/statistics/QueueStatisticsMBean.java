@@ -27,5 +27,17 @@ public interface QueueStatisticsMBean {
 	int getCapacity();
 	void setCapacity(int newCapacity);
 	
+	long getNrPuts();
+	long getNrPolls();
+	// msgs per second, since the last reset
+	double getPutRate();
+	double getPollRate();
+	long getNrBlockedPuts();
+	// in msec
+	long getBlockedTime();
+	long getNrContendedPuts();
+	// in msec
+	long getContendedTime();
+	
 	void reset();
 }
@@ -14,50 +14,83 @@
 */
 package com.isencia.passerelle.statistics;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * StatisticalLongData
+ * <p>
+ * Data can be added concurrently, without locking and without allocating objects.
+ * Count and sum are striped per thread, to avoid that all threads contend on the same counter.
+ * Next to count, avg, min and max, percentiles are available from a fixed-bucket histogram,
+ * with a relative precision of 1/8 for values larger than 16.
+ * </p>
  * 
  * @author erwin
  */
 class StatisticalLongData {
 	
-	long count;
-	long avgData;
-	Long minData;
-	Long maxData;
+	private final static int STRIPE_COUNT = 16;
+	// spacing between the stripes' counters, to keep them in separate cache lines
+	private final static int STRIPE_PADDING = 8;
+	
+	// values below this limit have their own bucket
+	private final static int LINEAR_BUCKET_COUNT = 16;
+	// nr of sub-buckets per power of 2, for values above the linear limit
+	private final static int SUB_BUCKET_BITS = 3;
+	private final static int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private final static int BUCKET_COUNT = LINEAR_BUCKET_COUNT + (63 - 4) * SUB_BUCKET_COUNT;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(STRIPE_COUNT * STRIPE_PADDING);
+	private final AtomicLongArray sums = new AtomicLongArray(STRIPE_COUNT * STRIPE_PADDING);
+	private final AtomicLong minData = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong maxData = new AtomicLong(Long.MIN_VALUE);
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
 
 	/**
 	 * Recalculate statistics, including this new data
 	 * @param data
 	 */
-	public synchronized void acceptData(long data) {
-		count++;
-		if((minData==null) || (minData.longValue()>data)) {
-			minData = new Long(data);
+	public void acceptData(long data) {
+		int stripe = ((int) Thread.currentThread().getId() & (STRIPE_COUNT - 1)) * STRIPE_PADDING;
+		counts.incrementAndGet(stripe);
+		sums.addAndGet(stripe, data);
+		long current;
+		while ((current = minData.get()) > data && !minData.compareAndSet(current, data)) {
+			// retry
 		}
-		if((maxData==null) || (maxData.longValue()<data)) {
-			maxData = new Long(data);
+		while ((current = maxData.get()) < data && !maxData.compareAndSet(current, data)) {
+			// retry
 		}
-		avgData += (data - avgData) / count;
+		buckets.incrementAndGet(getBucketIndex(data));
 	}
 	
 	/**
 	 * Loose all statistical data
 	 *
 	 */
-	public synchronized void reset() {
-		count=0;
-		avgData=0;
-		minData=null;
-		maxData=null;
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+			sums.set(i, 0);
+		}
+		for (int i = 0; i < buckets.length(); i++) {
+			buckets.set(i, 0);
+		}
+		minData.set(Long.MAX_VALUE);
+		maxData.set(Long.MIN_VALUE);
 	}
 	
 	public long getAvgData() throws InsufficientDataException {
-		if(isWaitingForSufficientData())
+		long count = getCount();
+		if(count==0)
 			throw new InsufficientDataException();
 		
-		return avgData;
+		long sum = 0;
+		for (int i = 0; i < sums.length(); i += STRIPE_PADDING) {
+			sum += sums.get(i);
+		}
+		return sum / count;
 	}
 	
 	/**
@@ -68,7 +101,7 @@ class StatisticalLongData {
 		if(isWaitingForSufficientData())
 			throw new InsufficientDataException();
 		
-		return maxData.longValue();
+		return maxData.get();
 	}
 	
 	/**
@@ -79,28 +112,82 @@ class StatisticalLongData {
 		if(isWaitingForSufficientData())
 			throw new InsufficientDataException();
 		
-		return minData.longValue();
+		return minData.get();
+	}
+	
+	/**
+	 * @param percentile between 0 and 100, e.g. 99.9
+	 * @return an upper bound for the given percentile of the received data, within the histogram's precision.
+	 * @throws InsufficientDataException 
+	 */
+	public long getPercentileData(double percentile) throws InsufficientDataException {
+		long total = 0;
+		for (int i = 0; i < buckets.length(); i++) {
+			total += buckets.get(i);
+		}
+		if(total==0)
+			throw new InsufficientDataException();
+		
+		long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long accumulated = 0;
+		for (int i = 0; i < buckets.length(); i++) {
+			accumulated += buckets.get(i);
+			if (accumulated >= target) {
+				return Math.min(getBucketUpperBound(i), maxData.get());
+			}
+		}
+		return maxData.get();
 	}
 
 	public boolean isWaitingForSufficientData() {
-		return count==0;
+		return getCount()==0;
 	}
 
 	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < counts.length(); i += STRIPE_PADDING) {
+			count += counts.get(i);
+		}
 		return count;
 	}
+	
+	private static int getBucketIndex(long data) {
+		if (data < LINEAR_BUCKET_COUNT) {
+			// negative values can only be caused by clock adjustments, count them as 0
+			return (int) Math.max(0, data);
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(data);
+		int subBucket = (int) (data >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+		return LINEAR_BUCKET_COUNT + (exponent - 4) * SUB_BUCKET_COUNT + subBucket;
+	}
+	
+	private static long getBucketUpperBound(int index) {
+		if (index < LINEAR_BUCKET_COUNT) {
+			return index;
+		}
+		int exponent = (index - LINEAR_BUCKET_COUNT) / SUB_BUCKET_COUNT + 4;
+		int subBucket = (index - LINEAR_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+		long lowerBound = ((long) (SUB_BUCKET_COUNT + subBucket)) << (exponent - SUB_BUCKET_BITS);
+		return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
 
 	public String toString() {
 			StringBuffer buffer = new StringBuffer();
 			buffer.append("[StatisticalLongData:");
 			buffer.append(" count: ");
-			buffer.append(count);
-			buffer.append(" avgData: ");
-			buffer.append(avgData);
-			buffer.append(" minData: ");
-			buffer.append(minData);
-			buffer.append(" maxData: ");
-			buffer.append(maxData);
+			buffer.append(getCount());
+			if(!isWaitingForSufficientData()) {
+				try {
+					buffer.append(" avgData: ");
+					buffer.append(getAvgData());
+				} catch (InsufficientDataException e) {
+					// ignore, count was reset in the meantime
+				}
+				buffer.append(" minData: ");
+				buffer.append(minData.get());
+				buffer.append(" maxData: ");
+				buffer.append(maxData.get());
+			}
 			buffer.append("]");
 			return buffer.toString();
 		}
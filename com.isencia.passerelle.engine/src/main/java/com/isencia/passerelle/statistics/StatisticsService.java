@@ -14,6 +14,8 @@
 */
 package com.isencia.passerelle.statistics;
 
+import java.util.List;
+
 /**
  * StatisticsService
  * 
@@ -22,6 +24,11 @@ package com.isencia.passerelle.statistics;
 public interface StatisticsService {
 
 	void registerStatistics(NamedStatistics s);
+	
+	/**
+	 * @return the registered queue statistics, ranked by the time that puts were blocked on them, longest first.
+	 */
+	List<QueueStatistics> getHotEdges();
 	void start();
 	void stop();
 	void reset();
@@ -14,6 +14,9 @@
 */
 package com.isencia.passerelle.statistics;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * An implementation that does nothing, to be used
  * when statistics are not activated.
@@ -28,6 +31,10 @@ class StatisticsServiceDummyImpl implements StatisticsService {
 
 	public void registerStatistics(NamedStatistics s) {
 	}
+	
+	public List<QueueStatistics> getHotEdges() {
+		return Collections.emptyList();
+	}
 
 	public void start() {
 	}
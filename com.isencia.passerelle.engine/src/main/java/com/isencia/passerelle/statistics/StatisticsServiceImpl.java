@@ -16,9 +16,14 @@
 package com.isencia.passerelle.statistics;
 
 import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.management.InstanceAlreadyExistsException;
 import javax.management.InstanceNotFoundException;
@@ -41,17 +46,24 @@ class StatisticsServiceImpl extends StatisticsServiceDummyImpl implements Statis
 	private MBeanServer svr;
 //	private ObjectName adapterName;
 	private Set<ObjectName> registeredNames = new HashSet<ObjectName>();
+	// by name, so a queue that is registered again for a new flow execution replaces the previous one
+	private ConcurrentHashMap<String, QueueStatistics> queueStatistics = new ConcurrentHashMap<String, QueueStatistics>();
 //	private CommunicatorServer adapter;
 	
 	protected StatisticsServiceImpl() {
 		try {
 			svr = ManagementFactory.getPlatformMBeanServer();
-			
 			start();
 		} catch (Exception e) {
 			// todo Auto-generated catch block
 			e.printStackTrace();
 		}
+		// separately, so a failing registration of the report does not prevent the service from starting
+		try {
+			svr.registerMBean(new HotEdgeReport(this), new ObjectName(getServerName()+":name=HotEdges"));
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
 	}
 
 	private String getServerName() {
@@ -66,11 +78,26 @@ class StatisticsServiceImpl extends StatisticsServiceDummyImpl implements Statis
 		try {
 			ObjectName objName = new ObjectName(getServerName()+":name="+s.getName());
 			registerMBean(s, objName);
+			if(s instanceof QueueStatistics) {
+				queueStatistics.put(s.getName(), (QueueStatistics) s);
+			}
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
 
+	public List<QueueStatistics> getHotEdges() {
+		List<QueueStatistics> result = new ArrayList<QueueStatistics>(queueStatistics.values());
+		Collections.sort(result, new Comparator<QueueStatistics>() {
+			public int compare(QueueStatistics q1, QueueStatistics q2) {
+				long t1 = q1.getBlockedTime();
+				long t2 = q2.getBlockedTime();
+				return (t1 < t2) ? 1 : ((t1 == t2) ? 0 : -1);
+			}
+		});
+		return result;
+	}
+
 	private void registerMBean(Object s, ObjectName objName) throws MBeanRegistrationException, NotCompliantMBeanException {
 		try {
 			if(svr.isRegistered(objName)) {
@@ -128,6 +155,8 @@ class StatisticsServiceImpl extends StatisticsServiceDummyImpl implements Statis
 				e.printStackTrace();
 			}
 		}
+		registeredNames.clear();
+		queueStatistics.clear();
 	}
 
 }
@@ -12,6 +12,7 @@ import org.apache.commons.io.filefilter.SuffixFileFilter;
 
 import com.isencia.passerelle.model.Flow;
 import com.isencia.passerelle.model.FlowManager;
+import com.isencia.passerelle.model.util.ParsedModelCache;
 import com.isencia.passerelle.project.repository.api.MetaData;
 import com.isencia.passerelle.project.repository.api.Project;
 
@@ -30,11 +31,23 @@ public class FileSystemBasedProject implements Project {
   private File kbPackagesFolder;
   private String projectCode;
   private File sequencesFolder;
+  private ParsedModelCache modelCache;
 
   public FileSystemBasedProject(File repoRootFolder, String projectCode) {
+    this(repoRootFolder, projectCode, null);
+  }
+
+  /**
+   * 
+   * @param repoRootFolder
+   * @param projectCode
+   * @param modelCache when not null, flows are obtained as copies of the cached parsed models
+   */
+  public FileSystemBasedProject(File repoRootFolder, String projectCode, ParsedModelCache modelCache) {
     this.kbPackagesFolder = new File(repoRootFolder, projectCode + "/" + PACKAGES_SUBFOLDER);
     this.sequencesFolder = new File(repoRootFolder, projectCode + "/" + SEQUENCES_SUBFOLDER);
     this.projectCode = projectCode;
+    this.modelCache = modelCache;
   }
 
   /**
@@ -70,7 +83,7 @@ public class FileSystemBasedProject implements Project {
     File[] files = sequencesFolder.listFiles((FileFilter) new SuffixFileFilter(new String[] { "moml", "xml" }));
     for (File file : files) {
       try {
-        results.add(FlowManager.readMoml(file.toURL()).getName());
+        results.add(readFlow(file).getName());
       } catch (Exception e) {
         // TODO Auto-generated catch block
         e.printStackTrace();
@@ -84,13 +97,17 @@ public class FileSystemBasedProject implements Project {
     Flow result = null;
     if (flowFile.exists() && flowFile.isFile()) {
       try {
-        result = FlowManager.readMoml(flowFile.toURL());
+        result = readFlow(flowFile);
       } catch (Exception e) {
       }
     }
     return result;
   }
 
+  private Flow readFlow(File flowFile) throws Exception {
+    return (modelCache != null) ? modelCache.getFlow(flowFile) : FlowManager.readMoml(flowFile.toURL());
+  }
+
   public Long getFlowId(String arg0) {
 
     return 0L;
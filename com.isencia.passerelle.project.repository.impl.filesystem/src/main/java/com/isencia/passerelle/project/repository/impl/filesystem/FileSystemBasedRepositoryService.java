@@ -23,11 +23,15 @@ import ptolemy.actor.CompositeActor;
 import com.isencia.passerelle.core.IEventLog;
 import com.isencia.passerelle.model.Flow;
 import com.isencia.passerelle.model.FlowManager;
+import com.isencia.passerelle.model.util.ParsedModelCache;
 import com.isencia.passerelle.project.repository.api.MetaData;
 import com.isencia.passerelle.project.repository.api.Project;
 import com.isencia.passerelle.project.repository.api.RepositoryService;
 
 /**
+ * Parsed flows and submodels are cached per file, and the caches are invalidated when the files change.
+ * Callers get a copy of the cached model.
+ * 
  * @author delerw
  * 
  */
@@ -35,6 +39,10 @@ public class FileSystemBasedRepositoryService implements RepositoryService {
 
   private File rootFolder;
   private File submodelFolder;
+  // the project flows are in root/project code/sequences
+  private static final int PROJECT_MODEL_FOLDER_DEPTH = 2;
+  private ParsedModelCache flowCache;
+  private ParsedModelCache submodelCache;
 
   /**
    * Instantiates a service instance with the default root folder (C:/temp/passerelle-repository)
@@ -64,6 +72,24 @@ public class FileSystemBasedRepositoryService implements RepositoryService {
     } else {
       this.submodelFolder = submodelFolder;
     }
+    if (this.rootFolder != null) {
+      flowCache = new ParsedModelCache(this.rootFolder, PROJECT_MODEL_FOLDER_DEPTH);
+    }
+    if (this.submodelFolder != null) {
+      submodelCache = new ParsedModelCache(this.submodelFolder, 0);
+    }
+  }
+
+  /**
+   * Stops watching the repository folders, and drops the cached models.
+   */
+  public void close() {
+    if (flowCache != null) {
+      flowCache.close();
+    }
+    if (submodelCache != null) {
+      submodelCache.close();
+    }
   }
 
   /**
@@ -79,6 +105,10 @@ public class FileSystemBasedRepositoryService implements RepositoryService {
    */
   public void setSubmodelFolder(File submodelFolder) {
     this.submodelFolder = submodelFolder;
+    if (submodelCache != null) {
+      submodelCache.close();
+    }
+    submodelCache = (submodelFolder != null) ? new ParsedModelCache(submodelFolder, 0) : null;
   }
 
   public String[] getAllProjectCodes() {
@@ -111,7 +141,7 @@ public class FileSystemBasedRepositoryService implements RepositoryService {
     File projectFolder = new File(rootFolder, projectCode);
     Project result = null;
     if (projectFolder.exists() && projectFolder.isDirectory()) {
-      result = new FileSystemBasedProject(rootFolder, projectCode);
+      result = new FileSystemBasedProject(rootFolder, projectCode, flowCache);
     }
     return result;
   }
@@ -212,7 +242,7 @@ public class FileSystemBasedRepositoryService implements RepositoryService {
     Flow result = null;
     if (flowFile.exists() && flowFile.isFile()) {
       try {
-        result = FlowManager.readMoml(flowFile.toURL());
+        result = (submodelCache != null) ? submodelCache.getFlow(flowFile) : FlowManager.readMoml(flowFile.toURL());
         if (result.isClassDefinition()) {
           return result;
         }
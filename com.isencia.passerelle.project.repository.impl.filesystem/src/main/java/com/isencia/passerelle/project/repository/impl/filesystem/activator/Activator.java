@@ -36,6 +36,8 @@ public class Activator implements BundleActivator {
 
   public void stop(BundleContext context) throws Exception {
     repoSvcReg.unregister();
+    submodelSvcReg.unregister();
+    ((FileSystemBasedRepositoryService) repoSvc).close();
 
     repoSvc = null;
   }
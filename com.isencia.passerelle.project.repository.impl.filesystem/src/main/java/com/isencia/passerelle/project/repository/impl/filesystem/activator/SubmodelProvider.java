@@ -20,7 +20,7 @@ public class SubmodelProvider implements ActorOrientedClassProvider {
       Project project = repoSvc.getProject(projectCode);
       if (project != null) {
         Flow flow = project.getFlow(className);
-        if (flow.isClassDefinition()) {
+        if (flow != null && flow.isClassDefinition()) {
           return flow;
         }
       }
@@ -0,0 +1,221 @@
+/* Copyright 2013 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.passerelle.runtime.process.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ptolemy.data.expr.Parameter;
+import ptolemy.kernel.util.Workspace;
+import com.isencia.passerelle.core.ErrorCode;
+import com.isencia.passerelle.core.Manager;
+import com.isencia.passerelle.core.PasserelleException;
+import com.isencia.passerelle.model.Flow;
+import com.isencia.passerelle.model.FlowManager;
+import com.isencia.passerelle.runtime.FlowHandle;
+
+/**
+ * A pool of ready-to-run <code>Flow</code> instances for one <code>FlowHandle</code>.
+ * <p>
+ * The handle's flow is parsed only once, and serves as template from which the pooled instances are cloned.
+ * The template itself is never executed.
+ * </p>
+ * <p>
+ * Each pooled instance remembers which parameter overrides have been applied on it.
+ * When it is reused, only the parameters that differ from the new overrides are modified,
+ * and parameters that are no longer overridden are reset to the template's value.
+ * </p>
+ *
+ * @author erwin
+ */
+class FlowPool {
+  private final static Logger LOGGER = LoggerFactory.getLogger(FlowPool.class);
+
+  static class PooledFlow {
+    private Flow flow;
+    private Manager manager;
+    // the parameter overrides that are currently applied on the flow
+    private Map<String, String> appliedOverrides = Collections.emptyMap();
+    private long idleSince;
+
+    private PooledFlow(Flow flow, Manager manager) {
+      this.flow = flow;
+      this.manager = manager;
+    }
+
+    Flow getFlow() {
+      return flow;
+    }
+
+    Manager getManager() {
+      return manager;
+    }
+  }
+
+  private final FlowHandle flowHandle;
+  private final int maxIdleCount;
+  // most recently used instances first
+  private final ConcurrentLinkedDeque<PooledFlow> idleFlows = new ConcurrentLinkedDeque<PooledFlow>();
+  private final AtomicInteger idleCount = new AtomicInteger();
+
+  private Flow template;
+  // the template's parameter expressions, by their names relative to the flow
+  private Map<String, String> defaultValues;
+
+  FlowPool(FlowHandle flowHandle, int maxIdleCount) {
+    this.flowHandle = flowHandle;
+    this.maxIdleCount = maxIdleCount;
+  }
+
+  FlowHandle getFlowHandle() {
+    return flowHandle;
+  }
+
+  int getIdleCount() {
+    return idleCount.get();
+  }
+
+  /**
+   * Obtain an idle flow instance, or create a new one when none is available, and apply the given parameter overrides on it.
+   *
+   * @param parameterOverrides can be null
+   * @return a flow instance that is ready to be executed
+   * @throws PasserelleException
+   */
+  PooledFlow acquire(Map<String, String> parameterOverrides) throws PasserelleException {
+    Map<String, String> overrides = (parameterOverrides != null) ? parameterOverrides : Collections.<String, String> emptyMap();
+    PooledFlow pooledFlow = null;
+    while ((pooledFlow = idleFlows.pollFirst()) != null) {
+      idleCount.decrementAndGet();
+      if (applyOverrides(pooledFlow, overrides)) {
+        return pooledFlow;
+      }
+      LOGGER.debug("Flow {} - discarding pooled instance that can not be reset", flowHandle.getCode());
+    }
+    pooledFlow = createFlow();
+    applyOverrides(pooledFlow, overrides);
+    return pooledFlow;
+  }
+
+  /**
+   * Give a flow instance back to the pool after it has finished executing.
+   * When the pool already has its max nr of idle instances, the given one is dropped.
+   *
+   * @param pooledFlow
+   */
+  void release(PooledFlow pooledFlow) {
+    if (idleCount.incrementAndGet() <= maxIdleCount) {
+      pooledFlow.idleSince = System.currentTimeMillis();
+      idleFlows.offerFirst(pooledFlow);
+    } else {
+      idleCount.decrementAndGet();
+    }
+  }
+
+  /**
+   * Create extra idle instances until the pool has the given nr of idle instances, or its max nr.
+   *
+   * @param count
+   * @throws PasserelleException
+   */
+  void warmUp(int count) throws PasserelleException {
+    int target = Math.min(count, maxIdleCount);
+    while (idleCount.get() < target) {
+      release(createFlow());
+    }
+  }
+
+  /**
+   * Drop the instances that have been idle for longer than the given time.
+   *
+   * @param maxIdleTime (ms)
+   * @return the nr of evicted instances
+   */
+  int evictIdle(long maxIdleTime) {
+    long limit = System.currentTimeMillis() - maxIdleTime;
+    int evictedCount = 0;
+    // the least recently used instances are at the tail
+    for (Iterator<PooledFlow> flowItr = idleFlows.descendingIterator(); flowItr.hasNext();) {
+      PooledFlow pooledFlow = flowItr.next();
+      if (pooledFlow.idleSince >= limit) {
+        break;
+      }
+      if (idleFlows.removeLastOccurrence(pooledFlow)) {
+        idleCount.decrementAndGet();
+        evictedCount++;
+      }
+    }
+    if (evictedCount > 0) {
+      LOGGER.debug("Flow {} - evicted {} idle instances", flowHandle.getCode(), evictedCount);
+    }
+    return evictedCount;
+  }
+
+  private synchronized PooledFlow createFlow() throws PasserelleException {
+    if (template == null) {
+      template = flowHandle.getFlow();
+      if (template == null) {
+        throw new PasserelleException(ErrorCode.FLOW_LOADING_ERROR, flowHandle.toString(), null);
+      }
+      defaultValues = new HashMap<String, String>();
+      for (Parameter parameter : template.getAllParameters()) {
+        defaultValues.put(parameter.getName(template), parameter.getExpression());
+      }
+    }
+    try {
+      Flow flow = (Flow) template.clone(new Workspace());
+      Manager manager = new Manager(flow.workspace(), flowHandle.getCode());
+      flow.setManager(manager);
+      LOGGER.debug("Flow {} - created new instance", flowHandle.getCode());
+      return new PooledFlow(flow, manager);
+    } catch (Exception e) {
+      throw new PasserelleException(ErrorCode.FLOW_LOADING_ERROR, flowHandle.toString(), e);
+    }
+  }
+
+  /**
+   * Apply the differences between the currently applied and the new overrides.
+   *
+   * @return false if a previous override could not be reset, in which case the instance should not be used anymore.
+   */
+  private boolean applyOverrides(PooledFlow pooledFlow, Map<String, String> overrides) throws PasserelleException {
+    Map<String, String> changes = new HashMap<String, String>();
+    for (String paramName : pooledFlow.appliedOverrides.keySet()) {
+      if (!overrides.containsKey(paramName)) {
+        String defaultValue = defaultValues.get(paramName);
+        if (defaultValue == null) {
+          return false;
+        }
+        changes.put(paramName, defaultValue);
+      }
+    }
+    for (Entry<String, String> override : overrides.entrySet()) {
+      if (!override.getValue().equals(pooledFlow.appliedOverrides.get(override.getKey()))) {
+        changes.put(override.getKey(), override.getValue());
+      }
+    }
+    if (!changes.isEmpty()) {
+      FlowManager.applyParameterSettings(pooledFlow.flow, changes);
+    }
+    pooledFlow.appliedOverrides = new HashMap<String, String>(overrides);
+    return true;
+  }
+}
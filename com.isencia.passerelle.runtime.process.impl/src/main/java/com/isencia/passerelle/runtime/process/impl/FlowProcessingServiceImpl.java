@@ -0,0 +1,482 @@
+/* Copyright 2013 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.passerelle.runtime.process.impl;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ptolemy.actor.ExecutionListener;
+import ptolemy.actor.Manager.State;
+import com.isencia.passerelle.core.ErrorCode;
+import com.isencia.passerelle.core.Manager;
+import com.isencia.passerelle.core.PasserelleException;
+import com.isencia.passerelle.model.Flow;
+import com.isencia.passerelle.runtime.Event;
+import com.isencia.passerelle.runtime.EventListener;
+import com.isencia.passerelle.runtime.FlowHandle;
+import com.isencia.passerelle.runtime.ProcessHandle;
+import com.isencia.passerelle.runtime.SimpleEvent;
+import com.isencia.passerelle.runtime.process.FlowNotExecutingException;
+import com.isencia.passerelle.runtime.process.FlowProcessingService;
+import com.isencia.passerelle.runtime.process.ProcessEvent;
+import com.isencia.passerelle.runtime.process.ProcessStatus;
+
+/**
+ * A <code>FlowProcessingService</code> that executes flows locally, using a warm pool of flow instances per <code>FlowHandle</code>.
+ * <p>
+ * Starting a process takes an idle instance from the pool, and only applies the parameter overrides that differ from the ones of its previous run.
+ * So apart from the first run, a start does not involve parsing nor cloning the flow.
+ * When a process has finished normally, its flow instance is returned to the pool.
+ * Instances of processes that failed or were terminated are dropped.
+ * Instances that have been idle for longer than a configured time are evicted.
+ * </p>
+ * <p>
+ * Signaled events are passed to all actors in the running flow that implement <code>EventListener</code>.
+ * </p>
+ * <p>
+ * Only <code>StartMode.RUN</code> is supported. The engine's process threads do not offer a hook to suspend actors per iteration,
+ * so starting in DEBUG or STEP mode, stepping, resuming separate elements and managing breakpoints throw an <code>UnsupportedOperationException</code>.
+ * </p>
+ *
+ * @author erwin
+ */
+public class FlowProcessingServiceImpl implements FlowProcessingService {
+  private final static Logger LOGGER = LoggerFactory.getLogger(FlowProcessingServiceImpl.class);
+
+  private final static Map<State, ProcessStatus> STATUS_MAPPING = new HashMap<State, ProcessStatus>();
+
+  // max nr of events kept per process
+  private final static int MAX_EVENT_COUNT = 100;
+
+  private final int maxIdleFlowsPerHandle;
+  private final long maxIdleTime;
+
+  private final ConcurrentMap<FlowHandle, FlowPool> flowPools = new ConcurrentHashMap<FlowHandle, FlowPool>();
+  // the most recent process per context ID, as consecutive processes may share a same context ID
+  private final ConcurrentMap<String, FlowProcess> processes = new ConcurrentHashMap<String, FlowProcess>();
+  // all known processes, by their own handle
+  private final ConcurrentMap<ProcessHandle, FlowProcess> processesByHandle = new ConcurrentHashMap<ProcessHandle, FlowProcess>();
+
+  private final ExecutorService flowExecutor;
+  private final ScheduledExecutorService evictionExecutor;
+
+  /**
+   * @param maxIdleFlowsPerHandle
+   *          the max nr of idle flow instances that are kept for each flow handle
+   * @param maxIdleTime
+   *          the time after which idle flow instances, and the information on finished processes, are dropped
+   * @param unit
+   */
+  public FlowProcessingServiceImpl(int maxIdleFlowsPerHandle, long maxIdleTime, TimeUnit unit) {
+    this.maxIdleFlowsPerHandle = maxIdleFlowsPerHandle;
+    this.maxIdleTime = unit.toMillis(maxIdleTime);
+    flowExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("FlowProcessingService-"));
+    evictionExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("FlowProcessingService-eviction-"));
+    long evictionPeriod = Math.max(1000, this.maxIdleTime / 2);
+    evictionExecutor.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        evictIdle();
+      }
+    }, evictionPeriod, evictionPeriod, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stop all background threads. Running processes are not terminated.
+   */
+  public void shutdown() {
+    evictionExecutor.shutdownNow();
+    flowExecutor.shutdown();
+  }
+
+  /**
+   * Make sure the pool for the given flow has at least the given nr of idle flow instances (limited by the max nr of idle instances per flow),
+   * so even the first starts do not need to parse and clone the flow.
+   *
+   * @param flowHandle
+   * @param count
+   * @throws PasserelleException
+   */
+  public void warmUp(FlowHandle flowHandle, int count) throws PasserelleException {
+    getFlowPool(flowHandle).warmUp(count);
+  }
+
+  /**
+   * @throws UnsupportedOperationException for another mode than <code>StartMode.RUN</code>
+   */
+  @Override
+  public ProcessHandle start(StartMode mode, FlowHandle flowHandle, String processContextId, Map<String, String> parameterOverrides, EventListener listener,
+      String... breakpointNames) {
+    if (!StartMode.RUN.equals(mode)) {
+      throw new UnsupportedOperationException("Start mode " + mode + " not supported by " + getClass().getSimpleName());
+    }
+    if (processContextId == null || processContextId.trim().length() == 0) {
+      processContextId = UUID.randomUUID().toString();
+    }
+    ProcessHandleImpl processHandle = new ProcessHandleImpl(flowHandle, processContextId);
+    FlowProcess process = new FlowProcess(processHandle, getFlowPool(flowHandle), listener);
+    registerProcess(process);
+    process.setStatus(ProcessStatus.STARTING);
+    try {
+      process.pooledFlow = process.flowPool.acquire(parameterOverrides);
+      flowExecutor.execute(process);
+    } catch (Exception e) {
+      process.executionError(null, e);
+      process.finishTime = System.currentTimeMillis();
+      process.finished.countDown();
+    }
+    return processHandle;
+  }
+
+  @Override
+  public ProcessHandle waitUntilFinished(ProcessHandle processHandle, long time, TimeUnit unit) throws FlowNotExecutingException, ExecutionException,
+      TimeoutException, InterruptedException {
+    FlowProcess process = getProcess(processHandle);
+    if (!process.finished.await(time, unit)) {
+      throw new TimeoutException("Process " + processHandle.getProcessContextId() + " not finished");
+    }
+    if (process.error != null) {
+      throw new ExecutionException(process.error);
+    }
+    return process.processHandle;
+  }
+
+  /**
+   * Requests the process to stop, and returns without waiting till it is effectively stopped.
+   */
+  @Override
+  public ProcessHandle terminate(ProcessHandle processHandle) throws FlowNotExecutingException {
+    FlowProcess process = getRunningProcess(processHandle);
+    process.setStatus(ProcessStatus.INTERRUPTED);
+    process.pooledFlow.getManager().stop();
+    return process.processHandle;
+  }
+
+  @Override
+  public ProcessHandle suspend(ProcessHandle processHandle) throws FlowNotExecutingException {
+    FlowProcess process = getRunningProcess(processHandle);
+    process.pooledFlow.getManager().pause();
+    return process.processHandle;
+  }
+
+  @Override
+  public ProcessHandle resume(ProcessHandle processHandle) throws FlowNotExecutingException {
+    FlowProcess process = getRunningProcess(processHandle);
+    process.pooledFlow.getManager().resume();
+    return process.processHandle;
+  }
+
+  /**
+   * @throws UnsupportedOperationException always, as elements can not be suspended separately
+   */
+  @Override
+  public ProcessHandle resume(ProcessHandle processHandle, String suspendedElement) throws FlowNotExecutingException {
+    throw new UnsupportedOperationException("Resume of separate elements not supported by " + getClass().getSimpleName());
+  }
+
+  /**
+   * @throws UnsupportedOperationException always, as stepping is not supported
+   */
+  @Override
+  public ProcessHandle step(ProcessHandle processHandle) throws FlowNotExecutingException {
+    throw new UnsupportedOperationException("Stepping not supported by " + getClass().getSimpleName());
+  }
+
+  /**
+   * @throws UnsupportedOperationException always, as breakpoints are not supported
+   */
+  @Override
+  public ProcessHandle addBreakpoints(ProcessHandle processHandle, String... extraBreakpoints) {
+    throw new UnsupportedOperationException("Breakpoints not supported by " + getClass().getSimpleName());
+  }
+
+  /**
+   * @throws UnsupportedOperationException always, as breakpoints are not supported
+   */
+  @Override
+  public ProcessHandle removeBreakpoints(ProcessHandle processHandle, String... breakpointsToRemove) {
+    throw new UnsupportedOperationException("Breakpoints not supported by " + getClass().getSimpleName());
+  }
+
+  /**
+   * Passes the event to all actors in the running flow that implement <code>EventListener</code>, and adds it to the process events.
+   */
+  @Override
+  public ProcessHandle signalEvent(ProcessHandle processHandle, Event event) throws FlowNotExecutingException {
+    FlowProcess process = getRunningProcess(processHandle);
+    Flow flow = process.pooledFlow.getFlow();
+    int listenerCount = 0;
+    for (Object entity : flow.deepEntityList()) {
+      if (entity instanceof EventListener) {
+        listenerCount++;
+        try {
+          ((EventListener) entity).handle(event);
+        } catch (Exception e) {
+          LOGGER.error("Context " + processHandle.getProcessContextId() + " - Error signaling event " + event + " to " + entity, e);
+        }
+      }
+    }
+    if (listenerCount == 0) {
+      LOGGER.warn("Context {} - No actors listening for signaled event {}", processHandle.getProcessContextId(), event);
+    }
+    process.addEvent(event);
+    return process.processHandle;
+  }
+
+  @Override
+  public List<Event> getProcessEvents(ProcessHandle processHandle, int maxCount) {
+    FlowProcess process = processesByHandle.get(processHandle);
+    return (process != null) ? getProcessEvents(process, maxCount) : getProcessEvents(processHandle.getProcessContextId(), maxCount);
+  }
+
+  @Override
+  public List<Event> getProcessEvents(String processId, int maxCount) {
+    return getProcessEvents(processes.get(processId), maxCount);
+  }
+
+  private List<Event> getProcessEvents(FlowProcess process, int maxCount) {
+    List<Event> result = new ArrayList<Event>();
+    if (process != null) {
+      synchronized (process.events) {
+        for (Iterator<Event> evtItr = process.events.iterator(); evtItr.hasNext() && result.size() < maxCount;) {
+          result.add(evtItr.next());
+        }
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public ProcessHandle getHandle(String processId) {
+    FlowProcess process = processes.get(processId);
+    return (process != null) ? process.processHandle : null;
+  }
+
+  @Override
+  public ProcessHandle refresh(ProcessHandle processHandle) {
+    FlowProcess process = processesByHandle.get(processHandle);
+    return (process != null) ? process.processHandle : getHandle(processHandle.getProcessContextId());
+  }
+
+  /**
+   * A new process replaces a finished one with the same context ID, but may not run concurrently with it.
+   */
+  private void registerProcess(FlowProcess process) {
+    String processContextId = process.processHandle.getProcessContextId();
+    for (;;) {
+      FlowProcess previous = processes.putIfAbsent(processContextId, process);
+      if (previous == null) {
+        break;
+      }
+      if (previous.finished.getCount() > 0) {
+        throw new IllegalArgumentException("Process " + processContextId + " is still running");
+      }
+      if (processes.replace(processContextId, previous, process)) {
+        break;
+      }
+    }
+    processesByHandle.put(process.processHandle, process);
+  }
+
+  private FlowPool getFlowPool(FlowHandle flowHandle) {
+    FlowPool flowPool = flowPools.get(flowHandle);
+    if (flowPool == null) {
+      FlowPool newFlowPool = new FlowPool(flowHandle, maxIdleFlowsPerHandle);
+      flowPool = flowPools.putIfAbsent(flowHandle, newFlowPool);
+      if (flowPool == null) {
+        flowPool = newFlowPool;
+      }
+    }
+    return flowPool;
+  }
+
+  private FlowProcess getProcess(ProcessHandle processHandle) throws FlowNotExecutingException {
+    FlowProcess process = processesByHandle.get(processHandle);
+    if (process == null) {
+      // e.g. for a handle that was not obtained from this service
+      process = processes.get(processHandle.getProcessContextId());
+    }
+    if (process == null) {
+      throw new FlowNotExecutingException(processHandle.getProcessContextId());
+    }
+    return process;
+  }
+
+  private FlowProcess getRunningProcess(ProcessHandle processHandle) throws FlowNotExecutingException {
+    FlowProcess process = getProcess(processHandle);
+    if (process.finished.getCount() == 0 || process.pooledFlow == null) {
+      throw new FlowNotExecutingException(processHandle.getProcessContextId());
+    }
+    return process;
+  }
+
+  private void evictIdle() {
+    try {
+      for (FlowPool flowPool : flowPools.values()) {
+        flowPool.evictIdle(maxIdleTime);
+      }
+      long limit = System.currentTimeMillis() - maxIdleTime;
+      for (Iterator<FlowProcess> processItr = processesByHandle.values().iterator(); processItr.hasNext();) {
+        FlowProcess process = processItr.next();
+        if (process.finished.getCount() == 0 && process.finishTime < limit) {
+          processItr.remove();
+          processes.remove(process.processHandle.getProcessContextId(), process);
+        }
+      }
+    } catch (Exception e) {
+      LOGGER.error("Error evicting idle flows", e);
+    }
+  }
+
+  /**
+   * Runs one process on a pooled flow instance, and gives the instance back to the pool when the process has finished normally.
+   */
+  private class FlowProcess implements Runnable, ExecutionListener {
+    private final ProcessHandleImpl processHandle;
+    private final FlowPool flowPool;
+    private final EventListener listener;
+    private volatile FlowPool.PooledFlow pooledFlow;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile Throwable error;
+    private volatile long finishTime;
+    // most recent first
+    private final LinkedList<Event> events = new LinkedList<Event>();
+
+    FlowProcess(ProcessHandleImpl processHandle, FlowPool flowPool, EventListener listener) {
+      this.processHandle = processHandle;
+      this.flowPool = flowPool;
+      this.listener = listener;
+    }
+
+    public void run() {
+      Manager manager = pooledFlow.getManager();
+      String processId = processHandle.getProcessContextId();
+      String flowCode = flowPool.getFlowHandle().getCode();
+      manager.addExecutionListener(this);
+      try {
+        LOGGER.info("Context {} - Starting execution of flow {}", processId, flowCode);
+        manager.execute();
+        if (!processHandle.getExecutionStatus().isFinalStatus()) {
+          setStatus(ProcessStatus.FINISHED);
+        }
+      } catch (Throwable t) {
+        executionError(manager, t);
+      } finally {
+        manager.removeExecutionListener(this);
+        if (ProcessStatus.FINISHED.equals(processHandle.getExecutionStatus())) {
+          flowPool.release(pooledFlow);
+        }
+        finishTime = System.currentTimeMillis();
+        finished.countDown();
+        LOGGER.info("Context {} - Execution of flow {} ended with status {}", new Object[] { processId, flowCode, processHandle.getExecutionStatus() });
+      }
+    }
+
+    public void executionError(ptolemy.actor.Manager manager, Throwable throwable) {
+      LOGGER.warn("Context " + processHandle.getProcessContextId() + " - Execution error of flow " + flowPool.getFlowHandle().getCode(), throwable);
+      if (error == null) {
+        error = (throwable instanceof PasserelleException) ? throwable : new PasserelleException(ErrorCode.FLOW_EXECUTION_ERROR,
+            flowPool.getFlowHandle().toString(), throwable);
+      }
+      setStatus(ProcessStatus.ERROR);
+    }
+
+    public void executionFinished(ptolemy.actor.Manager manager) {
+      setStatus(ProcessStatus.FINISHED);
+    }
+
+    public void managerStateChanged(ptolemy.actor.Manager manager) {
+      ProcessStatus status = STATUS_MAPPING.get(manager.getState());
+      if (status != null && !ProcessStatus.IDLE.equals(status)) {
+        setStatus(status);
+      }
+    }
+
+    /**
+     * Changes the status, unless the process already has a final status.
+     */
+    synchronized void setStatus(ProcessStatus status) {
+      ProcessStatus oldStatus = processHandle.getExecutionStatus();
+      if (oldStatus.isFinalStatus() || oldStatus.equals(status)) {
+        return;
+      }
+      processHandle.setExecutionStatus(status);
+      Event event = new SimpleEvent(processHandle, ProcessEvent.TOPIC_PREFIX + processHandle.getProcessContextId() + "/" + status, new Date(), 0L);
+      addEvent(event);
+      if (listener != null) {
+        try {
+          listener.handle(event);
+        } catch (Exception e) {
+          LOGGER.error("Error notifying listener for process " + processHandle.getProcessContextId(), e);
+        }
+      }
+    }
+
+    void addEvent(Event event) {
+      synchronized (events) {
+        events.addFirst(event);
+        if (events.size() > MAX_EVENT_COUNT) {
+          events.removeLast();
+        }
+      }
+    }
+  }
+
+  private static class NamedThreadFactory implements ThreadFactory {
+    private final String threadNamePrefix;
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    NamedThreadFactory(String threadNamePrefix) {
+      this.threadNamePrefix = threadNamePrefix;
+    }
+
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, threadNamePrefix + threadCount.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+  }
+
+  static {
+    STATUS_MAPPING.put(Manager.IDLE, ProcessStatus.IDLE);
+    STATUS_MAPPING.put(Manager.INITIALIZING, ProcessStatus.STARTING);
+    STATUS_MAPPING.put(Manager.PREINITIALIZING, ProcessStatus.STARTING);
+    STATUS_MAPPING.put(Manager.RESOLVING_TYPES, ProcessStatus.STARTING);
+    STATUS_MAPPING.put(Manager.ITERATING, ProcessStatus.ACTIVE);
+    STATUS_MAPPING.put(Manager.PAUSED, ProcessStatus.SUSPENDED);
+    STATUS_MAPPING.put(Manager.PAUSED_ON_BREAKPOINT, ProcessStatus.SUSPENDED);
+    STATUS_MAPPING.put(Manager.WRAPPING_UP, ProcessStatus.STOPPING);
+    STATUS_MAPPING.put(Manager.EXITING, ProcessStatus.STOPPING);
+    STATUS_MAPPING.put(Manager.CORRUPTED, ProcessStatus.ERROR);
+    STATUS_MAPPING.put(Manager.THROWING_A_THROWABLE, ProcessStatus.ERROR);
+  }
+}
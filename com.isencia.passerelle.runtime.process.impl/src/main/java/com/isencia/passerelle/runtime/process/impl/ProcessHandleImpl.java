@@ -0,0 +1,64 @@
+/* Copyright 2013 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.passerelle.runtime.process.impl;
+
+import com.isencia.passerelle.runtime.FlowHandle;
+import com.isencia.passerelle.runtime.ProcessHandle;
+import com.isencia.passerelle.runtime.process.ProcessStatus;
+
+/**
+ * @author erwin
+ */
+public class ProcessHandleImpl implements ProcessHandle {
+
+  private FlowHandle flowHandle;
+  private String processContextId;
+  private volatile ProcessStatus status;
+
+  public ProcessHandleImpl(FlowHandle flowHandle, String processContextId) {
+    this.flowHandle = flowHandle;
+    this.processContextId = processContextId;
+    this.status = ProcessStatus.IDLE;
+  }
+
+  @Override
+  public FlowHandle getFlow() {
+    return flowHandle;
+  }
+
+  @Override
+  public String getProcessContextId() {
+    return processContextId;
+  }
+
+  @Override
+  public ProcessStatus getExecutionStatus() {
+    return status;
+  }
+
+  void setExecutionStatus(ProcessStatus status) {
+    this.status = status;
+  }
+
+  @Override
+  public String[] getSuspendedElements() {
+    return new String[0];
+  }
+
+  @Override
+  public String toString() {
+    return "ProcessHandleImpl [flow=" + flowHandle.getCode() + ", processContextId=" + processContextId + ", status=" + status + "]";
+  }
+}
@@ -0,0 +1,49 @@
+/* Copyright 2013 - iSencia Belgium NV
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.isencia.passerelle.runtime.process.impl.activator;
+
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import com.isencia.passerelle.runtime.process.FlowProcessingService;
+import com.isencia.passerelle.runtime.process.impl.FlowProcessingServiceImpl;
+
+public class Activator implements BundleActivator {
+
+  private FlowProcessingServiceImpl processingSvc;
+  private ServiceRegistration<FlowProcessingService> processingSvcReg;
+
+  @SuppressWarnings("unchecked")
+  public void start(BundleContext context) throws Exception {
+    int maxIdleFlows = Integer.getInteger("com.isencia.passerelle.runtime.process.pool.maxidle", 4);
+    long maxIdleTime = Long.getLong("com.isencia.passerelle.runtime.process.pool.idletime", 300);
+    processingSvc = new FlowProcessingServiceImpl(maxIdleFlows, maxIdleTime, TimeUnit.SECONDS);
+    Hashtable<String, String> svcProps = new Hashtable<String, String>();
+    svcProps.put("type", "LOCAL");
+    processingSvcReg = (ServiceRegistration<FlowProcessingService>) context.registerService(FlowProcessingService.class.getName(), processingSvc, svcProps);
+  }
+
+  public void stop(BundleContext context) throws Exception {
+    processingSvcReg.unregister();
+    processingSvc.shutdown();
+    processingSvc = null;
+  }
+
+  public FlowProcessingService getProcessingService() {
+    return processingSvc;
+  }
+}
@@ -20,6 +20,7 @@ import java.net.URI;
 import org.apache.commons.io.FileUtils;
 import com.isencia.passerelle.model.Flow;
 import com.isencia.passerelle.model.FlowManager;
+import com.isencia.passerelle.model.util.ParsedModelCache;
 import com.isencia.passerelle.runtime.FlowHandle;
 import com.isencia.passerelle.runtime.repository.VersionSpecification;
 
@@ -33,11 +34,23 @@ public class FlowHandleImpl implements FlowHandle {
   private VersionSpecification version;
   private Flow flow;
   private String moml;
+  private ParsedModelCache modelCache;
 
   public FlowHandleImpl(String code, File resourceLocation, VersionSpecification version) {
+    this(code, resourceLocation, version, null);
+  }
+
+  /**
+   * @param code
+   * @param resourceLocation
+   * @param version
+   * @param modelCache when not null, the handle's flow is obtained as a copy of the cached parsed model i.o. by parsing the resource
+   */
+  public FlowHandleImpl(String code, File resourceLocation, VersionSpecification version, ParsedModelCache modelCache) {
     this.code = code;
     this.resourceLocation = resourceLocation;
     this.version = version;
+    this.modelCache = modelCache;
   }
 
   @Override
@@ -59,7 +72,11 @@ public class FlowHandleImpl implements FlowHandle {
   public Flow getFlow() {
     if (flow == null) {
       try {
-        flow = FlowManager.readMoml(getResourceLocation().toURL());
+        if (modelCache != null) {
+          flow = modelCache.getFlow(resourceLocation);
+        } else {
+          flow = FlowManager.readMoml(getResourceLocation().toURL());
+        }
       } catch (Exception e) {
         e.printStackTrace();
       }
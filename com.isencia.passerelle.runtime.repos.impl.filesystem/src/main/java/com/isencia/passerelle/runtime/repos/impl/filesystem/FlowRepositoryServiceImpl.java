@@ -25,11 +25,14 @@ import java.io.Reader;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.isencia.passerelle.core.ErrorCode;
 import com.isencia.passerelle.model.Flow;
+import com.isencia.passerelle.model.util.ParsedModelCache;
 import com.isencia.passerelle.runtime.FlowHandle;
 import com.isencia.passerelle.runtime.repository.DuplicateEntryException;
 import com.isencia.passerelle.runtime.repository.EntryNotFoundException;
@@ -42,6 +45,11 @@ import com.isencia.passerelle.runtime.repository.VersionSpecification;
  * <p>
  * Each flow is stored in a subdirectory with the flow's name. Within each flow's directory, separate subdirectories are maintained per version.
  * </p>
+ * <p>
+ * The flows' metadata, the model file per flow version and the parsed models are cached. 
+ * The caches are invalidated when the repository's folders are changed, also when that's done outside of this service.
+ * The flow handles obtain their flow as a copy of the cached parsed model.
+ * </p>
  * 
  * @author erwin
  */
@@ -49,6 +57,8 @@ public class FlowRepositoryServiceImpl implements FlowRepositoryService {
 
   private static final String VERSION_MOSTRECENT = "version.mostrecent";
   private static final String VERSION_ACTIVE = "version.active";
+  // the models are in the version folders, i.e. in root/flow code/version
+  private static final int MODEL_FOLDER_DEPTH = 2;
   private final static Logger LOGGER = LoggerFactory.getLogger(FlowRepositoryServiceImpl.class);
 
   private static final class DirectoryFilter implements FileFilter {
@@ -59,6 +69,24 @@ public class FlowRepositoryServiceImpl implements FlowRepositoryService {
   }
 
   private File rootFolder;
+  private volatile ParsedModelCache modelCache;
+  // metadata per flow code
+  private ConcurrentMap<String, Properties> metaDataCache = new ConcurrentHashMap<String, Properties>();
+  // model file per flow code and version, with key code/version
+  private ConcurrentMap<String, File> modelFileCache = new ConcurrentHashMap<String, File>();
+
+  private final ParsedModelCache.InvalidationListener cacheInvalidator = new ParsedModelCache.InvalidationListener() {
+    @Override
+    public void invalidated(File file) {
+      String flowCode = getFlowCode(file);
+      if (flowCode == null) {
+        metaDataCache.clear();
+        modelFileCache.clear();
+      } else {
+        invalidateCaches(flowCode);
+      }
+    }
+  };
 
   public FlowRepositoryServiceImpl(String rootFolderPath) {
     this(new File(rootFolderPath));
@@ -72,6 +100,7 @@ public class FlowRepositoryServiceImpl implements FlowRepositoryService {
     } else if (!rootFolder.isDirectory()) {
       throw new IllegalArgumentException(rootFolder.getPath() + " is not a folder");
     }
+    modelCache = createModelCache();
   }
   
   public void clearRepository() {
@@ -81,6 +110,53 @@ public class FlowRepositoryServiceImpl implements FlowRepositoryService {
     } catch (IOException e) {
       LOGGER.error("Failed to clear repository directory", e);
     }
+    // the watched folders are gone, so start again with a new cache
+    ParsedModelCache oldCache = modelCache;
+    modelCache = createModelCache();
+    oldCache.close();
+    metaDataCache.clear();
+    modelFileCache.clear();
+  }
+
+  /**
+   * Stops watching the repository folders, and drops the cached flows.
+   */
+  public void close() {
+    modelCache.close();
+    metaDataCache.clear();
+    modelFileCache.clear();
+  }
+
+  private ParsedModelCache createModelCache() {
+    ParsedModelCache cache = new ParsedModelCache(rootFolder, MODEL_FOLDER_DEPTH);
+    cache.addInvalidationListener(cacheInvalidator);
+    return cache;
+  }
+
+  /**
+   * @param file
+   * @return the code of the flow to which the given file or folder belongs, or null if it's not inside a flow's folder
+   */
+  private String getFlowCode(File file) {
+    File rootPath = rootFolder.getAbsoluteFile();
+    File child = null;
+    for (File f = file.getAbsoluteFile(); f != null; f = f.getParentFile()) {
+      if (f.equals(rootPath)) {
+        return (child != null) ? child.getName() : null;
+      }
+      child = f;
+    }
+    return null;
+  }
+
+  private void invalidateCaches(String flowCode) {
+    metaDataCache.remove(flowCode);
+    String keyPrefix = flowCode + "/";
+    for (String key : modelFileCache.keySet()) {
+      if (key.startsWith(keyPrefix)) {
+        modelFileCache.remove(key);
+      }
+    }
   }
 
   @Override
@@ -136,6 +212,8 @@ public class FlowRepositoryServiceImpl implements FlowRepositoryService {
     } catch (IOException e) {
       LOGGER.error("Failed to delete " + flowCode, e);
     }
+    // don't wait for the folder watcher
+    modelCache.invalidate(new File(rootFolder, flowCode));
     return results;
   }
 
@@ -281,14 +359,19 @@ public class FlowRepositoryServiceImpl implements FlowRepositoryService {
     } else {
       try {
         VersionSpecification vSpec = VersionSpecification.parse(versionFolder.getName());
-        File[] modelFiles = versionFolder.listFiles(new FilenameFilter() {
-          @Override
-          public boolean accept(File dir, String name) {
-            return name.endsWith("moml") || name.endsWith("xml");
-          }
-        });
-        File modelFile = modelFiles[0];
-        return new FlowHandleImpl(code, modelFile, vSpec);
+        String cacheKey = code + "/" + versionFolder.getName();
+        File modelFile = modelFileCache.get(cacheKey);
+        if (modelFile == null) {
+          File[] modelFiles = versionFolder.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+              return name.endsWith("moml") || name.endsWith("xml");
+            }
+          });
+          modelFile = modelFiles[0];
+          modelFileCache.put(cacheKey, modelFile);
+        }
+        return new FlowHandleImpl(code, modelFile, vSpec, modelCache);
       } catch (Exception e) {
         return null;
       }
@@ -297,7 +380,9 @@ public class FlowRepositoryServiceImpl implements FlowRepositoryService {
 
   private FlowHandle writeMetaData(String flowCode, String dataItemName, String dataItemValue) throws IOException, EntryNotFoundException {
     FlowHandle previouslyActive = null;
-    Properties flowMetaDataProps = readMetaData(flowCode);
+    // the read props are cached, so modify a copy
+    Properties flowMetaDataProps = new Properties();
+    flowMetaDataProps.putAll(readMetaData(flowCode));
     String activeVersion = flowMetaDataProps.getProperty(dataItemName);
     if (activeVersion != null) {
       previouslyActive = readAndBuildFlowHandle(flowCode, activeVersion);
@@ -320,16 +405,23 @@ public class FlowRepositoryServiceImpl implements FlowRepositoryService {
       flowMetaDataProps.store(metaDataWriter, flowCode);
     } finally {
       metaDataWriter.close();
+      // don't wait for the folder watcher
+      metaDataCache.remove(flowCode);
     }
   }
 
   /**
    * @param flowCode
-   * @return metadata props for the given flow; returns empty properties when no metadata is found
+   * @return metadata props for the given flow; returns empty properties when no metadata is found. 
+   * The returned props are shared and must not be modified.
    * @throws EntryNotFoundException
    */
   private Properties readMetaData(String flowCode) throws EntryNotFoundException {
-    Properties flowMetaDataProps = new Properties();
+    Properties flowMetaDataProps = metaDataCache.get(flowCode);
+    if (flowMetaDataProps != null) {
+      return flowMetaDataProps;
+    }
+    flowMetaDataProps = new Properties();
     File flowRootFolder = new File(rootFolder, flowCode);
     File metaDataFile = new File(flowRootFolder, ".metadata");
     if (!flowRootFolder.isDirectory()) {
@@ -351,6 +443,7 @@ public class FlowRepositoryServiceImpl implements FlowRepositoryService {
           }
         }
       }
+      metaDataCache.put(flowCode, flowMetaDataProps);
       return flowMetaDataProps;
     }
   }
@@ -39,6 +39,7 @@ public class Activator implements BundleActivator {
 
   public void stop(BundleContext context) throws Exception {
     repoSvcReg.unregister();
+    ((FlowRepositoryServiceImpl) repoSvc).close();
     repoSvc = null;
   }
   
@@ -15,9 +15,16 @@
  */
 package org.dawnsci.passerelle.parallel.actor;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
@@ -25,12 +32,15 @@ import org.slf4j.LoggerFactory;
 
 import ptolemy.data.IntToken;
 import ptolemy.data.expr.Parameter;
+import ptolemy.data.expr.StringParameter;
 import ptolemy.data.type.BaseType;
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
 
+import com.isencia.passerelle.actor.InitializationException;
 import com.isencia.passerelle.actor.ProcessingException;
+import com.isencia.passerelle.actor.TerminationException;
 import com.isencia.passerelle.actor.ValidationException;
 import com.isencia.passerelle.actor.v5.Actor;
 import com.isencia.passerelle.actor.v5.ActorContext;
@@ -40,6 +50,8 @@ import com.isencia.passerelle.core.ErrorCode;
 import com.isencia.passerelle.core.Port;
 import com.isencia.passerelle.core.PortFactory;
 import com.isencia.passerelle.message.ManagedMessage;
+import com.isencia.passerelle.message.MessageException;
+import com.isencia.passerelle.message.MessageFactory;
 import com.isencia.passerelle.runtime.process.ProcessStatus;
 import com.isencia.passerelle.runtime.repos.impl.filesystem.FlowHandleImpl;
 import com.isencia.passerelle.runtime.repository.VersionSpecification;
@@ -48,7 +60,18 @@ import com.isencia.passerelle.util.ptolemy.FileParameter;
 /**
  * This actor can execute another workflow N times in parallel on the available/configured number of CPU cores.
  * <p>
- * Implementation info : it uses the JDK 7 ForkJoin support.
+ * Each non-empty line in the body of a received message leads to one sub-workflow execution, 
+ * where the line is set as value of the sub-workflow parameter identified by the "Item parameter name".
+ * A message without such lines leads to one execution without parameter overrides.
+ * </p>
+ * <p>
+ * For each finished sub-workflow execution, a copy of the received message is sent out immediately, 
+ * i.e. without waiting for the other executions of the same message.
+ * These copies are sent as a message sequence, in the order in which the executions finished.
+ * They have body headers with the execution's item and its final status.
+ * </p>
+ * <p>
+ * Implementation info : it uses the JDK 7 ForkJoin support, with one pool that is shared by all executions during a model run.
  * </p>
  * 
  * @author erwindl
@@ -59,6 +82,13 @@ public class ParallelWorkflowExecutor extends Actor {
 
   private static final String MAX_PARALLELISM_PARAMNAME = "Max parallelism";
 
+  private static final String ITEM_PARAMETER_PARAMNAME = "Item parameter name";
+
+  private static final String TIMEOUT_PARAMNAME = "Sub-workflow timeout (s)";
+
+  public static final String ITEM_HEADER = "SubWorkflowItem";
+  public static final String STATUS_HEADER = "SubWorkflowStatus";
+
   private static final long serialVersionUID = 9425431903735722L;
 
   private final static Logger LOGGER = LoggerFactory.getLogger(ParallelWorkflowExecutor.class);
@@ -69,10 +99,16 @@ public class ParallelWorkflowExecutor extends Actor {
 
   public Parameter maxParallelismParam;
   public FileParameter modelParam;
+  public StringParameter itemParameterNameParam;
+  public Parameter timeoutParam;
 
   public Port input;
   public Port output;
 
+  private ForkJoinPool fjPool;
+  private FlowHandleImpl subFlowHandle;
+  private int timeout;
+
   public ParallelWorkflowExecutor(CompositeEntity container, String name) throws IllegalActionException, NameDuplicationException {
     super(container, name);
     // TODO limit body content to DLS DataMessageComponent
@@ -82,6 +118,42 @@ public class ParallelWorkflowExecutor extends Actor {
     maxParallelismParam = new Parameter(this, MAX_PARALLELISM_PARAMNAME);
     maxParallelismParam.setTypeEquals(BaseType.INT);
     modelParam = new FileParameter(this, SUB_WORKFLOW_PARAMNAME, "Workflows", "xml", "moml");
+    itemParameterNameParam = new StringParameter(this, ITEM_PARAMETER_PARAMNAME);
+    itemParameterNameParam.setExpression("inputPath");
+    timeoutParam = new Parameter(this, TIMEOUT_PARAMNAME, new IntToken(10));
+    timeoutParam.setTypeEquals(BaseType.INT);
+  }
+
+  @Override
+  protected void doInitialize() throws InitializationException {
+    super.doInitialize();
+    try {
+      int parallelism = Runtime.getRuntime().availableProcessors();
+      IntToken t = (IntToken) maxParallelismParam.getToken();
+      if (t != null) {
+        parallelism = t.intValue();
+      }
+      if (parallelism <= 0 || parallelism > ABSOLUTE_MAX_PARALLELISM) {
+        throw new InitializationException(ErrorCode.ACTOR_INITIALISATION_ERROR, MAX_PARALLELISM_PARAMNAME + " " + parallelism + " is invalid: should be in range 1-"
+            + ABSOLUTE_MAX_PARALLELISM, this, null);
+      }
+      timeout = ((IntToken) timeoutParam.getToken()).intValue();
+      fjPool = new ForkJoinPool(parallelism);
+      // the sub-workflow is parsed only once, and then cloned for each execution
+      subFlowHandle = new FlowHandleImpl(modelParam.asFile().getName(), modelParam.asFile(), VersionSpecification.parse("1.0.0"));
+    } catch (IllegalActionException e) {
+      throw new InitializationException(ErrorCode.ACTOR_INITIALISATION_ERROR, "Error getting actor configuration", this, e);
+    }
+  }
+
+  @Override
+  protected void doWrapUp() throws TerminationException {
+    if (fjPool != null) {
+      fjPool.shutdown();
+      fjPool = null;
+    }
+    subFlowHandle = null;
+    super.doWrapUp();
   }
 
   @Override
@@ -112,42 +184,83 @@ public class ParallelWorkflowExecutor extends Actor {
 
   @Override
   protected void process(ActorContext ctxt, ProcessRequest request, ProcessResponse response) throws ProcessingException {
+    ManagedMessage message = request.getMessage(input);
+    List<String> items = getItems(message);
+    String itemParameterName = null;
     try {
-      ManagedMessage message = request.getMessage(input);
-//      DataMessageComponent dataMsgComp = null;
-//      try {
-//        dataMsgComp = MessageUtils.coerceMessage(message);
-//        IMetadata metadata = dataMsgComp.getMetadata();
-//        System.out.println(metadata);
-//        
-//        Map<String, Serializable> datasetMap = dataMsgComp.getList();
-//        System.out.println(datasetMap);
-//        IDataset ds = (IDataset) dataMsgComp.getList("image");
-//        System.out.println("Shape of the image : "+Arrays.toString(ds.getShape()));
-//
-//        // how to obtain e.g. the paths/names of all images in a dynamic way?
-//        
-//      } catch (Exception e) {
-//        throw new DataMessageException(ErrorCode.ERROR, "Cannot add data", this, message, dataMsgComp, e);
-//      }
-      
-      // FlowRepositoryService localReposSvc = Activator.getInstance().getLocalReposSvc();
-      FlowHandleImpl subFlowHandle = new FlowHandleImpl("test", modelParam.asFile(), VersionSpecification.parse("1.0.0"));
-      ForkJoinPool fjPool = new ForkJoinPool(5);
-      Map<String, String>[] paramOverridesArray = new Map[5];
-      for(int i=0;i<5;++i) {
-        Map<String, String> paramOverrides = new HashMap<>();
-        paramOverrides.put("inputPath", "c:/temp/testinput"+i+".txt");
-        paramOverridesArray[i] = paramOverrides;
-      }
-      ModelRunnerTask task = new ModelRunnerTask(subFlowHandle, null, 10, TimeUnit.SECONDS, paramOverridesArray);
-      ProcessStatus processStatus = fjPool.invoke(task);
-      System.out.println(processStatus);
-      response.addOutputMessage(output, message);
+      itemParameterName = itemParameterNameParam.stringValue();
     } catch (IllegalActionException e) {
-      // should not happen as all parameters were validated during initialization validation
+      // should not happen as it's a plain string parameter
       throw new ProcessingException(ErrorCode.ACTOR_EXECUTION_ERROR, "Error getting actor configuration", this, e);
     }
+
+    CompletionService<ProcessStatus> completionService = new ExecutorCompletionService<ProcessStatus>(fjPool);
+    Map<Future<ProcessStatus>, String> runs = new HashMap<Future<ProcessStatus>, String>();
+    for (String item : items) {
+      Map<String, String> paramOverrides = new HashMap<String, String>();
+      if (item != null) {
+        paramOverrides.put(itemParameterName, item);
+      }
+      final ModelRunnerTask task = new ModelRunnerTask(subFlowHandle, null, timeout, TimeUnit.SECONDS, paramOverrides);
+      runs.put(completionService.submit(new Callable<ProcessStatus>() {
+        public ProcessStatus call() throws Exception {
+          return task.invoke();
+        }
+      }), item);
+    }
+
+    // send out a result as soon as a sub-workflow has finished
+    Long seqID = MessageFactory.getInstance().createSequenceID();
+    for (int i = 0; i < runs.size(); ++i) {
+      String item = null;
+      ProcessStatus status = null;
+      try {
+        Future<ProcessStatus> run = completionService.take();
+        item = runs.get(run);
+        try {
+          status = run.get();
+        } catch (ExecutionException e) {
+          getLogger().warn(getFullName() + " - Sub-workflow execution failed for " + item, e.getCause());
+          status = ProcessStatus.ERROR;
+        }
+      } catch (InterruptedException e) {
+        throw new ProcessingException(ErrorCode.ACTOR_EXECUTION_ERROR, "Interrupted while waiting for sub-workflow executions", this, message, e);
+      }
+      try {
+        ManagedMessage result = MessageFactory.getInstance().createMessageCopyInSequence(message, seqID, Long.valueOf(i), i == runs.size() - 1);
+        if (item != null) {
+          result.setBodyHeader(ITEM_HEADER, item);
+        }
+        result.setBodyHeader(STATUS_HEADER, status.name());
+        sendOutputMsg(output, result);
+      } catch (MessageException e) {
+        throw new ProcessingException(ErrorCode.MSG_CONSTRUCTION_ERROR, "Error creating result message for " + item, this, message, e);
+      }
+    }
+  }
+
+  /**
+   * @param message
+   * @return the non-empty lines of the message body, or a list with one null item if there are none
+   */
+  protected List<String> getItems(ManagedMessage message) {
+    List<String> items = new ArrayList<String>();
+    try {
+      String body = message.getBodyContentAsString();
+      if (body != null) {
+        for (String line : body.split("\\r?\\n")) {
+          if (line.trim().length() > 0) {
+            items.add(line.trim());
+          }
+        }
+      }
+    } catch (MessageException e) {
+      getLogger().debug("{} - No text body content, so no sub-workflow items in message {}", getFullName(), message.getID());
+    }
+    if (items.isEmpty()) {
+      items.add(null);
+    }
+    return items;
   }
 
   @Override